@@ -170,44 +170,74 @@ class Acquire extends TOCCommand implements Logging, Runnable
 	}
 
 	/**
-	 * Run method. 
-	 * Setup commandString.
-	 * Call TOCCommand.run.
-	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
-	 *    sessionData as necessary.
+	 * Get the default deadline for this command, the acquire budget from the session data.
+	 * @return The deadline in milliseconds.
+	 * @see TOCSessionData#getAcquireTimeout
+	 */
+	protected long getDefaultTimeout()
+	{
+		return sessionData.getAcquireTimeout();
+	}
+
+	/**
+	 * Setup the command in commandBuffer.
 	 * @see #COMMAND_NAME
-	 * @see #commandString
+	 * @see #commandBuffer
 	 * @see #acquireMode
 	 * @see #highPrecision
 	 * @see #ra
 	 * @see #dec
+	 * @see TOCSCoordinateCache
 	 * @see #sessionData
-	 * @see #logger
-	 * @see #successful
-	 * @see #errorString
+	 * @exception TOCException Thrown if the RA or Dec have not been set, or the acquire mode is not
+	 *            one of NONE, BRIGHTEST or WCS.
 	 */
-	public void run()
+	protected void createCommandString() throws TOCException
 	{
 		String precisionString = null;
 
+		if((ra == null)||(dec == null))
+		{
+			throw new TOCException(this.getClass().getName()+
+					       ":createCommandString:RA/Dec not set.");
+		}
+		if((acquireMode == null)||((acquireMode.equals(TOCSession.ACQUIRE_MODE_NONE) == false)&&
+					   (acquireMode.equals(TOCSession.ACQUIRE_MODE_BRIGHTEST) == false)&&
+					   (acquireMode.equals(TOCSession.ACQUIRE_MODE_WCS) == false)))
+		{
+			throw new TOCException(this.getClass().getName()+
+					       ":createCommandString:Illegal acquire mode:"+acquireMode+".");
+		}
 		if(highPrecision)
-			precisionString = new String("HIGH");
+			precisionString = "HIGH";
 		else
-			precisionString = new String("NORMAL");
-		commandString = new String(COMMAND_NAME+" "+sessionData.getSessionId()+
-					   " "+ra.toString(':')+
-					   " "+dec.toString(':')+
-					   " "+acquireMode+
-					   " "+precisionString);
-		super.run();
+			precisionString = "NORMAL";
+		commandBuffer.setLength(0);
+		commandBuffer.append(COMMAND_NAME).append(' ').append(sessionData.getSessionId());
+		commandBuffer.append(' ').append(TOCSCoordinateCache.formatRA(ra));
+		commandBuffer.append(' ').append(TOCSCoordinateCache.formatDec(dec));
+		commandBuffer.append(' ').append(acquireMode);
+		commandBuffer.append(' ').append(precisionString);
+	}
+
+	/**
+	 * Parse the results of the command. Called from TOCCommand.run once the reply has been received.
+	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
+	 *    sessionData as necessary.
+	 * @see #logger
+	 * @see #successful
+	 * @see #errorString
+	 */
+	protected void parseResults()
+	{
 		// results
 		if(getSuccessful())
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","Acquire successful.");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","Acquire successful.");
 		}
 		else
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","Acquire failed with error : "+getErrorString()+".");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","Acquire failed with error : "+getErrorString()+".");
 		}
 	}
 
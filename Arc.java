@@ -34,9 +34,9 @@ public class Arc extends TOCCommand implements Logging, Runnable
 	protected String lampName = null;
 	/**
 	 * Return value from the ARC command.
-	 * A list of returned arc exposure image filenames.
+	 * An array of returned arc exposure image filenames.
 	 */
-	protected List filenameList = null;
+	protected String filenames[] = null;
 
 	/**
 	 * Default constructor.
@@ -57,89 +57,94 @@ public class Arc extends TOCCommand implements Logging, Runnable
 	}
 
 	/**
-	 * Run method. 
-	 * Setup commandString.
-	 * Call TOCCommand.run.
-	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
-	 *    sessionData as necessary.
+	 * Get the default deadline for this command, the arc budget from the session data.
+	 * @return The deadline in milliseconds.
+	 * @see TOCSessionData#getArcTimeout
+	 */
+	protected long getDefaultTimeout()
+	{
+		return sessionData.getArcTimeout();
+	}
+
+	/**
+	 * Setup the command in commandBuffer.
 	 * @see #COMMAND_NAME
-	 * @see #commandString
+	 * @see #commandBuffer
 	 * @see #sessionData
 	 * @see #lampName
+	 * @exception TOCException Thrown if the lamp name has not been set.
+	 */
+	protected void createCommandString() throws TOCException
+	{
+		if(lampName == null)
+		{
+			throw new TOCException(this.getClass().getName()+
+					       ":createCommandString:Lamp name not set.");
+		}
+		commandBuffer.setLength(0);
+		commandBuffer.append(COMMAND_NAME).append(' ').append(sessionData.getSessionId());
+		commandBuffer.append(' ').append(lampName);
+	}
+
+	/**
+	 * Parse the results of the command. Called from TOCCommand.run once the reply has been received.
+	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
+	 *    sessionData as necessary.
 	 * @see #successful
 	 * @see #errorString
-	 * @see #filenameList
+	 * @see #filenames
+	 * @see TOCSReply#getNumberedValues
 	 */
-	public void run()
+	protected void parseResults()
 	{
-		String filename = null;
-		boolean done;
-		int index;
-
-		commandString = new String(COMMAND_NAME+" "+sessionData.getSessionId()+" "+lampName);
-
-		super.run();
 		// results
 		if(getSuccessful())
 		{
 			try
 			{
-				// file<n> from n=1. 
-				filenameList = new Vector();
-				index = 1;// file<n> starts from n=1
-				done = false;
-				while(done == false)
-				{
-					filename = getReplyValue("file"+index);
-					if(filename != null)
-					{
-						filenameList.add(filename);
-						index++;
-					}
-					else
-					{
-						done = true;
-					}
-				}
+				// file<n> from n=1, extracted in one pass over the reply.
+				filenames = getParsedReply().getNumberedValues("file");
+				logger.log(INFO, 1, CLASS, RCSID,"parseResults","Arc successful with "+
+					   filenames.length+" frames.");
 			}
 			catch(Exception e)
 			{
 				successful = false;
 				errorString = new String(this.getClass().getName()+
-							 ":run:Parsing ARC results failed:"+e);
-				logger.log(INFO, 1, CLASS, RCSID,"run",errorString);
+							 ":parseResults:Parsing ARC results failed:"+e);
+				logger.log(INFO, 1, CLASS, RCSID,"parseResults",errorString);
 				logger.dumpStack(1,e);
 				return;
 			}
 		}
 		else
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","Arc failed with error : "+getErrorString()+".");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","Arc failed with error : "+getErrorString()+".");
 		}
 	}
 
 	/**
 	 * Return the number of FITS image filenames returned from the EXPOSE command.
-	 * @return The number of filenames. If filenameList is null, 0 is returned.
-	 * @see #filenameList
+	 * @return The number of filenames. If filenames is null, 0 is returned.
+	 * @see #filenames
 	 */
 	public int getFilenameCount()
 	{
-		if(filenameList == null)
+		if(filenames == null)
 			return 0;
-		return filenameList.size();
+		return filenames.length;
 	}
 
 	/**
 	 * Return one of the FITS image filenames returned from the EXPOSE command.
-	 * NB It is possible for an IndexOutOfBoundsException or ClassCastException to occur.
+	 * NB It is possible for an ArrayIndexOutOfBoundsException to occur.
 	 * @param i The index in the list of the filename to return. 
 	 * @return A FITS image filename. This filename exists on the occ / instrument machine, not the proxy machine.
-	 * @see #filenameList
+	 * @see #filenames
 	 */
 	public String getFilename(int i)
 	{
-		return (String)(filenameList.get(i));
+		return filenames[i];
 	}
 
 	/**
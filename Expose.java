@@ -67,9 +67,9 @@ public class Expose extends TOCCommand implements Logging, Runnable
 	protected Date runatDate = null;
 	/**
 	 * Return value from the EXPOSE command.
-	 * A list of returned exposure image filenames.
+	 * An array of returned exposure image filenames.
 	 */
-	protected List filenameList = null;
+	protected String filenames[] = null;
 	/**
 	 * Return value from the EXPOSE command.
 	 * The seeing in arcseconds.
@@ -100,6 +100,10 @@ public class Expose extends TOCCommand implements Logging, Runnable
 	 * The y pixel of the brightest object in the field, in pixels.
 	 */
 	protected double yPix = 0.0;
+	/**
+	 * The typed results of the last successful EXPOSE, or null.
+	 */
+	protected ExposeReply reply = null;
 
 	/**
 	 * Default constructor.
@@ -152,147 +156,176 @@ public class Expose extends TOCCommand implements Logging, Runnable
 	}
 
 	/**
-	 * Run method. 
-	 * Setup commandString.
-	 * Call TOCCommand.run.
-	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
-	 *    sessionData as necessary.
+	 * Get the default deadline for this command. This allows for the exposures themselves, plus
+	 * the readout overhead for each frame, plus the normal TOCS command timeout (if one is set). 
+	 * For a RUNAT exposure, the time until the shutter opens is added.
+	 * @return The deadline in milliseconds.
+	 * @see #exposureLength
+	 * @see #exposureCount
+	 * @see #runatDate
+	 * @see TOCSessionData#getExposeReadoutOverhead
+	 * @see TOCSessionData#getTOCSTimeout
+	 */
+	protected long getDefaultTimeout()
+	{
+		long frameCount,ms;
+
+		if(runatDate != null)
+			frameCount = 1;
+		else
+			frameCount = Math.max(exposureCount,1);
+		ms = sessionData.getTOCSTimeout();
+		ms += frameCount*(((long)exposureLength)+sessionData.getExposeReadoutOverhead());
+		if(runatDate != null)
+			ms += Math.max(runatDate.getTime()-System.currentTimeMillis(),0);
+		return ms;
+	}
+
+	/**
+	 * Setup the command in commandBuffer.
 	 * @see #COMMAND_NAME
-	 * @see #commandString
+	 * @see #commandBuffer
 	 * @see #sessionData
 	 * @see #exposureLength
 	 * @see #exposureCount
 	 * @see #dataPipelineFlag
 	 * @see #runatDate
-	 * @see #filenameList
-	 * @see #seeing
-	 * @see #counts
-	 * @see #photometric
-	 * @see #skyBrightness
-	 * @see #xPix
-	 * @see #yPix
-	 * @see #logger
-	 * @see #successful
-	 * @see #errorString
+	 * @exception TOCException Thrown if the exposure length is negative, or the exposure count is less than 1.
 	 */
-	public void run()
+	protected void createCommandString() throws TOCException
 	{
 		DateFormat df = null;
-		String filename = null;
-		boolean done;
-		int index;
 
+		if((exposureLength < 0)||((runatDate == null)&&(exposureCount < 1)))
+		{
+			throw new TOCException(this.getClass().getName()+
+					       ":createCommandString:Illegal exposure length "+exposureLength+
+					       " or count "+exposureCount+".");
+		}
+		commandBuffer.setLength(0);
+		commandBuffer.append(COMMAND_NAME).append(' ').append(sessionData.getSessionId());
+		commandBuffer.append(' ').append(exposureLength);
 		if(runatDate == null)
 		{
-			commandString = new String(COMMAND_NAME+" "+sessionData.getSessionId()+
-						   " "+exposureLength+
-						   " "+exposureCount);
+			commandBuffer.append(' ').append(exposureCount);
 		}
 		else
 		{
 			df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-			commandString = new String(COMMAND_NAME+" "+sessionData.getSessionId()+
-						   " "+exposureLength+
-						   " "+df.format(runatDate));
+			commandBuffer.append(' ').append(df.format(runatDate));
 		}
 		// postpend data pipeline flag
 		if(dataPipelineFlag)
-			commandString = new String(commandString+" T");
+			commandBuffer.append(" T");
 		else
-			commandString = new String(commandString+" F");
-		super.run();
+			commandBuffer.append(" F");
+	}
+
+	/**
+	 * Parse the results of the command. Called from TOCCommand.run once the reply has been received.
+	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
+	 *    sessionData as necessary. The filenames are kept even if the data pipeline keywords can't be decoded.
+	 * @see #filenames
+	 * @see #seeing
+	 * @see #counts
+	 * @see #photometric
+	 * @see #skyBrightness
+	 * @see #xPix
+	 * @see #yPix
+	 * @see #logger
+	 * @see #successful
+	 * @see #errorString
+	 */
+	protected void parseResults()
+	{
 		// results
+		reply = null;
 		if(getSuccessful())
 		{
+			// file<n> from n=1. Usually exposureCount results - but not always! (RUNAT)
+			// Extracted before the data pipeline keywords are decoded, so they are kept if those are missing.
+			filenames = getParsedReply().getNumberedValues("file");
 			try
 			{
-				// file<n> from n=1. Usually exposureCount results - but not always! (RUNAT)
-				filenameList = new Vector();
-				index = 1;// file<n> starts from n=1
-				done = false;
-				while(done == false)
-				{
-					filename = getReplyValue("file"+index);
-					if(filename != null)
-					{
-						filenameList.add(filename);
-						index++;
-					}
-					else
-					{
-						done = true;
-					}
-				}
+				reply = ExposeReply.decode(getParsedReply(),dataPipelineFlag);
 				// The next set of data is only returned if the data pipeline flag is set
 				if(dataPipelineFlag)
 				{
 					// seeing
-					seeing = getReplyValueDouble("seeing");
+					seeing = reply.getSeeing();
 					sessionData.setProperty(".expose.seeing",""+seeing);
 					// counts
-					counts = getReplyValueInt("counts");
+					counts = reply.getCounts();
 					sessionData.setProperty(".expose.counts",""+counts);
 					// photometric
-					photometric = getReplyValueDouble("photom");
+					photometric = reply.getPhotometric();
 					sessionData.setProperty(".expose.photometric",""+photometric);
 					// skyBrightness
-					skyBrightness = getReplyValueDouble("skybright");
+					skyBrightness = reply.getSkyBrightness();
 					sessionData.setProperty(".expose.sky_brightness",""+skyBrightness);
 					// xPix
-					xPix = getReplyValueDouble("xpix");
+					xPix = reply.getXPix();
 					sessionData.setProperty(".expose.xpix",""+xPix);
 					// yPix
-					yPix = getReplyValueDouble("ypix");
+					yPix = reply.getYPix();
 					sessionData.setProperty(".expose.ypix",""+yPix);
 					// logging
-					logger.log(INFO, 1, CLASS, RCSID,"run","Expose successful with seeing : "+seeing+
-						   ", counts : "+counts+", photometric : "+photometric+
-						   ", xpix : "+xPix+", ypix : "+yPix+".");
+					logger.log(INFO, 1, CLASS, RCSID,"parseResults","Expose successful with "+reply+".");
 				}
 				else
 				{
 					// logging
-					logger.log(INFO, 1, CLASS, RCSID,"run","Expose successful.");
+					logger.log(INFO, 1, CLASS, RCSID,"parseResults","Expose successful.");
 				}
 			}
 			catch(NGATPropertyException e)
 			{
 				successful = false;
 				errorString = new String(this.getClass().getName()+
-							 ":run:Parsing EXPOSE results failed:"+e);
-				logger.log(INFO, 1, CLASS, RCSID,"run",errorString);
+							 ":parseResults:Parsing EXPOSE results failed:"+e);
+				logger.log(INFO, 1, CLASS, RCSID,"parseResults",errorString);
 				logger.dumpStack(1,e);
 				return;
 			}
 		}
 		else
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","Expose failed with error : "+getErrorString()+".");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","Expose failed with error : "+getErrorString()+".");
 		}
 	}
 
+	/**
+	 * Get the typed results of the last successful EXPOSE command.
+	 * @return The results, or null if the last EXPOSE failed (or none has been sent).
+	 * @see #reply
+	 */
+	public ExposeReply getReply()
+	{
+		return reply;
+	}
+
 	/**
 	 * Return the number of FITS image filenames returned from the EXPOSE command.
-	 * @return The number of filenames. If filenameList is null, 0 is returned.
-	 * @see #filenameList
+	 * @return The number of filenames. If filenames is null, 0 is returned.
+	 * @see #filenames
 	 */
 	public int getFilenameCount()
 	{
-		if(filenameList == null)
+		if(filenames == null)
 			return 0;
-		return filenameList.size();
+		return filenames.length;
 	}
 
 	/**
 	 * Return one of the FITS image filenames returned from the EXPOSE command.
-	 * NB It is possible for an IndexOutOfBoundsException or ClassCastException to occur.
+	 * NB It is possible for an ArrayIndexOutOfBoundsException to occur.
 	 * @param i The index in the list of the filename to return. 
 	 * @return A FITS image filename. This filename exists on the <b>occ</b> machine, not the proxy machine.
-	 * @see #filenameList
+	 * @see #filenames
 	 */
 	public String getFilename(int i)
 	{
-		return (String)(filenameList.get(i));
+		return filenames[i];
 	}
 
 	/**
@@ -0,0 +1,293 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// ExposeReply.java
+// $Header$
+package org.estar.toop;
+
+import ngat.util.*;
+
+/**
+ * The results of an EXPOSE command. Immutable, decoded from the reply in one pass.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see Expose#getReply
+ */
+public class ExposeReply
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The data pipeline keywords that must be in an EXPOSE reply, if the data pipeline flag was set,
+	 * in the order of their bits in the decode mask.
+	 */
+	private static final String PIPELINE_KEYWORDS[] = {"seeing","counts","photom","skybright","xpix","ypix"};
+	/**
+	 * The decode mask with all the data pipeline keyword bits set.
+	 */
+	private static final int ALL_PIPELINE_FOUND = (1<<PIPELINE_KEYWORDS.length)-1;
+	/**
+	 * The filenames of the frames taken, from the file1..file&lt;n&gt; keywords.
+	 */
+	private final String filenames[];
+	/**
+	 * Whether the data pipeline results (seeing etc.) were returned.
+	 */
+	private final boolean pipelineData;
+	/**
+	 * The seeing, from the data pipeline.
+	 */
+	private final double seeing;
+	/**
+	 * The counts, from the data pipeline.
+	 */
+	private final int counts;
+	/**
+	 * The photometricity, from the data pipeline.
+	 */
+	private final double photometric;
+	/**
+	 * The sky brightness, from the data pipeline.
+	 */
+	private final double skyBrightness;
+	/**
+	 * The X pixel position of the target, from the data pipeline.
+	 */
+	private final double xPix;
+	/**
+	 * The Y pixel position of the target, from the data pipeline.
+	 */
+	private final double yPix;
+
+	/**
+	 * Constructor.
+	 * @param filenames The filenames of the frames taken. The array is not copied.
+	 * @param pipelineData Whether the data pipeline results were returned.
+	 * @param seeing The seeing.
+	 * @param counts The counts.
+	 * @param photometric The photometricity.
+	 * @param skyBrightness The sky brightness.
+	 * @param xPix The X pixel position of the target.
+	 * @param yPix The Y pixel position of the target.
+	 */
+	public ExposeReply(String filenames[],boolean pipelineData,double seeing,int counts,double photometric,
+		    double skyBrightness,double xPix,double yPix)
+	{
+		super();
+		this.filenames = filenames;
+		this.pipelineData = pipelineData;
+		this.seeing = seeing;
+		this.counts = counts;
+		this.photometric = photometric;
+		this.skyBrightness = skyBrightness;
+		this.xPix = xPix;
+		this.yPix = yPix;
+	}
+
+	/**
+	 * Decode an EXPOSE reply, of the form:
+	 * <pre>
+	 * OK file1=a.fits, file2=b.fits, seeing=1.5, counts=100, photom=-999.0, skybright=99.0, xpix=1.0, ypix=2.0
+	 * </pre>
+	 * The filenames are the file&lt;n&gt; values from n=1 up to the first missing n (usually there are
+	 * exposureCount of them - but not always, see RUNAT), extracted using TOCSReply.getNumberedValues.
+	 * The keyword/value pairs are then examined once, in order, for the data pipeline results.
+	 * @param reply The parsed reply.
+	 * @param dataPipelineFlag Whether the data pipeline results (seeing etc.) should be in the reply.
+	 * @return The decoded reply.
+	 * @exception NGATPropertyException Thrown if a data pipeline keyword is missing, or a value is not valid.
+	 * @see #PIPELINE_KEYWORDS
+	 * @see TOCSReply#getNumberedValues
+	 */
+	static ExposeReply decode(TOCSReply reply,boolean dataPipelineFlag) throws NGATPropertyException
+	{
+		String filenames[] = null;
+		double seeing = 0.0,photometric = 0.0,skyBrightness = 0.0,xPix = 0.0,yPix = 0.0;
+		int counts = 0;
+		int i,found;
+
+		// file<n> from n=1, up to the first one missing
+		filenames = reply.getNumberedValues("file");
+		if(dataPipelineFlag == false)
+			return new ExposeReply(filenames,false,seeing,counts,photometric,skyBrightness,xPix,yPix);
+		found = 0;
+		for(i = 0; i < reply.getPairCount(); i++)
+		{
+			if(reply.keywordEquals(i,"seeing"))
+			{
+				seeing = reply.getDouble(i);
+				found |= 1;
+			}
+			else if(reply.keywordEquals(i,"counts"))
+			{
+				counts = reply.getInt(i);
+				found |= 2;
+			}
+			else if(reply.keywordEquals(i,"photom"))
+			{
+				photometric = reply.getDouble(i);
+				found |= 4;
+			}
+			else if(reply.keywordEquals(i,"skybright"))
+			{
+				skyBrightness = reply.getDouble(i);
+				found |= 8;
+			}
+			else if(reply.keywordEquals(i,"xpix"))
+			{
+				xPix = reply.getDouble(i);
+				found |= 16;
+			}
+			else if(reply.keywordEquals(i,"ypix"))
+			{
+				yPix = reply.getDouble(i);
+				found |= 32;
+			}
+		}
+		if(found != ALL_PIPELINE_FOUND)
+		{
+			for(i = 0; i < PIPELINE_KEYWORDS.length; i++)
+			{
+				if((found & (1<<i)) == 0)
+					throw reply.createMissingKeywordException(PIPELINE_KEYWORDS[i]);
+			}
+		}
+		return new ExposeReply(filenames,true,seeing,counts,photometric,skyBrightness,xPix,yPix);
+	}
+
+	/**
+	 * Get the number of filenames (frames taken).
+	 * @return The number of filenames.
+	 * @see #filenames
+	 */
+	public int getFilenameCount()
+	{
+		return filenames.length;
+	}
+
+	/**
+	 * Get all the filenames.
+	 * @return A copy of the filenames array.
+	 * @see #filenames
+	 */
+	public String[] getFilenames()
+	{
+		return filenames.clone();
+	}
+
+	/**
+	 * Get a filename.
+	 * @param i The index of the filename, from 0 to getFilenameCount()-1.
+	 * @return The filename.
+	 * @see #filenames
+	 */
+	public String getFilename(int i)
+	{
+		return filenames[i];
+	}
+
+	/**
+	 * Get whether the data pipeline results (seeing etc.) were returned.
+	 * @return true if they were returned.
+	 * @see #pipelineData
+	 */
+	public boolean hasPipelineData()
+	{
+		return pipelineData;
+	}
+
+	/**
+	 * Get the seeing, from the data pipeline.
+	 * @return The seeing.
+	 * @see #seeing
+	 */
+	public double getSeeing()
+	{
+		return seeing;
+	}
+
+	/**
+	 * Get the counts, from the data pipeline.
+	 * @return The counts.
+	 * @see #counts
+	 */
+	public int getCounts()
+	{
+		return counts;
+	}
+
+	/**
+	 * Get the photometricity, from the data pipeline.
+	 * @return The photometricity.
+	 * @see #photometric
+	 */
+	public double getPhotometric()
+	{
+		return photometric;
+	}
+
+	/**
+	 * Get the sky brightness, from the data pipeline.
+	 * @return The sky brightness.
+	 * @see #skyBrightness
+	 */
+	public double getSkyBrightness()
+	{
+		return skyBrightness;
+	}
+
+	/**
+	 * Get the X pixel position of the target, from the data pipeline.
+	 * @return The X pixel position.
+	 * @see #xPix
+	 */
+	public double getXPix()
+	{
+		return xPix;
+	}
+
+	/**
+	 * Get the Y pixel position of the target, from the data pipeline.
+	 * @return The Y pixel position.
+	 * @see #yPix
+	 */
+	public double getYPix()
+	{
+		return yPix;
+	}
+
+	/**
+	 * Return a string representation of the reply.
+	 * @return The reply, as a string.
+	 */
+	public String toString()
+	{
+		if(pipelineData)
+		{
+			return filenames.length+" frames, seeing : "+seeing+", counts : "+counts+", photometric : "+
+				photometric+", xpix : "+xPix+", ypix : "+yPix;
+		}
+		return filenames.length+" frames";
+	}
+}
+/*
+** $Log$
+*/
@@ -71,33 +71,48 @@ class FocalPlane extends TOCCommand implements Logging, Runnable
 	}
 
 	/**
-	 * Run method. 
-	 * Setup commandString.
-	 * Call TOCCommand.run.
-	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
-	 *    sessionData as necessary.
+	 * FOCALPLANE only changes the telescope's pointing aperture.
+	 * @return RESOURCE_TELESCOPE.
+	 * @see TOCCommand#getResources
+	 */
+	public int getResources()
+	{
+		return RESOURCE_TELESCOPE;
+	}
+
+	/**
+	 * Setup the command in commandBuffer.
 	 * @see #COMMAND_NAME
-	 * @see #commandString
+	 * @see #commandBuffer
 	 * @see #instrumentName
 	 * @see #sessionData
+	 */
+	protected void createCommandString() throws TOCException
+	{
+		// create command string
+		commandBuffer.setLength(0);
+		commandBuffer.append(COMMAND_NAME).append(' ').append(sessionData.getSessionId());
+		commandBuffer.append(' ').append(instrumentName).append(' ');
+	}
+
+	/**
+	 * Parse the results of the command. Called from TOCCommand.run once the reply has been received.
+	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
+	 *    sessionData as necessary.
 	 * @see #logger
 	 * @see #successful
 	 * @see #errorString
 	 */
-	public void run()
+	protected void parseResults()
 	{
-		// create command string
-		commandString = new String(COMMAND_NAME+" "+sessionData.getSessionId()+" "+instrumentName+" ");
-		// run the FOCALPLANE command
-		super.run();
 		// results
 		if(getSuccessful())
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","FocalPlane successful.");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","FocalPlane successful.");
 		}
 		else
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","FocalPlane failed with error : "+getErrorString()+".");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","FocalPlane failed with error : "+getErrorString()+".");
 		}
 	}
 
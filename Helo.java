@@ -32,7 +32,7 @@ import ngat.util.logging.*;
  * @author Steve Fraser, Chris Mottram
  * @version $Revision$
  */
-class Helo extends TOCCommand implements Logging, Runnable
+public class Helo extends TOCCommand implements Logging, Runnable
 {
 	/**
 	 * Revision control system version id.
@@ -62,6 +62,10 @@ class Helo extends TOCCommand implements Logging, Runnable
 	 * The priority allocated to this session.
 	 */
 	protected int priority = 0;
+	/**
+	 * The typed results of the last successful HELO, or null.
+	 */
+	protected HeloReply reply = null;
 
 	/**
 	 * Default constructor.
@@ -72,14 +76,42 @@ class Helo extends TOCCommand implements Logging, Runnable
 	}
 
 	/**
-	 * Run method. 
-	 * Setup commandString.
-	 * Call TOCCommand.run.
-	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
-	 *    sessionData as necessary.
+	 * HELO can safely be retried after a transient transport failure: if no reply was received, 
+	 * no session was started for us.
+	 * @return true.
+	 */
+	protected boolean isIdempotent()
+	{
+		return true;
+	}
+
+	/**
+	 * The HELO command depends only on the service ID, so it is encoded once
+	 * and resent until the session data changes.
+	 * @return true.
+	 * @see TOCCommand#encodeCommand
+	 */
+	protected boolean isFrameCacheable()
+	{
+		return true;
+	}
+
+	/**
+	 * Setup the command in commandBuffer.
 	 * @see #COMMAND_NAME
-	 * @see #commandString
+	 * @see #commandBuffer
 	 * @see #sessionData
+	 */
+	protected void createCommandString() throws TOCException
+	{
+		commandBuffer.setLength(0);
+		commandBuffer.append(COMMAND_NAME).append(' ').append(sessionData.getServiceId());
+	}
+
+	/**
+	 * Parse the results of the command. Called from TOCCommand.run once the reply has been received.
+	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
+	 *    sessionData as necessary.
 	 * @see #sessionID
 	 * @see #sessionLimit
 	 * @see #timeRemaining
@@ -88,47 +120,55 @@ class Helo extends TOCCommand implements Logging, Runnable
 	 * @see #successful
 	 * @see #errorString
 	 */
-	public void run()
+	protected void parseResults()
 	{
-		commandString = new String(COMMAND_NAME+" "+sessionData.getServiceId());
-		super.run();
 		// results
+		reply = null;
 		if(getSuccessful())
 		{
 			try
 			{
+				reply = HeloReply.decode(getParsedReply());
 				// session ID
-				sessionID = getReplyValue("sessionID");
+				sessionID = reply.getSessionID();
 				sessionData.setSessionId(sessionID);
 				// session Limit
-				sessionLimit = getReplyValueInt("sessionLimit");
+				sessionLimit = reply.getSessionLimit();
 				sessionData.setProperty(".session_limit",""+sessionLimit);
 				// time Remaining
-				timeRemaining = getReplyValueInt("timeRemaining");
+				timeRemaining = reply.getTimeRemaining();
 				sessionData.setProperty(".time_remaining",""+timeRemaining);
 				// priority
-				priority = getReplyValueInt("priority");
+				priority = reply.getPriority();
 				sessionData.setProperty(".priority",""+priority);
-				logger.log(INFO, 1, CLASS, RCSID,"run","Helo successful with sessionID : "+sessionID+
-					   " sessionLimit : "+sessionLimit+" timeRemaining : "+timeRemaining+
-					   " priority : "+priority+".");
+				logger.log(INFO, 1, CLASS, RCSID,"parseResults","Helo successful with "+reply+".");
 			}
 			catch(NGATPropertyException e)
 			{
 				successful = false;
 				errorString = new String(this.getClass().getName()+
-							 ":run:Parsing HELO results failed:"+e);
-				logger.log(INFO, 1, CLASS, RCSID,"run",errorString);
+							 ":parseResults:Parsing HELO results failed:"+e);
+				logger.log(INFO, 1, CLASS, RCSID,"parseResults",errorString);
 				logger.dumpStack(1,e);
 				return;
 			}
 		}
 		else
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","Helo failed with error : "+getErrorString()+".");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","Helo failed with error : "+getErrorString()+".");
 		}
 	}
 
+	/**
+	 * Return the typed results of the last successful HELO.
+	 * @return The results, or null if the last HELO failed (or none has been sent).
+	 * @see #reply
+	 */
+	public HeloReply getReply()
+	{
+		return reply;
+	}
+
 	/**
 	 * Return the session ID created for this session.
 	 * @return The session ID created for this session.
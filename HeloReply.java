@@ -0,0 +1,183 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// HeloReply.java
+// $Header$
+package org.estar.toop;
+
+import ngat.util.*;
+
+/**
+ * The results of a HELO command. Immutable, decoded from the reply in one pass.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see Helo#getReply
+ */
+public class HeloReply
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The keywords that must be in a HELO reply, in the order of their bits in the decode mask.
+	 */
+	private static final String KEYWORDS[] = {"sessionID","sessionLimit","timeRemaining","priority"};
+	/**
+	 * The decode mask with all the keyword bits set.
+	 */
+	private static final int ALL_FOUND = (1<<KEYWORDS.length)-1;
+	/**
+	 * The session ID returned by the HELO command.
+	 */
+	private final String sessionID;
+	/**
+	 * The session limit returned by the HELO command, in seconds.
+	 */
+	private final int sessionLimit;
+	/**
+	 * The time remaining returned by the HELO command, in seconds.
+	 */
+	private final int timeRemaining;
+	/**
+	 * The priority returned by the HELO command.
+	 */
+	private final int priority;
+
+	/**
+	 * Constructor.
+	 * @param sessionID The session ID.
+	 * @param sessionLimit The session limit, in seconds.
+	 * @param timeRemaining The time remaining, in seconds.
+	 * @param priority The priority.
+	 */
+	public HeloReply(String sessionID,int sessionLimit,int timeRemaining,int priority)
+	{
+		super();
+		this.sessionID = sessionID;
+		this.sessionLimit = sessionLimit;
+		this.timeRemaining = timeRemaining;
+		this.priority = priority;
+	}
+
+	/**
+	 * Decode a HELO reply, of the form:
+	 * <pre>
+	 * OK sessionID=004951, sessionLimit=3600, timeRemaining=4612, priority=2
+	 * </pre>
+	 * The keyword/value pairs are examined once, in order.
+	 * @param reply The parsed reply.
+	 * @return The decoded reply.
+	 * @exception NGATPropertyException Thrown if a keyword is missing, or a value is not valid.
+	 * @see #KEYWORDS
+	 */
+	static HeloReply decode(TOCSReply reply) throws NGATPropertyException
+	{
+		String sessionID = null;
+		int sessionLimit = 0,timeRemaining = 0,priority = 0;
+		int i,found;
+
+		found = 0;
+		for(i = 0; i < reply.getPairCount(); i++)
+		{
+			if(reply.keywordEquals(i,"sessionID"))
+			{
+				sessionID = reply.getValue(i);
+				found |= 1;
+			}
+			else if(reply.keywordEquals(i,"sessionLimit"))
+			{
+				sessionLimit = reply.getInt(i);
+				found |= 2;
+			}
+			else if(reply.keywordEquals(i,"timeRemaining"))
+			{
+				timeRemaining = reply.getInt(i);
+				found |= 4;
+			}
+			else if(reply.keywordEquals(i,"priority"))
+			{
+				priority = reply.getInt(i);
+				found |= 8;
+			}
+		}
+		if(found != ALL_FOUND)
+		{
+			for(i = 0; i < KEYWORDS.length; i++)
+			{
+				if((found & (1<<i)) == 0)
+					throw reply.createMissingKeywordException(KEYWORDS[i]);
+			}
+		}
+		return new HeloReply(sessionID,sessionLimit,timeRemaining,priority);
+	}
+
+	/**
+	 * Get the session ID.
+	 * @return The session ID.
+	 * @see #sessionID
+	 */
+	public String getSessionID()
+	{
+		return sessionID;
+	}
+
+	/**
+	 * Get the session limit.
+	 * @return The session limit, in seconds.
+	 * @see #sessionLimit
+	 */
+	public int getSessionLimit()
+	{
+		return sessionLimit;
+	}
+
+	/**
+	 * Get the time remaining.
+	 * @return The time remaining, in seconds.
+	 * @see #timeRemaining
+	 */
+	public int getTimeRemaining()
+	{
+		return timeRemaining;
+	}
+
+	/**
+	 * Get the priority.
+	 * @return The priority.
+	 * @see #priority
+	 */
+	public int getPriority()
+	{
+		return priority;
+	}
+
+	/**
+	 * Return a string representation of the reply.
+	 * @return The reply, as a string.
+	 */
+	public String toString()
+	{
+		return "sessionID : "+sessionID+" sessionLimit : "+sessionLimit+" timeRemaining : "+timeRemaining+
+			" priority : "+priority;
+	}
+}
+/*
+** $Log$
+*/
@@ -32,7 +32,7 @@ import ngat.util.logging.*;
  * @author Steve Fraser, Chris Mottram
  * @version $Revision$
  */
-class Init extends TOCCommand implements Logging, Runnable
+public class Init extends TOCCommand implements Logging, Runnable
 {
 	/**
 	 * Revision control system version id.
@@ -56,33 +56,49 @@ class Init extends TOCCommand implements Logging, Runnable
 	}
 
 	/**
-	 * Run method. 
-	 * Setup commandString.
-	 * Call TOCCommand.run.
-	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
-	 *    sessionData as necessary.
+	 * The INIT command depends only on the session ID and the INIT options, so it is encoded once
+	 * and resent until the session data changes.
+	 * @return true.
+	 * @see TOCCommand#encodeCommand
+	 */
+	protected boolean isFrameCacheable()
+	{
+		return true;
+	}
+
+	/**
+	 * Setup the command in commandBuffer.
 	 * @see #COMMAND_NAME
-	 * @see #commandString
+	 * @see #commandBuffer
 	 * @see #sessionData
+	 */
+	protected void createCommandString() throws TOCException
+	{
+		commandBuffer.setLength(0);
+		commandBuffer.append(COMMAND_NAME).append(' ').append(sessionData.getSessionId());
+		commandBuffer.append(' ').append(sessionData.getInitRotatorOption());
+		commandBuffer.append(' ').append(sessionData.getInitFocusOption());
+		commandBuffer.append(' ').append(sessionData.getInitAGOption());
+	}
+
+	/**
+	 * Parse the results of the command. Called from TOCCommand.run once the reply has been received.
+	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
+	 *    sessionData as necessary.
 	 * @see #logger
 	 * @see #successful
 	 * @see #errorString
 	 */
-	public void run()
+	protected void parseResults()
 	{
-		commandString = new String(COMMAND_NAME+" "+sessionData.getSessionId()+
-					   " "+sessionData.getInitRotatorOption()+
-					   " "+sessionData.getInitFocusOption()+
-					   " "+sessionData.getInitAGOption());
-		super.run();
 		// results
 		if(getSuccessful())
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","Init successful.");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","Init successful.");
 		}
 		else
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","Init failed with error : "+getErrorString()+".");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","Init failed with error : "+getErrorString()+".");
 		}
 	}
 
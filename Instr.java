@@ -35,7 +35,7 @@ import org.estar.astrometry.*;
  * @author Steve Fraser, Chris Mottram
  * @version $Revision$
  */
-class Instr extends TOCCommand implements Logging, Runnable
+public class Instr extends TOCCommand implements Logging, Runnable
 {
 	/**
 	 * Revision control system version id.
@@ -75,6 +75,11 @@ class Instr extends TOCCommand implements Logging, Runnable
 	 * Although not really a filter it is the NUVSPEC equivalent.
 	 */
 	public final static int NUVIEW_WAVELENGTH_FILTER_INDEX = 0;
+	/**
+	 * Map of instrument ID to the InstrEncoder used to encode it's INSTR arguments.
+	 * @see #registerEncoder
+	 */
+	private static Map<String,InstrEncoder> encoderMap = new HashMap<String,InstrEncoder>();
 	/**
 	 * The instrument name - FIXEDSPEC, IO:O, LIRIC, MOPTOP, RISE, SPRAT.
 	 */
@@ -138,6 +143,57 @@ class Instr extends TOCCommand implements Logging, Runnable
 	 */
 	protected boolean calibrateAfter = false;
 
+	/**
+	 * Register the encoders for the known instruments.
+	 * @see #registerEncoder
+	 */
+	static
+	{
+		InstrEncoder encoder = null;
+
+		// INSTR <session id> <RATCAM|HAWKCAM|EA01|EA02> <lower filter> <upper filter> <bin>
+		encoder = new InstrTemplateEncoder("filter"+LOWER_FILTER_INDEX+" filter"+UPPER_FILTER_INDEX+
+						   " xBinning",true,true);
+		registerEncoder("RATCAM",encoder);
+		registerEncoder("HAWKCAM",encoder);
+		registerEncoder("EA01",encoder);
+		registerEncoder("EA02",encoder);
+		// INSTR <session id> <EM01|EM02> <filter0> <filter1> <filter2> <bin>
+		// calibration flags do not apply to Merope EM01
+		registerEncoder("EM01",new InstrTemplateEncoder("filter0 filter1 filter2 xBinning",true,false));
+		registerEncoder("EM02",new InstrTemplateEncoder("filter0 filter1 filter2 xBinning",true,true));
+		// INSTR <session id> RISE <bin>
+		registerEncoder("RISE",new InstrTemplateEncoder("xBinning",true,true));
+		// INSTR <session id> IO:O <filter wheel> <lower slide> <upper slide> <bin>
+		registerEncoder("IO:O",new InstrTemplateEncoder("filter"+OConfig.O_FILTER_INDEX_FILTER_WHEEL+
+								" filter"+OConfig.O_FILTER_INDEX_FILTER_SLIDE_LOWER+
+								" filter"+OConfig.O_FILTER_INDEX_FILTER_SLIDE_UPPER+
+								" xBinning",true,true));
+		// INSTR <session id> IRCAM <filter> <bin>
+		registerEncoder("IRCAM",new InstrTemplateEncoder("filter"+IR_FILTER_INDEX+" xBinning",true,true));
+		// INSTR <session id> <FIXEDSPEC|RINGO|RINGOSTAR|GROPE> <xbin> <ybin>
+		encoder = new InstrTemplateEncoder("xBinning yBinning",false,true);
+		registerEncoder("FIXEDSPEC",encoder);
+		registerEncoder("RINGO",encoder);
+		registerEncoder("RINGOSTAR",encoder);
+		registerEncoder("GROPE",encoder);
+		// INSTR <session id> NUVSPEC <wavelength>
+		registerEncoder("NUVSPEC",new InstrTemplateEncoder("filter"+NUVIEW_WAVELENGTH_FILTER_INDEX,false,true));
+		// INSTR <session id> RINGO3 <internal|external> <emgain> <xbin> <ybin>
+		registerEncoder("RINGO3",new InstrTemplateEncoder("triggerType emGain xBinning yBinning",false,true));
+		// INSTR <session id> MOPTOP <rotorSpeed> <filter> <xbin> <ybin>
+		registerEncoder("MOPTOP",new InstrTemplateEncoder("rotorSpeed filter"+SINGLE_FILTER_INDEX+
+								  " xBinning yBinning",false,true));
+		// INSTR <session id> LIRIC <nudgematicOffsetSize> <coaddExposureLength> <filter>
+		registerEncoder("LIRIC",new InstrTemplateEncoder("nudgematicOffsetSize coaddExposureLength filter"+
+								 SINGLE_FILTER_INDEX,false,true));
+		// INSTR <sessionId> IO:THOR <emgain> <binxy> <xs> <xe> <ys> <ye> 
+		registerEncoder("IO:THOR",new InstrTemplateEncoder("emGain xBinning xStart xEnd yStart yEnd",false,true));
+		// INSTR <session id> SPRAT <slit:in|out> <grism:in|out> <grism:red|blue>
+		registerEncoder("SPRAT",new InstrTemplateEncoder("slitPosition grismPosition grismRotation",false,true));
+		// diddly FRODOSPEC TODO: register an encoder when the INSTR arguments are known
+	}
+
 	/**
 	 * Default constructor. A new window is constructed.
 	 * @see #window
@@ -373,13 +429,184 @@ class Instr extends TOCCommand implements Logging, Runnable
 	}
 
 	/**
-	 * Run method. 
-	 * Setup commandString.
-	 * Call TOCCommand.run.
-	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
-	 *    sessionData as necessary.
+	 * Register the encoder used to encode the INSTR arguments of an instrument, replacing any existing one.
+	 * New instruments can be supported by registering an encoder (e.g. an InstrTemplateEncoder) for them.
+	 * @param instID The instrument ID.
+	 * @param encoder The encoder.
+	 * @see #encoderMap
+	 */
+	public static synchronized void registerEncoder(String instID,InstrEncoder encoder)
+	{
+		encoderMap.put(instID,encoder);
+	}
+
+	/**
+	 * Get the encoder used to encode the INSTR arguments of an instrument.
+	 * @param instID The instrument ID.
+	 * @return The encoder, or null if no encoder is registered for the instrument.
+	 * @see #encoderMap
+	 */
+	public static synchronized InstrEncoder getEncoder(String instID)
+	{
+		return encoderMap.get(instID);
+	}
+
+	/**
+	 * Get the instrument ID.
+	 * @return The instrument ID.
+	 * @see #instID
+	 */
+	public String getInstId()
+	{
+		return instID;
+	}
+
+	/**
+	 * Get a filter.
+	 * @param index The index in the filter list of the filter.
+	 * @return The filter type, or null if it has not been set.
+	 * @see #filterList
+	 */
+	public String getFilter(int index)
+	{
+		return filterList[index];
+	}
+
+	/**
+	 * Get the X binning.
+	 * @return The binning.
+	 * @see #xBinning
+	 */
+	public int getXBinning()
+	{
+		return xBinning;
+	}
+
+	/**
+	 * Get the Y binning.
+	 * @return The binning.
+	 * @see #yBinning
+	 */
+	public int getYBinning()
+	{
+		return yBinning;
+	}
+
+	/**
+	 * Get the trigger type.
+	 * @return The trigger type.
+	 * @see #triggerType
+	 */
+	public String getTriggerType()
+	{
+		return triggerType;
+	}
+
+	/**
+	 * Get the rotor speed.
+	 * @return The rotor speed.
+	 * @see #rotorSpeed
+	 */
+	public String getRotorSpeed()
+	{
+		return rotorSpeed;
+	}
+
+	/**
+	 * Get the nudgematic offset size.
+	 * @return The nudgematic offset size.
+	 * @see #nudgematicOffsetSize
+	 */
+	public String getNudgematicOffsetSize()
+	{
+		return nudgematicOffsetSize;
+	}
+
+	/**
+	 * Get the coadd exposure length.
+	 * @return The coadd exposure length, in milliseconds.
+	 * @see #coaddExposureLength
+	 */
+	public int getCoaddExposureLength()
+	{
+		return coaddExposureLength;
+	}
+
+	/**
+	 * Get the EM gain.
+	 * @return The EM gain.
+	 * @see #emGain
+	 */
+	public int getEMGain()
+	{
+		return emGain;
+	}
+
+	/**
+	 * Get the slit position.
+	 * @return The slit position.
+	 * @see #slitPosition
+	 */
+	public String getSlitPosition()
+	{
+		return slitPosition;
+	}
+
+	/**
+	 * Get the grism position.
+	 * @return The grism position.
+	 * @see #grismPosition
+	 */
+	public String getGrismPosition()
+	{
+		return grismPosition;
+	}
+
+	/**
+	 * Get the grism rotation.
+	 * @return The grism rotation.
+	 * @see #grismRotation
+	 */
+	public String getGrismRotation()
+	{
+		return grismRotation;
+	}
+
+	/**
+	 * Get the window.
+	 * @return The window.
+	 * @see #window
+	 */
+	public InstrWindow getWindow()
+	{
+		return window;
+	}
+
+	/**
+	 * Get the default deadline for this command, the instr budget from the session data.
+	 * @return The deadline in milliseconds.
+	 * @see TOCSessionData#getInstrTimeout
+	 */
+	protected long getDefaultTimeout()
+	{
+		return sessionData.getInstrTimeout();
+	}
+
+	/**
+	 * INSTR only configures the instrument, so (with resource locking) it can run while the telescope slews.
+	 * @return RESOURCE_INSTRUMENT.
+	 * @see TOCCommand#getResources
+	 */
+	public int getResources()
+	{
+		return RESOURCE_INSTRUMENT;
+	}
+
+	/**
+	 * Setup the command in commandBuffer.
+	 * The instrument specific arguments are encoded by the InstrEncoder registered for the instrument ID.
 	 * @see #COMMAND_NAME
-	 * @see #commandString
+	 * @see #commandBuffer
 	 * @see #instID
 	 * @see #xBinning
 	 * @see #yBinning
@@ -396,157 +623,56 @@ class Instr extends TOCCommand implements Logging, Runnable
 	 * @see #calibrateAfter
 	 * @see #filterList
 	 * @see #sessionData
-	 * @see #logger
-	 * @see #successful
-	 * @see #errorString
+	 * @see #getEncoder
 	 */
-	public void run()
+	protected void createCommandString() throws TOCException
 	{
-		// common start bits
-		commandString = new String(COMMAND_NAME+" "+sessionData.getSessionId()+" "+instID+" ");
-		if(instID.equals("RATCAM")||instID.equals("HAWKCAM")||instID.equals("EA01")||instID.equals("EA02"))
-		{
-			if(xBinning != yBinning)
-			{
-				successful = false;
-				errorString = new String(this.getClass().getName()+
-							 ":run:X binning "+xBinning+" does not match Y binning "+
-							 yBinning+".");
-				logger.log(INFO, 1, CLASS, RCSID,"run",errorString);
-				return;
-			}
-			commandString = new String(commandString+filterList[LOWER_FILTER_INDEX]+" "+
-						   filterList[UPPER_FILTER_INDEX]+" "+xBinning);
-		}
-		else if(instID.equals("EM01")||instID.equals("EM02"))
-		{
-			if(xBinning != yBinning)
-			{
-				successful = false;
-				errorString = new String(this.getClass().getName()+
-							 ":run:X binning "+xBinning+" does not match Y binning "+
-							 yBinning+".");
-				logger.log(INFO, 1, CLASS, RCSID,"run",errorString);
-				return;
-			}
-			commandString = new String(commandString+filterList[0]+" "+filterList[1]+" "+filterList[2]+
-						   " "+xBinning);
-		}
-		else if(instID.equals("RISE"))
-		{
-			if(xBinning != yBinning)
-			{
-				successful = false;
-				errorString = new String(this.getClass().getName()+
-							 ":run:X binning "+xBinning+" does not match Y binning "+
-							 yBinning+".");
-				logger.log(INFO, 1, CLASS, RCSID,"run",errorString);
-				return;
-			}
-			commandString = new String(commandString+xBinning);
-		}
-		else if(instID.equals("IO:O"))
-		{
-			if(xBinning != yBinning)
-			{
-				successful = false;
-				errorString = new String(this.getClass().getName()+
-							 ":run:X binning "+xBinning+" does not match Y binning "+
-							 yBinning+".");
-				logger.log(INFO, 1, CLASS, RCSID,"run",errorString);
-				return;
-			}
-			commandString = new String(commandString+filterList[OConfig.O_FILTER_INDEX_FILTER_WHEEL]+" "+
-						   filterList[OConfig.O_FILTER_INDEX_FILTER_SLIDE_LOWER]+" "+
-						   filterList[OConfig.O_FILTER_INDEX_FILTER_SLIDE_UPPER]+" "+
-						   xBinning);
-		}
-		else if(instID.equals("IRCAM"))
-		{
-			if(xBinning != yBinning)
-			{
-				successful = false;
-				errorString = new String(this.getClass().getName()+
-							 ":run:X binning "+xBinning+" does not match Y binning "+
-							 yBinning+".");
-				logger.log(INFO, 1, CLASS, RCSID,"run",errorString);
-				return;
-			}
-			commandString = new String(commandString+filterList[IR_FILTER_INDEX]+" "+xBinning);
-		}
-		else if(instID.equals("FIXEDSPEC"))
-		{
-			commandString = new String(commandString+xBinning+" "+yBinning);
-		}
-		else if(instID.equals("NUVSPEC"))
-		{
-			commandString = new String(commandString+filterList[NUVIEW_WAVELENGTH_FILTER_INDEX]);
-		}
-		else if(instID.equals("RINGO")||instID.equals("RINGOSTAR")||instID.equals("GROPE"))
-		{
-			commandString = new String(commandString+xBinning+" "+yBinning);
-		}
-		else if(instID.equals("RINGO3"))
-		{
-			// INSTR <session id> RINGO3 <internal|external> <emgain> <xbin> <ybin>
-			commandString = new String(commandString+triggerType+" "+emGain+" "+xBinning+" "+yBinning);
-		}
-		else if(instID.equals("MOPTOP"))
-		{
-			// INSTR <session id> MOPTOP <rotorSpeed> <filter> <xbin> <ybin>
-			commandString = new String(commandString+rotorSpeed+" "+filterList[SINGLE_FILTER_INDEX]+" "+
-						   xBinning+" "+yBinning);
-		}
-		else if(instID.equals("LIRIC"))
-		{
-			// INSTR <session id> LIRIC <nudgematicOffsetSize> <coaddExposureLength> <filter>
-			commandString = new String(commandString+nudgematicOffsetSize+" "+coaddExposureLength+" "+
-						   filterList[SINGLE_FILTER_INDEX]);
-		}
-		else if(instID.equals("IO:THOR"))
-		{
-			// INSTR <sessionId> IO:THOR <emgain> <binxy> <xs> <xe> <ys> <ye> 
-			commandString = new String(commandString+emGain+" "+xBinning+" "+window.getXStart()+" "+
-						   window.getXEnd()+" "+window.getYStart()+" "+window.getYEnd());
+		InstrEncoder encoder = null;
 
-		}
-		else if(instID.equals("SPRAT"))
+		encoder = getEncoder(instID);
+		if(encoder == null)
 		{
-			// INSTR <session id> SPRAT <slit:in|out> <grism:in|out> <grism:red|blue>
-			commandString = new String(commandString+slitPosition+" "+grismPosition+" "+grismRotation);
+			throw new TOCException(this.getClass().getName()+
+					       ":createCommandString:Unknown instrument: "+instID+".");
 		}
-		// diddly FRODOSPEC TODO
-		else
-		{
-			successful = false;
-			errorString = new String(this.getClass().getName()+
-						 ":run:Unknown instrument: "+instID+".");
-			logger.log(INFO, 1, CLASS, RCSID,"run",errorString);
-			return;
-		}
-		if(instID.equals("EM01") == false)// does not apply to Merope
+		// common start bits
+		commandBuffer.setLength(0);
+		commandBuffer.append(COMMAND_NAME).append(' ').append(sessionData.getSessionId());
+		commandBuffer.append(' ').append(instID).append(' ');
+		encoder.encode(this,commandBuffer);
+		if(encoder.hasCalibrationFlags())// does not apply to Merope
 		{
 			// common end bits
-			commandString = new String(commandString+" ");
+			commandBuffer.append(' ');
 			if(calibrateBefore)
-				commandString = new String(commandString+"T");
+				commandBuffer.append('T');
 			else
-				commandString = new String(commandString+"F");
+				commandBuffer.append('F');
 			if(calibrateAfter)
-				commandString = new String(commandString+"T");
+				commandBuffer.append('T');
 			else
-				commandString = new String(commandString+"F");
+				commandBuffer.append('F');
 		}
-		// run the INSTR command
-		super.run();
+	}
+
+	/**
+	 * Parse the results of the command. Called from TOCCommand.run once the reply has been received.
+	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
+	 *    sessionData as necessary.
+	 * @see #logger
+	 * @see #successful
+	 * @see #errorString
+	 */
+	protected void parseResults()
+	{
 		// results
 		if(getSuccessful())
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","Instr successful.");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","Instr successful.");
 		}
 		else
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","Instr failed with error : "+getErrorString()+".");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","Instr failed with error : "+getErrorString()+".");
 		}
 	}
 
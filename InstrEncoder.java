@@ -0,0 +1,52 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// InstrEncoder.java
+// $Header$
+package org.estar.toop;
+
+/**
+ * Interface implemented by objects that encode the instrument specific arguments of an INSTR command,
+ * i.e. everything after "INSTR &lt;session id&gt; &lt;inst ID&gt; " and before the calibration flags.
+ * An encoder is registered with Instr for each instrument ID, see Instr.registerEncoder.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see Instr#registerEncoder
+ * @see InstrTemplateEncoder
+ */
+public interface InstrEncoder
+{
+	/**
+	 * Validate the instrument configuration in the Instr command, and append the instrument specific
+	 * arguments to the command buffer.
+	 * @param instr The command, whose getters return the configuration.
+	 * @param buffer The command buffer to append the arguments to.
+	 * @exception TOCException Thrown if the configuration is not valid for this instrument.
+	 */
+	public void encode(Instr instr,StringBuilder buffer) throws TOCException;
+
+	/**
+	 * Get whether the calibrate before/after flags are appended to the INSTR command for this instrument.
+	 * @return true if the calibration flags are sent.
+	 */
+	public boolean hasCalibrationFlags();
+}
+/*
+** $Log$
+*/
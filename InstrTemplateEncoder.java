@@ -0,0 +1,277 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// InstrTemplateEncoder.java
+// $Header$
+package org.estar.toop;
+
+import java.util.*;
+
+/**
+ * An INSTR argument encoder driven by a template, a space separated list of argument names, e.g.
+ * <pre>
+ * rotorSpeed filter0 xBinning yBinning
+ * </pre>
+ * The template is compiled once, when the encoder is constructed, into an array of argument codes, so
+ * encoding is a single loop appending each argument in turn. The argument names are:
+ * filter0 .. filter3, xBinning, yBinning, triggerType, emGain, rotorSpeed, nudgematicOffsetSize,
+ * coaddExposureLength, slitPosition, grismPosition, grismRotation, xStart, xEnd, yStart, yEnd.
+ * Encoding fails if a string argument has not been set, or (if the encoder requires square binning)
+ * the X and Y binning differ.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see Instr#registerEncoder
+ */
+public class InstrTemplateEncoder implements InstrEncoder
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The argument names, indexed by argument code. Codes 0 to Instr.FILTER_LIST_COUNT-1 are the filters.
+	 */
+	private static final String ARGUMENT_NAMES[] = {"filter0","filter1","filter2","filter3",
+		"xBinning","yBinning","triggerType","emGain","rotorSpeed","nudgematicOffsetSize",
+		"coaddExposureLength","slitPosition","grismPosition","grismRotation","xStart","xEnd","yStart","yEnd"};
+	/**
+	 * Argument code of the X binning.
+	 */
+	private static final int ARGUMENT_X_BINNING = 4;
+	/**
+	 * Argument code of the Y binning.
+	 */
+	private static final int ARGUMENT_Y_BINNING = 5;
+	/**
+	 * Argument code of the trigger type.
+	 */
+	private static final int ARGUMENT_TRIGGER_TYPE = 6;
+	/**
+	 * Argument code of the EM gain.
+	 */
+	private static final int ARGUMENT_EM_GAIN = 7;
+	/**
+	 * Argument code of the rotor speed.
+	 */
+	private static final int ARGUMENT_ROTOR_SPEED = 8;
+	/**
+	 * Argument code of the nudgematic offset size.
+	 */
+	private static final int ARGUMENT_NUDGEMATIC_OFFSET_SIZE = 9;
+	/**
+	 * Argument code of the coadd exposure length.
+	 */
+	private static final int ARGUMENT_COADD_EXPOSURE_LENGTH = 10;
+	/**
+	 * Argument code of the slit position.
+	 */
+	private static final int ARGUMENT_SLIT_POSITION = 11;
+	/**
+	 * Argument code of the grism position.
+	 */
+	private static final int ARGUMENT_GRISM_POSITION = 12;
+	/**
+	 * Argument code of the grism rotation.
+	 */
+	private static final int ARGUMENT_GRISM_ROTATION = 13;
+	/**
+	 * Argument code of the window X start.
+	 */
+	private static final int ARGUMENT_X_START = 14;
+	/**
+	 * Argument code of the window X end.
+	 */
+	private static final int ARGUMENT_X_END = 15;
+	/**
+	 * Argument code of the window Y start.
+	 */
+	private static final int ARGUMENT_Y_START = 16;
+	/**
+	 * Argument code of the window Y end.
+	 */
+	private static final int ARGUMENT_Y_END = 17;
+	/**
+	 * The compiled template, an array of argument codes.
+	 */
+	private int arguments[] = null;
+	/**
+	 * Whether the X and Y binning must be the same.
+	 */
+	private boolean squareBinning = false;
+	/**
+	 * Whether the calibrate before/after flags are appended to the INSTR command.
+	 */
+	private boolean calibrationFlags = true;
+
+	/**
+	 * Constructor.
+	 * @param template The template, a space separated list of argument names.
+	 * @param squareBinning Whether the X and Y binning must be the same.
+	 * @param calibrationFlags Whether the calibrate before/after flags are appended to the INSTR command.
+	 * @exception IllegalArgumentException Thrown if the template contains an unknown argument name.
+	 * @see #compile
+	 */
+	public InstrTemplateEncoder(String template,boolean squareBinning,boolean calibrationFlags)
+		throws IllegalArgumentException
+	{
+		super();
+		this.arguments = compile(template);
+		this.squareBinning = squareBinning;
+		this.calibrationFlags = calibrationFlags;
+	}
+
+	/**
+	 * Compile a template into an array of argument codes.
+	 * @param template The template, a space separated list of argument names.
+	 * @return The argument codes.
+	 * @exception IllegalArgumentException Thrown if the template contains an unknown argument name.
+	 * @see #ARGUMENT_NAMES
+	 */
+	private static int[] compile(String template) throws IllegalArgumentException
+	{
+		StringTokenizer st = null;
+		String name = null;
+		int codes[] = null;
+		int i,code;
+
+		st = new StringTokenizer(template," ");
+		codes = new int[st.countTokens()];
+		for(i = 0; i < codes.length; i++)
+		{
+			name = st.nextToken();
+			for(code = 0; code < ARGUMENT_NAMES.length; code++)
+			{
+				if(ARGUMENT_NAMES[code].equals(name))
+					break;
+			}
+			if(code == ARGUMENT_NAMES.length)
+			{
+				throw new IllegalArgumentException("org.estar.toop.InstrTemplateEncoder:compile:"+
+								   "Unknown argument "+name+" in template "+template+".");
+			}
+			codes[i] = code;
+		}
+		return codes;
+	}
+
+	/**
+	 * Validate the configuration and append the arguments in the template to the command buffer,
+	 * separated by spaces.
+	 * @param instr The command.
+	 * @param buffer The command buffer.
+	 * @exception TOCException Thrown if the binning is not square (and must be), or a string argument
+	 *            has not been set.
+	 * @see #arguments
+	 * @see #squareBinning
+	 */
+	public void encode(Instr instr,StringBuilder buffer) throws TOCException
+	{
+		int i;
+
+		if(squareBinning && (instr.getXBinning() != instr.getYBinning()))
+		{
+			throw new TOCException(this.getClass().getName()+":encode:X binning "+instr.getXBinning()+
+					       " does not match Y binning "+instr.getYBinning()+".");
+		}
+		for(i = 0; i < arguments.length; i++)
+		{
+			if(i > 0)
+				buffer.append(' ');
+			switch(arguments[i])
+			{
+				case ARGUMENT_X_BINNING:
+					buffer.append(instr.getXBinning());
+					break;
+				case ARGUMENT_Y_BINNING:
+					buffer.append(instr.getYBinning());
+					break;
+				case ARGUMENT_TRIGGER_TYPE:
+					appendString(buffer,instr.getTriggerType(),i);
+					break;
+				case ARGUMENT_EM_GAIN:
+					buffer.append(instr.getEMGain());
+					break;
+				case ARGUMENT_ROTOR_SPEED:
+					appendString(buffer,instr.getRotorSpeed(),i);
+					break;
+				case ARGUMENT_NUDGEMATIC_OFFSET_SIZE:
+					appendString(buffer,instr.getNudgematicOffsetSize(),i);
+					break;
+				case ARGUMENT_COADD_EXPOSURE_LENGTH:
+					buffer.append(instr.getCoaddExposureLength());
+					break;
+				case ARGUMENT_SLIT_POSITION:
+					appendString(buffer,instr.getSlitPosition(),i);
+					break;
+				case ARGUMENT_GRISM_POSITION:
+					appendString(buffer,instr.getGrismPosition(),i);
+					break;
+				case ARGUMENT_GRISM_ROTATION:
+					appendString(buffer,instr.getGrismRotation(),i);
+					break;
+				case ARGUMENT_X_START:
+					buffer.append(instr.getWindow().getXStart());
+					break;
+				case ARGUMENT_X_END:
+					buffer.append(instr.getWindow().getXEnd());
+					break;
+				case ARGUMENT_Y_START:
+					buffer.append(instr.getWindow().getYStart());
+					break;
+				case ARGUMENT_Y_END:
+					buffer.append(instr.getWindow().getYEnd());
+					break;
+				default:// filter0 .. filter3
+					appendString(buffer,instr.getFilter(arguments[i]),i);
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Get whether the calibrate before/after flags are appended to the INSTR command.
+	 * @return true if the calibration flags are sent.
+	 * @see #calibrationFlags
+	 */
+	public boolean hasCalibrationFlags()
+	{
+		return calibrationFlags;
+	}
+
+	/**
+	 * Append a string argument to the command buffer.
+	 * @param buffer The command buffer.
+	 * @param s The argument value.
+	 * @param argumentIndex The index of the argument in the template.
+	 * @exception TOCException Thrown if the argument has not been set.
+	 * @see #arguments
+	 */
+	private void appendString(StringBuilder buffer,String s,int argumentIndex) throws TOCException
+	{
+		if(s == null)
+		{
+			throw new TOCException(this.getClass().getName()+":encode:"+
+					       ARGUMENT_NAMES[arguments[argumentIndex]]+" has not been set.");
+		}
+		buffer.append(s);
+	}
+}
+/*
+** $Log$
+*/
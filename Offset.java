@@ -86,32 +86,48 @@ class Offset extends TOCCommand implements Logging, Runnable
 	}
 
 	/**
-	 * Run method. 
-	 * Setup commandString.
-	 * Call TOCCommand.run.
-	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
-	 *    sessionData as necessary.
+	 * OFFSET only moves the telescope.
+	 * @return RESOURCE_TELESCOPE.
+	 * @see TOCCommand#getResources
+	 */
+	public int getResources()
+	{
+		return RESOURCE_TELESCOPE;
+	}
+
+	/**
+	 * Setup the command in commandBuffer.
 	 * @see #COMMAND_NAME
-	 * @see #commandString
+	 * @see #commandBuffer
 	 * @see #dRA
 	 * @see #dDec
 	 * @see #sessionData
+	 */
+	protected void createCommandString() throws TOCException
+	{
+		commandBuffer.setLength(0);
+		commandBuffer.append(COMMAND_NAME).append(' ').append(sessionData.getSessionId());
+		commandBuffer.append(' ').append(dRA).append(' ').append(dDec);
+	}
+
+	/**
+	 * Parse the results of the command. Called from TOCCommand.run once the reply has been received.
+	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
+	 *    sessionData as necessary.
 	 * @see #logger
 	 * @see #successful
 	 * @see #errorString
 	 */
-	public void run()
+	protected void parseResults()
 	{
-		commandString = new String(COMMAND_NAME+" "+sessionData.getSessionId()+" "+dRA+" "+dDec);
-		super.run();
 		// results
 		if(getSuccessful())
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","Offset successful.");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","Offset successful.");
 		}
 		else
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","Offset failed with error : "+getErrorString()+".");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","Offset failed with error : "+getErrorString()+".");
 		}
 	}
 
@@ -96,6 +96,10 @@ public class Position extends TOCCommand implements Logging, Runnable
 	 * The distance to the moon from the target, in decimal degrees.
 	 */
 	protected double moonDistance = 0;
+	/**
+	 * The typed results of the last successful POSITION, or null.
+	 */
+	protected PositionReply reply = null;
 
 	/**
 	 * Default constructor.
@@ -150,65 +154,110 @@ public class Position extends TOCCommand implements Logging, Runnable
 	}
 
 	/**
-	 * Run method. 
-	 * Setup commandString.
-	 * Call TOCCommand.run.
+	 * POSITION is a query, so it can safely be retried after a transient transport failure.
+	 * @return true.
+	 */
+	protected boolean isIdempotent()
+	{
+		return true;
+	}
+
+	/**
+	 * POSITION is a query, so TOCSession can run it in parallel with other commands.
+	 * @return true.
+	 * @see TOCCommand#isReadOnly
 	 */
-	public void run()
+	protected boolean isReadOnly()
+	{
+		return true;
+	}
+
+	/**
+	 * POSITION is read-only, so a hedged request can be sent to a second TOCS endpoint.
+	 * @return true.
+	 * @see TOCCommand#isHedgeable
+	 */
+	protected boolean isHedgeable()
+	{
+		return true;
+	}
+
+	/**
+	 * Setup the command in commandBuffer. The RA and Dec strings come from the TOCSCoordinateCache.
+	 * @see TOCSCoordinateCache
+	 */
+	protected void createCommandString() throws TOCException
+	{
+		commandBuffer.setLength(0);
+		commandBuffer.append(COMMAND_NAME).append(' ').append(TOCSCoordinateCache.formatRA(ra));
+		commandBuffer.append(' ').append(TOCSCoordinateCache.formatDec(dec));
+	}
+
+	/**
+	 * Parse the results of the command. Called from TOCCommand.run once the reply has been received.
+	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
+	 *    sessionData as necessary.
+	 * @see #logger
+	 */
+	protected void parseResults()
 	{
-		commandString = new String(COMMAND_NAME+" "+ra.toString(':')+" "+dec.toString(':'));
-		super.run();
 		// diddly results
+		reply = null;
 		if(getSuccessful())
 		{
 			try
 			{
+				reply = PositionReply.decode(getParsedReply());
 				// altitude
-				altitude = getReplyValueDouble("alt");// in decimal degrees
+				altitude = reply.getAltitude();// in decimal degrees
 				sessionData.setProperty(".position.altitude",""+altitude);
 				// azimuth
-				azimuth = getReplyValueDouble("az");// in decimal degrees
+				azimuth = reply.getAzimuth();// in decimal degrees
 				sessionData.setProperty(".position.azimuth",""+azimuth);
 				// timeToRise
-				timeToRise = getReplyValueInt("rise");// in seconds
+				timeToRise = reply.getTimeToRise();// in seconds
 				sessionData.setProperty(".position.time_to_rise",""+timeToRise);
 				// timeToSet
-				timeToSet = getReplyValueInt("set");// in seconds
+				timeToSet = reply.getTimeToSet();// in seconds
 				sessionData.setProperty(".position.time_to_set",""+timeToSet);
 				// moonDistance
-				moonDistance = getReplyValueDouble("moon");// in decimal degrees
+				moonDistance = reply.getMoonDistance();// in decimal degrees
 				sessionData.setProperty(".position.moon_distance",""+moonDistance);
 				// category
-				category = getReplyValue("cat");
+				category = reply.getCategory();
 				sessionData.setProperty(".position.category",category);
 				// state
-				state = getReplyValue("state");
+				state = reply.getState();
 				sessionData.setProperty(".position.state",state);
 				// log
-				logger.log(INFO, 1, CLASS, RCSID,"run","Position successful altitude : "+altitude+
-					   " azimuth : "+azimuth+
-					   " category : "+category+
-					   " state : "+state+
-					   " time to set : "+timeToSet+" seconds "+
-					   " time to rise : "+timeToRise+" seconds "+
-					   " moon distance : "+moonDistance+" degrees.");
+				logger.log(INFO, 1, CLASS, RCSID,"parseResults","Position successful "+reply+".");
 			}
 			catch(NGATPropertyException e)
 			{
 				successful = false;
 				errorString = new String(this.getClass().getName()+
-							 ":run:Parsing POSITION results failed:"+e);
-				logger.log(INFO, 1, CLASS, RCSID,"run",errorString);
+							 ":parseResults:Parsing POSITION results failed:"+e);
+				logger.log(INFO, 1, CLASS, RCSID,"parseResults",errorString);
 				logger.dumpStack(1,e);
 				return;
 			}
 		}
 		else
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","Position failed with error : "+getErrorString()+".");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","Position failed with error : "+getErrorString()+".");
 		}
 	}
 
+	/**
+	 * Get the typed results of the last successful POSITION command.
+	 * @return The results, or null if the last POSITION failed (or none has been sent).
+	 * @see #reply
+	 */
+	public PositionReply getReply()
+	{
+		return reply;
+	}
+
 	/**
 	 * Get the altitude returned from the POSITION command.
 	 * @return The altitude in decimal degrees.
@@ -0,0 +1,250 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// PositionReply.java
+// $Header$
+package org.estar.toop;
+
+import ngat.util.*;
+
+/**
+ * The results of a POSITION command. Immutable, decoded from the reply in one pass.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see Position#getReply
+ */
+public class PositionReply
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The keywords that must be in a POSITION reply, in the order of their bits in the decode mask.
+	 */
+	private static final String KEYWORDS[] = {"alt","az","rise","set","moon","cat","state"};
+	/**
+	 * The decode mask with all the keyword bits set.
+	 */
+	private static final int ALL_FOUND = (1<<KEYWORDS.length)-1;
+	/**
+	 * The altitude of the target, in decimal degrees.
+	 */
+	private final double altitude;
+	/**
+	 * The azimuth of the target, in decimal degrees.
+	 */
+	private final double azimuth;
+	/**
+	 * The time until the target rises, in seconds.
+	 */
+	private final int timeToRise;
+	/**
+	 * The time until the target sets, in seconds.
+	 */
+	private final int timeToSet;
+	/**
+	 * The distance of the target from the moon, in decimal degrees.
+	 */
+	private final double moonDistance;
+	/**
+	 * The category of the target, e.g. RISER.
+	 */
+	private final String category;
+	/**
+	 * The state of the target, RISEN or SET.
+	 */
+	private final String state;
+
+	/**
+	 * Constructor.
+	 * @param altitude The altitude, in decimal degrees.
+	 * @param azimuth The azimuth, in decimal degrees.
+	 * @param timeToRise The time until the target rises, in seconds.
+	 * @param timeToSet The time until the target sets, in seconds.
+	 * @param moonDistance The distance from the moon, in decimal degrees.
+	 * @param category The category.
+	 * @param state The state.
+	 */
+	public PositionReply(double altitude,double azimuth,int timeToRise,int timeToSet,double moonDistance,
+			     String category,String state)
+	{
+		super();
+		this.altitude = altitude;
+		this.azimuth = azimuth;
+		this.timeToRise = timeToRise;
+		this.timeToSet = timeToSet;
+		this.moonDistance = moonDistance;
+		this.category = category;
+		this.state = state;
+	}
+
+	/**
+	 * Decode a POSITION reply, of the form:
+	 * <pre>
+	 * OK alt=45.5, az=120.25, rise=0, set=3600, moon=33.1, cat=RISER, state=RISEN
+	 * </pre>
+	 * The keyword/value pairs are examined once, in order.
+	 * @param reply The parsed reply.
+	 * @return The decoded reply.
+	 * @exception NGATPropertyException Thrown if a keyword is missing, or a value is not valid.
+	 * @see #KEYWORDS
+	 */
+	static PositionReply decode(TOCSReply reply) throws NGATPropertyException
+	{
+		String category = null;
+		String state = null;
+		double altitude = 0.0,azimuth = 0.0,moonDistance = 0.0;
+		int timeToRise = 0,timeToSet = 0;
+		int i,found;
+
+		found = 0;
+		for(i = 0; i < reply.getPairCount(); i++)
+		{
+			if(reply.keywordEquals(i,"alt"))
+			{
+				altitude = reply.getDouble(i);
+				found |= 1;
+			}
+			else if(reply.keywordEquals(i,"az"))
+			{
+				azimuth = reply.getDouble(i);
+				found |= 2;
+			}
+			else if(reply.keywordEquals(i,"rise"))
+			{
+				timeToRise = reply.getInt(i);
+				found |= 4;
+			}
+			else if(reply.keywordEquals(i,"set"))
+			{
+				timeToSet = reply.getInt(i);
+				found |= 8;
+			}
+			else if(reply.keywordEquals(i,"moon"))
+			{
+				moonDistance = reply.getDouble(i);
+				found |= 16;
+			}
+			else if(reply.keywordEquals(i,"cat"))
+			{
+				category = reply.getValue(i);
+				found |= 32;
+			}
+			else if(reply.keywordEquals(i,"state"))
+			{
+				state = reply.getValue(i);
+				found |= 64;
+			}
+		}
+		if(found != ALL_FOUND)
+		{
+			for(i = 0; i < KEYWORDS.length; i++)
+			{
+				if((found & (1<<i)) == 0)
+					throw reply.createMissingKeywordException(KEYWORDS[i]);
+			}
+		}
+		return new PositionReply(altitude,azimuth,timeToRise,timeToSet,moonDistance,category,state);
+	}
+
+	/**
+	 * Get the altitude of the target.
+	 * @return The altitude, in decimal degrees.
+	 * @see #altitude
+	 */
+	public double getAltitude()
+	{
+		return altitude;
+	}
+
+	/**
+	 * Get the azimuth of the target.
+	 * @return The azimuth, in decimal degrees.
+	 * @see #azimuth
+	 */
+	public double getAzimuth()
+	{
+		return azimuth;
+	}
+
+	/**
+	 * Get the time until the target rises.
+	 * @return The time, in seconds.
+	 * @see #timeToRise
+	 */
+	public int getTimeToRise()
+	{
+		return timeToRise;
+	}
+
+	/**
+	 * Get the time until the target sets.
+	 * @return The time, in seconds.
+	 * @see #timeToSet
+	 */
+	public int getTimeToSet()
+	{
+		return timeToSet;
+	}
+
+	/**
+	 * Get the distance of the target from the moon.
+	 * @return The distance, in decimal degrees.
+	 * @see #moonDistance
+	 */
+	public double getMoonDistance()
+	{
+		return moonDistance;
+	}
+
+	/**
+	 * Get the category of the target.
+	 * @return The category.
+	 * @see #category
+	 */
+	public String getCategory()
+	{
+		return category;
+	}
+
+	/**
+	 * Get the state of the target.
+	 * @return The state, RISEN or SET.
+	 * @see #state
+	 */
+	public String getState()
+	{
+		return state;
+	}
+
+	/**
+	 * Return a string representation of the reply.
+	 * @return The reply, as a string.
+	 */
+	public String toString()
+	{
+		return "altitude : "+altitude+" azimuth : "+azimuth+" category : "+category+" state : "+state+
+			" time to set : "+timeToSet+" seconds  time to rise : "+timeToRise+" seconds "+
+			" moon distance : "+moonDistance+" degrees";
+	}
+}
+/*
+** $Log$
+*/
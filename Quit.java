@@ -32,7 +32,7 @@ import ngat.util.logging.*;
  * @author Steve Fraser, Chris Mottram
  * @version $Revision$
  */
-class Quit extends TOCCommand implements Logging, Runnable
+public class Quit extends TOCCommand implements Logging, Runnable
 {
 	/**
 	 * Revision control system version id.
@@ -56,30 +56,46 @@ class Quit extends TOCCommand implements Logging, Runnable
 	}
 
 	/**
-	 * Run method. 
-	 * Setup commandString.
-	 * Call TOCCommand.run.
-	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
-	 *    sessionData as necessary.
+	 * The QUIT command depends only on the session ID, so it is encoded once
+	 * and resent until the session data changes.
+	 * @return true.
+	 * @see TOCCommand#encodeCommand
+	 */
+	protected boolean isFrameCacheable()
+	{
+		return true;
+	}
+
+	/**
+	 * Setup the command in commandBuffer.
 	 * @see #COMMAND_NAME
-	 * @see #commandString
+	 * @see #commandBuffer
 	 * @see #sessionData
+	 */
+	protected void createCommandString() throws TOCException
+	{
+		commandBuffer.setLength(0);
+		commandBuffer.append(COMMAND_NAME).append(' ').append(sessionData.getSessionId());
+	}
+
+	/**
+	 * Parse the results of the command. Called from TOCCommand.run once the reply has been received.
+	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
+	 *    sessionData as necessary.
 	 * @see #logger
 	 * @see #successful
 	 * @see #errorString
 	 */
-	public void run()
+	protected void parseResults()
 	{
-		commandString = new String(COMMAND_NAME+" "+sessionData.getSessionId());
-		super.run();
 		// results
 		if(getSuccessful())
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","Quit successful.");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","Quit successful.");
 		}
 		else
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","Quit failed with error : "+getErrorString()+".");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","Quit failed with error : "+getErrorString()+".");
 		}
 	}
 
@@ -102,42 +102,59 @@ class Rotator extends TOCCommand implements Logging, Runnable
 	}
 	
 	/**
-	 * Run method. 
-	 * Setup commandString.
-	 * Call TOCCommand.run.
-	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
-	 *    sessionData as necessary.
+	 * ROTATOR only moves the telescope's rotator.
+	 * @return RESOURCE_TELESCOPE.
+	 * @see TOCCommand#getResources
+	 */
+	public int getResources()
+	{
+		return RESOURCE_TELESCOPE;
+	}
+
+	/**
+	 * Setup the command in commandBuffer.
 	 * @see #COMMAND_NAME
-	 * @see #commandString
+	 * @see #commandBuffer
 	 * @see #rotatorMode
 	 * @see #mountAngle
 	 * @see #sessionData
+	 * @exception TOCException Thrown if the rotator mode is not one of SKY, MOUNT or FLOAT.
+	 */
+	protected void createCommandString() throws TOCException
+	{
+		if((rotatorMode == null)||((rotatorMode.equalsIgnoreCase(ROTATOR_MODE_SKY) == false)&&
+					   (rotatorMode.equalsIgnoreCase(ROTATOR_MODE_MOUNT) == false)&&
+					   (rotatorMode.equalsIgnoreCase(ROTATOR_MODE_FLOAT) == false)))
+		{
+			throw new TOCException(this.getClass().getName()+
+					       ":createCommandString:Illegal rotator mode:"+rotatorMode+".");
+		}
+		// create command string
+		commandBuffer.setLength(0);
+		commandBuffer.append(COMMAND_NAME).append(' ').append(sessionData.getSessionId());
+		commandBuffer.append(' ').append(rotatorMode);
+		if(rotatorMode.equalsIgnoreCase("MOUNT"))
+			commandBuffer.append(' ').append(mountAngle);
+	}
+
+	/**
+	 * Parse the results of the command. Called from TOCCommand.run once the reply has been received.
+	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
+	 *    sessionData as necessary.
 	 * @see #logger
 	 * @see #successful
 	 * @see #errorString
 	 */
-	public void run()
+	protected void parseResults()
 	{
-		// create command string
-		if(rotatorMode.equalsIgnoreCase("MOUNT"))
-		{
-			commandString = new String(COMMAND_NAME+" "+sessionData.getSessionId()+" "+rotatorMode+" "+
-						   mountAngle);
-		}
-		else
-		{
-			commandString = new String(COMMAND_NAME+" "+sessionData.getSessionId()+" "+rotatorMode);
-		}
-		// run the ROTATOR command
-		super.run();
 		// results
 		if(getSuccessful())
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","Rotator successful.");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","Rotator successful.");
 		}
 		else
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","Rotator failed with error : "+getErrorString()+".");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","Rotator failed with error : "+getErrorString()+".");
 		}
 	}
 
@@ -34,7 +34,7 @@ import org.estar.astrometry.*;
  * @author Steve Fraser, Chris Mottram
  * @version $Revision$
  */
-class Slew extends TOCCommand implements Logging, Runnable
+public class Slew extends TOCCommand implements Logging, Runnable
 {
 	/**
 	 * Revision control system version id.
@@ -124,36 +124,68 @@ class Slew extends TOCCommand implements Logging, Runnable
 	}
 
 	/**
-	 * Run method. 
-	 * Setup commandString.
-	 * Call TOCCommand.run.
-	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
-	 *    sessionData as necessary.
+	 * Get the default deadline for this command, the slew budget from the session data.
+	 * @return The deadline in milliseconds.
+	 * @see TOCSessionData#getSlewTimeout
+	 */
+	protected long getDefaultTimeout()
+	{
+		return sessionData.getSlewTimeout();
+	}
+
+	/**
+	 * SLEW only moves the telescope, so (with resource locking) the instrument can be configured while it runs.
+	 * @return RESOURCE_TELESCOPE.
+	 * @see TOCCommand#getResources
+	 */
+	public int getResources()
+	{
+		return RESOURCE_TELESCOPE;
+	}
+
+	/**
+	 * Setup the command in commandBuffer.
 	 * @see #COMMAND_NAME
-	 * @see #commandString
+	 * @see #commandBuffer
 	 * @see #sourceID
 	 * @see #ra
 	 * @see #dec
+	 * @see TOCSCoordinateCache
 	 * @see #sessionData
+	 * @exception TOCException Thrown if the source ID, RA or Dec have not been set.
+	 */
+	protected void createCommandString() throws TOCException
+	{
+		if((sourceID == null)||(ra == null)||(dec == null))
+		{
+			throw new TOCException(this.getClass().getName()+
+					       ":createCommandString:Source ID/RA/Dec not set.");
+		}
+		commandBuffer.setLength(0);
+		commandBuffer.append(COMMAND_NAME).append(' ').append(sessionData.getSessionId());
+		commandBuffer.append(' ').append(sourceID);
+		commandBuffer.append(' ').append(TOCSCoordinateCache.formatRA(ra));
+		commandBuffer.append(' ').append(TOCSCoordinateCache.formatDec(dec));
+	}
+
+	/**
+	 * Parse the results of the command. Called from TOCCommand.run once the reply has been received.
+	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
+	 *    sessionData as necessary.
 	 * @see #logger
 	 * @see #successful
 	 * @see #errorString
 	 */
-	public void run()
+	protected void parseResults()
 	{
-		commandString = new String(COMMAND_NAME+" "+sessionData.getSessionId()+
-					   " "+sourceID+
-					   " "+ra.toString(':')+
-					   " "+dec.toString(':'));
-		super.run();
 		// results
 		if(getSuccessful())
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","Slew successful.");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","Slew successful.");
 		}
 		else
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","Slew failed with error : "+getErrorString()+".");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","Slew failed with error : "+getErrorString()+".");
 		}
 	}
 
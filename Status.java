@@ -34,7 +34,7 @@ import org.estar.astrometry.*;
  * @author Steve Fraser, Chris Mottram
  * @version $Revision$
  */
-class Status extends TOCCommand implements Logging, Runnable
+public class Status extends TOCCommand implements Logging, Runnable
 {
 	/**
 	 * Revision control system version id.
@@ -72,6 +72,10 @@ class Status extends TOCCommand implements Logging, Runnable
 	 * The value for the specified category:keyword, as returned by the TOCA status command.
 	 */
 	protected String value = null;
+	/**
+	 * The typed results of the last successful STATUS, or null.
+	 */
+	protected StatusReply reply = null;
 
 	/**
 	 * Default constructor.
@@ -102,41 +106,90 @@ class Status extends TOCCommand implements Logging, Runnable
 	}
 
 	/**
-	 * Run method. 
-	 * Setup commandString.
-	 * Call TOCCommand.run.
+	 * STATUS is a query, so it can safely be retried after a transient transport failure.
+	 * @return true.
+	 */
+	protected boolean isIdempotent()
+	{
+		return true;
+	}
+
+	/**
+	 * STATUS is a query, so TOCSession can run it in parallel with other commands.
+	 * @return true.
+	 * @see TOCCommand#isReadOnly
 	 */
-	public void run()
+	protected boolean isReadOnly()
+	{
+		return true;
+	}
+
+	/**
+	 * STATUS is read-only, so a hedged request can be sent to a second TOCS endpoint.
+	 * @return true.
+	 * @see TOCCommand#isHedgeable
+	 */
+	protected boolean isHedgeable()
+	{
+		return true;
+	}
+
+	/**
+	 * Setup the command in commandBuffer.
+	 */
+	protected void createCommandString() throws TOCException
+	{
+		commandBuffer.setLength(0);
+		commandBuffer.append(COMMAND_NAME).append(' ').append(category).append(' ').append(keyword);
+	}
+
+	/**
+	 * Parse the results of the command. Called from TOCCommand.run once the reply has been received.
+	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
+	 *    sessionData as necessary.
+	 * @see #logger
+	 */
+	protected void parseResults()
 	{
-		commandString = new String(COMMAND_NAME+" "+category+" "+keyword);
-		super.run();
 		// parse results
+		reply = null;
 		if(getSuccessful())
 		{
 			try
 			{
 				// value is returned in the form: keyword = value
-				value = getReplyValue(keyword);
+				reply = StatusReply.decode(getParsedReply(),keyword);
+				value = reply.getValue();
 				sessionData.setProperty(".status.value",value);
 				// log
-				logger.log(INFO, 1, CLASS, RCSID,"run","Status successful value : "+value+".");
+				logger.log(INFO, 1, CLASS, RCSID,"parseResults","Status successful value : "+value+".");
 			}
 			catch(Exception e)
 			{
 				successful = false;
 				errorString = new String(this.getClass().getName()+
-							 ":run:Parsing STATUS results failed:"+e);
-				logger.log(INFO, 1, CLASS, RCSID,"run",errorString);
+							 ":parseResults:Parsing STATUS results failed:"+e);
+				logger.log(INFO, 1, CLASS, RCSID,"parseResults",errorString);
 				logger.dumpStack(1,e);
 				return;
 			}
 		}
 		else
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","Status failed with error : "+getErrorString()+".");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","Status failed with error : "+getErrorString()+".");
 		}
 	}
 
+	/**
+	 * Get the typed results of the last successful STATUS command.
+	 * @return The results, or null if the last STATUS failed (or none has been sent).
+	 * @see #reply
+	 */
+	public StatusReply getReply()
+	{
+		return reply;
+	}
+
 	/**
 	 * Get the value returned from the STATUS command.
 	 * @return The value as a string.
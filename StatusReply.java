@@ -0,0 +1,132 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// StatusReply.java
+// $Header$
+package org.estar.toop;
+
+import ngat.util.*;
+
+/**
+ * The results of a STATUS command. Immutable, decoded from the reply.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see Status#getReply
+ */
+public class StatusReply
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The status keyword that was asked for, e.g. humidity.
+	 */
+	private final String keyword;
+	/**
+	 * The value of the status keyword, e.g. "0.74".
+	 */
+	private final String value;
+
+	/**
+	 * Constructor.
+	 * @param keyword The status keyword.
+	 * @param value The value.
+	 */
+	public StatusReply(String keyword,String value)
+	{
+		super();
+		this.keyword = keyword;
+		this.value = value;
+	}
+
+	/**
+	 * Decode a STATUS reply, of the form:
+	 * <pre>
+	 * OK &lt;keyword&gt;=&lt;value&gt;
+	 * </pre>
+	 * @param reply The parsed reply.
+	 * @param keyword The status keyword that was asked for.
+	 * @return The decoded reply.
+	 * @exception NGATPropertyException Thrown if the keyword is missing.
+	 */
+	static StatusReply decode(TOCSReply reply,String keyword) throws NGATPropertyException
+	{
+		int i;
+
+		i = reply.indexOf(keyword);
+		if(i < 0)
+			throw reply.createMissingKeywordException(keyword);
+		return new StatusReply(keyword,reply.getValue(i));
+	}
+
+	/**
+	 * Get the status keyword that was asked for.
+	 * @return The keyword.
+	 * @see #keyword
+	 */
+	public String getKeyword()
+	{
+		return keyword;
+	}
+
+	/**
+	 * Get the value of the status keyword.
+	 * @return The value as a string.
+	 * @see #value
+	 */
+	public String getValue()
+	{
+		return value;
+	}
+
+	/**
+	 * Get the value of the status keyword, as an int.
+	 * @return The value as an integer.
+	 * @exception NumberFormatException Thrown if the value is not a valid integer.
+	 * @see #value
+	 */
+	public int getValueInt() throws NumberFormatException
+	{
+		return Integer.parseInt(value);
+	}
+
+	/**
+	 * Get the value of the status keyword, as a double.
+	 * @return The value as a double.
+	 * @exception NumberFormatException Thrown if the value is not a valid double.
+	 * @see #value
+	 */
+	public double getValueDouble() throws NumberFormatException
+	{
+		return Double.parseDouble(value);
+	}
+
+	/**
+	 * Return a string representation of the reply.
+	 * @return The reply, as a string.
+	 */
+	public String toString()
+	{
+		return keyword+" : "+value;
+	}
+}
+/*
+** $Log$
+*/
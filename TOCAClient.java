@@ -22,9 +22,11 @@
 package org.estar.toop;
 
 import java.io.*;
+import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
-import ngat.net.*;
 import ngat.util.*;
 import ngat.util.logging.*;
 
@@ -43,6 +45,12 @@ class TOCAClient implements Logging, Runnable
 	 * Classname for logging.
 	 */
 	public static final String CLASS = "TOCAClient";
+	/**
+	 * How long after the command's deadline runNio waits for the engine to fail the exchange,
+	 * before giving up on it, in milliseconds.
+	 * @see #runNio
+	 */
+	public final static long NIO_DEADLINE_GRACE = 1000;
 	/**
 	 * True if the command generated an error.
 	 */
@@ -56,9 +64,16 @@ class TOCAClient implements Logging, Runnable
 	 */
 	private int port;
 	/**
-	 * Command to send.
+	 * Command to send. This is usually the calling TOCCommand's (reused) command buffer, which is
+	 * encoded straight into the connection's send buffer without creating an intermediate String.
 	 */
-	private String command;
+	private CharSequence command;
+	/**
+	 * The command, pre-encoded as a frame (see TOCSConnection.encodeFrame), or null. If this is set it is
+	 * sent instead of encoding the command again; command is then only used for logging.
+	 * @see #setCommandFrame
+	 */
+	private byte commandFrame[] = null;
 	/**
 	 * Error message from TOCS server.
 	 */
@@ -67,47 +82,122 @@ class TOCAClient implements Logging, Runnable
 	 * Error code string from TOCS server.
 	 */
 	private String errorCode = null;
+	/**
+	 * The error code, as an enumeration, or null if there was no error.
+	 */
+	private TOCSErrorCode tocsErrorCode = null;
+	/**
+	 * The numeric Code in an ABORTED error reply, or -1 if there was none.
+	 */
+	private int abortCode = -1;
 	/**
 	 * Response from TOCS server.
 	 */
 	private String replyString;
 	/**
-	 * The TelnetConnection to use to connect to the TOCS server.
+	 * The connection to use to connect to the TOCS server. Volatile, as cancel closes it from another thread.
+	 */
+	private volatile TOCSConnection tc;
+	/**
+	 * Whether to borrow the connection from the TOCSConnectionPool, rather than opening a new
+	 * connection for each command.
+	 * @see TOCSConnectionPool
+	 */
+	private boolean connectionPooling = false;
+	/**
+	 * Whether the command can safely be sent more than once (i.e. it is a query, or HELO). If the command 
+	 * is not idempotent, it is never re-sent once it has been written to a connection.
+	 * @see #exchange
+	 */
+	private boolean idempotent = false;
+	/**
+	 * The non-blocking transport engine to send the command with. If null, a (blocking) TOCSConnection
+	 * is used instead.
+	 * @see TOCSNioEngine
+	 */
+	private TOCSNioEngine nioEngine = null;
+	/**
+	 * The exchange currently submitted to a non-blocking engine, or null. The engine's result is only
+	 * processed if it's exchange is still the current one, so an exchange runNio has given up on can 
+	 * not overwrite the result.
+	 * @see #submit
+	 * @see #runNio
+	 */
+	private AtomicReference<Object> nioExchange = new AtomicReference<Object>();
+	/**
+	 * The command's deadline, i.e. how long to wait for the reply, in milliseconds. 
+	 * 0 means wait forever.
+	 */
+	private long timeout = 0;
+	/**
+	 * How long to wait for a connection to the TOCS server to open, in milliseconds.
+	 * 0 means wait forever.
 	 */
-	private TelnetConnection tc;
+	private long connectTimeout = 0;
+	/**
+	 * The time the command must be completed by, in milliseconds since the epoch,
+	 * or 0 if there is no deadline.
+	 */
+	private long deadline = 0;
+	/**
+	 * True if the command failed because it's deadline expired.
+	 */
+	private volatile boolean timedOut = false;
+	/**
+	 * True if the command failed because a connection to the TOCS server could not be opened.
+	 */
+	private volatile boolean connectFailed = false;
+	/**
+	 * True if the command failed because the TOCS server closed the connection without replying.
+	 */
+	private volatile boolean nullReply = false;
+	/**
+	 * True if the command was cancelled (see cancel).
+	 */
+	private volatile boolean cancelled = false;
+	/**
+	 * If non-null, the reply is read in streaming mode, and each non-terminal reply line is passed to
+	 * this listener as it arrives.
+	 * @see TOCSReplyLineListener
+	 */
+	private TOCSReplyLineListener replyLineListener = null;
+	/**
+	 * The number of non-terminal reply lines received in streaming mode for the current command.
+	 */
+	private int streamedLineCount = 0;
 	/**
 	 * Class logger.
 	 */
 	private Logger logger = null;
 	/**
-	 * Properties filled with keyword-values parsed from a reply from the command.
+	 * The keyword-values parsed from a reply from the command. Re-used for each reply.
 	 */
-	private NGATProperties replyProperties = null;
+	private TOCSReply reply = null;
 
 	/**
 	 * Default constructor.
-	 * The logger instance is also created. The replyProperties instance is initialised.
+	 * The logger instance is also created. The reply instance is initialised.
 	 * @see #logger
-	 * @see #replyProperties
+	 * @see #reply
 	 */
 	public TOCAClient() 
 	{
 		super();
-		replyProperties = new NGATProperties();
+		reply = new TOCSReply();
 		logger = LogManager.getLogger(this);
 	}
 
 	/**
 	 * Create a TOCAClient using the supplied parameters.
-	 * The logger instance is also created. The replyProperties instance is initialised.
+	 * The logger instance is also created. The reply instance is initialised.
 	 * @param command The command string to send.
 	 * @param host The TOCS Server IP Address.
 	 * @param port The TOCS Server port.
 	 * @see #TOCAClient()
 	 * @see #logger
-	 * @see #replyProperties
+	 * @see #reply
 	 */
-	public TOCAClient(String command, String host, int port) 
+	public TOCAClient(CharSequence command, String host, int port) 
 	{
 		this();
 		this.command = command;
@@ -117,13 +207,26 @@ class TOCAClient implements Logging, Runnable
 
 	/**
 	 * Set the command the client sends to the RCS TOCA.
-	 * @param s The command.
+	 * @param s The command. This is not copied, and must not be modified until the command has been sent.
 	 * @see #command
 	 */
-	public void setCommand(String s)
+	public void setCommand(CharSequence s)
 	{
 		command = s;
 	}
+
+	/**
+	 * Set the pre-encoded command frame the client sends to the RCS TOCA, if the calling command has one.
+	 * The frame must encode the same command as setCommand.
+	 * @param frame The frame, including the line terminator, or null to encode the command when it is sent.
+	 *        The frame is not copied, and must not be modified.
+	 * @see #commandFrame
+	 * @see TOCSConnection#encodeFrame
+	 */
+	public void setCommandFrame(byte frame[])
+	{
+		commandFrame = frame;
+	}
   
 	/**
 	 * Set the RCS TOCA host the client connects to.
@@ -146,86 +249,581 @@ class TOCAClient implements Logging, Runnable
 	}
   
 	/**
-	 * Called to send the command. This method which delegates to the TelnetConnection
+	 * Set whether the client should borrow its connection from (and return it to) the TOCSConnectionPool,
+	 * rather than opening and closing a new connection for each command.
+	 * @param b A boolean, if true use a pooled keep-alive connection.
+	 * @see #connectionPooling
+	 */
+	public void setConnectionPooling(boolean b)
+	{
+		connectionPooling = b;
+	}
+
+	/**
+	 * Set whether the command can safely be sent more than once. The default is false.
+	 * @param b A boolean, true if the command is idempotent.
+	 * @see #idempotent
+	 * @see TOCCommand#isIdempotent
+	 */
+	public void setIdempotent(boolean b)
+	{
+		idempotent = b;
+	}
+
+	/**
+	 * Set the command's deadline, i.e. how long to wait for the reply. If the deadline expires, the
+	 * connection is closed and the command fails with a TIMEOUT error.
+	 * @param ms The deadline in milliseconds, 0 means wait forever.
+	 * @see #timeout
+	 */
+	public void setTimeout(long ms)
+	{
+		timeout = ms;
+	}
+
+	/**
+	 * Set how long to wait for a connection to the TOCS server to open. This is limited by the
+	 * command's deadline.
+	 * @param ms The connect timeout in milliseconds, 0 means wait forever.
+	 * @see #connectTimeout
+	 */
+	public void setConnectTimeout(long ms)
+	{
+		connectTimeout = ms;
+	}
+
+	/**
+	 * Set the listener to receive a multi-line reply, line by line. When set, the reply is read in 
+	 * streaming mode: lines are read until a terminal line (starting with OK or ERROR) is read, each
+	 * earlier line being passed to the listener as it arrives. The terminal line is the command's reply.
+	 * @param l The listener, or null to read a single reply line.
+	 * @see #replyLineListener
+	 * @see #isTerminalLine
+	 */
+	public void setReplyLineListener(TOCSReplyLineListener l)
+	{
+		replyLineListener = l;
+	}
+
+	/**
+	 * Called to send the command. This method which delegates to the TOCSConnection
 	 * will block until the reply is received from the server or connection fails for some reason.
 	 * A single line command is sent and a single line reply is expected. The connection will be 
-	 * closed by this client after receiving this line, any extra lines are lost.
+	 * closed by this client after receiving this line, unless connection pooling
+	 * is enabled, in which case the connection is returned to the TOCSConnectionPool for re-use.
+	 * If a reply line listener has been set, a multi-line reply is read instead (see setReplyLineListener).
+	 * If a TOCSNioEngine has been set, the command is sent using that instead, and this method waits
+	 * for the reply.
+	 * If the command's deadline expires (opening the connection, or waiting for the reply), the connection
+	 * is closed, and the command fails with a TIMEOUT error code (isTimedOut returns true).
 	 * @see #host
 	 * @see #port
 	 * @see #tc
 	 * @see #logger
 	 * @see #setError
 	 * @see #replyString
-	 * @see #parseError
-	 * @see #parseReply
+	 * @see #nioEngine
+	 * @see #runNio
+	 * @see #openConnection
+	 * @see #exchange
+	 * @see #closeConnection
+	 * @see #processReply
+	 * @see #startDeadline
+	 * @see #setTimedOut
 	 */	
 	public void run()
 	{
+		String line = null;
+		boolean reusable = false;
+
+		startDeadline();
+		if(nioEngine != null)
+		{
+			runNio();
+			return;
+		}
+		tc = null;
 		try
 		{
 			logger.log(INFO, 1, CLASS, RCSID,"run","TOCAClient::Connecting to "+host+":"+port);
-			tc = new TelnetConnection(host, port);
 			try
 			{
-				tc.open();
+				openConnection();
 				logger.log(INFO, 1, CLASS, RCSID,"run","TOCAClient::Opened connection");
 			}
+			catch (SocketTimeoutException e)
+			{
+				connectFailed = true;
+				setTimedOut("Timed out opening connection to TOCS: "+e);
+				return;
+			}
 			catch (Exception e)
 			{
+				connectFailed = true;
 				setError(true, "Failed to open connection to TOCS: "+e);
 				logger.log(INFO, 1, CLASS, RCSID,"run","Failed to open connection to TOCS: "+e);
 				logger.dumpStack(1,e);
 				return;
 			}
-			tc.sendLine(command);
-			logger.log(INFO, 1, CLASS, RCSID,"run","TOCAClient::Sent ["+command+"]");
-			try
+			line = exchange();
+			// if we got a whole reply line, the connection can be used again
+			reusable = ((line != null) && (line.equals("") == false));
+			processReply(line);
+		}
+		catch (SocketTimeoutException e)
+		{
+			// the connection is closed (not re-used) in the finally clause, cancelling the command
+			setTimedOut("Timed out waiting for TOCS response after "+timeout+" ms: "+e);
+			return;
+		}
+		catch (Exception e)
+		{
+			setError(true, "Failed to read TOCS response: "+e);
+			logger.log(INFO, 1, CLASS, RCSID,"run","Failed to read TOCS response: "+e);
+			logger.dumpStack(1,e);
+			return;		
+		}
+		finally
+		{
+			closeConnection(reusable);
+		}
+	}
+
+	/**
+	 * Cancel a command being run (by run, in another thread) by closing it's connection. The run method
+	 * then fails with an error (if it has not already received the reply). This is used to abandon
+	 * the slower of two hedged requests. If the connection has not been opened yet, the command is only
+	 * marked as cancelled.
+	 * @see #tc
+	 * @see #run
+	 * @see #cancelled
+	 */
+	public void cancel()
+	{
+		TOCSConnection connection = null;
+
+		cancelled = true;
+		connection = tc;
+		if(connection == null)
+			return;
+		logger.log(INFO, 1, CLASS, RCSID,"cancel","TOCAClient::Cancelling command to "+host+":"+port);
+		try
+		{
+			connection.close();
+		}
+		catch (Exception e)
+		{
+			logger.log(INFO, 1, CLASS, RCSID,"cancel","TOCAClient::Error closing connection:"+e);
+		}
+	}
+
+	/**
+	 * Send the command using the non-blocking TOCSNioEngine transport, without waiting for the reply.
+	 * When the reply line arrives it is processed (so isError/getReply/getReplyValue etc. are valid), and
+	 * then the supplied listener is called. The listener is called on the engine's selector thread,
+	 * and so should not block. If the command's deadline expires, the engine closes the channel and
+	 * the command fails with a TIMEOUT error.
+	 * @param engine The engine to send the command with.
+	 * @param listener The listener to call once the reply has been processed.
+	 * @see #processReply
+	 * @see #processTransportError
+	 * @see #nioExchange
+	 * @see TOCSNioEngine#submit
+	 */
+	public void submit(TOCSNioEngine engine,final TOCSReplyListener listener)
+	{
+		final Object exchange = new Object();
+
+		logger.log(INFO, 1, CLASS, RCSID,"submit","TOCAClient::Submitting ["+command+"] to "+host+":"+port);
+		startDeadline();
+		if(commandFrame == null)
+			commandFrame = TOCSConnection.encodeFrame(command);
+		nioExchange.set(exchange);
+		engine.submit(host,port,commandFrame,timeout,replyLineListener,new TOCSReplyListener()
+			{
+				public void replyReceived(String line)
+				{
+					if(nioExchange.compareAndSet(exchange,null) == false)
+						return;
+					processReply(line);
+					listener.replyReceived(line);
+				}
+
+				public void exchangeFailed(Exception e)
+				{
+					if(nioExchange.compareAndSet(exchange,null) == false)
+						return;
+					processTransportError(e);
+					listener.exchangeFailed(e);
+				}
+			});
+	}
+
+	/**
+	 * Set the non-blocking transport engine to use. If this is non-null, run sends the command using
+	 * the engine rather than a TOCSConnection (and waits for the reply).
+	 * @param engine The engine, or null to use the blocking transport.
+	 * @see #nioEngine
+	 */
+	public void setNioEngine(TOCSNioEngine engine)
+	{
+		nioEngine = engine;
+	}
+
+	/**
+	 * Send the command using the nioEngine, and wait for the reply to be processed.
+	 * A CountDownLatch (rather than a monitor wait) is used, so a virtual thread waiting here
+	 * does not pin it's carrier thread.
+	 * The engine fails the exchange when the command's deadline expires, but in case it never does
+	 * (e.g. it's selector thread is stuck), we only wait until NIO_DEADLINE_GRACE after the deadline,
+	 * and then abandon the exchange and fail the command with a TIMEOUT error.
+	 * @see #nioEngine
+	 * @see #submit
+	 * @see #nioExchange
+	 * @see #NIO_DEADLINE_GRACE
+	 */
+	private void runNio()
+	{
+		final CountDownLatch latch = new CountDownLatch(1);
+		long waitTime;
+
+		submit(nioEngine,new TOCSReplyListener()
 			{
-				replyString = tc.readLine();
-				logger.log(INFO, 1, CLASS, RCSID,"run","TOCAClient::Reply ["+replyString+"]");
-				if (replyString == null || replyString.equals(""))
+				public void replyReceived(String line)
 				{
-					setError(true, "Null reply from TOCS");
-					return;
+					latch.countDown();
 				}
-				replyString = replyString.trim();
-				if (replyString.startsWith("ERROR"))
+
+				public void exchangeFailed(Exception e)
+				{
+					latch.countDown();
+				}
+			});
+		try
+		{
+			if(deadline == 0)
+				latch.await();
+			else
+			{
+				waitTime = Math.max(deadline-System.currentTimeMillis(),0)+NIO_DEADLINE_GRACE;
+				if(latch.await(waitTime,TimeUnit.MILLISECONDS) == false)
 				{
-					parseError();
-					return;
+					// only fail the command if the engine is not already processing the result
+					if(nioExchange.getAndSet(null) != null)
+					{
+						processTransportError(new SocketTimeoutException(
+								      "TOCS engine did not complete the exchange."));
+					}
+					else
+						latch.await();
 				}
-				parseReply();
 			}
-			catch (Exception e)
+		}
+		catch(InterruptedException e)
+		{
+			nioExchange.set(null);
+			setError(true, "Interrupted waiting for TOCS response: "+e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Process a reply line received from the TOCS server.
+	 * <ul>
+	 * <li>A null/blank line means the server closed the connection without replying, this is an error.
+	 * <li>A line starting with ERROR is parsed using parseError.
+	 * <li>Otherwise the line is parsed using parseReply.
+	 * </ul>
+	 * @param line The reply line.
+	 * @see #replyString
+	 * @see #setError
+	 * @see #parseError
+	 * @see #parseReply
+	 */
+	void processReply(String line)
+	{
+		reply.clear();
+		replyString = line;
+		logger.log(INFO, 1, CLASS, RCSID,"processReply","TOCAClient::Reply ["+replyString+"]");
+		if (replyString == null || replyString.equals(""))
+		{
+			nullReply = true;
+			setError(true, "Null reply from TOCS");
+			return;
+		}
+		try
+		{
+			replyString = replyString.trim();
+			if (replyString.startsWith("ERROR"))
 			{
-				setError(true, "Failed to read TOCS response: "+e);
-				logger.log(INFO, 1, CLASS, RCSID,"run","Failed to read TOCS response: "+e);
-				logger.dumpStack(1,e);
+				parseError();
 				return;
-			}	
-			setError(false, "Command accepted by TOCS");
+			}
+			parseReply();
 		}
 		catch (Exception e)
 		{
 			setError(true, "Failed to read TOCS response: "+e);
-			logger.log(INFO, 1, CLASS, RCSID,"run","Failed to read TOCS response: "+e);
+			logger.log(INFO, 1, CLASS, RCSID,"processReply","Failed to read TOCS response: "+e);
 			logger.dumpStack(1,e);
-			return;		
+			return;
+		}	
+		setError(false, "Command accepted by TOCS");
+	}
+
+	/**
+	 * Process a failure of the transport (rather than an error reply from the TOCS server).
+	 * @param e The exception that caused the failure.
+	 * @see #setError
+	 */
+	void processTransportError(Exception e)
+	{
+		replyString = null;
+		if(e instanceof SocketTimeoutException)
+		{
+			setTimedOut("Timed out waiting for TOCS response after "+timeout+" ms: "+e);
+			return;
 		}
-		finally
+		if((e instanceof ConnectException)||(e instanceof UnknownHostException))
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","TOCAClient::Closing connection");
-			try
+			connectFailed = true;
+			setError(true, "Failed to open connection to TOCS: "+e);
+		}
+		else
+			setError(true, "Failed to read TOCS response: "+e);
+		logger.log(INFO, 1, CLASS, RCSID,"processTransportError","TOCAClient::Transport failed: "+e);
+		logger.dumpStack(1,e);
+	}
+
+	/**
+	 * Open the connection to the TOCS server. If connection pooling is enabled the connection is
+	 * borrowed from the TOCSConnectionPool, otherwise a new connection is opened.
+	 * The connect timeout is limited by the time remaining until the command's deadline.
+	 * @exception IOException Thrown if opening the connection fails.
+	 * @exception SocketTimeoutException Thrown if the connection did not open in time.
+	 * @see #tc
+	 * @see #connectionPooling
+	 * @see #connectTimeout
+	 * @see #getRemainingTime
+	 * @see TOCSConnectionPool#borrow
+	 */
+	private void openConnection() throws IOException
+	{
+		int ms;
+
+		ms = getRemainingTime();
+		if((connectTimeout > 0) && ((ms == 0) || (connectTimeout < ms)))
+			ms = (int)connectTimeout;
+		if(connectionPooling)
+			tc = TOCSConnectionPool.getInstance().borrow(host,port,ms);
+		else
+		{
+			tc = new TOCSConnection(host,port);
+			tc.open(ms);
+		}
+	}
+
+	/**
+	 * Send the command down the connection, using the pre-encoded commandFrame if there is one.
+	 * @exception IOException Thrown if the write fails.
+	 * @see #tc
+	 * @see #command
+	 * @see #commandFrame
+	 */
+	private void sendCommand() throws IOException
+	{
+		if(commandFrame != null)
+			tc.sendFrame(commandFrame);
+		else
+			tc.sendLine(command);
+	}
+
+	/**
+	 * Send the command down the connection and read the reply line.
+	 * The socket's read timeout is set to the time remaining until the command's deadline.
+	 * If the connection was re-used from the pool, and the server has closed it since it was last used
+	 * (the send/read fails, or no reply is returned), we fall back to the per-command behaviour:
+	 * the old connection is thrown away, and the command is re-sent once on a newly opened connection.
+	 * The command is only re-sent if it is idempotent, or writing it to the old connection failed.
+	 * Otherwise the server may already have acted on it (e.g. started a SLEW or EXPOSE), so null is
+	 * returned instead, and the command fails with a (retryable) null reply transport error,
+	 * leaving the caller to decide whether to send it again.
+	 * @return The reply line, or null if the server closed the connection without replying.
+	 * @exception IOException Thrown if sending the command or reading the reply fails.
+	 * @exception SocketTimeoutException Thrown if the command's deadline expires.
+	 * @see #tc
+	 * @see #command
+	 * @see #sendCommand
+	 * @see #idempotent
+	 */
+	private String exchange() throws IOException
+	{
+		String reply = null;
+		boolean reused;
+		boolean sent = false;
+
+		reused = (tc.getUseCount() > 0);
+		try
+		{
+			tc.setReadTimeout(getRemainingTime());
+			sendCommand();
+			sent = true;
+			logger.log(INFO, 1, CLASS, RCSID,"exchange","TOCAClient::Sent ["+command+"]");
+			reply = readReply();
+		}
+		catch(SocketTimeoutException e)
+		{
+			// the server is slow, rather than the connection being stale, don't retry
+			throw e;
+		}
+		catch(IOException e)
+		{
+			if(reused == false)
+				throw e;
+			logger.log(INFO, 1, CLASS, RCSID,"exchange","TOCAClient::Re-used connection failed:"+e);
+		}
+		// only retry if the server has not sent us anything for this command
+		if(reused && (reply == null) && (streamedLineCount == 0))
+		{
+			if(sent && (idempotent == false))
 			{
-				tc.close();
+				logger.log(INFO, 1, CLASS, RCSID,"exchange",
+					   "TOCAClient::Re-used connection closed by TOCS after non-idempotent command "+
+					   "was sent, not re-sending it.");
+				return null;
 			}
-			catch (Exception e)
+			logger.log(INFO, 1, CLASS, RCSID,"exchange",
+				   "TOCAClient::Re-used connection closed by TOCS, retrying on a new connection.");
+			closeConnection(false);
+			tc = new TOCSConnection(host,port);
+			tc.open(getRemainingTime());
+			tc.setReadTimeout(getRemainingTime());
+			sendCommand();
+			logger.log(INFO, 1, CLASS, RCSID,"exchange","TOCAClient::Sent ["+command+"]");
+			reply = readReply();
+		}
+		return reply;
+	}
+
+	/**
+	 * Read the reply from the connection. If no reply line listener has been set, a single line is read.
+	 * Otherwise, lines are read until a terminal line is read, each non-blank non-terminal line is passed
+	 * to the listener.
+	 * @return The (terminal) reply line, or null if the server closed the connection without replying.
+	 * @exception IOException Thrown if reading the reply fails.
+	 * @see #tc
+	 * @see #replyLineListener
+	 * @see #isTerminalLine
+	 * @see #streamedLineCount
+	 */
+	private String readReply() throws IOException
+	{
+		String line = null;
+
+		if(replyLineListener == null)
+			return tc.readLine();
+		while((line = tc.readLine()) != null)
+		{
+			if(isTerminalLine(line))
+				return line;
+			if(line.trim().length() > 0)
 			{
-				// We dont really care..
-				logger.log(INFO, 1, CLASS, RCSID,"run","TOCAClient::Error closing connection:"+e);
-				logger.dumpStack(1,e);
-			}	 	  
+				streamedLineCount++;
+				logger.log(INFO, 1, CLASS, RCSID,"readReply","TOCAClient::Reply line ["+line+"]");
+				replyLineListener.lineReceived(line);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get whether a reply line is a terminal line, i.e. the final line of a (multi-line) reply.
+	 * A terminal line starts with OK or ERROR.
+	 * @param line The line.
+	 * @return A boolean, true if the line is a terminal line.
+	 */
+	static boolean isTerminalLine(String line)
+	{
+		String s = null;
+
+		s = line.trim();
+		return s.startsWith("OK")||s.startsWith("ERROR");
+	}
+
+	/**
+	 * Start the command's deadline, if it has one. Also resets the timed out and transport failure flags,
+	 * and the previous reply.
+	 * @see #timeout
+	 * @see #replyString
+	 * @see #deadline
+	 * @see #timedOut
+	 * @see #connectFailed
+	 * @see #nullReply
+	 */
+	private void startDeadline()
+	{
+		timedOut = false;
+		connectFailed = false;
+		nullReply = false;
+		replyString = null;
+		streamedLineCount = 0;
+		if(timeout > 0)
+			deadline = System.currentTimeMillis()+timeout;
+		else
+			deadline = 0;
+	}
+
+	/**
+	 * Get the time remaining until the command's deadline, suitable for use as a socket timeout.
+	 * @return The time remaining in milliseconds, or 0 if there is no deadline.
+	 * @exception SocketTimeoutException Thrown if the deadline has already expired.
+	 * @see #deadline
+	 */
+	private int getRemainingTime() throws SocketTimeoutException
+	{
+		long remaining;
+
+		if(deadline == 0)
+			return 0;
+		remaining = deadline-System.currentTimeMillis();
+		if(remaining <= 0)
+			throw new SocketTimeoutException("Deadline expired.");
+		if(remaining > Integer.MAX_VALUE)
+			return Integer.MAX_VALUE;
+		return (int)remaining;
+	}
+
+	/**
+	 * Finish with the connection to the TOCS server. If connection pooling is enabled, and the
+	 * connection is still usable, it is returned to the TOCSConnectionPool, otherwise it is closed.
+	 * @param reusable Whether the connection can be used again (a complete reply was read from it).
+	 * @see #tc
+	 * @see #connectionPooling
+	 * @see TOCSConnectionPool#release
+	 */
+	private void closeConnection(boolean reusable)
+	{
+		if(tc == null)
+			return;
+		if(connectionPooling && reusable)
+		{
+			logger.log(INFO, 1, CLASS, RCSID,"closeConnection","TOCAClient::Returning connection to pool");
+			TOCSConnectionPool.getInstance().release(tc);
+			tc = null;
+			return;
+		}
+		logger.log(INFO, 1, CLASS, RCSID,"closeConnection","TOCAClient::Closing connection");
+		try
+		{
+			tc.close();
+		}
+		catch (Exception e)
+		{
+			// We dont really care..
+			logger.log(INFO, 1, CLASS, RCSID,"closeConnection","TOCAClient::Error closing connection:"+e);
+			logger.dumpStack(1,e);
 		}
+		tc = null;
 	}
     
 	/** 
@@ -235,14 +833,37 @@ class TOCAClient implements Logging, Runnable
 	 * @see #error
 	 * @see #errorMessage
 	 * @see #errorCode
+	 * @see #tocsErrorCode
 	 */
 	private void setError(boolean error, String errorMessage)
 	{
 		this.error = error;
 		this.errorMessage = errorMessage;
 		this.errorCode = "INTERNAL_ERROR";
+		this.tocsErrorCode = error ? TOCSErrorCode.INTERNAL_ERROR : null;
+		this.abortCode = -1;
 	}
 	
+	/** 
+	 * Sets the current error state to a timeout. The error code is set to TIMEOUT.
+	 * @param errorMessage The text of the error message.
+	 * @see #error
+	 * @see #errorMessage
+	 * @see #errorCode
+	 * @see #tocsErrorCode
+	 * @see #timedOut
+	 */
+	private void setTimedOut(String errorMessage)
+	{
+		this.error = true;
+		this.errorMessage = errorMessage;
+		this.errorCode = "TIMEOUT";
+		this.tocsErrorCode = TOCSErrorCode.TIMEOUT;
+		this.abortCode = -1;
+		this.timedOut = true;
+		logger.log(INFO, 1, CLASS, RCSID,"setTimedOut","TOCAClient::"+errorMessage);
+	}
+
 	/** 
 	 * Sets the current error state and message, from the contents of the reply string.
 	 * The reply string should contain something like:
@@ -254,16 +875,21 @@ class TOCAClient implements Logging, Runnable
 	 * ERROR ABORTED Code=607001, message=Overridden by higher priority service
 	 * </pre>
 	 * The first space-separated word is put into the error code, the rest into the error string.
+	 * The error code is matched against TOCSErrorCode in place, and if it is recognised the enumeration's
+	 * name is used as the error code string, so no substring is created for it. If the error is ABORTED,
+	 * the numeric Code=&lt;n&gt; is parsed in place into abortCode.
 	 * @exception IllegalArgumentException Thrown if replyString is not formatted correctly.
 	 * @see #error
 	 * @see #errorMessage
 	 * @see #errorCode
+	 * @see #tocsErrorCode
+	 * @see #abortCode
 	 * @see #replyString
+	 * @see #parseAbortCode
 	 */
 	private void parseError() throws IllegalArgumentException
 	{
-		String s = null;
-		int sindex;
+		int codeStart,codeEnd,length;
 
 		if(replyString.startsWith("ERROR") == false)
 		{
@@ -271,13 +897,55 @@ class TOCAClient implements Logging, Runnable
 							   ":parseError:reply string not an error:"+replyString);
 		}
 		this.error = true;
-		// remove leading ERROR plus space
-		s = replyString.substring(6);
+		length = replyString.length();
+		// skip leading ERROR plus space
+		codeStart = Math.min(6,length);
 		// find space after error code.
-		sindex = s.indexOf(' ');
-		if(sindex > -1)
-			this.errorCode = s.substring(0,sindex);
-		this.errorMessage = s.substring(sindex+1);
+		codeEnd = replyString.indexOf(' ',codeStart);
+		if(codeEnd < 0)
+			codeEnd = length;
+		this.tocsErrorCode = TOCSErrorCode.parse(replyString,codeStart,codeEnd);
+		if(tocsErrorCode != TOCSErrorCode.UNKNOWN)
+			this.errorCode = tocsErrorCode.name();
+		else
+			this.errorCode = replyString.substring(codeStart,codeEnd);
+		if(codeEnd < length)
+			this.errorMessage = replyString.substring(codeEnd+1);
+		else
+			this.errorMessage = "";
+		this.abortCode = -1;
+		if(tocsErrorCode == TOCSErrorCode.ABORTED)
+			this.abortCode = parseAbortCode(codeEnd);
+	}
+
+	/**
+	 * Parse the numeric Code from an ABORTED error reply, i.e. the digits after "Code=", straight from the
+	 * reply string.
+	 * @param start The offset in replyString to start looking from.
+	 * @return The code, or -1 if the reply does not contain a valid Code.
+	 * @see #replyString
+	 */
+	private int parseAbortCode(int start)
+	{
+		int position,length,code,digitCount;
+		char ch;
+
+		position = replyString.indexOf("Code=",start);
+		if(position < 0)
+			return -1;
+		position += 5;
+		length = replyString.length();
+		code = 0;
+		digitCount = 0;
+		while((position < length)&&(digitCount < 9)&&((ch = replyString.charAt(position)) >= '0')&&(ch <= '9'))
+		{
+			code = (code*10)+(ch-'0');
+			digitCount++;
+			position++;
+		}
+		if(digitCount == 0)
+			return -1;
+		return code;
 	}
 
 	/**
@@ -290,6 +958,66 @@ class TOCAClient implements Logging, Runnable
 		return error;
 	}
     
+	/**
+	 * Returns whether the command failed because it's deadline expired.
+	 * @return A boolean, true if the command timed out.
+	 * @see #timedOut
+	 */
+	public boolean isTimedOut()
+	{
+		return timedOut;
+	}
+
+	/**
+	 * Returns whether the command failed because of a transport failure, i.e. the TOCS server could
+	 * not be talked to: a connection could not be opened, or the server closed the connection without 
+	 * replying.
+	 * @return A boolean, true if the command failed because of a transport failure.
+	 * @see #connectFailed
+	 * @see #nullReply
+	 */
+	public boolean isTransportFailure()
+	{
+		return connectFailed || nullReply;
+	}
+
+	/**
+	 * Returns whether the command was cancelled (so any failure may be due to the cancellation, rather
+	 * than the TOCS server).
+	 * @return A boolean, true if cancel was called.
+	 * @see #cancelled
+	 * @see #cancel
+	 */
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/**
+	 * Returns whether the command failed because a connection to the TOCS server could not be opened,
+	 * i.e. the command was never sent.
+	 * @return A boolean, true if the connection could not be opened.
+	 * @see #connectFailed
+	 */
+	public boolean isConnectFailed()
+	{
+		return connectFailed;
+	}
+
+	/**
+	 * Returns whether the command failed in a way that is worth retrying: the connection was refused,
+	 * or the server closed the connection without replying. Commands whose deadline expired are
+	 * not worth retrying.
+	 * @return A boolean, true if the command can be retried (if it is idempotent).
+	 * @see #connectFailed
+	 * @see #nullReply
+	 * @see #timedOut
+	 */
+	public boolean isRetryable()
+	{
+		return (connectFailed || nullReply) && (timedOut == false);
+	}
+
 	/**
 	 * Returns the current error code or null.
 	 * @return A string.
@@ -300,6 +1028,27 @@ class TOCAClient implements Logging, Runnable
 		return errorCode;
 	}
     
+	/**
+	 * Returns the current error code as an enumeration.
+	 * @return The error code, or null if there is no error.
+	 * @see #tocsErrorCode
+	 */
+	public TOCSErrorCode getTOCSErrorCode()
+	{
+		return tocsErrorCode;
+	}
+
+	/**
+	 * Returns the numeric Code of an ABORTED error reply, e.g. 607001 for
+	 * "ERROR ABORTED Code=607001, message=Overridden by higher priority service".
+	 * @return The code, or -1 if the error was not ABORTED, or had no Code.
+	 * @see #abortCode
+	 */
+	public int getAbortCode()
+	{
+		return abortCode;
+	}
+
 	/**
 	 * Returns the current error message or null.
 	 * @return A string.
@@ -311,12 +1060,12 @@ class TOCAClient implements Logging, Runnable
 	}
     
 	/** 
-	 * Sets the current replyProperties from the contents of the reply string.
+	 * Sets the current reply keyword-values from the contents of the reply string.
 	 * The string should be something like:
 	 * <pre>
 	 * OK sessionID=004951, sessionLimit=3600, timeRemaining=4612, priority=2
 	 * </pre>
-	 * The results should be parsed into keyword value pairs in replyProperties of the form:
+	 * The results should be parsed into keyword value pairs in reply of the form:
 	 * <ul>
 	 * <li>sessionID, 004951
 	 * <li>sessionLimit, 3600
@@ -325,20 +1074,16 @@ class TOCAClient implements Logging, Runnable
 	 * </ul>
 	 * The string can also be "blank" i.e. "OK ", or just contain an informational string 
 	 * i.e. "OK Service terminated."
+	 * The reply string is handed to TOCSReply, which only locates and decodes the keywords and values
+	 * when they are first asked for (see getReplyValue), so replies whose values are never read are not parsed.
 	 * @exception IllegalArgumentException Thrown if the replyString is not formatted correctly.
 	 * @see #logger
 	 * @see #replyString
-	 * @see #replyProperties
+	 * @see #reply
+	 * @see TOCSReply#setLine
 	 */
 	private void parseReply() throws IllegalArgumentException
 	{
-		String s = null;
-		StringTokenizer st = null;
-		String keywordValueString = null;
-		int equalsIndex;
-		String keyword = null;
-		String valueString = null;
-
 		this.error = false;
 		if(replyString.startsWith("OK") == false)
 		{
@@ -353,33 +1098,9 @@ class TOCAClient implements Logging, Runnable
 				   "TOCAClient::Reply string was empty.");
 			return;
 		}
-		// reset reply properties to empty.
-		replyProperties = new NGATProperties();
-		// remove OK from replyString and put into s.
-		s = replyString.substring(3);
-		// tokenize s by ',' separated values.
-		st = new StringTokenizer(s,",");
-		while (st.hasMoreTokens())
-		{
-			keywordValueString = st.nextToken();
-			// get rid of whitespace.
-			keywordValueString = keywordValueString.trim();
-			equalsIndex = keywordValueString.indexOf("=");
-			if(equalsIndex > -1)
-			{
-				keyword = keywordValueString.substring(0,equalsIndex);
-				valueString = keywordValueString.substring(equalsIndex+1);
-				logger.log(INFO, 1, CLASS, RCSID,"parseReply","TOCAClient::Reply Keyword ["+keyword+
-					   "] has value ["+valueString+"]");
-				replyProperties.setProperty(keyword,valueString);
-			}
-			else
-			{
-				logger.log(INFO, 1, CLASS, RCSID,"parseReply",
-					   "TOCAClient::Reply Keyword/Value string ["+keywordValueString+
-					   "] has no comma, must not be keyword/value?");
-			}
-		}
+		// the ',' separated keyword=value pairs after the OK are parsed on demand.
+		// The reply string itself has already been logged by processReply.
+		reply.setLine(replyString,2);
 	}
 
 	/**
@@ -392,15 +1113,25 @@ class TOCAClient implements Logging, Runnable
 		return replyString;
 	}
 
+	/**
+	 * Returns the keyword values parsed from the reply, so a command can decode them in one pass.
+	 * @return The parsed reply.
+	 * @see #reply
+	 */
+	public TOCSReply getParsedReply()
+	{
+		return reply;
+	}
+
 	/**
 	 * Returns the string value for the specified keyword, if it exists in the list of keyword values.
 	 * @param keyword The keyword.
 	 * @return The keyword's string value. If the keyword does not exist, null is returned.
-	 * @see #replyProperties
+	 * @see #reply
 	 */
 	public String getReplyValue(String keyword)
 	{
-		return replyProperties.getProperty(keyword);
+		return reply.getValue(keyword);
 	}
 
 	/**
@@ -408,11 +1139,11 @@ class TOCAClient implements Logging, Runnable
 	 * @param keyword The keyword.
 	 * @return The keyword's int value. 
 	 * @exception NGATPropertyException Thrown if the value is not a valid integer.
-	 * @see #replyProperties
+	 * @see #reply
 	 */
 	public int getReplyValueInt(String keyword) throws NGATPropertyException
 	{
-		return replyProperties.getInt(keyword);
+		return reply.getInt(keyword);
 	}
 
 	/**
@@ -420,11 +1151,11 @@ class TOCAClient implements Logging, Runnable
 	 * @param keyword The keyword.
 	 * @return The keyword's double value. 
 	 * @exception NGATPropertyException Thrown if the value is not a valid double.
-	 * @see #replyProperties
+	 * @see #reply
 	 */
 	public double getReplyValueDouble(String keyword) throws NGATPropertyException
 	{
-		return replyProperties.getDouble(keyword);
+		return reply.getDouble(keyword);
 	}
 }
 /*
@@ -23,6 +23,7 @@ package org.estar.toop;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import ngat.util.*;
 import ngat.util.logging.*;
@@ -32,7 +33,7 @@ import ngat.util.logging.*;
  * @author Steve Fraser, Chris Mottram
  * @version $Revision$
  */
-class TOCCommand implements Logging, Runnable
+public class TOCCommand implements Logging, Runnable
 {
 	/**
 	 * Revision control system version id.
@@ -42,6 +43,21 @@ class TOCCommand implements Logging, Runnable
 	 * Classname for logging.
 	 */
 	public static final String CLASS = "TOCCommand";
+	/**
+	 * Resource bit: the command moves or configures the telescope (mount, rotator, autoguider, focal plane).
+	 * @see #getResources
+	 */
+	public static final int RESOURCE_TELESCOPE = 1;
+	/**
+	 * Resource bit: the command configures or uses the instrument.
+	 * @see #getResources
+	 */
+	public static final int RESOURCE_INSTRUMENT = 2;
+	/**
+	 * All the resource bits.
+	 * @see #getResources
+	 */
+	public static final int RESOURCE_ALL = RESOURCE_TELESCOPE|RESOURCE_INSTRUMENT;
 	/**
 	 * Class logger.
 	 */
@@ -55,17 +71,78 @@ class TOCCommand implements Logging, Runnable
 	 */
 	protected TOCSessionData sessionData = null;
 	/**
-	 * The command string to send to the RCS TOCA using the TOCClient.
+	 * Buffer the command to send to the RCS TOCA is built in. Reused (cleared with setLength(0)) each time
+	 * createCommandString is called, so retries and repeated commands do not allocate a new command string.
+	 */
+	protected StringBuilder commandBuffer = new StringBuilder(128);
+	/**
+	 * The command, encoded as a frame ready to send, if isFrameCacheable returns true, otherwise null.
+	 * The frame is shared (via the session data's frame cache) with other instances of the command, 
+	 * and must not be changed.
+	 * @see #encodeCommand
 	 */
-	protected String commandString = null;
+	protected byte commandFrame[] = null;
 	/**
 	 * An error string generated if something went wrong.
 	 */
 	protected String errorString = null;
+	/**
+	 * The error code the command failed with, or null if it has not failed, or failed without setting one
+	 * (in which case getErrorCode returns INTERNAL_ERROR).
+	 * @see #getErrorCode
+	 */
+	protected TOCSErrorCode errorCode = null;
+	/**
+	 * The numeric Code the command was ABORTED with, or -1.
+	 */
+	protected int abortCode = -1;
 	/**
 	 * Boolean set to whether the command was completed successfully or not.
 	 */
 	protected boolean successful = false;
+	/**
+	 * Boolean set to whether the command failed because it's deadline expired.
+	 */
+	protected boolean timedOut = false;
+	/**
+	 * The circuit breaker for the TOCS server endpoint this command is currently sent to.
+	 * @see #selectEndpoint
+	 */
+	protected TOCSCircuitBreaker circuitBreaker = null;
+	/**
+	 * The ordered list of TOCS server endpoints the command can be sent to. Set in prepare.
+	 */
+	protected TOCSEndpoint endpoints[] = null;
+	/**
+	 * The index in endpoints of the endpoint the command is currently sent to.
+	 * @see #selectEndpoint
+	 */
+	protected int endpointIndex = 0;
+	/**
+	 * The listener to pass intermediate reply lines to, or null to read a single line reply.
+	 * @see #setReplyLineListener
+	 * @see #configureClient
+	 */
+	protected TOCSReplyLineListener replyLineListener = null;
+	/**
+	 * Random number generator used to jitter the retry backoff.
+	 */
+	private static Random retryRandom = new Random();
+	/**
+	 * Daemon timer used to schedule retries of submitted (non-blocking) commands.
+	 * @see #getRetryTimer
+	 */
+	private static Timer retryTimer = null;
+	/**
+	 * Executor (of daemon threads) used to run the requests of a hedged command.
+	 * @see #getHedgeExecutor
+	 */
+	private static ExecutorService hedgeExecutor = null;
+	/**
+	 * The command's deadline in milliseconds, if set using setTimeout. If this is negative, 
+	 * getDefaultTimeout is used instead.
+	 */
+	protected long timeout = -1;
 
 	/**
 	 * The logger instance is created. The tocaClient instance is initialised.
@@ -90,39 +167,892 @@ class TOCCommand implements Logging, Runnable
 	}
 
 	/**
-	 * Run method. Configures the instance of tocaClient using sessionData.
-	 * Runs the client to communicate with the RCS TOCA and get the results.
+	 * Set the command's deadline, overriding the default computed by getDefaultTimeout.
+	 * @param ms The deadline in milliseconds, 0 means wait forever. A negative value means use the default.
+	 * @see #timeout
+	 */
+	public void setTimeout(long ms)
+	{
+		timeout = ms;
+	}
+
+	/**
+	 * Set the listener to receive a multi-line reply, line by line, as it arrives.
+	 * Each line before the terminal (OK/ERROR) line is passed to the listener, the terminal line is
+	 * processed as the command's reply.
+	 * @param l The listener, or null to read a single line reply.
+	 * @see #replyLineListener
 	 * @see #tocaClient
+	 * @see TOCAClient#setReplyLineListener
+	 */
+	public void setReplyLineListener(TOCSReplyLineListener l)
+	{
+		replyLineListener = l;
+		tocaClient.setReplyLineListener(l);
+	}
+
+	/**
+	 * Get the command's deadline, i.e. how long to wait for the reply.
+	 * @return The deadline in milliseconds, 0 means wait forever.
+	 * @see #timeout
+	 * @see #getDefaultTimeout
+	 */
+	public long getTimeout()
+	{
+		if(timeout < 0)
+			return getDefaultTimeout();
+		return timeout;
+	}
+
+	/**
+	 * Get the default deadline for this command, the session data's TOCS timeout (by default 0, wait forever).
+	 * Subclasses for commands that take a long time (e.g. EXPOSE, SLEW, ACQUIRE, ARC, INSTR) override this 
+	 * to use their own budget, or compute a deadline from the command's parameters.
+	 * @return The deadline in milliseconds, 0 means wait forever. 
+	 * @see #sessionData
+	 * @see TOCSessionData#getTOCSTimeout
+	 */
+	protected long getDefaultTimeout()
+	{
+		return sessionData.getTOCSTimeout();
+	}
+
+	/**
+	 * Run method. Calls createCommandString to set up the command, configures the instance of tocaClient 
+	 * using sessionData, and runs the client to communicate with the RCS TOCA and get the results.
+	 * If the command is idempotent and fails with a transient transport failure (connection refused,
+	 * null reply) it is retried, after a jittered exponential backoff delay. If the TOCS server's circuit
+	 * breaker is open, the command fails immediately without being sent.
+	 * If more than one TOCS endpoint is configured, a command that could not be sent to one endpoint
+	 * fails over to the next immediately (before any retry backoff), and each retry starts again with the
+	 * preferred endpoint. Endpoints whose circuit breaker is open are skipped.
+	 * parseResults is then called to extract the results from the reply.
+	 * @see #tocaClient
+	 * @see #prepare
+	 * @see #allowRequest
+	 * @see #runAttempt
+	 * @see #shouldFailover
+	 * @see #shouldRetry
+	 * @see #getRetryDelay
+	 * @see #finish
 	 */
 	public void run()
 	{
-		String host = null;
-		int port;
+		long delay;
+		int attempt,failoverCount;
 
 		logger.log(INFO, 1, CLASS, RCSID,"run","TOCCommand : Started.");
+		if(prepare() == false)
+			return;
+		attempt = 0;
+		failoverCount = 0;
+		while(true)
+		{
+			if(allowRequest() == false)
+				return;
+			runAttempt();
+			if(shouldFailover(failoverCount))
+			{
+				failover();
+				failoverCount++;
+				continue;
+			}
+			if(shouldRetry(attempt) == false)
+				break;
+			delay = getRetryDelay(attempt);
+			logger.log(INFO, 1, CLASS, RCSID,"run","TOCCommand : Attempt "+attempt+" failed ("+
+				   tocaClient.getErrorMessage()+"), retrying in "+delay+" ms.");
+			try
+			{
+				Thread.sleep(delay);
+			}
+			catch(InterruptedException e)
+			{
+				break;
+			}
+			attempt++;
+			failoverCount = 0;
+			selectEndpoint(0);
+		}
+		finish();
+	}
+
+	/**
+	 * Make one attempt at sending the command to the current endpoint, using the tocaClient.
+	 * If the command is hedgeable, hedged requests are enabled, and there is more than one endpoint,
+	 * the attempt is made using runHedged. The latency of the attempt, and it's outcome with the TOCS server's
+	 * circuit breaker, are recorded (runHedged records each of it's requests itself).
+	 * @see #tocaClient
+	 * @see #isHedgeable
+	 * @see #runHedged
+	 * @see #recordLatency
+	 * @see #recordAttempt
+	 * @see TOCSessionData#getHedgedRequests
+	 */
+	protected void runAttempt()
+	{
+		long startTime;
+
+		if(isHedgeable() && sessionData.getHedgedRequests() && (endpoints.length > 1))
+		{
+			runHedged();
+			return;
+		}
+		startTime = System.currentTimeMillis();
+		tocaClient.run();
+		recordLatency(tocaClient,startTime);
+		recordAttempt();
+	}
+
+	/**
+	 * Make a hedged attempt at sending the command. The command is sent to the current endpoint 
+	 * (in a thread from the hedge executor). If no reply has been received after the hedge delay,
+	 * the same command is sent to the next endpoint (whose circuit breaker is not open). The first 
+	 * reply received is used, and the other request is cancelled. A request that fails with a transport 
+	 * failure does not win while the other request is still outstanding.
+	 * If the hedged request wins, it's client replaces the tocaClient, and it's endpoint is selected.
+	 * Both requests send a copy of the command, as the losing request may still be running when
+	 * this method returns, and the commandBuffer may then be reused. Each request's outcome is recorded
+	 * with the circuit breaker of the endpoint it was sent to, when it finishes (see startHedgedRequest).
+	 * @see #tocaClient
+	 * @see #getHedgeDelay
+	 * @see #createHedgeClient
+	 * @see #startHedgedRequest
+	 * @see #selectEndpoint
+	 * @see TOCAClient#cancel
+	 */
+	private void runHedged()
+	{
+		LinkedBlockingQueue<TOCAClient> completedQueue = null;
+		String command = null;
+		TOCAClient primaryClient = null;
+		TOCAClient hedgeClient = null;
+		TOCAClient client = null;
+		long hedgeDelay;
+		int outstanding,hedgeIndex,i,index;
+		boolean interrupted = false;
+
+		completedQueue = new LinkedBlockingQueue<TOCAClient>();
+		command = commandBuffer.toString();
+		primaryClient = tocaClient;
+		primaryClient.setCommand(command);
+		hedgeIndex = -1;
+		hedgeDelay = getHedgeDelay();
+		startHedgedRequest(primaryClient,circuitBreaker,completedQueue);
+		outstanding = 1;
+		while(outstanding > 0)
+		{
+			try
+			{
+				if((hedgeIndex < 0)&&(hedgeClient == null))
+				{
+					client = completedQueue.poll(hedgeDelay,TimeUnit.MILLISECONDS);
+					if(client == null)
+					{
+						// no reply from the primary within the hedge delay, send a hedged request
+						for(i = 1; (i < endpoints.length)&&(hedgeIndex < 0); i++)
+						{
+							index = (endpointIndex+i)%endpoints.length;
+							if(endpoints[index].getCircuitBreaker().allowRequest())
+								hedgeIndex = index;
+						}
+						if(hedgeIndex < 0)
+						{
+							// nowhere to send a hedged request, just wait for the primary
+							hedgeIndex = endpointIndex;
+							continue;
+						}
+						logger.log(INFO, 1, CLASS, RCSID,"runHedged","TOCCommand : No reply from "+
+							   endpoints[endpointIndex]+" after "+hedgeDelay+
+							   " ms, sending hedged request to "+endpoints[hedgeIndex]+".");
+						hedgeClient = createHedgeClient(command,endpoints[hedgeIndex]);
+						startHedgedRequest(hedgeClient,endpoints[hedgeIndex].getCircuitBreaker(),
+								   completedQueue);
+						outstanding++;
+						continue;
+					}
+				}
+				else
+					client = completedQueue.take();
+				outstanding--;
+				// a transport failure does not win while the other request may still succeed
+				if((outstanding == 0)||(client.isTransportFailure() == false))
+					break;
+			}
+			catch(InterruptedException e)
+			{
+				// cancel the requests, and wait for them to finish so the tocaClient is not in use
+				interrupted = true;
+				if(hedgeIndex < 0)
+					hedgeIndex = endpointIndex;
+				primaryClient.cancel();
+				if(hedgeClient != null)
+					hedgeClient.cancel();
+			}
+		}
+		if(outstanding > 0)
+		{
+			if(client == primaryClient)
+				hedgeClient.cancel();
+			else
+				primaryClient.cancel();
+		}
+		if((client == hedgeClient)&&(client != null))
+		{
+			logger.log(INFO, 1, CLASS, RCSID,"runHedged","TOCCommand : Using reply from hedged request to "+
+				   endpoints[hedgeIndex]+".");
+			tocaClient = hedgeClient;
+			selectEndpoint(hedgeIndex);
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Run a request of a hedged command in a thread from the hedge executor. Once the client has finished,
+	 * it's latency and outcome are recorded, and it is added to the completed queue. If the request was 
+	 * cancelled (because the other request won) before it got a reply, it's outcome says nothing about the 
+	 * TOCS server, so it is not recorded, and if it was the breaker's half open trial the trial is released.
+	 * @param client The client to run.
+	 * @param breaker The circuit breaker of the endpoint the client sends the request to.
+	 * @param completedQueue The queue to add the client to once it has finished.
+	 * @see #getHedgeExecutor
+	 * @see #recordLatency
+	 * @see #recordAttempt(org.estar.toop.TOCAClient,org.estar.toop.TOCSCircuitBreaker)
+	 * @see TOCSCircuitBreaker#releaseTrial
+	 * @see TOCAClient#isCancelled
+	 */
+	private void startHedgedRequest(final TOCAClient client,final TOCSCircuitBreaker breaker,
+					final BlockingQueue<TOCAClient> completedQueue)
+	{
+		getHedgeExecutor().execute(new Runnable()
+			{
+				public void run()
+				{
+					long startTime;
+
+					startTime = System.currentTimeMillis();
+					try
+					{
+						client.run();
+						recordLatency(client,startTime);
+						if(client.isCancelled() && ((client.getReply() == null)||
+									      client.isTransportFailure()))
+							breaker.releaseTrial();
+						else
+							recordAttempt(client,breaker);
+					}
+					finally
+					{
+						completedQueue.add(client);
+					}
+				}
+			});
+	}
+
+	/**
+	 * Create a client to send a hedged request with. The client is configured the same way as the tocaClient,
+	 * but sends the command to the specified endpoint.
+	 * @param command The command to send.
+	 * @param endpoint The endpoint to send the hedged request to.
+	 * @return The client.
+	 * @see #configureClient
+	 */
+	private TOCAClient createHedgeClient(String command,TOCSEndpoint endpoint)
+	{
+		TOCAClient client = null;
+
+		client = new TOCAClient();
+		configureClient(client);
+		client.setCommand(command);
+		client.setHost(endpoint.getHost());
+		client.setPort(endpoint.getPort());
+		return client;
+	}
+
+	/**
+	 * Get the delay before sending a hedged request. This is the 95th percentile of the latency of recent
+	 * commands of this type, or the session data's hedge delay if not enough latencies have been recorded yet.
+	 * @return The delay in milliseconds.
+	 * @see #getLatencyTracker
+	 * @see TOCSessionData#getHedgeDelay
+	 */
+	protected long getHedgeDelay()
+	{
+		long delay;
+
+		delay = getLatencyTracker().getPercentile(95.0);
+		if(delay < 0)
+			delay = sessionData.getHedgeDelay();
+		return delay;
+	}
+
+	/**
+	 * Get the latency tracker for this type of command.
+	 * @return The tracker.
+	 * @see TOCSLatencyTracker#getInstance
+	 */
+	public TOCSLatencyTracker getLatencyTracker()
+	{
+		return TOCSLatencyTracker.getInstance(getClass().getName());
+	}
+
+	/**
+	 * Record the latency of an attempt at sending the command, if the TOCS server replied (attempts that
+	 * failed to talk to the server, or timed out, are not counted).
+	 * @param client The client the attempt was made with.
+	 * @param startTime The time the attempt was started, in milliseconds since the epoch.
+	 * @see #getLatencyTracker
+	 */
+	private void recordLatency(TOCAClient client,long startTime)
+	{
+		if(client.isTransportFailure() || client.isTimedOut())
+			return;
+		getLatencyTracker().record(System.currentTimeMillis()-startTime);
+	}
+
+	/**
+	 * Get the executor used to run the requests of hedged commands, creating it if necessary.
+	 * The executor's threads are daemon threads.
+	 * @return The executor.
+	 * @see #hedgeExecutor
+	 */
+	private static synchronized ExecutorService getHedgeExecutor()
+	{
+		if(hedgeExecutor == null)
+		{
+			hedgeExecutor = Executors.newCachedThreadPool(new ThreadFactory()
+				{
+					public Thread newThread(Runnable r)
+					{
+						Thread thread = null;
+
+						thread = new Thread(r,"TOCCommand hedged request");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		}
+		return hedgeExecutor;
+	}
+
+	/**
+	 * Send the command using the non-blocking TOCSNioEngine transport. This method returns without waiting
+	 * for the reply. Once the reply has been received and processed (as for run), the listener's 
+	 * commandFinished method is called. Note the listener is called on the engine's selector thread
+	 * (or the calling thread, if the command could not be set up, or the retry timer's thread,
+	 * if it was retried or failed over), and so should not block.
+	 * Idempotent commands are retried as for run, the retries are scheduled on a daemon timer.
+	 * @param engine The engine to send the command with.
+	 * @param listener The listener to call when the command has finished.
+	 * @see #prepare
+	 * @see #submitAttempt
+	 */
+	public void submit(TOCSNioEngine engine,TOCCommandListener listener)
+	{
+		logger.log(INFO, 1, CLASS, RCSID,"submit","TOCCommand : Started.");
+		if(prepare() == false)
+		{
+			listener.commandFinished(this);
+			return;
+		}
+		submitAttempt(engine,listener,0,0);
+	}
+
+	/**
+	 * Submit an attempt at sending the command to the non-blocking engine. When the attempt finishes,
+	 * either another attempt is scheduled (if the command should be retried or failed over), or the command 
+	 * is finished and the listener called. Failing over is also done on the retry timer (with no delay),
+	 * as resolving the next endpoint's address can block, and the attempt finishes on the engine's 
+	 * selector thread.
+	 * @param engine The engine to send the command with.
+	 * @param listener The listener to call when the command has finished.
+	 * @param attempt The attempt number, starting from 0.
+	 * @param failoverCount The number of times this attempt has failed over to another endpoint.
+	 * @see #allowRequest
+	 * @see #recordAttempt
+	 * @see #shouldFailover
+	 * @see #shouldRetry
+	 * @see #getRetryDelay
+	 * @see #getRetryTimer
+	 * @see #finish
+	 * @see TOCAClient#submit
+	 */
+	private void submitAttempt(final TOCSNioEngine engine,final TOCCommandListener listener,final int attempt,
+				   final int failoverCount)
+	{
+		final long startTime;
+
+		if(allowRequest() == false)
+		{
+			listener.commandFinished(this);
+			return;
+		}
+		startTime = System.currentTimeMillis();
+		tocaClient.submit(engine,new TOCSReplyListener()
+			{
+				public void replyReceived(String line)
+				{
+					attemptFinished();
+				}
+
+				public void exchangeFailed(Exception e)
+				{
+					attemptFinished();
+				}
+
+				private void attemptFinished()
+				{
+					long delay;
+
+					recordLatency(tocaClient,startTime);
+					recordAttempt();
+					if(shouldFailover(failoverCount))
+					{
+						getRetryTimer().schedule(new TimerTask()
+							{
+								public void run()
+								{
+									failover();
+									submitAttempt(engine,listener,attempt,
+										      failoverCount+1);
+								}
+							},0);
+						return;
+					}
+					if(shouldRetry(attempt))
+					{
+						delay = getRetryDelay(attempt);
+						logger.log(INFO, 1, CLASS, RCSID,"submitAttempt","TOCCommand : Attempt "+
+							   attempt+" failed ("+tocaClient.getErrorMessage()+
+							   "), retrying in "+delay+" ms.");
+						getRetryTimer().schedule(new TimerTask()
+							{
+								public void run()
+								{
+									selectEndpoint(0);
+									submitAttempt(engine,listener,attempt+1,0);
+								}
+							},delay);
+						return;
+					}
+					finish();
+					listener.commandFinished(TOCCommand.this);
+				}
+			});
+	}
+
+	/**
+	 * Get whether this command is idempotent, i.e. can safely be sent to the TOCS server again if
+	 * it is not known whether the first attempt was acted on. Only idempotent commands are retried.
+	 * By default commands are not idempotent, query commands (WHEN, POSITION, STATUS, HELO) override this.
+	 * @return A boolean, true if the command is idempotent.
+	 */
+	protected boolean isIdempotent()
+	{
+		return false;
+	}
+
+	/**
+	 * Get whether this command is read-only, i.e. only queries the TOCS server and does not change the
+	 * state of the session or telescope. TOCSession runs read-only commands in parallel, and serializes
+	 * all other commands (see getResources). By default commands are not read-only, query commands 
+	 * (WHEN, POSITION, STATUS) override this.
+	 * @return A boolean, true if the command is read-only.
+	 * @see TOCSession#runCommand
+	 * @see #getResources
+	 */
+	protected boolean isReadOnly()
+	{
+		return false;
+	}
+
+	/**
+	 * Get the resources (telescope, instrument) this command uses. If resource locking is enabled in the
+	 * session data, TOCSession only serializes commands that use the same resource, so (for instance) an
+	 * INSTR can configure the instrument while a SLEW is in progress. By default read-only commands use no
+	 * resources, and all other commands use every resource (so they are serialized with everything), 
+	 * commands that only move the telescope or only configure the instrument override this.
+	 * @return A bit mask of RESOURCE_TELESCOPE and RESOURCE_INSTRUMENT.
+	 * @see #RESOURCE_TELESCOPE
+	 * @see #RESOURCE_INSTRUMENT
+	 * @see #RESOURCE_ALL
+	 * @see #isReadOnly
+	 * @see TOCSessionData#getResourceLocking
+	 */
+	public int getResources()
+	{
+		if(isReadOnly())
+			return 0;
+		return RESOURCE_ALL;
+	}
+
+	/**
+	 * Get whether this command is read-only, and so can be hedged: if the TOCS server has not replied within
+	 * the hedge delay, the same command is sent to a second endpoint, and the first reply used.
+	 * By default commands are not hedgeable, read-only commands (WHEN, POSITION, STATUS) override this.
+	 * Hedged requests are only sent by run (not submit), and only if they are enabled in the session data.
+	 * @return A boolean, true if the command can be hedged.
+	 * @see #runHedged
+	 * @see TOCSessionData#getHedgedRequests
+	 */
+	protected boolean isHedgeable()
+	{
+		return false;
+	}
+
+	/**
+	 * Check the current TOCS endpoint's circuit breaker. If it is open, the next endpoint (in order) whose
+	 * breaker is not open is selected instead. If all the breakers are open, the command fails immediately:
+	 * successful is set to false, errorString to a CIRCUIT_OPEN error, and parseResults is called.
+	 * @return true if the command can be sent, false if all the breakers are open.
+	 * @see #endpoints
+	 * @see #endpointIndex
+	 * @see #selectEndpoint
+	 * @see #parseResults
+	 */
+	protected boolean allowRequest()
+	{
+		StringBuffer sb = null;
+		int i,index;
+
+		for(i = 0; i < endpoints.length; i++)
+		{
+			index = (endpointIndex+i)%endpoints.length;
+			if(endpoints[index].getCircuitBreaker().allowRequest())
+			{
+				if(index != endpointIndex)
+				{
+					logger.log(INFO, 1, CLASS, RCSID,"allowRequest","TOCCommand : Circuit breaker open for "+
+						   endpoints[endpointIndex]+", using "+endpoints[index]+".");
+					selectEndpoint(index);
+				}
+				return true;
+			}
+		}
+		sb = new StringBuffer();
+		for(i = 0; i < endpoints.length; i++)
+		{
+			if(i > 0)
+				sb.append(",");
+			sb.append(endpoints[i].getHost());
+		}
+		successful = false;
+		errorCode = TOCSErrorCode.CIRCUIT_OPEN;
+		errorString = "CIRCUIT_OPEN:Circuit breaker open for TOCS server "+sb.toString()+", command not sent.";
+		logger.log(INFO, 1, CLASS, RCSID,"allowRequest",errorString);
+		parseResults();
+		return false;
+	}
+
+	/**
+	 * Get whether the command should fail over to the next TOCS endpoint after an attempt. There must be
+	 * another endpoint that has not been tried for this attempt, and either the connection could not be
+	 * opened (so the command was never sent), or the command is idempotent and failed with a retryable failure.
+	 * @param failoverCount The number of times the current attempt has already failed over.
+	 * @return A boolean, true if the command should be sent to the next endpoint.
+	 * @see #endpoints
+	 * @see #isIdempotent
+	 * @see TOCAClient#isConnectFailed
+	 * @see TOCAClient#isRetryable
+	 */
+	protected boolean shouldFailover(int failoverCount)
+	{
+		if((failoverCount >= endpoints.length-1)||(tocaClient.isError() == false))
+			return false;
+		return tocaClient.isConnectFailed() || (isIdempotent() && tocaClient.isRetryable());
+	}
+
+	/**
+	 * Fail over to the next TOCS endpoint in the list.
+	 * @see #endpointIndex
+	 * @see #selectEndpoint
+	 */
+	protected void failover()
+	{
+		int index;
+
+		index = (endpointIndex+1)%endpoints.length;
+		logger.log(INFO, 1, CLASS, RCSID,"failover","TOCCommand : Sending to "+endpoints[endpointIndex]+
+			   " failed ("+tocaClient.getErrorMessage()+"), failing over to "+endpoints[index]+".");
+		selectEndpoint(index);
+	}
+
+	/**
+	 * Select the TOCS endpoint the command is sent to. The tocaClient's host and port, and the circuitBreaker,
+	 * are set from the endpoint.
+	 * @param index The index of the endpoint in endpoints.
+	 * @see #endpoints
+	 * @see #endpointIndex
+	 * @see #circuitBreaker
+	 * @see #tocaClient
+	 */
+	protected void selectEndpoint(int index)
+	{
+		endpointIndex = index;
+		tocaClient.setHost(endpoints[index].getHost());
+		tocaClient.setPort(endpoints[index].getPort());
+		circuitBreaker = endpoints[index].getCircuitBreaker();
+	}
+
+	/**
+	 * Record the outcome of an attempt at sending the command with the TOCS server's circuit breaker.
+	 * @see #circuitBreaker
+	 * @see #recordAttempt(org.estar.toop.TOCAClient,org.estar.toop.TOCSCircuitBreaker)
+	 */
+	protected void recordAttempt()
+	{
+		recordAttempt(tocaClient,circuitBreaker);
+	}
+
+	/**
+	 * Record the outcome of an attempt at sending the command with a TOCS server's circuit breaker.
+	 * Any reply (including an ERROR reply) counts as a success, a transport failure as a failure.
+	 * An attempt that timed out waiting for a reply is recorded as a timeout (which only counts
+	 * against the breaker if it was the half open breaker's trial command).
+	 * @param client The client the attempt was made with.
+	 * @param breaker The circuit breaker of the TOCS server the attempt was sent to.
+	 * @see TOCAClient#isTransportFailure
+	 * @see TOCAClient#isTimedOut
+	 * @see TOCSCircuitBreaker#recordTimeout
+	 */
+	protected void recordAttempt(TOCAClient client,TOCSCircuitBreaker breaker)
+	{
+		if(client.isTransportFailure())
+			breaker.recordFailure();
+		else if(client.isTimedOut())
+			breaker.recordTimeout();
+		else
+			breaker.recordSuccess();
+	}
+
+	/**
+	 * Get whether the command should be retried after an attempt. The command must be idempotent,
+	 * the attempt must have failed with a retryable (transient transport) failure, and the number
+	 * of retries must not have been exceeded.
+	 * @param attempt The attempt number that just finished, starting from 0.
+	 * @return A boolean, true if the command should be retried.
+	 * @see #isIdempotent
+	 * @see TOCAClient#isRetryable
+	 * @see TOCSessionData#getRetryCount
+	 */
+	protected boolean shouldRetry(int attempt)
+	{
+		return tocaClient.isError() && tocaClient.isRetryable() && isIdempotent() &&
+			(attempt < sessionData.getRetryCount());
+	}
+
+	/**
+	 * Get the delay before the next retry. This is an exponential backoff (base delay times 2 to the power
+	 * of the attempt number, limited to the maximum delay), with "full jitter": a random delay between 0 and
+	 * the backoff is returned, so many clients retrying at once do not all hit the TOCS server together.
+	 * @param attempt The attempt number that just finished, starting from 0.
+	 * @return The delay in milliseconds.
+	 * @see TOCSessionData#getRetryBaseDelay
+	 * @see TOCSessionData#getRetryMaxDelay
+	 */
+	protected long getRetryDelay(int attempt)
+	{
+		long backoff,maxDelay;
+
+		maxDelay = sessionData.getRetryMaxDelay();
+		backoff = sessionData.getRetryBaseDelay()<<Math.min(attempt,30);
+		if((backoff > maxDelay)||(backoff < 0))
+			backoff = maxDelay;
+		synchronized(retryRandom)
+		{
+			return (long)(retryRandom.nextDouble()*backoff);
+		}
+	}
+
+	/**
+	 * Get the daemon timer used to schedule retries of submitted commands, creating it if necessary.
+	 * @return The timer.
+	 * @see #retryTimer
+	 */
+	private static synchronized Timer getRetryTimer()
+	{
+		if(retryTimer == null)
+			retryTimer = new Timer(true);
+		return retryTimer;
+	}
+
+	/**
+	 * Setup the command in commandBuffer. Subclasses override this to build the command to send from their parameters.
+	 * @exception TOCException Thrown if the command cannot be created.
+	 * @see #commandBuffer
+	 */
+	protected void createCommandString() throws TOCException
+	{
+	}
+
+	/**
+	 * Whether the command depends only on the session data (e.g. WHEN, HELO, STOP, QUIT, INIT),
+	 * in which case it is encoded into a frame once, and the frame is resent until the session data changes.
+	 * Subclasses whose command depends only on the session data override this to return true.
+	 * @return false.
+	 * @see #encodeCommand
+	 */
+	protected boolean isFrameCacheable()
+	{
+		return false;
+	}
+
+	/**
+	 * Encode the command to send. If the command is frame cacheable, and the session data has a frame for
+	 * this command that was encoded since the properties it is built from (service ID, session ID, 
+	 * init options...) last changed, the cached frame is reused
+	 * (and commandBuffer is filled from it, for logging). Otherwise the command is created in commandBuffer 
+	 * using createCommandString, and, if the command is frame cacheable, encoded into a new commandFrame
+	 * which is cached in the session data.
+	 * @exception TOCException Thrown if the command cannot be created.
+	 * @see #isFrameCacheable
+	 * @see #createCommandString
+	 * @see #commandBuffer
+	 * @see #commandFrame
+	 * @see TOCSessionData#getFrameVersion
+	 * @see TOCSessionData#getCommandFrame
+	 * @see TOCSessionData#putCommandFrame
+	 */
+	protected void encodeCommand() throws TOCException
+	{
+		byte frame[] = null;
+		int frameVersion,i;
+
+		commandFrame = null;
+		if(isFrameCacheable() == false)
+		{
+			createCommandString();
+			return;
+		}
+		frameVersion = sessionData.getFrameVersion();
+		frame = sessionData.getCommandFrame(this.getClass().getName(),frameVersion);
+		if(frame != null)
+		{
+			commandBuffer.setLength(0);
+			for(i = 0; i < frame.length-1; i++)
+				commandBuffer.append((char)frame[i]);
+			commandFrame = frame;
+			return;
+		}
+		createCommandString();
+		commandFrame = TOCSConnection.encodeFrame(commandBuffer);
+		sessionData.putCommandFrame(this.getClass().getName(),frameVersion,commandFrame);
+	}
+
+	/**
+	 * Validate the command's parameters, by encoding the command into commandBuffer without sending it.
+	 * This lets a configuration error (e.g. mismatched binning, an illegal mode) be found before a
+	 * session is started. The command is encoded again (with the session ID) when it is run.
+	 * @exception TOCException Thrown if the session data has not been set, or the command cannot be created.
+	 * @see #createCommandString
+	 */
+	public void validate() throws TOCException
+	{
+		if(sessionData == null)
+		{
+			throw new TOCException(this.getClass().getName()+":validate:Session data not set.");
+		}
+		createCommandString();
+	}
+
+	/**
+	 * Parse the results of the command. Called once the reply has been received (or the command failed).
+	 * Subclasses override this to extract their results from the reply, if the command was successful.
+	 */
+	protected void parseResults()
+	{
+	}
+
+	/**
+	 * Prepare the command for sending. The command is encoded using encodeCommand (createCommandString
+	 * or the cached commandFrame), and the tocaClient is configured using sessionData.
+	 * @return true if the command is ready to send, false if something went wrong 
+	 *         (successful and errorString are set).
+	 * @see #encodeCommand
+	 * @see #endpoints
+	 * @see #configureClient
+	 * @see #selectEndpoint
+	 * @see #tocaClient
+	 * @see #sessionData
+	 */
+	protected boolean prepare()
+	{
+		successful = false;
+		timedOut = false;
+		errorString = null;
+		errorCode = null;
+		abortCode = -1;
 		try
 		{
-			port = sessionData.getTOCSPort();
+			endpoints = sessionData.getTOCSEndpoints();
 		}
 		catch(Exception e)
 		{
-			successful = false;
-			errorString = new String(this.getClass().getName()+":run:Getting TOCS port failed:"+e);
-			logger.log(INFO, 1, CLASS, RCSID,"run",errorString);
+			errorString = new String(this.getClass().getName()+":prepare:Getting TOCS endpoints failed:"+e);
+			logger.log(INFO, 1, CLASS, RCSID,"prepare",errorString);
 			logger.dumpStack(1,e);
-			return;
+			return false;
 		}
-		tocaClient.setCommand(commandString);
-		tocaClient.setHost(sessionData.getTOCSHost());
-		tocaClient.setPort(port);
-		logger.log(INFO, 1, CLASS, RCSID,"run","TOCCommand : Calling ("+sessionData.getTOCSHost()+","+port+
-			   ") with command "+commandString+".");
-		tocaClient.run();
+		try
+		{
+			encodeCommand();
+		}
+		catch(TOCException e)
+		{
+			errorString = e.getMessage();
+			logger.log(INFO, 1, CLASS, RCSID,"prepare",errorString);
+			logger.dumpStack(1,e);
+			return false;
+		}
+		configureClient(tocaClient);
+		selectEndpoint(0);
+		logger.log(INFO, 1, CLASS, RCSID,"prepare","TOCCommand : Calling ("+endpoints[0].getHost()+","+
+			   endpoints[0].getPort()+") with command "+commandBuffer+" and timeout "+getTimeout()+" ms.");
+		return true;
+	}
+
+	/**
+	 * Configure a client to send this command: the command (and commandFrame), connection pooling, timeouts
+	 * and reply line listener are set (the host and port are set when the endpoint is selected).
+	 * @param client The client to configure.
+	 * @see #commandBuffer
+	 * @see #commandFrame
+	 * @see #getTimeout
+	 * @see #isIdempotent
+	 * @see #replyLineListener
+	 * @see #sessionData
+	 */
+	protected void configureClient(TOCAClient client)
+	{
+		client.setCommand(commandBuffer);
+		client.setCommandFrame(commandFrame);
+		client.setConnectionPooling(sessionData.getTOCSConnectionPooling());
+		client.setIdempotent(isIdempotent());
+		client.setTimeout(getTimeout());
+		client.setConnectTimeout(sessionData.getTOCSConnectTimeout());
+		client.setReplyLineListener(replyLineListener);
+	}
+
+	/**
+	 * Called once the tocaClient has finished. Sets successful, timedOut, errorCode, abortCode and errorString
+	 * from the tocaClient, and calls parseResults.
+	 * @see #tocaClient
+	 * @see #errorCode
+	 * @see #abortCode
+	 * @see #parseResults
+	 */
+	protected void finish()
+	{
 		successful = (tocaClient.isError() == false);
+		timedOut = tocaClient.isTimedOut();
 		if(tocaClient.isError())
 		{
+			errorCode = tocaClient.getTOCSErrorCode();
+			abortCode = tocaClient.getAbortCode();
 			errorString = tocaClient.getErrorCode()+":"+tocaClient.getErrorMessage();
 		}
+		parseResults();
 	}
 
 	/**
@@ -135,6 +1065,17 @@ class TOCCommand implements Logging, Runnable
 		return tocaClient.getReply();
 	}
 
+	/**
+	 * Get the keyword values parsed from the reply, so subclasses can decode their typed reply in one pass.
+	 * @return The parsed reply.
+	 * @see #tocaClient
+	 * @see TOCAClient#getParsedReply
+	 */
+	TOCSReply getParsedReply()
+	{
+		return tocaClient.getParsedReply();
+	}
+
 	/**
 	 * Returns the reply string value for the specified reply keyword, 
 	 * if it exists in the list of reply keyword values.
@@ -186,6 +1127,31 @@ class TOCCommand implements Logging, Runnable
 		return errorString;
 	}
 
+	/**
+	 * Get the error code the command failed with.
+	 * @return The error code, or null if the command was successful. If the command failed for a reason
+	 *         that did not set an error code (e.g. the reply could not be parsed), INTERNAL_ERROR is returned.
+	 * @see #errorCode
+	 */
+	public TOCSErrorCode getErrorCode()
+	{
+		if(successful)
+			return null;
+		if(errorCode == null)
+			return TOCSErrorCode.INTERNAL_ERROR;
+		return errorCode;
+	}
+
+	/**
+	 * Get the numeric Code the command was ABORTED with.
+	 * @return The code, or -1 if the command was not aborted, or the TOCS server did not return a Code.
+	 * @see #abortCode
+	 */
+	public int getAbortCode()
+	{
+		return abortCode;
+	}
+
 	/**
 	 * Get whether the command was completed successfully or not.
 	 * @return A boolean, true if the command was completed successfully, flase if not.
@@ -195,6 +1161,29 @@ class TOCCommand implements Logging, Runnable
 	{
 		return successful;
 	}
+
+	/**
+	 * Get whether the command failed because it's deadline expired.
+	 * @return A boolean, true if the command timed out.
+	 * @see #timedOut
+	 */
+	public boolean getTimedOut()
+	{
+		return timedOut;
+	}
+
+	/**
+	 * Get the frame the command was last sent as, if it is frame cacheable. Successive instances of
+	 * the command sharing the same session data return the same (cached) frame, until the properties
+	 * it is built from change.
+	 * @return The frame, or null if the command is not frame cacheable (or has not been run).
+	 * @see #commandFrame
+	 * @see #isFrameCacheable
+	 */
+	public byte[] getCommandFrame()
+	{
+		return commandFrame;
+	}
 }
 /*
 ** $Log: not supported by cvs2svn $
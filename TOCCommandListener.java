@@ -0,0 +1,42 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCCommandListener.java
+// $Header$
+package org.estar.toop;
+
+/**
+ * Interface implemented by objects that want to be told when a command submitted using
+ * TOCCommand.submit has finished.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCCommand#submit
+ */
+public interface TOCCommandListener
+{
+	/**
+	 * Called when the command has finished. The command's getSuccessful, getErrorString and result
+	 * methods are valid at this point.
+	 * @param command The command that has finished.
+	 */
+	public void commandFinished(TOCCommand command);
+}
+/*
+** $Log$
+*/
@@ -60,6 +60,17 @@ public class TOCException extends Exception
 		exception = e;
 	}
 
+	/**
+	 * Constructor for the exception, which optionally does not record a stack trace. Filling in the stack
+	 * trace is most of the cost of creating an exception, and is wasted for expected, frequent, failures.
+	 * @param errorString The error string.
+	 * @param writableStackTrace If false, no stack trace is recorded (and none can be set).
+	 */
+	protected TOCException(String errorString,boolean writableStackTrace)
+	{
+		super(errorString,null,false,writableStackTrace);
+	}
+
 	/**
 	 * Retrieve method to return exception that generated this exception.
 	 * @return An exception, or null.
@@ -0,0 +1,173 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCPlan.java
+// $Header$
+package org.estar.toop;
+
+import java.util.*;
+
+import org.estar.astrometry.*;
+
+/**
+ * An observation plan: an ordered list of configured commands (SLEW, ACQUIRE, ROTATOR, INSTR, EXPOSE, ARC...)
+ * to be run in a session. Giving the whole plan to TOCSession.runPlan means every command is validated
+ * (encoded, without being sent) before HELO is sent, so configuration errors are found before any of the
+ * session's time is used:
+ * <pre>
+ * TOCPlan plan = new TOCPlan();
+ * plan.addSlew("a-star",ra,dec);
+ * Instr instr = plan.addInstr("IO:O");
+ * instr.setFilter(1,"SDSS-R");
+ * ...
+ * plan.addExpose(10000,3,true);
+ * ts.runPlan(plan);
+ * </pre>
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCSession#validatePlan
+ * @see TOCSession#runPlan
+ */
+public class TOCPlan
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The list of commands, in the order they are run.
+	 */
+	protected List<TOCCommand> commandList = null;
+
+	/**
+	 * Default constructor.
+	 * @see #commandList
+	 */
+	public TOCPlan()
+	{
+		super();
+		commandList = new Vector<TOCCommand>();
+	}
+
+	/**
+	 * Add a configured command to the end of the plan.
+	 * @param command The command.
+	 * @see #commandList
+	 */
+	public void add(TOCCommand command)
+	{
+		commandList.add(command);
+	}
+
+	/**
+	 * Add a SLEW to the end of the plan.
+	 * @param sourceID The name of the target.
+	 * @param ra The target's Right Ascension.
+	 * @param dec The target's Declination.
+	 * @return The command added.
+	 * @see #add
+	 */
+	public Slew addSlew(String sourceID,RA ra,Dec dec)
+	{
+		Slew slew = null;
+
+		slew = new Slew();
+		slew.setSourceId(sourceID);
+		slew.setRA(ra);
+		slew.setDec(dec);
+		add(slew);
+		return slew;
+	}
+
+	/**
+	 * Add an INSTR to the end of the plan. The returned command should be configured (filters, binning etc.).
+	 * @param instID The instrument ID.
+	 * @return The command added.
+	 * @see #add
+	 */
+	public Instr addInstr(String instID)
+	{
+		Instr instr = null;
+
+		instr = new Instr();
+		instr.setInstId(instID);
+		add(instr);
+		return instr;
+	}
+
+	/**
+	 * Add a MULTRUN EXPOSE to the end of the plan.
+	 * @param exposureLength The length of each exposure in milliseconds.
+	 * @param exposureCount How many exposure frames to do.
+	 * @param dataPipelineFlag Whether to call the data pipeline.
+	 * @return The command added.
+	 * @see #add
+	 */
+	public Expose addExpose(int exposureLength,int exposureCount,boolean dataPipelineFlag)
+	{
+		Expose expose = null;
+
+		expose = new Expose();
+		expose.setExposureLength(exposureLength);
+		expose.setExposureCount(exposureCount);
+		expose.setDataPipelineFlag(dataPipelineFlag);
+		add(expose);
+		return expose;
+	}
+
+	/**
+	 * Add an ARC to the end of the plan.
+	 * @param lampName The lamp to use.
+	 * @return The command added.
+	 * @see #add
+	 */
+	public Arc addArc(String lampName)
+	{
+		Arc arc = null;
+
+		arc = new Arc();
+		arc.setLampName(lampName);
+		add(arc);
+		return arc;
+	}
+
+	/**
+	 * Get the number of commands in the plan.
+	 * @return The number of commands.
+	 * @see #commandList
+	 */
+	public int getCommandCount()
+	{
+		return commandList.size();
+	}
+
+	/**
+	 * Get a command in the plan.
+	 * @param i The index of the command, from 0 to getCommandCount()-1.
+	 * @return The command.
+	 * @see #commandList
+	 */
+	public TOCCommand getCommand(int i)
+	{
+		return commandList.get(i);
+	}
+}
+/*
+** $Log$
+*/
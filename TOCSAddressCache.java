@@ -0,0 +1,181 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCSAddressCache.java
+// $Header$
+package org.estar.toop;
+
+import java.net.*;
+import java.util.*;
+
+import ngat.util.logging.*;
+
+/**
+ * A cache of resolved TOCS server addresses, keyed on host and port, so that opening a connection to
+ * the TOCS server does not need a DNS lookup. Addresses are re-resolved once their time to live has
+ * expired, or if they have been invalidated (e.g. because a connection to them failed).
+ * There is one cache per JVM, retrieved using getInstance.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCSConnection#open
+ */
+class TOCSAddressCache implements Logging
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Classname for logging.
+	 */
+	public static final String CLASS = "TOCSAddressCache";
+	/**
+	 * The default length of time a resolved address is cached for, in milliseconds.
+	 */
+	public static final long DEFAULT_TIME_TO_LIVE = 300000;
+	/**
+	 * The single instance of the cache.
+	 */
+	private static TOCSAddressCache instance = null;
+	/**
+	 * Class logger.
+	 */
+	private Logger logger = null;
+	/**
+	 * Map of host:port key to CachedAddress.
+	 */
+	private Map<String,CachedAddress> addressMap = null;
+	/**
+	 * The length of time a resolved address is cached for, in milliseconds.
+	 */
+	private long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+	/**
+	 * Constructor. Use getInstance.
+	 * @see #getInstance
+	 */
+	private TOCSAddressCache()
+	{
+		super();
+		logger = LogManager.getLogger(this);
+		addressMap = new HashMap<String,CachedAddress>();
+	}
+
+	/**
+	 * Get the single instance of the address cache, creating it if necessary.
+	 * @return The cache.
+	 * @see #instance
+	 */
+	public static synchronized TOCSAddressCache getInstance()
+	{
+		if(instance == null)
+			instance = new TOCSAddressCache();
+		return instance;
+	}
+
+	/**
+	 * Get the address of a TOCS server. If a resolved address is cached, and it's time to live has not expired,
+	 * it is returned. Otherwise the host is resolved (outside the cache's lock), and the result cached if the
+	 * host could be resolved.
+	 * @param host The TOCS server host name/IP Address.
+	 * @param port The TOCS server port.
+	 * @return The address. If the host could not be resolved, an unresolved address is returned
+	 *         (and is not cached).
+	 * @see #addressMap
+	 * @see #timeToLive
+	 */
+	public InetSocketAddress getAddress(String host,int port)
+	{
+		CachedAddress cachedAddress = null;
+		InetSocketAddress address = null;
+		String key = null;
+
+		key = host+":"+port;
+		synchronized(this)
+		{
+			cachedAddress = addressMap.get(key);
+			if((cachedAddress != null)&&
+			   ((System.currentTimeMillis()-cachedAddress.resolvedTime) < timeToLive))
+				return cachedAddress.address;
+		}
+		address = new InetSocketAddress(host,port);
+		if(address.isUnresolved())
+		{
+			logger.log(INFO, 1, CLASS, RCSID,"getAddress","Failed to resolve "+key+".");
+			return address;
+		}
+		logger.log(INFO, 1, CLASS, RCSID,"getAddress","Resolved "+key+" to "+address.getAddress()+".");
+		cachedAddress = new CachedAddress();
+		cachedAddress.address = address;
+		cachedAddress.resolvedTime = System.currentTimeMillis();
+		synchronized(this)
+		{
+			addressMap.put(key,cachedAddress);
+		}
+		return address;
+	}
+
+	/**
+	 * Remove a TOCS server's address from the cache, so it is resolved again the next time it is used.
+	 * @param host The TOCS server host name/IP Address.
+	 * @param port The TOCS server port.
+	 * @see #addressMap
+	 */
+	public synchronized void invalidate(String host,int port)
+	{
+		addressMap.remove(host+":"+port);
+	}
+
+	/**
+	 * Remove all addresses from the cache.
+	 * @see #addressMap
+	 */
+	public synchronized void clear()
+	{
+		addressMap.clear();
+	}
+
+	/**
+	 * Set the length of time a resolved address is cached for.
+	 * @param ms The time in milliseconds. 0 means addresses are always resolved again.
+	 * @see #timeToLive
+	 */
+	public synchronized void setTimeToLive(long ms)
+	{
+		timeToLive = ms;
+	}
+
+	/**
+	 * A resolved address, and when it was resolved.
+	 */
+	private static class CachedAddress
+	{
+		/**
+		 * The resolved address.
+		 */
+		InetSocketAddress address = null;
+		/**
+		 * The time the address was resolved, in milliseconds since the epoch.
+		 */
+		long resolvedTime = 0;
+	}
+}
+/*
+** $Log$
+*/
@@ -0,0 +1,294 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCSCircuitBreaker.java
+// $Header$
+package org.estar.toop;
+
+import java.util.*;
+
+import ngat.util.logging.*;
+
+/**
+ * A circuit breaker for a single RCS TOCS server (host and port).
+ * Commands record whether they managed to talk to the TOCS server. Once failureThreshold transport failures
+ * (connection refused, no reply) have happened in a row, the breaker <i>opens</i>, and allowRequest returns 
+ * false for openTime milliseconds, so commands fail immediately rather than each waiting for a 
+ * TCP connection/timeout. After openTime a single trial command is allowed through (<i>half open</i>):
+ * if it succeeds the breaker closes again, if it fails (or times out) the breaker re-opens. If the trial
+ * command's outcome is never recorded (e.g. it was cancelled), another trial is allowed once openTime 
+ * has passed since the last one started.
+ * There is one breaker per host/port, retrieved using getInstance.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCCommand
+ */
+public class TOCSCircuitBreaker implements Logging
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Classname for logging.
+	 */
+	public static final String CLASS = "TOCSCircuitBreaker";
+	/**
+	 * Breaker state: closed, commands are sent normally.
+	 */
+	public static final int STATE_CLOSED = 0;
+	/**
+	 * Breaker state: open, commands fail immediately.
+	 */
+	public static final int STATE_OPEN = 1;
+	/**
+	 * Breaker state: half open, a single trial command has been allowed through.
+	 */
+	public static final int STATE_HALF_OPEN = 2;
+	/**
+	 * Default number of consecutive transport failures before the breaker opens.
+	 */
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	/**
+	 * Default length of time the breaker stays open before allowing a trial command, in milliseconds.
+	 */
+	public static final long DEFAULT_OPEN_TIME = 10000;
+	/**
+	 * Map of breakers, the key is a string of the form host:port.
+	 */
+	private static Map<String,TOCSCircuitBreaker> breakerMap = new HashMap<String,TOCSCircuitBreaker>();
+	/**
+	 * Class logger.
+	 */
+	private Logger logger = null;
+	/**
+	 * The TOCS Server host name/IP Address.
+	 */
+	private String host = null;
+	/**
+	 * The TOCS Server port.
+	 */
+	private int port = 0;
+	/**
+	 * The breaker's current state.
+	 * @see #STATE_CLOSED
+	 * @see #STATE_OPEN
+	 * @see #STATE_HALF_OPEN
+	 */
+	private int state = STATE_CLOSED;
+	/**
+	 * The number of consecutive transport failures.
+	 */
+	private int failureCount = 0;
+	/**
+	 * The time the breaker last opened, in milliseconds since the epoch.
+	 */
+	private long openedTime = 0;
+	/**
+	 * The time the current trial command was allowed through, in milliseconds since the epoch.
+	 */
+	private long trialStartTime = 0;
+	/**
+	 * The number of consecutive transport failures before the breaker opens.
+	 */
+	private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+	/**
+	 * The length of time the breaker stays open before allowing a trial command, in milliseconds.
+	 */
+	private long openTime = DEFAULT_OPEN_TIME;
+
+	/**
+	 * Constructor. Use getInstance to get a breaker.
+	 * @param host The TOCS Server host name/IP Address.
+	 * @param port The TOCS Server port.
+	 * @see #getInstance
+	 */
+	private TOCSCircuitBreaker(String host,int port)
+	{
+		super();
+		this.host = host;
+		this.port = port;
+		logger = LogManager.getLogger(this);
+	}
+
+	/**
+	 * Get the circuit breaker for the specified TOCS server, creating it if necessary.
+	 * @param host The TOCS Server host name/IP Address.
+	 * @param port The TOCS Server port.
+	 * @return The breaker.
+	 * @see #breakerMap
+	 */
+	public static synchronized TOCSCircuitBreaker getInstance(String host,int port)
+	{
+		TOCSCircuitBreaker breaker = null;
+		String key = null;
+
+		key = host+":"+port;
+		breaker = breakerMap.get(key);
+		if(breaker == null)
+		{
+			breaker = new TOCSCircuitBreaker(host,port);
+			breakerMap.put(key,breaker);
+		}
+		return breaker;
+	}
+
+	/**
+	 * Get whether a command should be sent to the TOCS server.
+	 * If the breaker is open, and openTime has elapsed, the breaker goes half open and this one request
+	 * is allowed through as a trial. If the breaker is half open, and openTime has elapsed since the trial
+	 * started without it's outcome being recorded, another trial is allowed through.
+	 * @return true if the command should be sent, false if it should fail immediately.
+	 * @see #state
+	 * @see #trialStartTime
+	 */
+	public synchronized boolean allowRequest()
+	{
+		long now;
+
+		if(state == STATE_CLOSED)
+			return true;
+		now = System.currentTimeMillis();
+		if((state == STATE_OPEN)&&((now-openedTime) >= openTime))
+		{
+			logger.log(INFO, 1, CLASS, RCSID,"allowRequest","Circuit breaker for "+host+":"+port+
+				   " half open, allowing trial command.");
+			state = STATE_HALF_OPEN;
+			trialStartTime = now;
+			return true;
+		}
+		if((state == STATE_HALF_OPEN)&&((now-trialStartTime) >= openTime))
+		{
+			logger.log(INFO, 1, CLASS, RCSID,"allowRequest","Circuit breaker for "+host+":"+port+
+				   " trial command did not finish, allowing another trial command.");
+			trialStartTime = now;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Record that a command talked to the TOCS server successfully (it got a reply, even an ERROR one).
+	 * The breaker is closed.
+	 * @see #state
+	 * @see #failureCount
+	 */
+	public synchronized void recordSuccess()
+	{
+		if(state != STATE_CLOSED)
+		{
+			logger.log(INFO, 1, CLASS, RCSID,"recordSuccess","Circuit breaker for "+host+":"+port+
+				   " closed.");
+		}
+		state = STATE_CLOSED;
+		failureCount = 0;
+	}
+
+	/**
+	 * Record that a command failed to talk to the TOCS server. If the trial command failed, or there have
+	 * been failureThreshold failures in a row, the breaker opens.
+	 * @see #state
+	 * @see #failureCount
+	 * @see #failureThreshold
+	 */
+	public synchronized void recordFailure()
+	{
+		failureCount++;
+		if((state == STATE_HALF_OPEN)||((state == STATE_CLOSED)&&(failureCount >= failureThreshold)))
+		{
+			logger.log(INFO, 1, CLASS, RCSID,"recordFailure","Circuit breaker for "+host+":"+port+
+				   " opened after "+failureCount+" failures.");
+			state = STATE_OPEN;
+			openedTime = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Record that a command timed out waiting for the TOCS server. This says nothing about the server
+	 * while the breaker is closed (the command may just be a long one), but if the trial command
+	 * timed out the breaker re-opens.
+	 * @see #state
+	 * @see #recordFailure
+	 */
+	public synchronized void recordTimeout()
+	{
+		if(state == STATE_HALF_OPEN)
+			recordFailure();
+	}
+
+	/**
+	 * Release the trial command without recording it's outcome, e.g. because it was cancelled.
+	 * If the breaker is half open it goes back to open, with openTime already elapsed, so the next
+	 * command is allowed through as a new trial.
+	 * @see #state
+	 */
+	public synchronized void releaseTrial()
+	{
+		if(state == STATE_HALF_OPEN)
+		{
+			logger.log(INFO, 1, CLASS, RCSID,"releaseTrial","Circuit breaker for "+host+":"+port+
+				   " trial command released.");
+			state = STATE_OPEN;
+		}
+	}
+
+	/**
+	 * Set the number of consecutive transport failures before the breaker opens.
+	 * @param i The number of failures.
+	 * @see #failureThreshold
+	 */
+	public synchronized void setFailureThreshold(int i)
+	{
+		failureThreshold = i;
+	}
+
+	/**
+	 * Set the length of time the breaker stays open before allowing a trial command.
+	 * @param ms The time in milliseconds.
+	 * @see #openTime
+	 */
+	public synchronized void setOpenTime(long ms)
+	{
+		openTime = ms;
+	}
+
+	/**
+	 * Get the breaker's current state.
+	 * @return The state, one of STATE_CLOSED, STATE_OPEN, STATE_HALF_OPEN.
+	 * @see #state
+	 */
+	public synchronized int getState()
+	{
+		return state;
+	}
+
+	/**
+	 * Reset the breaker to closed.
+	 * @see #state
+	 * @see #failureCount
+	 */
+	public synchronized void reset()
+	{
+		state = STATE_CLOSED;
+		failureCount = 0;
+	}
+}
+/*
+** $Log$
+*/
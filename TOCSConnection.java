@@ -0,0 +1,368 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCSConnection.java
+// $Header$
+package org.estar.toop;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * A line based connection to the RCS TOCS server. This provides the same open/sendLine/readLine/close
+ * calls as the ngat.net.TelnetConnection it replaces, but keeps hold of the underlying socket so that
+ * the connection can be health checked and kept open between commands by the TOCSConnectionPool.
+ * Commands are encoded (as ASCII) straight into a reusable, per-connection direct ByteBuffer and written
+ * to the socket's channel, so sending a command creates no garbage.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCSConnectionPool
+ */
+class TOCSConnection
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The line terminator sent after each command.
+	 */
+	public final static String LINE_TERMINATOR = "\n";
+	/**
+	 * The initial size of the send buffer, in bytes. The buffer grows if a longer command is sent.
+	 */
+	public final static int DEFAULT_SEND_BUFFER_SIZE = 256;
+	/**
+	 * TOCS Server host name/IP Address.
+	 */
+	private String host = null;
+	/**
+	 * TOCS Server port.
+	 */
+	private int port = 0;
+	/**
+	 * The (blocking) channel connected to the TOCS server. Commands are written to this.
+	 */
+	private SocketChannel channel = null;
+	/**
+	 * The socket connected to the TOCS server, the channel's socket. Replies are read from this.
+	 */
+	private Socket socket = null;
+	/**
+	 * Reader used to read reply lines from the socket.
+	 */
+	private BufferedReader reader = null;
+	/**
+	 * Direct buffer commands are encoded into before being written to the channel.
+	 * Reused for every command sent over this connection.
+	 */
+	private ByteBuffer sendBuffer = null;
+	/**
+	 * The time this connection was last used (opened, or used to send a command),
+	 * in milliseconds since the epoch.
+	 */
+	private long lastUsedTime = 0;
+	/**
+	 * The number of commands sent over this connection.
+	 */
+	private int useCount = 0;
+
+	/**
+	 * Constructor.
+	 * @param host The TOCS Server host name/IP Address.
+	 * @param port The TOCS Server port.
+	 * @see #host
+	 * @see #port
+	 */
+	public TOCSConnection(String host,int port)
+	{
+		super();
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 * Open the connection to the TOCS server, waiting forever for the connection to open.
+	 * @exception IOException Thrown if the socket connection fails.
+	 * @see #open(int)
+	 */
+	public void open() throws IOException
+	{
+		open(0);
+	}
+
+	/**
+	 * Open the connection to the TOCS server. The server's address is got from the TOCSAddressCache, so
+	 * no DNS lookup is needed if it has been resolved recently. If the connection fails, the address
+	 * is invalidated so it is resolved again next time.
+	 * @param connectTimeout How long to wait for the connection to open, in milliseconds. 0 means wait forever.
+	 * @exception IOException Thrown if the socket connection fails.
+	 * @exception SocketTimeoutException Thrown if the connection did not open within the connect timeout.
+	 * @see #channel
+	 * @see #socket
+	 * @see #reader
+	 * @see #sendBuffer
+	 * @see #lastUsedTime
+	 * @see TOCSAddressCache
+	 */
+	public void open(int connectTimeout) throws IOException
+	{
+		InetSocketAddress address = null;
+
+		address = TOCSAddressCache.getInstance().getAddress(host,port);
+		if(address.isUnresolved())
+			throw new UnknownHostException(host);
+		channel = SocketChannel.open();
+		socket = channel.socket();
+		try
+		{
+			socket.connect(address,connectTimeout);
+		}
+		catch(IOException e)
+		{
+			channel.close();
+			TOCSAddressCache.getInstance().invalidate(host,port);
+			throw e;
+		}
+		socket.setTcpNoDelay(true);
+		socket.setKeepAlive(true);
+		reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),"US-ASCII"));
+		if(sendBuffer == null)
+			sendBuffer = ByteBuffer.allocateDirect(DEFAULT_SEND_BUFFER_SIZE);
+		lastUsedTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Set how long readLine waits for a reply before throwing a SocketTimeoutException.
+	 * @param ms The read timeout in milliseconds, 0 means wait forever.
+	 * @exception SocketException Thrown if setting the timeout fails.
+	 * @see #socket
+	 */
+	public void setReadTimeout(int ms) throws SocketException
+	{
+		socket.setSoTimeout(ms);
+	}
+
+	/**
+	 * Encode a line of text (a command) into a frame that can be sent using sendFrame: the characters
+	 * encoded as ASCII (any non-ASCII character is sent as '?'), followed by the line terminator.
+	 * @param s The line to encode.
+	 * @return The frame.
+	 * @see #sendFrame
+	 */
+	public static byte[] encodeFrame(CharSequence s)
+	{
+		byte frame[] = null;
+		int length,i;
+		char ch;
+
+		length = s.length();
+		frame = new byte[length+1];
+		for(i = 0; i < length; i++)
+		{
+			ch = s.charAt(i);
+			if(ch > 0x7f)
+				ch = '?';
+			frame[i] = (byte)ch;
+		}
+		frame[length] = (byte)'\n';
+		return frame;
+	}
+
+	/**
+	 * Send a pre-encoded command frame (see encodeFrame) to the TOCS server. The frame is copied into the
+	 * sendBuffer and written to the channel, no character encoding is done.
+	 * @param frame The frame, including the line terminator.
+	 * @exception IOException Thrown if the write fails.
+	 * @see #encodeFrame
+	 * @see #sendBuffer
+	 * @see #channel
+	 * @see #lastUsedTime
+	 * @see #useCount
+	 */
+	public void sendFrame(byte frame[]) throws IOException
+	{
+		if(sendBuffer.capacity() < frame.length)
+			sendBuffer = ByteBuffer.allocateDirect(Math.max(frame.length,sendBuffer.capacity()*2));
+		sendBuffer.clear();
+		sendBuffer.put(frame);
+		sendBuffer.flip();
+		while(sendBuffer.hasRemaining())
+			channel.write(sendBuffer);
+		lastUsedTime = System.currentTimeMillis();
+		useCount++;
+	}
+
+	/**
+	 * Send a line of text (a command) to the TOCS server. The line terminator is appended.
+	 * The characters are encoded as ASCII into the sendBuffer (any non-ASCII character is sent as '?'),
+	 * which is then written to the channel. The sendBuffer is only reallocated if the line does not fit.
+	 * @param s The line to send.
+	 * @exception IOException Thrown if the write fails.
+	 * @see #LINE_TERMINATOR
+	 * @see #sendBuffer
+	 * @see #channel
+	 * @see #lastUsedTime
+	 * @see #useCount
+	 */
+	public void sendLine(CharSequence s) throws IOException
+	{
+		int length,i;
+		char ch;
+
+		length = s.length();
+		if(sendBuffer.capacity() < length+1)
+			sendBuffer = ByteBuffer.allocateDirect(Math.max(length+1,sendBuffer.capacity()*2));
+		sendBuffer.clear();
+		for(i = 0; i < length; i++)
+		{
+			ch = s.charAt(i);
+			if(ch > 0x7f)
+				ch = '?';
+			sendBuffer.put((byte)ch);
+		}
+		sendBuffer.put((byte)'\n');
+		sendBuffer.flip();
+		while(sendBuffer.hasRemaining())
+			channel.write(sendBuffer);
+		lastUsedTime = System.currentTimeMillis();
+		useCount++;
+	}
+
+	/**
+	 * Read a line of text (a reply) from the TOCS server.
+	 * @return The line read, without the line terminator, or null if the server closed the connection.
+	 * @exception IOException Thrown if the read fails.
+	 * @exception SocketTimeoutException Thrown if the read timeout expires before a line is read.
+	 * @see #setReadTimeout
+	 * @see #reader
+	 */
+	public String readLine() throws IOException
+	{
+		return reader.readLine();
+	}
+
+	/**
+	 * Close the connection.
+	 * @exception IOException Thrown if closing the channel fails.
+	 * @see #channel
+	 */
+	public void close() throws IOException
+	{
+		if(channel != null)
+			channel.close();
+	}
+
+	/**
+	 * Check whether this connection can be used to send another command.
+	 * The socket must be connected and not shut down, and a (very short) read must time out, i.e. the server
+	 * has neither closed the connection nor sent us any unsolicited data that would get mixed up with the
+	 * next reply.
+	 * @return true if the connection looks usable, false if it should be thrown away.
+	 * @see #socket
+	 * @see #reader
+	 */
+	public boolean isHealthy()
+	{
+		int oldTimeout;
+
+		if((socket == null)||socket.isClosed()||(socket.isConnected() == false)||
+		   socket.isInputShutdown()||socket.isOutputShutdown())
+			return false;
+		try
+		{
+			oldTimeout = socket.getSoTimeout();
+			socket.setSoTimeout(1);
+			try
+			{
+				reader.read();
+			}
+			finally
+			{
+				socket.setSoTimeout(oldTimeout);
+			}
+			// -1 means the server closed the connection, anything else is data we did not ask for
+			return false;
+		}
+		catch(SocketTimeoutException e)
+		{
+			// nothing to read, the connection is still open
+			return true;
+		}
+		catch(IOException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Get the TOCS Server host name this connection connects to.
+	 * @return The host.
+	 * @see #host
+	 */
+	public String getHost()
+	{
+		return host;
+	}
+
+	/**
+	 * Get the TOCS Server port this connection connects to.
+	 * @return The port.
+	 * @see #port
+	 */
+	public int getPort()
+	{
+		return port;
+	}
+
+	/**
+	 * Get the time this connection was last used.
+	 * @return The time, in milliseconds since the epoch.
+	 * @see #lastUsedTime
+	 */
+	public long getLastUsedTime()
+	{
+		return lastUsedTime;
+	}
+
+	/**
+	 * Mark the connection as used now, without sending a command. This stops an idle connection that
+	 * is being kept warm (see TOCSConnectionPool.prewarm) from being evicted.
+	 * @see #lastUsedTime
+	 */
+	public void touch()
+	{
+		lastUsedTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Get the number of commands sent over this connection.
+	 * @return The number of commands.
+	 * @see #useCount
+	 */
+	public int getUseCount()
+	{
+		return useCount;
+	}
+}
+/*
+** $Log$
+*/
@@ -0,0 +1,465 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCSConnectionPool.java
+// $Header$
+package org.estar.toop;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+import ngat.util.logging.*;
+
+/**
+ * A pool of open (keep-alive) connections to RCS TOCS servers, keyed by host and port.
+ * TOCAClient borrows a connection from the pool before sending a command, and returns it afterwards,
+ * so a session of HELO/INIT/SLEW/INSTR/EXPOSE/STOP/QUIT commands does not have to open a new TCP connection
+ * for each command. Idle connections are health checked before being handed out, and are evicted
+ * (closed) once they have been idle for longer than the idle timeout.
+ * There is one pool per JVM, retrieved using getInstance.
+ * The pool is locked using a ReentrantLock rather than synchronized, and is never locked whilst doing
+ * socket I/O, so virtual threads borrowing connections do not pin their carrier threads.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCSConnection
+ * @see TOCAClient
+ */
+class TOCSConnectionPool implements Logging
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Classname for logging.
+	 */
+	public static final String CLASS = "TOCSConnectionPool";
+	/**
+	 * Default length of time a connection can sit idle in the pool before it is evicted, in milliseconds.
+	 */
+	public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+	/**
+	 * Default maximum number of idle connections kept per host/port.
+	 */
+	public static final int DEFAULT_MAX_IDLE_PER_KEY = 4;
+	/**
+	 * The single instance of the pool.
+	 */
+	private static TOCSConnectionPool instance = null;
+	/**
+	 * Class logger.
+	 */
+	private Logger logger = null;
+	/**
+	 * Map of idle connections. The key is a string of the form host:port, the value is a LinkedList of
+	 * TOCSConnection, most recently used last.
+	 */
+	private Map<String,LinkedList<TOCSConnection>> idleMap = null;
+	/**
+	 * Length of time a connection can sit idle in the pool before it is evicted, in milliseconds.
+	 */
+	private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	/**
+	 * Maximum number of idle connections kept per host/port.
+	 */
+	private int maxIdlePerKey = DEFAULT_MAX_IDLE_PER_KEY;
+	/**
+	 * Daemon timer used to evict idle connections.
+	 */
+	private Timer evictionTimer = null;
+	/**
+	 * Lock protecting the pool's data.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Constructor. Use getInstance to get the pool.
+	 * @see #logger
+	 * @see #idleMap
+	 * @see #getInstance
+	 */
+	private TOCSConnectionPool()
+	{
+		super();
+		logger = LogManager.getLogger(this);
+		idleMap = new HashMap<String,LinkedList<TOCSConnection>>();
+	}
+
+	/**
+	 * Get the connection pool.
+	 * @return The single instance of the connection pool.
+	 * @see #instance
+	 */
+	public static synchronized TOCSConnectionPool getInstance()
+	{
+		if(instance == null)
+			instance = new TOCSConnectionPool();
+		return instance;
+	}
+
+	/**
+	 * Borrow a connection to the specified TOCS server. An idle pooled connection is returned if a healthy
+	 * one exists, otherwise a new connection is opened.
+	 * The connection should be given back using release (if it can be used again), or discard.
+	 * @param host The TOCS Server host name/IP Address.
+	 * @param port The TOCS Server port.
+	 * @param connectTimeout How long to wait for a new connection to open, in milliseconds. 
+	 *        0 means wait forever.
+	 * @return An open connection.
+	 * @exception IOException Thrown if a new connection has to be opened, and opening it fails.
+	 * @see #pollIdle
+	 * @see #discard
+	 * @see #release
+	 */
+	public TOCSConnection borrow(String host,int port,int connectTimeout) throws IOException
+	{
+		TOCSConnection connection = null;
+
+		// health check outside the lock, as it reads from the socket
+		while((connection = pollIdle(host,port)) != null)
+		{
+			if(connection.isHealthy())
+			{
+				logger.log(INFO, 1, CLASS, RCSID,"borrow","Reusing pooled connection to "+host+":"+port+
+					   " used "+connection.getUseCount()+" times.");
+				return connection;
+			}
+			logger.log(INFO, 1, CLASS, RCSID,"borrow","Pooled connection to "+host+":"+port+
+				   " failed health check, discarding.");
+			discard(connection);
+		}
+		logger.log(INFO, 1, CLASS, RCSID,"borrow","Opening new connection to "+host+":"+port+".");
+		connection = new TOCSConnection(host,port);
+		connection.open(connectTimeout);
+		return connection;
+	}
+
+	/**
+	 * Pre-warm the pool, so the next command sent to the TOCS server does not have to wait for a
+	 * connection to be opened. If there is already an idle connection to the server, and it passes
+	 * a health check, it is marked as used (so it is not evicted). Otherwise a new connection is
+	 * opened and added to the pool.
+	 * @param host The TOCS server host name/IP Address.
+	 * @param port The TOCS server port.
+	 * @param connectTimeout How long to wait for a connection to open, in milliseconds. 0 means wait forever.
+	 * @return true if a new connection was opened, false if there was already a healthy idle connection.
+	 * @exception IOException Thrown if opening the connection fails.
+	 * @see #pollIdle
+	 * @see #release
+	 * @see TOCSConnection#touch
+	 */
+	public boolean prewarm(String host,int port,int connectTimeout) throws IOException
+	{
+		TOCSConnection connection = null;
+
+		// health check outside the lock, as it reads from the socket
+		while((connection = pollIdle(host,port)) != null)
+		{
+			if(connection.isHealthy())
+			{
+				connection.touch();
+				release(connection);
+				return false;
+			}
+			logger.log(INFO, 1, CLASS, RCSID,"prewarm","Pooled connection to "+host+":"+port+
+				   " failed health check, discarding.");
+			discard(connection);
+		}
+		logger.log(INFO, 1, CLASS, RCSID,"prewarm","Opening pre-warmed connection to "+host+":"+port+".");
+		connection = new TOCSConnection(host,port);
+		connection.open(connectTimeout);
+		release(connection);
+		return true;
+	}
+
+	/**
+	 * Return a connection to the pool, so it can be re-used by a later command.
+	 * If there are already too many idle connections to that host/port, the connection is closed instead.
+	 * @param connection The connection to return.
+	 * @see #idleMap
+	 * @see #maxIdlePerKey
+	 * @see #startEvictionTimer
+	 */
+	public void release(TOCSConnection connection)
+	{
+		LinkedList<TOCSConnection> idleList = null;
+		boolean pooled = false;
+
+		lock.lock();
+		try
+		{
+			idleList = getIdleList(connection.getHost(),connection.getPort());
+			if(idleList.size() < maxIdlePerKey)
+			{
+				idleList.addLast(connection);
+				pooled = true;
+				startEvictionTimer();
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		if(pooled == false)
+			discard(connection);
+	}
+
+	/**
+	 * Close a connection, rather than returning it to the pool. Any error closing the connection is logged
+	 * and ignored.
+	 * @param connection The connection to close.
+	 */
+	public void discard(TOCSConnection connection)
+	{
+		try
+		{
+			connection.close();
+		}
+		catch(Exception e)
+		{
+			// We dont really care..
+			logger.log(INFO, 1, CLASS, RCSID,"discard","Error closing connection:"+e);
+		}
+	}
+
+	/**
+	 * Close any idle connections that have been idle for longer than the idle timeout.
+	 * @see #idleMap
+	 * @see #idleTimeout
+	 * @see #discard
+	 */
+	public void evictIdle()
+	{
+		List<TOCSConnection> evictList = null;
+		Iterator<LinkedList<TOCSConnection>> mapIterator = null;
+		Iterator<TOCSConnection> listIterator = null;
+		LinkedList<TOCSConnection> idleList = null;
+		TOCSConnection connection = null;
+		long now;
+
+		evictList = new Vector<TOCSConnection>();
+		now = System.currentTimeMillis();
+		lock.lock();
+		try
+		{
+			mapIterator = idleMap.values().iterator();
+			while(mapIterator.hasNext())
+			{
+				idleList = mapIterator.next();
+				listIterator = idleList.iterator();
+				while(listIterator.hasNext())
+				{
+					connection = listIterator.next();
+					if((now-connection.getLastUsedTime()) > idleTimeout)
+					{
+						listIterator.remove();
+						evictList.add(connection);
+					}
+				}
+				if(idleList.size() == 0)
+					mapIterator.remove();
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		for(int i = 0; i < evictList.size(); i++)
+		{
+			connection = evictList.get(i);
+			logger.log(INFO, 1, CLASS, RCSID,"evictIdle","Evicting idle connection to "+
+				   connection.getHost()+":"+connection.getPort()+".");
+			discard(connection);
+		}
+	}
+
+	/**
+	 * Close all the idle connections in the pool.
+	 * @see #idleMap
+	 * @see #discard
+	 */
+	public void closeAll()
+	{
+		List<TOCSConnection> closeList = null;
+		Iterator<LinkedList<TOCSConnection>> mapIterator = null;
+
+		closeList = new Vector<TOCSConnection>();
+		lock.lock();
+		try
+		{
+			mapIterator = idleMap.values().iterator();
+			while(mapIterator.hasNext())
+				closeList.addAll(mapIterator.next());
+			idleMap.clear();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		for(int i = 0; i < closeList.size(); i++)
+			discard(closeList.get(i));
+	}
+
+	/**
+	 * Set how long a connection can sit idle in the pool before it is evicted.
+	 * @param ms The idle timeout, in milliseconds.
+	 * @see #idleTimeout
+	 */
+	public void setIdleTimeout(long ms)
+	{
+		lock.lock();
+		try
+		{
+			idleTimeout = ms;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Set the maximum number of idle connections kept per host/port.
+	 * @param i The maximum number of idle connections.
+	 * @see #maxIdlePerKey
+	 */
+	public void setMaxIdlePerKey(int i)
+	{
+		lock.lock();
+		try
+		{
+			maxIdlePerKey = i;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get the number of idle connections currently in the pool for the specified host/port.
+	 * @param host The TOCS Server host name/IP Address.
+	 * @param port The TOCS Server port.
+	 * @return The number of idle connections.
+	 */
+	public int getIdleCount(String host,int port)
+	{
+		LinkedList<TOCSConnection> idleList = null;
+
+		lock.lock();
+		try
+		{
+			idleList = idleMap.get(getKey(host,port));
+			if(idleList == null)
+				return 0;
+			return idleList.size();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Remove and return the most recently used idle connection for the specified host/port.
+	 * @param host The TOCS Server host name/IP Address.
+	 * @param port The TOCS Server port.
+	 * @return An idle connection, or null if there are none.
+	 * @see #idleMap
+	 */
+	private TOCSConnection pollIdle(String host,int port)
+	{
+		LinkedList<TOCSConnection> idleList = null;
+
+		lock.lock();
+		try
+		{
+			idleList = idleMap.get(getKey(host,port));
+			if((idleList == null)||(idleList.size() == 0))
+				return null;
+			return idleList.removeLast();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get the list of idle connections for the specified host/port, creating it if necessary.
+	 * Should be called with the pool locked.
+	 * @param host The TOCS Server host name/IP Address.
+	 * @param port The TOCS Server port.
+	 * @return The list of idle connections.
+	 * @see #idleMap
+	 */
+	private LinkedList<TOCSConnection> getIdleList(String host,int port)
+	{
+		LinkedList<TOCSConnection> idleList = null;
+		String key = null;
+
+		key = getKey(host,port);
+		idleList = idleMap.get(key);
+		if(idleList == null)
+		{
+			idleList = new LinkedList<TOCSConnection>();
+			idleMap.put(key,idleList);
+		}
+		return idleList;
+	}
+
+	/**
+	 * Start the daemon timer that periodically evicts idle connections, if it is not already running.
+	 * Should be called with the pool locked.
+	 * @see #evictionTimer
+	 * @see #idleTimeout
+	 * @see #evictIdle
+	 */
+	private void startEvictionTimer()
+	{
+		long period;
+
+		if(evictionTimer != null)
+			return;
+		period = Math.max(idleTimeout/2,1000);
+		evictionTimer = new Timer(true);
+		evictionTimer.schedule(new TimerTask()
+			{
+				public void run()
+				{
+					evictIdle();
+				}
+			},period,period);
+	}
+
+	/**
+	 * Get the pool key for the specified host/port.
+	 * @param host The TOCS Server host name/IP Address.
+	 * @param port The TOCS Server port.
+	 * @return A string of the form host:port.
+	 */
+	private static String getKey(String host,int port)
+	{
+		return host+":"+port;
+	}
+}
+/*
+** $Log$
+*/
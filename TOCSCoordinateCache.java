@@ -0,0 +1,156 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCSCoordinateCache.java
+// $Header$
+package org.estar.toop;
+
+import org.estar.astrometry.*;
+
+/**
+ * A cache of the sexagesimal (colon separated) strings used to send RA and Dec values in TOCS commands
+ * (POSITION, SLEW, ACQUIRE), so probing the same coordinates over and over does no formatting work.
+ * The cache is keyed on the coordinate's value (in radians), so it is still correct if an RA/Dec object
+ * is re-parsed. Each cache is direct mapped: a fixed size array, where a value can only be in the slot its
+ * hash selects, and a new value replaces whatever was in it. Entries are immutable, so the cache
+ * can be read and written by several threads without locking, and a hit allocates nothing.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see Position#createCommandString
+ * @see Slew#createCommandString
+ * @see Acquire#createCommandString
+ */
+class TOCSCoordinateCache
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The number of slots in each cache. Must be a power of 2.
+	 */
+	private static final int SLOT_COUNT = 256;
+	/**
+	 * The cache of formatted RAs.
+	 */
+	private static final TOCSCoordinateCache raCache = new TOCSCoordinateCache();
+	/**
+	 * The cache of formatted Decs.
+	 */
+	private static final TOCSCoordinateCache decCache = new TOCSCoordinateCache();
+	/**
+	 * The cache slots.
+	 */
+	private final Entry slots[] = new Entry[SLOT_COUNT];
+
+	/**
+	 * Constructor. Use formatRA/formatDec.
+	 */
+	private TOCSCoordinateCache()
+	{
+		super();
+	}
+
+	/**
+	 * Get the colon separated string of an RA, i.e. ra.toString(':'), from the cache if possible.
+	 * @param ra The RA.
+	 * @return The formatted RA.
+	 * @see #raCache
+	 */
+	public static String formatRA(RA ra)
+	{
+		Entry entry = null;
+		long key;
+		int slot;
+
+		key = Double.doubleToLongBits(ra.toRadians());
+		slot = getSlot(key);
+		entry = raCache.slots[slot];
+		if((entry != null)&&(entry.key == key))
+			return entry.value;
+		entry = new Entry(key,ra.toString(':'));
+		raCache.slots[slot] = entry;
+		return entry.value;
+	}
+
+	/**
+	 * Get the colon separated string of a Dec, i.e. dec.toString(':'), from the cache if possible.
+	 * @param dec The Dec.
+	 * @return The formatted Dec.
+	 * @see #decCache
+	 */
+	public static String formatDec(Dec dec)
+	{
+		Entry entry = null;
+		long key;
+		int slot;
+
+		key = Double.doubleToLongBits(dec.toRadians());
+		slot = getSlot(key);
+		entry = decCache.slots[slot];
+		if((entry != null)&&(entry.key == key))
+			return entry.value;
+		entry = new Entry(key,dec.toString(':'));
+		decCache.slots[slot] = entry;
+		return entry.value;
+	}
+
+	/**
+	 * Get the cache slot for a key, by mixing the key's bits and masking.
+	 * @param key The key (the coordinate's bits).
+	 * @return The slot, from 0 to SLOT_COUNT-1.
+	 * @see #SLOT_COUNT
+	 */
+	private static int getSlot(long key)
+	{
+		key ^= (key >>> 33);
+		key *= 0xff51afd7ed558ccdL;
+		key ^= (key >>> 33);
+		return ((int)key)&(SLOT_COUNT-1);
+	}
+
+	/**
+	 * An immutable cache entry.
+	 */
+	private static class Entry
+	{
+		/**
+		 * The coordinate's bits.
+		 */
+		final long key;
+		/**
+		 * The formatted coordinate.
+		 */
+		final String value;
+
+		/**
+		 * Constructor.
+		 * @param key The coordinate's bits.
+		 * @param value The formatted coordinate.
+		 */
+		Entry(long key,String value)
+		{
+			this.key = key;
+			this.value = value;
+		}
+	}
+}
+/*
+** $Log$
+*/
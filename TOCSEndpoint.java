@@ -0,0 +1,158 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCSEndpoint.java
+// $Header$
+package org.estar.toop;
+
+import java.util.*;
+
+import ngat.util.*;
+
+/**
+ * A TOCS server endpoint, i.e. a host and port a TOCS command can be sent to.
+ * A session can have an ordered list of endpoints for the same RCS (e.g. a proxy and a direct connection),
+ * see TOCSessionData.getTOCSEndpoints.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCSessionData#getTOCSEndpoints
+ */
+public class TOCSEndpoint
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The TOCS server host name/IP Address.
+	 */
+	private String host = null;
+	/**
+	 * The TOCS server port.
+	 */
+	private int port = 0;
+
+	/**
+	 * Constructor.
+	 * @param host The TOCS server host name/IP Address.
+	 * @param port The TOCS server port.
+	 * @see #host
+	 * @see #port
+	 */
+	public TOCSEndpoint(String host,int port)
+	{
+		super();
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 * Parse an endpoint of the form &lt;host&gt;:&lt;port&gt;.
+	 * @param s The string to parse.
+	 * @return A new endpoint.
+	 * @exception NGATPropertyException Thrown if the string is not a valid endpoint.
+	 */
+	public static TOCSEndpoint parse(String s) throws NGATPropertyException
+	{
+		String hostString = null;
+		int index,port;
+
+		s = s.trim();
+		index = s.lastIndexOf(':');
+		if(index < 1)
+		{
+			throw new NGATPropertyException("TOCSEndpoint:parse:Endpoint "+s+
+							" is not of the form <host>:<port>.");
+		}
+		hostString = s.substring(0,index);
+		try
+		{
+			port = Integer.parseInt(s.substring(index+1));
+		}
+		catch(NumberFormatException e)
+		{
+			throw new NGATPropertyException("TOCSEndpoint:parse:Endpoint "+s+" has an illegal port.");
+		}
+		return new TOCSEndpoint(hostString,port);
+	}
+
+	/**
+	 * Parse a comma separated list of endpoints of the form &lt;host&gt;:&lt;port&gt;, in order of preference.
+	 * @param s The string to parse.
+	 * @return An array of endpoints.
+	 * @exception NGATPropertyException Thrown if an endpoint is not valid, or the list is empty.
+	 * @see #parse
+	 */
+	public static TOCSEndpoint[] parseList(String s) throws NGATPropertyException
+	{
+		StringTokenizer st = null;
+		TOCSEndpoint endpoints[] = null;
+		int i;
+
+		st = new StringTokenizer(s,",");
+		endpoints = new TOCSEndpoint[st.countTokens()];
+		if(endpoints.length == 0)
+			throw new NGATPropertyException("TOCSEndpoint:parseList:Endpoint list '"+s+"' is empty.");
+		for(i = 0; i < endpoints.length; i++)
+			endpoints[i] = parse(st.nextToken());
+		return endpoints;
+	}
+
+	/**
+	 * Get the TOCS server host name.
+	 * @return The host.
+	 * @see #host
+	 */
+	public String getHost()
+	{
+		return host;
+	}
+
+	/**
+	 * Get the TOCS server port.
+	 * @return The port.
+	 * @see #port
+	 */
+	public int getPort()
+	{
+		return port;
+	}
+
+	/**
+	 * Get the circuit breaker for this endpoint.
+	 * @return The circuit breaker.
+	 * @see TOCSCircuitBreaker#getInstance
+	 */
+	public TOCSCircuitBreaker getCircuitBreaker()
+	{
+		return TOCSCircuitBreaker.getInstance(host,port);
+	}
+
+	/**
+	 * Return a string representation of the endpoint.
+	 * @return The endpoint, as &lt;host&gt;:&lt;port&gt;.
+	 */
+	public String toString()
+	{
+		return host+":"+port;
+	}
+}
+/*
+** $Log$
+*/
@@ -0,0 +1,124 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCSErrorCode.java
+// $Header$
+package org.estar.toop;
+
+/**
+ * The error codes a TOCS command can fail with. Most are returned by the TOCS server in an ERROR reply, e.g.
+ * <pre>
+ * ERROR NOT_OPERATIONAL
+ * ERROR ABORTED Code=607001, message=Overridden by higher priority service
+ * </pre>
+ * The rest (INTERNAL_ERROR, TIMEOUT, CIRCUIT_OPEN) are generated by this package, when the command could
+ * not be sent or no reply was received. Error codes from the server that are not recognised are UNKNOWN.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCAClient#getTOCSErrorCode
+ * @see TOCCommand#getErrorCode
+ */
+public enum TOCSErrorCode
+{
+	/**
+	 * The RCS is not operational (e.g. it is daytime, or the weather is bad). Expected, and frequent,
+	 * when polling.
+	 */
+	NOT_OPERATIONAL(true),
+	/**
+	 * The command was aborted, e.g. the service was overridden by a higher priority service.
+	 * The reply contains a numeric Code, see TOCAClient.getAbortCode.
+	 */
+	ABORTED(false),
+	/**
+	 * The command failed inside this package, e.g. a connection to the TOCS server could not be opened,
+	 * or the reply could not be parsed.
+	 */
+	INTERNAL_ERROR(false),
+	/**
+	 * The command's deadline expired before a reply was received.
+	 */
+	TIMEOUT(false),
+	/**
+	 * The command was not sent, as the circuit breaker for every TOCS endpoint was open. Expected, and
+	 * frequent, while the TOCS server is down.
+	 */
+	CIRCUIT_OPEN(true),
+	/**
+	 * The TOCS server returned an error code not listed here.
+	 */
+	UNKNOWN(false);
+
+	/**
+	 * The error codes, cached so parse does not copy the array each time.
+	 */
+	private static final TOCSErrorCode VALUES[] = values();
+	/**
+	 * Whether this error is an expected, frequent, failure.
+	 */
+	private final boolean expected;
+
+	/**
+	 * Constructor.
+	 * @param expected Whether this error is an expected, frequent, failure.
+	 * @see #expected
+	 */
+	private TOCSErrorCode(boolean expected)
+	{
+		this.expected = expected;
+	}
+
+	/**
+	 * Get whether this error is an expected, frequent, failure, rather than something going wrong.
+	 * Exceptions for expected errors can be created without a stack trace, see
+	 * TOCSessionData.setStacklessExceptions.
+	 * @return true if the error is expected.
+	 * @see #expected
+	 * @see TOCSessionData#setStacklessExceptions
+	 */
+	public boolean isExpected()
+	{
+		return expected;
+	}
+
+	/**
+	 * Find the error code in part of a reply line, without creating any strings.
+	 * @param s The reply line.
+	 * @param start The offset of the error code in the line.
+	 * @param end The offset after the end of the error code (exclusive).
+	 * @return The error code, or UNKNOWN if it is not recognised.
+	 * @see #VALUES
+	 */
+	public static TOCSErrorCode parse(String s,int start,int end)
+	{
+		String name = null;
+		int i;
+
+		for(i = 0; i < VALUES.length; i++)
+		{
+			name = VALUES[i].name();
+			if((name.length() == (end-start))&&s.regionMatches(start,name,0,end-start))
+				return VALUES[i];
+		}
+		return UNKNOWN;
+	}
+}
+/*
+** $Log$
+*/
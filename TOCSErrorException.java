@@ -0,0 +1,91 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCSErrorException.java
+// $Header$
+package org.estar.toop;
+
+/**
+ * This class extends TOCException. It is thrown when a command fails, and carries the command's
+ * error code (and abort code, if the command was ABORTED), so callers can handle particular errors
+ * (e.g. NOT_OPERATIONAL in a poll loop) without examining the message.
+ * Exceptions for expected errors can be created without a stack trace, see TOCSessionData.setStacklessExceptions.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCSErrorCode
+ * @see TOCSession
+ */
+public class TOCSErrorException extends TOCException
+{
+	/**
+	 * Revision Control System id string, showing the version of the Class
+	 */
+	public final static String RCSID = new String("$Id$");
+	/**
+	 * Serialization version.
+	 */
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The error code the command failed with.
+	 */
+	private TOCSErrorCode errorCode = null;
+	/**
+	 * The numeric Code the command was ABORTED with, or -1.
+	 */
+	private int abortCode = -1;
+
+	/**
+	 * Constructor for the exception.
+	 * @param errorString The error string.
+	 * @param errorCode The error code the command failed with.
+	 * @param abortCode The numeric Code the command was ABORTED with, or -1.
+	 * @param writableStackTrace If false, no stack trace is recorded.
+	 * @see #errorCode
+	 * @see #abortCode
+	 */
+	public TOCSErrorException(String errorString,TOCSErrorCode errorCode,int abortCode,boolean writableStackTrace)
+	{
+		super(errorString,writableStackTrace);
+		this.errorCode = errorCode;
+		this.abortCode = abortCode;
+	}
+
+	/**
+	 * Get the error code the command failed with.
+	 * @return The error code.
+	 * @see #errorCode
+	 */
+	public TOCSErrorCode getErrorCode()
+	{
+		return errorCode;
+	}
+
+	/**
+	 * Get the numeric Code the command was ABORTED with.
+	 * @return The code, or -1.
+	 * @see #abortCode
+	 */
+	public int getAbortCode()
+	{
+		return abortCode;
+	}
+}
+/*
+** $Log$
+*/
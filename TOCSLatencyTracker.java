@@ -0,0 +1,155 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCSLatencyTracker.java
+// $Header$
+package org.estar.toop;
+
+import java.util.*;
+
+/**
+ * Keeps track of the latency (time from sending a command to receiving it's reply) of recent commands
+ * of one type, so percentiles can be computed. There is one tracker per command type, retrieved
+ * using getInstance. The latencies are kept in a fixed size ring buffer, so the percentiles reflect
+ * the most recent SAMPLE_COUNT commands.
+ * TOCCommand uses the 95th percentile as the delay before sending a hedged request.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCCommand#getHedgeDelay
+ */
+public class TOCSLatencyTracker
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The number of latencies kept.
+	 */
+	public static final int SAMPLE_COUNT = 100;
+	/**
+	 * The minimum number of latencies that must have been recorded before percentiles are computed.
+	 */
+	public static final int MIN_SAMPLE_COUNT = 20;
+	/**
+	 * Map of command type to tracker.
+	 */
+	private static Map<String,TOCSLatencyTracker> trackerMap = new HashMap<String,TOCSLatencyTracker>();
+	/**
+	 * Ring buffer of latencies, in milliseconds.
+	 */
+	private long samples[] = new long[SAMPLE_COUNT];
+	/**
+	 * Scratch array the latencies are sorted in, when computing a percentile.
+	 */
+	private long sortedSamples[] = new long[SAMPLE_COUNT];
+	/**
+	 * The index in samples the next latency is written to.
+	 */
+	private int nextIndex = 0;
+	/**
+	 * The number of latencies recorded, up to SAMPLE_COUNT.
+	 */
+	private int sampleCount = 0;
+
+	/**
+	 * Constructor. Use getInstance.
+	 * @see #getInstance
+	 */
+	private TOCSLatencyTracker()
+	{
+		super();
+	}
+
+	/**
+	 * Get the tracker for the specified command type, creating it if necessary.
+	 * @param name The command type (e.g. the command's class name).
+	 * @return The tracker.
+	 * @see #trackerMap
+	 */
+	public static synchronized TOCSLatencyTracker getInstance(String name)
+	{
+		TOCSLatencyTracker tracker = null;
+
+		tracker = trackerMap.get(name);
+		if(tracker == null)
+		{
+			tracker = new TOCSLatencyTracker();
+			trackerMap.put(name,tracker);
+		}
+		return tracker;
+	}
+
+	/**
+	 * Record the latency of a command.
+	 * @param ms The latency in milliseconds.
+	 * @see #samples
+	 */
+	public synchronized void record(long ms)
+	{
+		samples[nextIndex] = ms;
+		nextIndex = (nextIndex+1)%SAMPLE_COUNT;
+		if(sampleCount < SAMPLE_COUNT)
+			sampleCount++;
+	}
+
+	/**
+	 * Get a percentile of the recent latencies.
+	 * @param percentile The percentile to compute, between 0 and 100.
+	 * @return The latency in milliseconds, or -1 if fewer than MIN_SAMPLE_COUNT latencies have been recorded.
+	 * @see #MIN_SAMPLE_COUNT
+	 */
+	public synchronized long getPercentile(double percentile)
+	{
+		int index;
+
+		if(sampleCount < MIN_SAMPLE_COUNT)
+			return -1;
+		System.arraycopy(samples,0,sortedSamples,0,sampleCount);
+		Arrays.sort(sortedSamples,0,sampleCount);
+		index = (int)Math.ceil((percentile/100.0)*sampleCount)-1;
+		if(index < 0)
+			index = 0;
+		if(index >= sampleCount)
+			index = sampleCount-1;
+		return sortedSamples[index];
+	}
+
+	/**
+	 * Get the number of latencies recorded (up to SAMPLE_COUNT).
+	 * @return The number of latencies.
+	 * @see #sampleCount
+	 */
+	public synchronized int getSampleCount()
+	{
+		return sampleCount;
+	}
+
+	/**
+	 * Forget all recorded latencies.
+	 */
+	public synchronized void reset()
+	{
+		nextIndex = 0;
+		sampleCount = 0;
+	}
+}
+/*
+** $Log$
+*/
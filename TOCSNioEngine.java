@@ -0,0 +1,652 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCSNioEngine.java
+// $Header$
+package org.estar.toop;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+import ngat.util.logging.*;
+
+/**
+ * A non-blocking transport for sending commands to RCS TOCS servers.
+ * A single selector thread drives any number of outstanding command/reply exchanges: each exchange
+ * connects a non-blocking SocketChannel, writes the command line, reads a single reply line and then
+ * closes the channel, calling a TOCSReplyListener with the result. No thread is blocked waiting for
+ * the reply. Use as follows:
+ * <pre>
+ * TOCSNioEngine engine = new TOCSNioEngine();
+ * engine.start();
+ * engine.submit("ltproxy",8610,"WHEN Microlensing",listener);
+ * ...
+ * engine.close();
+ * </pre>
+ * Commands can also be sent using TOCCommand.submit, or by setting the engine into a TOCSession.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCSReplyListener
+ * @see TOCCommand#submit
+ */
+public class TOCSNioEngine implements Logging, Runnable
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Classname for logging.
+	 */
+	public static final String CLASS = "TOCSNioEngine";
+	/**
+	 * The line terminator sent after each command.
+	 */
+	public final static String LINE_TERMINATOR = "\n";
+	/**
+	 * The initial size of the reply buffer for each exchange, in bytes.
+	 */
+	public final static int REPLY_BUFFER_SIZE = 1024;
+	/**
+	 * Class logger.
+	 */
+	private Logger logger = null;
+	/**
+	 * The selector used to multiplex all the exchange channels.
+	 */
+	private Selector selector = null;
+	/**
+	 * List of exchanges submitted but not yet registered with the selector.
+	 */
+	private List<Exchange> pendingList = null;
+	/**
+	 * The selector thread.
+	 */
+	private Thread thread = null;
+	/**
+	 * Set to true to make the selector thread terminate.
+	 */
+	private volatile boolean quit = false;
+
+	/**
+	 * Constructor. The selector is opened, but the selector thread is not started until start is called.
+	 * @exception IOException Thrown if the selector cannot be opened.
+	 * @see #logger
+	 * @see #selector
+	 * @see #pendingList
+	 */
+	public TOCSNioEngine() throws IOException
+	{
+		super();
+		logger = LogManager.getLogger(this);
+		selector = Selector.open();
+		pendingList = new Vector<Exchange>();
+	}
+
+	/**
+	 * Start the (daemon) selector thread.
+	 * @see #thread
+	 */
+	public synchronized void start()
+	{
+		if(thread != null)
+			return;
+		quit = false;
+		thread = new Thread(this,CLASS);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop the selector thread. Any exchanges still in progress are failed, and any submitted afterwards
+	 * are rejected.
+	 * @see #quit
+	 * @see #selector
+	 */
+	public synchronized void close()
+	{
+		quit = true;
+		selector.wakeup();
+	}
+
+	/**
+	 * Returns whether the engine is running, i.e. start has been called, and close has not.
+	 * @return true if the engine is running, false if it is not.
+	 * @see #thread
+	 * @see #quit
+	 */
+	public synchronized boolean isRunning()
+	{
+		return (thread != null)&&(quit == false);
+	}
+
+	/**
+	 * Submit a command to be sent to a TOCS server, with no deadline.
+	 * @param host The TOCS server host name/IP Address.
+	 * @param port The TOCS server port.
+	 * @param command The command line to send (without a line terminator).
+	 * @param listener The listener to call with the result.
+	 * @see #submit(java.lang.String,int,java.lang.CharSequence,long,org.estar.toop.TOCSReplyListener)
+	 */
+	public void submit(String host,int port,CharSequence command,TOCSReplyListener listener)
+	{
+		submit(host,port,command,0,listener);
+	}
+
+	/**
+	 * Submit a command to be sent to a TOCS server. This method returns immediately, the listener is called
+	 * (on the selector thread) once the reply line is received, or the exchange fails.
+	 * The host name is resolved in the calling thread (using the TOCSAddressCache), so the selector thread 
+	 * never blocks on DNS. If the reply has not been received when the timeout expires, the channel is closed and the
+	 * listener's exchangeFailed method is called with a SocketTimeoutException.
+	 * If the engine is not running, the listener's exchangeFailed method is called (in the calling thread)
+	 * with an IOException.
+	 * @param host The TOCS server host name/IP Address.
+	 * @param port The TOCS server port.
+	 * @param command The command line to send (without a line terminator).
+	 * @param timeout The exchange's deadline, in milliseconds from now. 0 means wait forever.
+	 * @param listener The listener to call with the result.
+	 * @see #pendingList
+	 * @see Exchange
+	 */
+	public void submit(String host,int port,CharSequence command,long timeout,TOCSReplyListener listener)
+	{
+		submit(host,port,command,timeout,null,listener);
+	}
+
+	/**
+	 * Submit a command to be sent to a TOCS server, reading the reply in streaming mode if a line 
+	 * listener is specified: each reply line is passed to the line listener as it arrives, until
+	 * a terminal line (starting with OK or ERROR) is read, which is passed to the listener's replyReceived.
+	 * @param host The TOCS server host name/IP Address.
+	 * @param port The TOCS server port.
+	 * @param command The command line to send (without a line terminator).
+	 * @param timeout The exchange's deadline, in milliseconds from now. 0 means wait forever.
+	 * @param lineListener The listener to pass intermediate reply lines to, or null to read a single line.
+	 * @param listener The listener to call with the result.
+	 * @see #pendingList
+	 * @see Exchange
+	 * @see TOCSReplyLineListener
+	 */
+	public void submit(String host,int port,CharSequence command,long timeout,TOCSReplyLineListener lineListener,
+			   TOCSReplyListener listener)
+	{
+		submit(host,port,TOCSConnection.encodeFrame(command),timeout,lineListener,listener);
+	}
+
+	/**
+	 * Submit a pre-encoded command frame to be sent to a TOCS server, reading the reply in streaming mode 
+	 * if a line listener is specified.
+	 * @param host The TOCS server host name/IP Address.
+	 * @param port The TOCS server port.
+	 * @param frame The command frame to send, including the line terminator (see TOCSConnection.encodeFrame).
+	 *        The frame is not copied, and must not be changed.
+	 * @param timeout The exchange's deadline, in milliseconds from now. 0 means wait forever.
+	 * @param lineListener The listener to pass intermediate reply lines to, or null to read a single line.
+	 * @param listener The listener to call with the result.
+	 * @see #pendingList
+	 * @see #isRunning
+	 * @see Exchange
+	 * @see TOCSConnection#encodeFrame
+	 */
+	public void submit(String host,int port,byte frame[],long timeout,TOCSReplyLineListener lineListener,
+			   TOCSReplyListener listener)
+	{
+		Exchange exchange = null;
+
+		exchange = new Exchange(TOCSAddressCache.getInstance().getAddress(host,port),frame,listener);
+		exchange.lineListener = lineListener;
+		if(exchange.address.isUnresolved())
+		{
+			listener.exchangeFailed(new UnknownHostException(host));
+			return;
+		}
+		if(timeout > 0)
+			exchange.deadline = System.currentTimeMillis()+timeout;
+		// the selector thread fails everything left in the pendingList after it stops running
+		synchronized(this)
+		{
+			if(isRunning())
+			{
+				pendingList.add(exchange);
+				selector.wakeup();
+				return;
+			}
+		}
+		listener.exchangeFailed(new IOException(this.getClass().getName()+":submit:Engine not running."));
+	}
+
+	/**
+	 * Selector thread run method. Registers newly submitted exchanges, then services
+	 * connect/write/read readiness for all the exchanges in progress. The selector wakes up
+	 * in time to cancel the exchange with the earliest deadline.
+	 * @see #registerPending
+	 * @see #service
+	 * @see #expireExchanges
+	 * @see #failAll
+	 * @see #selector
+	 */
+	public void run()
+	{
+		Iterator<SelectionKey> iterator = null;
+		SelectionKey key = null;
+
+		logger.log(INFO, 1, CLASS, RCSID,"run","Selector thread started.");
+		while(quit == false)
+		{
+			try
+			{
+				registerPending();
+				selector.select(expireExchanges());
+				iterator = selector.selectedKeys().iterator();
+				while(iterator.hasNext())
+				{
+					key = iterator.next();
+					iterator.remove();
+					service(key);
+				}
+			}
+			catch(Exception e)
+			{
+				logger.log(INFO, 1, CLASS, RCSID,"run","Selector loop failed:"+e);
+				logger.dumpStack(1,e);
+			}
+		}
+		// stop accepting exchanges before failing the pending ones, so none are left in the pendingList
+		synchronized(this)
+		{
+			thread = null;
+		}
+		failAll(new IOException(this.getClass().getName()+":run:Engine closed."));
+		try
+		{
+			selector.close();
+		}
+		catch(IOException e)
+		{
+			logger.log(INFO, 1, CLASS, RCSID,"run","Closing selector failed:"+e);
+			logger.dumpStack(1,e);
+		}
+		logger.log(INFO, 1, CLASS, RCSID,"run","Selector thread terminated.");
+	}
+
+	/**
+	 * Open a non-blocking channel for each pending exchange, start it connecting, and register it with
+	 * the selector.
+	 * @see #pendingList
+	 * @see #selector
+	 */
+	private void registerPending()
+	{
+		Exchange exchange = null;
+
+		while(pendingList.size() > 0)
+		{
+			exchange = pendingList.remove(0);
+			try
+			{
+				exchange.channel = SocketChannel.open();
+				exchange.channel.configureBlocking(false);
+				exchange.channel.socket().setTcpNoDelay(true);
+				if(exchange.channel.connect(exchange.address))
+					exchange.channel.register(selector,SelectionKey.OP_WRITE,exchange);
+				else
+					exchange.channel.register(selector,SelectionKey.OP_CONNECT,exchange);
+			}
+			catch(IOException e)
+			{
+				finish(exchange,null,e);
+			}
+			catch(RuntimeException e)
+			{
+				finish(exchange,null,e);
+			}
+		}
+	}
+
+	/**
+	 * Service a selected key.
+	 * <ul>
+	 * <li>When the connection completes, we start writing the command. If finishConnect says the
+	 *     connection is still pending, we carry on waiting for it.
+	 * <li>When the command has been written, we start reading the reply.
+	 * <li>When a complete reply line has been read (or the server closes the connection),
+	 *     the exchange is finished.
+	 * </ul>
+	 * Any exception (including a RuntimeException from the channel or reply decoding) fails the exchange,
+	 * rather than leaving it's listener waiting forever.
+	 * @param key The selected key.
+	 * @see #readReply
+	 * @see #finish
+	 */
+	private void service(SelectionKey key)
+	{
+		Exchange exchange = null;
+		String line = null;
+
+		exchange = (Exchange)(key.attachment());
+		try
+		{
+			if(key.isValid() == false)
+				return;
+			if(key.isConnectable())
+			{
+				if(exchange.channel.finishConnect())
+					key.interestOps(SelectionKey.OP_WRITE);
+			}
+			else if(key.isWritable())
+			{
+				exchange.channel.write(exchange.commandBuffer);
+				if(exchange.commandBuffer.hasRemaining() == false)
+					key.interestOps(SelectionKey.OP_READ);
+			}
+			else if(key.isReadable())
+			{
+				if(readReply(exchange))
+				{
+					line = exchange.getReplyLine();
+					finish(exchange,line,null);
+				}
+			}
+		}
+		catch(IOException e)
+		{
+			finish(exchange,null,e);
+		}
+		catch(RuntimeException e)
+		{
+			logger.log(INFO, 1, CLASS, RCSID,"service","Exchange to "+exchange.address+" failed:"+e);
+			logger.dumpStack(1,e);
+			finish(exchange,null,e);
+		}
+	}
+
+	/**
+	 * Read available reply data for the exchange. Each complete line is examined: if the exchange has
+	 * no line listener, or the line is a terminal line, the reply is complete. Otherwise the line is
+	 * passed to the line listener, and removed from the buffer.
+	 * @param exchange The exchange to read for.
+	 * @return true if the reply line has been read, or the server closed the connection,
+	 *         false if more data is needed.
+	 * @exception IOException Thrown if the read fails.
+	 * @see Exchange#lineStart
+	 * @see Exchange#scanStart
+	 * @see TOCAClient#isTerminalLine
+	 */
+	private boolean readReply(Exchange exchange) throws IOException
+	{
+		ByteBuffer newBuffer = null;
+		String line = null;
+		int count;
+
+		count = exchange.channel.read(exchange.replyBuffer);
+		if(count < 0)
+			return true;
+		for(int i = exchange.scanStart; i < exchange.replyBuffer.position(); i++)
+		{
+			if(exchange.replyBuffer.get(i) == '\n')
+			{
+				line = exchange.decodeLine(exchange.lineStart,i);
+				if((exchange.lineListener == null)||TOCAClient.isTerminalLine(line))
+				{
+					exchange.replyLine = line;
+					return true;
+				}
+				if(line.trim().length() > 0)
+				{
+					try
+					{
+						exchange.lineListener.lineReceived(line);
+					}
+					catch(Exception e)
+					{
+						logger.log(INFO, 1, CLASS, RCSID,"readReply","Line listener failed:"+e);
+						logger.dumpStack(1,e);
+					}
+				}
+				exchange.lineStart = i+1;
+			}
+		}
+		// discard lines already passed to the line listener
+		if(exchange.lineStart > 0)
+		{
+			exchange.replyBuffer.flip();
+			exchange.replyBuffer.position(exchange.lineStart);
+			exchange.replyBuffer.compact();
+			exchange.lineStart = 0;
+		}
+		exchange.scanStart = exchange.replyBuffer.position();
+		if(exchange.replyBuffer.hasRemaining() == false)
+		{
+			newBuffer = ByteBuffer.allocate(exchange.replyBuffer.capacity()*2);
+			exchange.replyBuffer.flip();
+			newBuffer.put(exchange.replyBuffer);
+			exchange.replyBuffer = newBuffer;
+		}
+		return false;
+	}
+
+	/**
+	 * Finish an exchange: close its channel, and call its listener.
+	 * @param exchange The exchange.
+	 * @param line The reply line, or null.
+	 * @param e The exception that caused the exchange to fail, or null if it succeeded.
+	 */
+	private void finish(Exchange exchange,String line,Exception e)
+	{
+		try
+		{
+			if(exchange.channel != null)
+				exchange.channel.close();
+		}
+		catch(IOException ce)
+		{
+			// We dont really care..
+			logger.log(INFO, 1, CLASS, RCSID,"finish","Error closing channel:"+ce);
+		}
+		// re-resolve the address next time if it could not be connected to
+		if(e instanceof ConnectException)
+		{
+			TOCSAddressCache.getInstance().invalidate(exchange.address.getHostString(),
+								  exchange.address.getPort());
+		}
+		try
+		{
+			if(e != null)
+				exchange.listener.exchangeFailed(e);
+			else
+				exchange.listener.replyReceived(line);
+		}
+		catch(Exception le)
+		{
+			logger.log(INFO, 1, CLASS, RCSID,"finish","Listener failed:"+le);
+			logger.dumpStack(1,le);
+		}
+	}
+
+	/**
+	 * Cancel any in progress exchanges whose deadline has expired: the channel is closed and the
+	 * exchange is failed with a SocketTimeoutException.
+	 * @return The time until the next deadline expires in milliseconds, suitable for passing to select
+	 *         (i.e. 0 if no exchanges have a deadline).
+	 * @see #finish
+	 */
+	private long expireExchanges()
+	{
+		List<Exchange> expiredList = null;
+		Iterator<SelectionKey> iterator = null;
+		SelectionKey key = null;
+		Exchange exchange = null;
+		long now,nextDeadline;
+
+		expiredList = new Vector<Exchange>();
+		now = System.currentTimeMillis();
+		nextDeadline = 0;
+		iterator = selector.keys().iterator();
+		while(iterator.hasNext())
+		{
+			key = iterator.next();
+			exchange = (Exchange)(key.attachment());
+			if((key.isValid() == false)||(exchange.deadline == 0))
+				continue;
+			if(exchange.deadline <= now)
+				expiredList.add(exchange);
+			else if((nextDeadline == 0)||(exchange.deadline < nextDeadline))
+				nextDeadline = exchange.deadline;
+		}
+		for(int i = 0; i < expiredList.size(); i++)
+		{
+			exchange = expiredList.get(i);
+			logger.log(INFO, 1, CLASS, RCSID,"expireExchanges","Exchange to "+exchange.address+
+				   " timed out.");
+			finish(exchange,null,new SocketTimeoutException("TOCS exchange deadline expired."));
+		}
+		if(nextDeadline == 0)
+			return 0;
+		return Math.max(nextDeadline-now,1);
+	}
+
+	/**
+	 * Fail all pending and in progress exchanges. Keys that are no longer valid belong to exchanges
+	 * that have already finished, and are skipped.
+	 * @param e The exception to fail them with.
+	 */
+	private void failAll(Exception e)
+	{
+		Iterator<SelectionKey> iterator = null;
+		SelectionKey key = null;
+
+		while(pendingList.size() > 0)
+			finish(pendingList.remove(0),null,e);
+		iterator = selector.keys().iterator();
+		while(iterator.hasNext())
+		{
+			key = iterator.next();
+			// cancelled keys (finished exchanges) stay in the key set until the next select
+			if(key.isValid())
+				finish((Exchange)(key.attachment()),null,e);
+		}
+	}
+
+	/**
+	 * The state of a single command/reply exchange.
+	 */
+	static class Exchange
+	{
+		/**
+		 * The address of the TOCS server.
+		 */
+		InetSocketAddress address = null;
+		/**
+		 * The command, as ASCII bytes including the line terminator.
+		 */
+		ByteBuffer commandBuffer = null;
+		/**
+		 * The listener to call with the result.
+		 */
+		TOCSReplyListener listener = null;
+		/**
+		 * The channel connected to the TOCS server.
+		 */
+		SocketChannel channel = null;
+		/**
+		 * Buffer the reply is read into.
+		 */
+		ByteBuffer replyBuffer = null;
+		/**
+		 * The listener to pass intermediate reply lines to, or null if a single reply line is expected.
+		 */
+		TOCSReplyLineListener lineListener = null;
+		/**
+		 * The position in the reply buffer the current line starts at.
+		 */
+		int lineStart = 0;
+		/**
+		 * The position in the reply buffer to start looking for the next line terminator from.
+		 */
+		int scanStart = 0;
+		/**
+		 * The (terminal) reply line, once it has been read.
+		 */
+		String replyLine = null;
+		/**
+		 * The time the exchange must be completed by, in milliseconds since the epoch, or 0 for no deadline.
+		 */
+		long deadline = 0;
+
+		/**
+		 * Constructor.
+		 * @param address The address of the TOCS server.
+		 * @param frame The encoded command line to send, including the line terminator. The commandBuffer
+		 *        wraps the frame, which is not copied.
+		 * @param listener The listener to call with the result.
+		 * @see TOCSConnection#encodeFrame
+		 */
+		Exchange(InetSocketAddress address,byte frame[],TOCSReplyListener listener)
+		{
+			this.address = address;
+			this.listener = listener;
+			commandBuffer = ByteBuffer.wrap(frame);
+			replyBuffer = ByteBuffer.allocate(REPLY_BUFFER_SIZE);
+		}
+
+		/**
+		 * Get the reply line read.
+		 * If the server closed the connection, any partial line read is returned, or null if nothing
+		 * was read.
+		 * @return The reply line, or null.
+		 * @see #replyLine
+		 */
+		String getReplyLine()
+		{
+			if(replyLine != null)
+				return replyLine;
+			if(replyBuffer.position() == lineStart)
+				return null;
+			return decodeLine(lineStart,replyBuffer.position());
+		}
+
+		/**
+		 * Decode a line from the reply buffer. A trailing carriage return is removed.
+		 * @param start The position of the start of the line.
+		 * @param end The position of the end of the line (the line terminator).
+		 * @return The line.
+		 */
+		String decodeLine(int start,int end)
+		{
+			if((end > start) && (replyBuffer.get(end-1) == '\r'))
+				end--;
+			try
+			{
+				return new String(replyBuffer.array(),start,end-start,"US-ASCII");
+			}
+			catch(UnsupportedEncodingException e)
+			{
+				// US-ASCII is always supported
+				return new String(replyBuffer.array(),start,end-start);
+			}
+		}
+	}
+}
+/*
+** $Log$
+*/
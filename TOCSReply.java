@@ -0,0 +1,702 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCSReply.java
+// $Header$
+package org.estar.toop;
+
+import java.util.*;
+
+import ngat.util.*;
+
+/**
+ * The keyword/value pairs of an OK reply from the TOCS server, e.g.
+ * <pre>
+ * OK sessionID=004951, sessionLimit=3600, timeRemaining=4612, priority=2
+ * </pre>
+ * The reply is decoded lazily. setLine just remembers the reply line; the line is only indexed, in a single
+ * pass which records the start and end offsets of each keyword and value in a flat int array, when a keyword
+ * is first asked for. A reply whose values are never read is never indexed.
+ * Each value is only decoded (into a string, int or double) the first time it is asked for, and the result is
+ * memoized, so asking for the same value again costs a lookup only. Keyword lookups are also memoized.
+ * The instance (and it's arrays) is re-used for each reply.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCAClient#parseReply
+ */
+class TOCSReply
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The number of ints stored in the index for each keyword/value pair.
+	 */
+	private static final int INDEX_STRIDE = 4;
+	/**
+	 * Offset in a pair's index entry of the keyword start offset.
+	 */
+	private static final int KEYWORD_START = 0;
+	/**
+	 * Offset in a pair's index entry of the keyword end offset (exclusive).
+	 */
+	private static final int KEYWORD_END = 1;
+	/**
+	 * Offset in a pair's index entry of the value start offset.
+	 */
+	private static final int VALUE_START = 2;
+	/**
+	 * Offset in a pair's index entry of the value end offset (exclusive).
+	 */
+	private static final int VALUE_END = 3;
+	/**
+	 * Bit set in a pair's decoded entry when it's int value has been memoized.
+	 */
+	private static final byte DECODED_INT = 1;
+	/**
+	 * Bit set in a pair's decoded entry when it's double value has been memoized.
+	 */
+	private static final byte DECODED_DOUBLE = 2;
+	/**
+	 * The largest mantissa that can be represented exactly in a double (2^53).
+	 */
+	private static final long MAX_EXACT_MANTISSA = 1L<<53;
+	/**
+	 * The powers of ten that can be represented exactly in a double, 10^0 to 10^22.
+	 */
+	private static final double EXACT_POWERS_OF_TEN[] = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	/**
+	 * The reply line the keyword/value pairs are in.
+	 */
+	private String line = null;
+	/**
+	 * The offset in line the keyword/value pairs start at.
+	 */
+	private int lineStart = 0;
+	/**
+	 * Whether line has been indexed yet.
+	 */
+	private boolean indexed = true;
+	/**
+	 * The index of keyword/value pairs. Each pair has INDEX_STRIDE entries: keyword start, keyword end,
+	 * value start and value end offsets into line.
+	 */
+	private int index[] = new int[16*INDEX_STRIDE];
+	/**
+	 * The number of keyword/value pairs in the index.
+	 */
+	private int pairCount = 0;
+	/**
+	 * The memoized string value of each pair, or null if it has not been asked for yet.
+	 */
+	private String values[] = new String[16];
+	/**
+	 * The memoized int value of each pair, valid if the pair's DECODED_INT bit is set.
+	 */
+	private int intValues[] = new int[16];
+	/**
+	 * The memoized double value of each pair, valid if the pair's DECODED_DOUBLE bit is set.
+	 */
+	private double doubleValues[] = new double[16];
+	/**
+	 * Which numeric values of each pair have been memoized (DECODED_INT and DECODED_DOUBLE bits).
+	 */
+	private byte decoded[] = new byte[16];
+	/**
+	 * For each pair, the last keyword string it was found with by indexOf, or null. Lookups with the same
+	 * keyword string (normally a constant) are then resolved by reference, without comparing characters.
+	 */
+	private String lookupKeywords[] = new String[16];
+
+	/**
+	 * Default constructor.
+	 */
+	public TOCSReply()
+	{
+		super();
+	}
+
+	/**
+	 * Remove all the keyword/value pairs.
+	 * @see #line
+	 * @see #pairCount
+	 */
+	public void clear()
+	{
+		line = null;
+		pairCount = 0;
+		indexed = true;
+	}
+
+	/**
+	 * Set the reply line the keyword/value pairs are in. The line is not parsed until a keyword/value
+	 * is asked for. Any previous pairs are removed.
+	 * @param s The reply line.
+	 * @param start The offset in the line the keyword/value pairs start at (i.e. after the "OK").
+	 * @see #line
+	 * @see #lineStart
+	 * @see #indexed
+	 */
+	public void setLine(String s,int start)
+	{
+		line = s;
+		lineStart = start;
+		pairCount = 0;
+		indexed = false;
+	}
+
+	/**
+	 * Parse the keyword/value pairs in a reply line straight away. Equivalent to setLine followed
+	 * by getPairCount.
+	 * @param s The reply line.
+	 * @param start The offset in the line to start parsing at (i.e. after the "OK").
+	 * @return The number of keyword/value pairs parsed.
+	 * @see #setLine
+	 * @see #index
+	 */
+	public int parse(String s,int start)
+	{
+		setLine(s,start);
+		index();
+		return pairCount;
+	}
+
+	/**
+	 * Index the keyword/value pairs in the reply line, if this has not already been done. The line, from
+	 * lineStart, is a comma separated list of keyword=value pairs. Whitespace around keywords and values is
+	 * ignored. Any entry without an '=' (e.g. an informational string like "Service terminated.") is skipped.
+	 * The memoized values of the previous reply are forgotten.
+	 * @see #line
+	 * @see #lineStart
+	 * @see #indexed
+	 * @see #index
+	 * @see #pairCount
+	 */
+	private void index()
+	{
+		String s = null;
+		int newIndex[] = null;
+		int length,entryStart,entryEnd,equalsIndex,i;
+		char ch;
+
+		if(indexed)
+			return;
+		indexed = true;
+		s = line;
+		pairCount = 0;
+		length = s.length();
+		entryStart = lineStart;
+		while(entryStart < length)
+		{
+			// find the end of the entry, and any '=' in it
+			equalsIndex = -1;
+			for(entryEnd = entryStart; entryEnd < length; entryEnd++)
+			{
+				ch = s.charAt(entryEnd);
+				if(ch == ',')
+					break;
+				if((ch == '=')&&(equalsIndex < 0))
+					equalsIndex = entryEnd;
+			}
+			if(equalsIndex > -1)
+			{
+				if((pairCount+1)*INDEX_STRIDE > index.length)
+				{
+					newIndex = new int[index.length*2];
+					System.arraycopy(index,0,newIndex,0,index.length);
+					index = newIndex;
+				}
+				i = pairCount*INDEX_STRIDE;
+				index[i+KEYWORD_START] = skipWhitespace(s,entryStart,equalsIndex);
+				index[i+KEYWORD_END] = trimWhitespace(s,index[i+KEYWORD_START],equalsIndex);
+				index[i+VALUE_START] = skipWhitespace(s,equalsIndex+1,entryEnd);
+				index[i+VALUE_END] = trimWhitespace(s,index[i+VALUE_START],entryEnd);
+				pairCount++;
+			}
+			entryStart = entryEnd+1;
+		}
+		// reset the memoized values
+		if(values.length < pairCount)
+		{
+			values = new String[index.length/INDEX_STRIDE];
+			intValues = new int[values.length];
+			doubleValues = new double[values.length];
+			decoded = new byte[values.length];
+			lookupKeywords = new String[values.length];
+		}
+		else
+		{
+			Arrays.fill(values,0,pairCount,null);
+			Arrays.fill(decoded,0,pairCount,(byte)0);
+			Arrays.fill(lookupKeywords,0,pairCount,null);
+		}
+	}
+
+	/**
+	 * Get the number of keyword/value pairs.
+	 * @return The number of pairs.
+	 * @see #pairCount
+	 */
+	public int getPairCount()
+	{
+		index();
+		return pairCount;
+	}
+
+	/**
+	 * Get the keyword of a keyword/value pair.
+	 * @param pairIndex The index of the pair, from 0 to getPairCount()-1.
+	 * @return The keyword.
+	 */
+	public String getKeyword(int pairIndex)
+	{
+		return line.substring(index[pairIndex*INDEX_STRIDE+KEYWORD_START],
+				      index[pairIndex*INDEX_STRIDE+KEYWORD_END]);
+	}
+
+	/**
+	 * Get the index of the pair with the specified keyword. If the keyword occurs more than once, the last
+	 * occurence is used (as it would have been for a Properties instance). The keyword is compared with
+	 * the reply line in place, without creating any strings. The pair found is memoized against the
+	 * keyword string, so looking the same keyword up again does not compare any characters.
+	 * @param keyword The keyword.
+	 * @return The index of the pair, or -1 if there is no such keyword.
+	 * @see #index
+	 * @see #lookupKeywords
+	 * @see #keywordEquals
+	 */
+	public int indexOf(String keyword)
+	{
+		int i;
+
+		index();
+		for(i = pairCount-1; i >= 0; i--)
+		{
+			if(lookupKeywords[i] == keyword)
+				return i;
+		}
+		for(i = pairCount-1; i >= 0; i--)
+		{
+			if(keywordEquals(i,keyword))
+			{
+				lookupKeywords[i] = keyword;
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get whether the keyword of a keyword/value pair is the specified keyword. The keyword is compared with
+	 * the reply line in place, without creating any strings.
+	 * @param pairIndex The index of the pair, from 0 to getPairCount()-1.
+	 * @param keyword The keyword.
+	 * @return true if the pair's keyword is the specified keyword.
+	 * @see #index
+	 */
+	public boolean keywordEquals(int pairIndex,String keyword)
+	{
+		int keywordStart,keywordLength;
+
+		keywordLength = keyword.length();
+		keywordStart = index[pairIndex*INDEX_STRIDE+KEYWORD_START];
+		return ((index[pairIndex*INDEX_STRIDE+KEYWORD_END]-keywordStart) == keywordLength)&&
+			line.regionMatches(keywordStart,keyword,0,keywordLength);
+	}
+
+	/**
+	 * If the keyword of a keyword/value pair is the specified prefix followed by a number (e.g. file1, file2),
+	 * return the number. The keyword is examined in place, without creating any strings.
+	 * @param pairIndex The index of the pair, from 0 to getPairCount()-1.
+	 * @param prefix The keyword prefix, e.g. "file".
+	 * @return The number, or -1 if the keyword is not the prefix followed by a (non-negative) number.
+	 */
+	public int getKeywordNumber(int pairIndex,String prefix)
+	{
+		int keywordStart,keywordEnd,position,number;
+		char ch;
+
+		keywordStart = index[pairIndex*INDEX_STRIDE+KEYWORD_START];
+		keywordEnd = index[pairIndex*INDEX_STRIDE+KEYWORD_END];
+		position = keywordStart+prefix.length();
+		if((position >= keywordEnd)||(keywordEnd-position > 9)||
+		   (line.regionMatches(keywordStart,prefix,0,prefix.length()) == false))
+			return -1;
+		number = 0;
+		for(; position < keywordEnd; position++)
+		{
+			ch = line.charAt(position);
+			if((ch < '0')||(ch > '9'))
+				return -1;
+			number = (number*10)+(ch-'0');
+		}
+		return number;
+	}
+
+	/**
+	 * Get the values of a numbered family of keywords, i.e. the prefix followed by 1, 2, 3... (e.g. file1,
+	 * file2 ...). The pairs are examined in a single pass, without creating any keyword strings, and the
+	 * values are put straight into an array indexed by number. The family ends at the first missing number.
+	 * @param prefix The keyword prefix, e.g. "file".
+	 * @return An array of the values, where element i is the value of keyword prefix&lt;i+1&gt;.
+	 *         If prefix1 is not in the reply, a zero length array is returned.
+	 * @see #getKeywordNumber
+	 */
+	public String[] getNumberedValues(String prefix)
+	{
+		String numberedValues[] = null;
+		String values[] = null;
+		int i,n,count;
+
+		index();
+		// there can't be more numbered keywords than pairs
+		numberedValues = new String[pairCount];
+		for(i = 0; i < pairCount; i++)
+		{
+			n = getKeywordNumber(i,prefix);
+			if((n > 0)&&(n <= pairCount))
+				numberedValues[n-1] = getValue(i);
+		}
+		count = 0;
+		while((count < pairCount)&&(numberedValues[count] != null))
+			count++;
+		if(count == pairCount)
+			return numberedValues;
+		values = new String[count];
+		System.arraycopy(numberedValues,0,values,0,count);
+		return values;
+	}
+
+	/**
+	 * Get whether the reply contains the specified keyword.
+	 * @param keyword The keyword.
+	 * @return true if the keyword is in the reply.
+	 * @see #indexOf
+	 */
+	public boolean containsKeyword(String keyword)
+	{
+		return (indexOf(keyword) > -1);
+	}
+
+	/**
+	 * Get the string value for the specified keyword.
+	 * @param keyword The keyword.
+	 * @return The keyword's value, or null if the keyword does not exist.
+	 * @see #indexOf
+	 */
+	public String getValue(String keyword)
+	{
+		int i;
+
+		i = indexOf(keyword);
+		if(i < 0)
+			return null;
+		return getValue(i);
+	}
+
+	/**
+	 * Get the string value of a keyword/value pair. The string is only created the first time it is asked for.
+	 * @param pairIndex The index of the pair, from 0 to getPairCount()-1.
+	 * @return The value.
+	 * @see #values
+	 */
+	public String getValue(int pairIndex)
+	{
+		if(values[pairIndex] == null)
+		{
+			values[pairIndex] = line.substring(index[pairIndex*INDEX_STRIDE+VALUE_START],
+							   index[pairIndex*INDEX_STRIDE+VALUE_END]);
+		}
+		return values[pairIndex];
+	}
+
+	/**
+	 * Get the int value for the specified keyword.
+	 * @param keyword The keyword.
+	 * @return The keyword's value.
+	 * @exception NGATPropertyException Thrown if the keyword does not exist, or it's value is not a valid int.
+	 * @see #getPairIndex
+	 * @see #getInt(int)
+	 */
+	public int getInt(String keyword) throws NGATPropertyException
+	{
+		return getInt(getPairIndex(keyword));
+	}
+
+	/**
+	 * Get the int value of a keyword/value pair. The digits are parsed straight from the reply line, the
+	 * first time the value is asked for.
+	 * @param pairIndex The index of the pair, from 0 to getPairCount()-1.
+	 * @return The value.
+	 * @exception NGATPropertyException Thrown if the value is not a valid int.
+	 * @see #intValues
+	 */
+	public int getInt(int pairIndex) throws NGATPropertyException
+	{
+		int position,end;
+		long value;
+		boolean negative;
+		char ch;
+
+		if((decoded[pairIndex]&DECODED_INT) != 0)
+			return intValues[pairIndex];
+		position = index[pairIndex*INDEX_STRIDE+VALUE_START];
+		end = index[pairIndex*INDEX_STRIDE+VALUE_END];
+		negative = false;
+		if((position < end)&&((line.charAt(position) == '-')||(line.charAt(position) == '+')))
+		{
+			negative = (line.charAt(position) == '-');
+			position++;
+		}
+		if(position == end)
+			throw createValueException(pairIndex,"int");
+		value = 0;
+		for(; position < end; position++)
+		{
+			ch = line.charAt(position);
+			if((ch < '0')||(ch > '9'))
+				throw createValueException(pairIndex,"int");
+			value = (value*10)+(ch-'0');
+			if(value > ((long)Integer.MAX_VALUE)+1)
+				throw createValueException(pairIndex,"int");
+		}
+		if(negative)
+			value = -value;
+		if((value > Integer.MAX_VALUE)||(value < Integer.MIN_VALUE))
+			throw createValueException(pairIndex,"int");
+		intValues[pairIndex] = (int)value;
+		decoded[pairIndex] |= DECODED_INT;
+		return intValues[pairIndex];
+	}
+
+	/**
+	 * Get the double value for the specified keyword.
+	 * @param keyword The keyword.
+	 * @return The keyword's value.
+	 * @exception NGATPropertyException Thrown if the keyword does not exist, or it's value is not a valid double.
+	 * @see #getPairIndex
+	 * @see #getDouble(int)
+	 */
+	public double getDouble(String keyword) throws NGATPropertyException
+	{
+		return getDouble(getPairIndex(keyword));
+	}
+
+	/**
+	 * Get the double value of a keyword/value pair. The value is parsed the first time it is asked for.
+	 * Plain decimal values (e.g. 45.5, -999.0, 1.2e-3) are parsed straight from the reply line by 
+	 * parseDecimal, without creating a string. Anything else (too many digits, a large exponent,
+	 * NaN etc.) is parsed by Double.parseDouble, so the result is always the same as Double.parseDouble's.
+	 * @param pairIndex The index of the pair, from 0 to getPairCount()-1.
+	 * @return The value.
+	 * @exception NGATPropertyException Thrown if the value is not a valid double.
+	 * @see #doubleValues
+	 * @see #parseDecimal
+	 */
+	public double getDouble(int pairIndex) throws NGATPropertyException
+	{
+		if((decoded[pairIndex]&DECODED_DOUBLE) != 0)
+			return doubleValues[pairIndex];
+		try
+		{
+			if(parseDecimal(pairIndex) == false)
+				doubleValues[pairIndex] = Double.parseDouble(getValue(pairIndex));
+			decoded[pairIndex] |= DECODED_DOUBLE;
+			return doubleValues[pairIndex];
+		}
+		catch(NumberFormatException e)
+		{
+			throw createValueException(pairIndex,"double");
+		}
+	}
+
+	/**
+	 * Try to parse the value of a keyword/value pair as a decimal double, straight from the reply line.
+	 * The value must be of the form [+-]digits[.digits][(e|E)[+-]digits]. The digits are accumulated
+	 * into a long mantissa and a decimal exponent. If the mantissa is no more than 2^53 and the exponent
+	 * is within +/-22, both are exactly representable as doubles, so a single multiply or divide gives the 
+	 * correctly rounded result (Clinger's fast path), which is what Double.parseDouble returns.
+	 * @param pairIndex The index of the pair.
+	 * @return true if the value was parsed (into doubleValues), false if it is not a plain decimal value
+	 *         or is outside the fast path, in which case Double.parseDouble must be used.
+	 * @see #doubleValues
+	 * @see #MAX_EXACT_MANTISSA
+	 * @see #EXACT_POWERS_OF_TEN
+	 */
+	private boolean parseDecimal(int pairIndex)
+	{
+		long mantissa;
+		double value;
+		int position,end,digitCount,exponent,exponentValue;
+		boolean negative,negativeExponent;
+		char ch;
+
+		position = index[pairIndex*INDEX_STRIDE+VALUE_START];
+		end = index[pairIndex*INDEX_STRIDE+VALUE_END];
+		negative = false;
+		if((position < end)&&((line.charAt(position) == '-')||(line.charAt(position) == '+')))
+		{
+			negative = (line.charAt(position) == '-');
+			position++;
+		}
+		mantissa = 0;
+		digitCount = 0;
+		exponent = 0;
+		// integer part
+		while((position < end)&&((ch = line.charAt(position)) >= '0')&&(ch <= '9'))
+		{
+			if(mantissa > MAX_EXACT_MANTISSA)
+				return false;
+			mantissa = (mantissa*10)+(ch-'0');
+			digitCount++;
+			position++;
+		}
+		// fraction part
+		if((position < end)&&(line.charAt(position) == '.'))
+		{
+			position++;
+			while((position < end)&&((ch = line.charAt(position)) >= '0')&&(ch <= '9'))
+			{
+				if(mantissa > MAX_EXACT_MANTISSA)
+					return false;
+				mantissa = (mantissa*10)+(ch-'0');
+				digitCount++;
+				exponent--;
+				position++;
+			}
+		}
+		if(digitCount == 0)
+			return false;
+		// exponent part
+		if((position < end)&&((line.charAt(position) == 'e')||(line.charAt(position) == 'E')))
+		{
+			position++;
+			negativeExponent = false;
+			if((position < end)&&((line.charAt(position) == '-')||(line.charAt(position) == '+')))
+			{
+				negativeExponent = (line.charAt(position) == '-');
+				position++;
+			}
+			if(position == end)
+				return false;
+			exponentValue = 0;
+			while((position < end)&&((ch = line.charAt(position)) >= '0')&&(ch <= '9'))
+			{
+				if(exponentValue > 1000)
+					return false;
+				exponentValue = (exponentValue*10)+(ch-'0');
+				position++;
+			}
+			if(negativeExponent)
+				exponent -= exponentValue;
+			else
+				exponent += exponentValue;
+		}
+		// anything else (e.g. a trailing 'd', NaN) is left to Double.parseDouble
+		if((position != end)||(mantissa > MAX_EXACT_MANTISSA))
+			return false;
+		if(mantissa == 0)
+			value = 0.0;
+		else if((exponent >= 0)&&(exponent < EXACT_POWERS_OF_TEN.length))
+			value = ((double)mantissa)*EXACT_POWERS_OF_TEN[exponent];
+		else if((exponent < 0)&&(-exponent < EXACT_POWERS_OF_TEN.length))
+			value = ((double)mantissa)/EXACT_POWERS_OF_TEN[-exponent];
+		else
+			return false;
+		if(negative)
+			value = -value;
+		doubleValues[pairIndex] = value;
+		return true;
+	}
+
+	/**
+	 * Get the index of the pair with the specified keyword, which must exist.
+	 * @param keyword The keyword.
+	 * @return The index of the pair.
+	 * @exception NGATPropertyException Thrown if the keyword does not exist.
+	 * @see #indexOf
+	 */
+	private int getPairIndex(String keyword) throws NGATPropertyException
+	{
+		int i;
+
+		i = indexOf(keyword);
+		if(i < 0)
+			throw createMissingKeywordException(keyword);
+		return i;
+	}
+
+	/**
+	 * Create an exception for a keyword that is not in the reply.
+	 * @param keyword The keyword.
+	 * @return The exception.
+	 */
+	public NGATPropertyException createMissingKeywordException(String keyword)
+	{
+		return new NGATPropertyException(this.getClass().getName()+":Keyword "+keyword+
+						 " not found in reply:"+line);
+	}
+
+	/**
+	 * Create an exception for a value that is not of the expected type.
+	 * @param pairIndex The index of the pair.
+	 * @param typeName The name of the expected type.
+	 * @return The exception.
+	 */
+	private NGATPropertyException createValueException(int pairIndex,String typeName)
+	{
+		return new NGATPropertyException(this.getClass().getName()+":Keyword "+getKeyword(pairIndex)+" value "+
+						 getValue(pairIndex)+" is not a valid "+typeName+".");
+	}
+
+	/**
+	 * Return the offset of the first non-whitespace character in part of a string.
+	 * @param s The string.
+	 * @param start The start offset.
+	 * @param end The end offset (exclusive).
+	 * @return The offset, or end if the part is all whitespace.
+	 */
+	private static int skipWhitespace(String s,int start,int end)
+	{
+		while((start < end)&&(s.charAt(start) <= ' '))
+			start++;
+		return start;
+	}
+
+	/**
+	 * Return the offset after the last non-whitespace character in part of a string.
+	 * @param s The string.
+	 * @param start The start offset.
+	 * @param end The end offset (exclusive).
+	 * @return The offset, or start if the part is all whitespace.
+	 */
+	private static int trimWhitespace(String s,int start,int end)
+	{
+		while((end > start)&&(s.charAt(end-1) <= ' '))
+			end--;
+		return end;
+	}
+}
+/*
+** $Log$
+*/
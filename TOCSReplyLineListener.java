@@ -0,0 +1,47 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCSReplyLineListener.java
+// $Header$
+package org.estar.toop;
+
+/**
+ * Interface implemented by objects wanting to receive a multi-line TOCS reply as it arrives.
+ * When a line listener is set on a command (or TOCAClient), the reply is read in streaming mode: 
+ * each line is handed to the listener as it is received, until a terminal line (one starting with
+ * OK or ERROR) is read. The terminal line is then processed as the command's reply, as normal.
+ * For instance, a long EXPOSE can report each frame's filename as it is written.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCCommand#setReplyLineListener
+ * @see TOCAClient#setReplyLineListener
+ */
+public interface TOCSReplyLineListener
+{
+	/**
+	 * Called for each (non-blank, non-terminal) reply line, as it is received from the TOCS server.
+	 * This is called on the thread reading the reply (the TOCSNioEngine selector thread for non-blocking
+	 * commands), so should not block.
+	 * @param line The reply line, without the line terminator.
+	 */
+	public void lineReceived(String line);
+}
+/*
+** $Log$
+*/
@@ -0,0 +1,49 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCSReplyListener.java
+// $Header$
+package org.estar.toop;
+
+/**
+ * Interface implemented by objects wanting to be told the outcome of a command sent to the
+ * TOCS server using the TOCSNioEngine.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCSNioEngine
+ */
+public interface TOCSReplyListener
+{
+	/**
+	 * Called when the reply line has been received from the TOCS server.
+	 * @param line The reply line, without the line terminator. This is null if the server closed the
+	 *        connection without sending a reply.
+	 */
+	public void replyReceived(String line);
+
+	/**
+	 * Called if the command could not be sent, or the reply could not be read.
+	 * @param e The exception that caused the failure. A ConnectException means the connection to the
+	 *        TOCS server could not be opened.
+	 */
+	public void exchangeFailed(Exception e);
+}
+/*
+** $Log$
+*/
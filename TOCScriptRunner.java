@@ -0,0 +1,546 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCScriptRunner.java
+// $Header$
+package org.estar.toop;
+
+import java.io.*;
+import java.util.*;
+
+import ngat.util.logging.*;
+
+/**
+ * Runs a plain text script of TOCS steps through a single TOCSession, e.g.:
+ * <pre>
+ * # observe a GRB
+ * helo
+ * init
+ * slew ${source} 01:02:03 +45:56:01
+ * instr RATCAM SDSS-R clear - 2 2 F F
+ * expose 10000 2 true
+ * stop
+ * quit
+ * </pre>
+ * Each line is one step, a command and it's arguments as accepted by TOCSessionInterpreter (e.g. HELO, INIT,
+ * SLEW, INSTR, EXPOSE, STOP, QUIT, command names are not case sensitive). Blank lines and lines starting
+ * with '#' are ignored. "set &lt;name&gt; &lt;value&gt;" sets a script variable.
+ * <p>
+ * Before a step is run, ${name} is replaced by the value of the variable name. Every keyword=value pair
+ * in a step's reply is stored as a variable, both as ${keyword} and ${command.keyword}, so later steps
+ * can use the results of earlier ones, e.g. ${sessionID} or ${helo.sessionID} after HELO, ${file1} or
+ * ${expose.file1} after EXPOSE. Using an undefined variable fails the step.
+ * <p>
+ * The script stops at the first step that fails (unless continueOnError is set). The reply and the time
+ * taken by each step are kept, and can be printed with printTimings.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCSessionInterpreter
+ * @see TOCSession
+ */
+public class TOCScriptRunner implements Logging
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Classname for logging.
+	 */
+	public static final String CLASS = "TOCScriptRunner";
+	/**
+	 * Class logger.
+	 */
+	private Logger logger = null;
+	/**
+	 * The session the steps are run on.
+	 */
+	private TOCSession session = null;
+	/**
+	 * The interpreter used to run the steps.
+	 */
+	private TOCSessionInterpreter interpreter = null;
+	/**
+	 * The script variables, a map of variable name (String) to value (String).
+	 */
+	private Map<String,String> variableMap = null;
+	/**
+	 * The list of steps run so far (Step).
+	 */
+	private List<Step> stepList = null;
+	/**
+	 * Whether to carry on running the script after a step fails.
+	 */
+	private boolean continueOnError = false;
+
+	/**
+	 * Default constructor.
+	 * @see #logger
+	 * @see #interpreter
+	 * @see #variableMap
+	 * @see #stepList
+	 */
+	public TOCScriptRunner()
+	{
+		super();
+		logger = LogManager.getLogger(this);
+		interpreter = new TOCSessionInterpreter();
+		variableMap = new HashMap<String,String>();
+		stepList = new Vector<Step>();
+	}
+
+	/**
+	 * Set the session the steps are run on.
+	 * @param s The session.
+	 * @see #session
+	 */
+	public void setSession(TOCSession s)
+	{
+		session = s;
+	}
+
+	/**
+	 * Get the session the steps are run on.
+	 * @return The session.
+	 * @see #session
+	 */
+	public TOCSession getSession()
+	{
+		return session;
+	}
+
+	/**
+	 * Set whether to carry on running the script after a step fails.
+	 * @param b true to run every step, false to stop at the first failure (the default).
+	 * @see #continueOnError
+	 */
+	public void setContinueOnError(boolean b)
+	{
+		continueOnError = b;
+	}
+
+	/**
+	 * Set a script variable.
+	 * @param name The variable name.
+	 * @param value The value.
+	 * @see #variableMap
+	 */
+	public void setVariable(String name,String value)
+	{
+		variableMap.put(name,value);
+	}
+
+	/**
+	 * Get a script variable.
+	 * @param name The variable name.
+	 * @return The value, or null if the variable is not set.
+	 * @see #variableMap
+	 */
+	public String getVariable(String name)
+	{
+		return variableMap.get(name);
+	}
+
+	/**
+	 * Get the steps run so far.
+	 * @return A list of Step.
+	 * @see #stepList
+	 */
+	public List<Step> getSteps()
+	{
+		return stepList;
+	}
+
+	/**
+	 * Run a script file.
+	 * @param file The script file.
+	 * @return true if every step succeeded.
+	 * @exception IOException Thrown if the script cannot be read.
+	 * @see #run(java.io.Reader)
+	 */
+	public boolean run(File file) throws IOException
+	{
+		FileReader reader = null;
+
+		reader = new FileReader(file);
+		try
+		{
+			return run(reader);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	/**
+	 * Run a script, one step per line.
+	 * @param reader Where to read the script from.
+	 * @return true if every step succeeded.
+	 * @exception IOException Thrown if the script cannot be read.
+	 * @see #runStep
+	 * @see #continueOnError
+	 */
+	public boolean run(Reader reader) throws IOException
+	{
+		BufferedReader bufferedReader = null;
+		Step step = null;
+		String line = null;
+		boolean successful = true;
+		int lineNumber = 0;
+
+		bufferedReader = new BufferedReader(reader);
+		while((line = bufferedReader.readLine()) != null)
+		{
+			lineNumber++;
+			line = line.trim();
+			if((line.length() == 0)||line.startsWith("#"))
+				continue;
+			step = runStep(lineNumber,line);
+			if(step.isSuccessful() == false)
+			{
+				successful = false;
+				if(continueOnError == false)
+				{
+					logger.log(INFO, 1, CLASS, RCSID,"run","Stopping at line "+lineNumber+".");
+					break;
+				}
+			}
+		}
+		return successful;
+	}
+
+	/**
+	 * Run one step of a script. The variables in the line are substituted, and the line is run by the
+	 * interpreter (or, for "set", sets a variable). If the step succeeds the reply's keyword=value pairs
+	 * are stored as variables.
+	 * @param lineNumber The line number of the step in the script.
+	 * @param line The step.
+	 * @return The step, with it's reply and the time it took. The step is added to the list of steps.
+	 * @see #substitute
+	 * @see #interpreter
+	 * @see #setReplyVariables
+	 * @see #stepList
+	 */
+	public Step runStep(int lineNumber,String line)
+	{
+		Step step = null;
+		String args[] = null;
+		String reply = null;
+		long startTime,time;
+
+		logger.log(INFO, 1, CLASS, RCSID,"runStep","Line "+lineNumber+":"+line);
+		startTime = System.nanoTime();
+		try
+		{
+			line = substitute(line);
+			args = TOCSessionInterpreter.tokenize(line);
+			if(args[0].equalsIgnoreCase("set"))
+			{
+				if(args.length != 3)
+					throw new IllegalArgumentException("Usage: set <name> <value>");
+				setVariable(args[1],args[2]);
+				reply = "OK ";
+			}
+			else
+			{
+				if(session == null)
+					throw new IllegalStateException("No session set.");
+				reply = interpreter.run(session,args);
+				setReplyVariables(args[0].toLowerCase(),reply);
+			}
+		}
+		catch(Exception e)
+		{
+			reply = TOCSessionInterpreter.createErrorReply(e);
+		}
+		time = System.nanoTime()-startTime;
+		step = new Step(lineNumber,line,reply,time);
+		stepList.add(step);
+		logger.log(INFO, 1, CLASS, RCSID,"runStep","Line "+lineNumber+" replied ["+reply+"] in "+
+			   step.getTime()+" ms.");
+		return step;
+	}
+
+	/**
+	 * Replace each ${name} in a line with the value of the variable name.
+	 * @param line The line.
+	 * @return The line with the variables substituted.
+	 * @exception IllegalArgumentException Thrown if a variable is not set, or a ${ is not closed.
+	 * @see #getVariable
+	 */
+	public String substitute(String line) throws IllegalArgumentException
+	{
+		StringBuffer sb = null;
+		String name = null;
+		String value = null;
+		int index,startIndex,endIndex;
+
+		startIndex = line.indexOf("${");
+		if(startIndex < 0)
+			return line;
+		sb = new StringBuffer();
+		index = 0;
+		while(startIndex > -1)
+		{
+			endIndex = line.indexOf('}',startIndex);
+			if(endIndex < 0)
+				throw new IllegalArgumentException("Unclosed variable in:"+line);
+			name = line.substring(startIndex+2,endIndex);
+			value = getVariable(name);
+			if(value == null)
+				throw new IllegalArgumentException("Variable not set:"+name);
+			sb.append(line,index,startIndex);
+			sb.append(value);
+			index = endIndex+1;
+			startIndex = line.indexOf("${",index);
+		}
+		sb.append(line,index,line.length());
+		return sb.toString();
+	}
+
+	/**
+	 * Store the keyword=value pairs in a successful reply as variables, as both keyword and
+	 * command.keyword.
+	 * @param command The command name (lower case).
+	 * @param reply The reply line, "OK" followed by the keyword=value pairs.
+	 * @see #setVariable
+	 * @see TOCSReply
+	 */
+	protected void setReplyVariables(String command,String reply)
+	{
+		TOCSReply tocsReply = null;
+		String keyword = null;
+		String value = null;
+		int pairCount,i;
+
+		tocsReply = new TOCSReply();
+		pairCount = tocsReply.parse(reply,2);
+		for(i = 0; i < pairCount; i++)
+		{
+			keyword = tocsReply.getKeyword(i);
+			value = tocsReply.getValue(i);
+			setVariable(keyword,value);
+			setVariable(command+"."+keyword,value);
+		}
+	}
+
+	/**
+	 * Print the reply and time taken of each step run, followed by the total time.
+	 * @param out Where to print the timings.
+	 * @see #stepList
+	 */
+	public void printTimings(PrintStream out)
+	{
+		Step step = null;
+		long totalTime = 0;
+
+		for(int i = 0; i < stepList.size(); i++)
+		{
+			step = stepList.get(i);
+			out.println(step.getLineNumber()+": "+step.getTime()+" ms: "+step.getLine()+" -> "+step.getReply());
+			totalTime += step.getTimeNanos();
+		}
+		out.println("Total: "+stepList.size()+" steps in "+(totalTime/1000000)+" ms.");
+	}
+
+	/**
+	 * Run a script from the command line.
+	 * <pre>
+	 * java org.estar.toop.TOCScriptRunner -session_data &lt;file&gt; -script &lt;file&gt;
+	 *      [-D &lt;name&gt;=&lt;value&gt;]... [-continue_on_error] [-log_level &lt;level&gt;]
+	 * </pre>
+	 * The exit value is 0 if every step succeeded, and 1 otherwise.
+	 * @param args The command line arguments.
+	 */
+	public static void main(String args[])
+	{
+		TOCScriptRunner runner = null;
+		TOCSession session = null;
+		ConsoleLogHandler console = null;
+		File sessionDataFile = null;
+		File scriptFile = null;
+		List<String> variableList = null;
+		String s = null;
+		boolean continueOnError = false;
+		boolean successful = false;
+		int logLevel = 0;
+		int i,equalsIndex;
+
+		variableList = new Vector<String>();
+		try
+		{
+			for(i = 0; i < args.length; i++)
+			{
+				if(args[i].equals("-session_data") && (i+1 < args.length))
+					sessionDataFile = new File(args[++i]);
+				else if(args[i].equals("-script") && (i+1 < args.length))
+					scriptFile = new File(args[++i]);
+				else if(args[i].equals("-D") && (i+1 < args.length))
+					variableList.add(args[++i]);
+				else if(args[i].equals("-continue_on_error"))
+					continueOnError = true;
+				else if(args[i].equals("-log_level") && (i+1 < args.length))
+					logLevel = Integer.parseInt(args[++i]);
+				else
+				{
+					sessionDataFile = null;
+					break;
+				}
+			}
+		}
+		catch(NumberFormatException e)
+		{
+			System.err.println("Parsing arguments failed:"+e);
+			System.exit(1);
+		}
+		if((sessionDataFile == null)||(scriptFile == null))
+		{
+			System.out.println("java org.estar.toop.TOCScriptRunner -session_data <file> -script <file> "+
+					   "[-D <name>=<value>]... [-continue_on_error] [-log_level <level>]");
+			System.exit(1);
+		}
+		console = new ConsoleLogHandler(new BasicLogFormatter(150));
+		console.setLogLevel(ALL);
+		TOCSession.initLoggers(console,logLevel);
+		runner = new TOCScriptRunner();
+		runner.setContinueOnError(continueOnError);
+		for(i = 0; i < variableList.size(); i++)
+		{
+			s = variableList.get(i);
+			equalsIndex = s.indexOf('=');
+			if(equalsIndex < 1)
+			{
+				System.err.println("Illegal variable (should be <name>=<value>):"+s);
+				System.exit(1);
+			}
+			runner.setVariable(s.substring(0,equalsIndex),s.substring(equalsIndex+1));
+		}
+		try
+		{
+			session = new TOCSession();
+			session.loadSessionData(sessionDataFile);
+			runner.setSession(session);
+			successful = runner.run(scriptFile);
+		}
+		catch(Exception e)
+		{
+			System.err.println("Running script "+scriptFile+" failed:"+e);
+			e.printStackTrace();
+			System.exit(1);
+		}
+		runner.printTimings(System.out);
+		System.exit(successful ? 0 : 1);
+	}
+
+	/**
+	 * One step run by the script runner: the line run, it's reply, and how long it took.
+	 */
+	public static class Step
+	{
+		/**
+		 * The line number of the step in the script.
+		 */
+		private int lineNumber = 0;
+		/**
+		 * The line run, with the variables substituted.
+		 */
+		private String line = null;
+		/**
+		 * The reply, "OK ..." or "ERROR &lt;code&gt; &lt;message&gt;".
+		 */
+		private String reply = null;
+		/**
+		 * The time the step took, in nanoseconds.
+		 */
+		private long time = 0;
+
+		/**
+		 * Constructor.
+		 * @param lineNumber The line number of the step in the script.
+		 * @param line The line run.
+		 * @param reply The reply.
+		 * @param time The time the step took, in nanoseconds.
+		 */
+		Step(int lineNumber,String line,String reply,long time)
+		{
+			this.lineNumber = lineNumber;
+			this.line = line;
+			this.reply = reply;
+			this.time = time;
+		}
+
+		/**
+		 * Get the line number of the step in the script.
+		 * @return The line number.
+		 */
+		public int getLineNumber()
+		{
+			return lineNumber;
+		}
+
+		/**
+		 * Get the line run.
+		 * @return The line, with the variables substituted.
+		 */
+		public String getLine()
+		{
+			return line;
+		}
+
+		/**
+		 * Get the reply.
+		 * @return The reply line.
+		 */
+		public String getReply()
+		{
+			return reply;
+		}
+
+		/**
+		 * Get whether the step succeeded.
+		 * @return true if the reply is OK.
+		 */
+		public boolean isSuccessful()
+		{
+			return reply.startsWith("OK");
+		}
+
+		/**
+		 * Get the time the step took.
+		 * @return The time, in milliseconds.
+		 */
+		public long getTime()
+		{
+			return time/1000000;
+		}
+
+		/**
+		 * Get the time the step took.
+		 * @return The time, in nanoseconds.
+		 */
+		public long getTimeNanos()
+		{
+			return time;
+		}
+	}
+}
+/*
+** $Log$
+*/
@@ -23,6 +23,8 @@ package org.estar.toop;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
 
 import ngat.phase2.OConfig;
 import ngat.util.*;
@@ -47,6 +49,23 @@ import org.estar.astrometry.*;
  * ts.stop();
  * ts.quit();
  * </pre>
+ * Alternatively, a whole observation plan can be validated before the session is started, see runPlan.
+ * Most commands also have an asynchronous (xxxAsync) version, returning a CompletableFuture completed
+ * with the command object (from which the results can be retrieved):
+ * <pre>
+ * ts.whenAsync().thenCompose(w -&gt; ts.heloAsync()).thenCompose(h -&gt; ts.initAsync());
+ * </pre>
+ * Asynchronous commands are run on the executor (see setExecutor), or sent using a TOCSNioEngine 
+ * (see setNioEngine). 
+ * <p>
+ * A session can be shared between threads (e.g. one session per telescope). Each call creates it's own
+ * command instance, so concurrent calls do not share arguments or replies. Read-only queries (WHEN, POSITION,
+ * STATUS) run in parallel, other commands are serialized (in the order they were called) by the session's
+ * telescope and instrument locks. Normally every other command takes both locks. If resource locking is 
+ * enabled in the session data (toop.resource_locking), commands only take the locks of the resources they
+ * use (see TOCCommand.getResources), so an INSTR can run while a SLEW is in progress (see TOCStepExecutor).
+ * Concurrent callers should use the method return values, or the commands returned by the
+ * xxxAsync futures, rather than the getXxx methods, which return the last command of that type run by any thread.
  * @author Steve Fraser, Chris Mottram
  * @version $Revision$
  */
@@ -82,96 +101,95 @@ public class TOCSession implements Logging
 	/**
 	 * Reference to the session data.
 	 */
-	private TOCSessionData sessionData = null;
-	/**
-	 * When reference.
-	 */
-	private When when  = null;
+	private volatile TOCSessionData sessionData = null;
 	/**
-	 * Position reference.
+	 * The last WHEN command run by this session. Each call creates it's own command instance,
+	 * this is kept so getWhen can return the last result. These fields are set before the command is run,
+	 * so after a failed call the getters report that call's (empty) results, not an earlier call's.
+	 * @see #getWhen
 	 */
-	private Position position = null;
+	private volatile When when  = null;
 	/**
-	 * Status reference.
-	 */
-	private Status status = null;
-	/**
-	 * Helo reference.
-	 */
-	private Helo helo = null;
-	/**
-	 * Init reference.
-	 */
-	private Init init = null;
-	/**
-	 * Slew reference.
+	 * The last POSITION command run by this session.
+	 * @see #getPosition
 	 */
-	private Slew slew = null;
+	private volatile Position position = null;
 	/**
-	 * Offset reference.
+	 * The last STATUS command run by this session.
+	 * @see #getStatus
 	 */
-	private Offset offset = null;
+	private volatile Status status = null;
 	/**
-	 * Rotator reference.
+	 * The last HELO command run by this session.
+	 * @see #getHelo
 	 */
-	private Rotator rotator = null;
+	private volatile Helo helo = null;
 	/**
-	 * Auto reference.
+	 * The last EXPOSE command run by this session.
+	 * @see #getExpose
+	 * @see #getExposeFilenameCount
 	 */
-	private Auto auto = null;
+	private volatile Expose expose = null;
 	/**
-	 * AgRadial reference.
+	 * The last ARC command run by this session.
+	 * @see #getArcFilenameCount
 	 */
-	private AgRadial agRadial = null;
+	private volatile Arc arc = null;
 	/**
-	 * Acquire reference.
+	 * Lock held while a command that uses the telescope (see TOCCommand.getResources) is run, so these 
+	 * commands are serialized when the session is shared between threads. 
+	 * The lock is fair, so commands are run in the order they were called.
+	 * Read-only commands (WHEN, POSITION, STATUS) do not take the lock.
+	 * @see #lockResources
+	 * @see TOCCommand#RESOURCE_TELESCOPE
 	 */
-	private Acquire acquire = null;
+	private final ReentrantLock telescopeLock = new ReentrantLock(true);
 	/**
-	 * FocalPlane reference.
+	 * Lock held while a command that uses the instrument (see TOCCommand.getResources) is run.
+	 * Always taken after the telescopeLock, when both are needed.
+	 * @see #lockResources
+	 * @see TOCCommand#RESOURCE_INSTRUMENT
 	 */
-	private FocalPlane focalPlane = null;
+	private final ReentrantLock instrumentLock = new ReentrantLock(true);
 	/**
-	 * Instr reference.
+	 * The executor the asynchronous (xxxAsync) methods run their commands on, 
+	 * when no nioEngine has been set.
+	 * @see #getDefaultExecutor
 	 */
-	private Instr instr = null;
+	private Executor executor = null;
 	/**
-	 * Expose reference.
+	 * The non-blocking transport the asynchronous (xxxAsync) methods send their commands with.
+	 * If this is null, the commands are run on the executor instead.
 	 */
-	private Expose expose = null;
+	private TOCSNioEngine nioEngine = null;
 	/**
-	 * Arc reference.
+	 * Executor shared by all sessions which have not had an executor set.
+	 * @see #getDefaultExecutor
 	 */
-	private Arc arc = null;
+	private static Executor defaultExecutor = null;
 	/**
-	 * Stop reference.
+	 * Virtual thread per task executor shared by all sessions using virtual threads, or null if
+	 * it has not been created yet (or the JVM does not support virtual threads).
+	 * @see #getVirtualThreadExecutor
 	 */
-	private Stop stop = null;
+	private static Executor virtualThreadExecutor = null;
 	/**
-	 * Quit reference.
+	 * Daemon timer used to periodically pre-warm the connection to the TOCS server, or null if
+	 * pre-warming has not been started.
+	 * @see #startPrewarming
 	 */
-	private Quit quit = null;
+	private Timer prewarmTimer = null;
 
 	/**
-	 * The logger instance is created. The command implementor references are created.
+	 * The logger instance is created. The last command references (returned by the getters) are created,
+	 * so the getters return a command (that has not been run) before any command has been run.
 	 * @see #logger
 	 * @see #when
 	 * @see #position
 	 * @see #status
 	 * @see #helo
-	 * @see #init
-	 * @see #slew
-	 * @see #offset
-	 * @see #rotator
-	 * @see #auto
-	 * @see #agRadial
-	 * @see #acquire
-	 * @see #focalPlane
-	 * @see #instr
 	 * @see #expose
 	 * @see #arc
-	 * @see #stop
-	 * @see #quit
 	 */
 	public TOCSession() 
 	{
@@ -181,64 +199,28 @@ public class TOCSession implements Logging
 		position  = new Position();
 		status = new Status();
 		helo = new Helo();
-		slew = new Slew();
-		init = new Init();
-		slew = new Slew();
-		offset = new Offset();
-		rotator = new Rotator();
-		auto = new Auto();
-		agRadial = new AgRadial();
-		acquire = new Acquire();
-		focalPlane = new FocalPlane();
-		instr = new Instr();
 		expose = new Expose();
 		arc = new Arc();
-		stop = new Stop();
-		quit = new Quit();
+		executor = getDefaultExecutor();
 	}
 
 	/**
-	 * Set the session data. All the command implementor's session data is set.
+	 * Set the session data. Each command run by the session is given this session data.
+	 * The circuit breakers of the session data's TOCS endpoints are configured from it.
 	 * @param d The data to set.
 	 * @see #sessionData
-	 * @see #when
-	 * @see #position
-	 * @see #status
-	 * @see #helo
-	 * @see #init
-	 * @see #slew
-	 * @see #offset
-	 * @see #rotator
-	 * @see #auto
-	 * @see #agRadial
-	 * @see #acquire
-	 * @see #focalPlane
-	 * @see #instr
-	 * @see #expose
-	 * @see #arc
-	 * @see #stop
-	 * @see #quit
+	 * @see #runCommand
+	 * @see #startPrewarming
+	 * @see TOCSessionData#configureCircuitBreakers
 	 */
 	public void setSessionData(TOCSessionData d)
 	{
 		sessionData = d;
-		when.setSessionData(sessionData);
-		position.setSessionData(sessionData);
-		status.setSessionData(sessionData);
-		helo.setSessionData(sessionData);
-		init.setSessionData(sessionData);
-		slew.setSessionData(sessionData);
-		offset.setSessionData(sessionData);
-		rotator.setSessionData(sessionData);
-		auto.setSessionData(sessionData);
-		agRadial.setSessionData(sessionData);
-		acquire.setSessionData(sessionData);
-		focalPlane.setSessionData(sessionData);
-		instr.setSessionData(sessionData);
-		expose.setSessionData(sessionData);
-		arc.setSessionData(sessionData);
-		stop.setSessionData(sessionData);
-		quit.setSessionData(sessionData);
+		sessionData.configureCircuitBreakers();
+		if(sessionData.getVirtualThreads())
+			setVirtualThreads(true);
+		if(sessionData.getTOCSPrewarm())
+			startPrewarming();
 	}
 
 	/**
@@ -253,7 +235,7 @@ public class TOCSession implements Logging
 	{
 		sessionData = new TOCSessionData();
 		sessionData.load(f);
-		// set sessiondata to itself! (Also sets all command implementors session data)
+		// set sessiondata to itself!
 		setSessionData(sessionData);
 	}
 
@@ -263,17 +245,17 @@ public class TOCSession implements Logging
 	 * You do not have to call the helo command before this one.
 	 * @return The number of seconds until a HELO comamnd with the session Data's service ID will succeed.
 	 * @exception TOCException Thrown if the helo command fails.
-	 * @see #when
 	 * @see #sessionData
+	 * @see #runCommand
 	 */
 	public int when() throws TOCException
 	{
-		when.run();
-		if(when.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":when failed:"+when.getErrorString());
-		}
-		return when.getTime();
+		When w = null;
+
+		w = new When();
+		when = w;
+		runCommand(w,"when");
+		return w.getTime();
 	}
 
 	/**
@@ -285,19 +267,19 @@ public class TOCSession implements Logging
 	 * @return A string, whether the target is "RISEN" or "SET".
 	 * @exception TOCException Thrown if the position command fails.
 	 * @see #getPosition
-	 * @see #position
 	 * @see #sessionData
+	 * @see #runCommand
 	 */
 	public String position(RA ra,Dec dec) throws TOCException
 	{
-		position.setRA(ra);
-		position.setDec(dec);
-		position.run();
-		if(position.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":position failed:"+position.getErrorString());
-		}
-		return position.getState();
+		Position p = null;
+
+		p = new Position();
+		p.setRA(ra);
+		p.setDec(dec);
+		position = p;
+		runCommand(p,"position");
+		return p.getState();
 	}
 
 	/**
@@ -309,49 +291,48 @@ public class TOCSession implements Logging
 	 * @return A string, containing the value of the status e.g. "0.74".
 	 * @exception TOCException Thrown if the status command fails.
 	 * @see #getStatus
-	 * @see #status
 	 * @see #sessionData
+	 * @see #runCommand
 	 */
 	public String status(String category,String keyword) throws TOCException
 	{
-		status.setCategory(category);
-		status.setKeyword(keyword);
-		status.run();
-		if(status.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":status failed:"+status.getErrorString());
-		}
-		return status.getValue();
+		Status s = null;
+
+		s = new Status();
+		s.setCategory(category);
+		s.setKeyword(keyword);
+		status = s;
+		runCommand(s,"status");
+		return s.getValue();
 	}
 
 	/**
 	 * Start a connection to the RCS TOCA.
 	 * You must have set or loaded the session data before calling this method.
 	 * @exception TOCException Thrown if the helo command fails.
-	 * @see #helo
+	 * @see #runCommand
 	 */
 	public void helo() throws TOCException
 	{
-		helo.run();
-		if(helo.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":helo failed:"+helo.getErrorString());
-		}
+		Helo h = null;
+
+		h = new Helo();
+		helo = h;
+		runCommand(h,"helo");
 	}
 
 	/**
 	 * Initialise the telescope after starting a RCS TOCA session using helo.
 	 * You should have called <b>helo</b> before this method. 
 	 * @exception TOCException Thrown if the init command fails.
-	 * @see #init
+	 * @see #runCommand
 	 */
 	public void init() throws TOCException
 	{
-		init.run();
-		if(init.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":init failed:"+init.getErrorString());
-		}
+		Init i = null;
+
+		i = new Init();
+		runCommand(i,"init");
 	}
 
 	/**
@@ -360,19 +341,19 @@ public class TOCSession implements Logging
 	 * @param sourceId A string representing the source, ends up in the <i>OBJECT</i> keyword in the FITS headers.
 	 * @param ra The right ascension to slew to.
 	 * @param dec The declination to slew to.
-	 * @exception TOCException Thrown if the slew command fails.
-	 * @see #slew
+	 * @exception TOCException Thrown if the slew command fails. A TOCTimeoutException is thrown if
+	 *            the slew budget expires.
+	 * @see #runCommand
 	 */
 	public void slew(String sourceId,RA ra,Dec dec) throws TOCException
 	{
-		slew.setSourceId(sourceId);
-		slew.setRA(ra);
-		slew.setDec(dec);
-		slew.run();
-		if(slew.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":slew failed:"+slew.getErrorString());
-		}
+		Slew s = null;
+
+		s = new Slew();
+		s.setSourceId(sourceId);
+		s.setRA(ra);
+		s.setDec(dec);
+		runCommand(s,"slew");
 	}
 
 	/**
@@ -381,20 +362,20 @@ public class TOCSession implements Logging
 	 * @param sourceId A string representing the source, ends up in the <i>OBJECT</i> keyword in the FITS headers.
 	 * @param raString A string representing the right ascension, in the format HH:MM:SS.ss.
 	 * @param decString A string representing the declination, in the format [+|-]DD:MM:SS.ss.
-	 * @exception TOCException Thrown if the slew command fails.
+	 * @exception TOCException Thrown if the slew command fails. A TOCTimeoutException is thrown if
+	 *            the slew budget expires.
 	 * @exception NumberFormatException Thrown if the RA/Dec parsing fails.
-	 * @see #slew
+	 * @see #runCommand
 	 */
 	public void slew(String sourceId,String raString,String decString) throws TOCException, NumberFormatException
 	{
-		slew.setSourceId(sourceId);
-		slew.setRA(raString);
-		slew.setDec(decString);
-		slew.run();
-		if(slew.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":slew failed:"+slew.getErrorString());
-		}
+		Slew s = null;
+
+		s = new Slew();
+		s.setSourceId(sourceId);
+		s.setRA(raString);
+		s.setDec(decString);
+		runCommand(s,"slew");
 	}
 
 	/**
@@ -403,17 +384,16 @@ public class TOCSession implements Logging
 	 * @param dRA The right ascension offset in arcseconds.
 	 * @param dDec The declination offset in arcseconds.
 	 * @exception TOCException Thrown if the offset command fails.
-	 * @see #offset
+	 * @see #runCommand
 	 */
 	public void offset(double dRA, double dDec) throws TOCException
 	{
-		offset.setDRA(dRA);
-		offset.setDDec(dDec);
-		offset.run();
-		if(offset.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":offset failed:"+offset.getErrorString());
-		}
+		Offset o = null;
+
+		o = new Offset();
+		o.setDRA(dRA);
+		o.setDDec(dDec);
+		runCommand(o,"offset");
 	}
 
 	/**
@@ -424,17 +404,16 @@ public class TOCSession implements Logging
 	 * @param mountAngle If the rotator mode is "MOUNT", the mount angle to move the rotator to (in degrees),
 	 *                   before floating the rotator.
 	 * @exception TOCException Thrown if the offset command fails.
-	 * @see #rotator
+	 * @see #runCommand
 	 */
 	public void rotator(String rotatorMode, double mountAngle) throws TOCException
 	{
-		rotator.setRotatorMode(rotatorMode);
-		rotator.setMountAngle(mountAngle);
-		rotator.run();
-		if(rotator.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":rotator failed:"+rotator.getErrorString());
-		}
+		Rotator r = null;
+
+		r = new Rotator();
+		r.setRotatorMode(rotatorMode);
+		r.setMountAngle(mountAngle);
+		runCommand(r,"rotator");
 	}
 
 	/**
@@ -442,19 +421,18 @@ public class TOCSession implements Logging
 	 * You should have called <b>helo</b> and <b>slew</b> before this method. 
 	 * @param on A boolean, if "true" turn the autoguider on, otherwise turn it off.
 	 * @exception TOCException Thrown if the auto command fails.
-	 * @see #auto
+	 * @see #runCommand
 	 */
 	public void auto(boolean on) throws TOCException
 	{
+		Auto a = null;
+
+		a = new Auto();
 		if(on)
-			auto.setOn();
+			a.setOn();
 		else
-			auto.setOff();
-		auto.run();
-		if(auto.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":auto failed:"+auto.getErrorString());
-		}
+			a.setOff();
+		runCommand(a,"auto");
 	}
 
 	/**
@@ -462,16 +440,15 @@ public class TOCSession implements Logging
 	 * You should have called <b>helo</b> before this method. 
 	 * @param d The position from the edge of the field, in mm.
 	 * @exception TOCException Thrown if the agradial command fails.
-	 * @see #agRadial
+	 * @see #runCommand
 	 */
 	public void agradial(double d) throws TOCException
 	{
-		agRadial.setPosition(d);
-		agRadial.run();
-		if(agRadial.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":agradial failed:"+agRadial.getErrorString());
-		}
+		AgRadial a = null;
+
+		a = new AgRadial();
+		a.setPosition(d);
+		runCommand(a,"agradial");
 	}
 
 	/**
@@ -482,23 +459,23 @@ public class TOCSession implements Logging
 	 * @param acquireMode Which method to use to acquire.
 	 * @param highPrecision A boolean, if true we do a HIGH precision acquisition, 
 	 *                      otherwise we do a NORMAL acquisition.
-	 * @exception TOCException Thrown if the slew command fails.
-	 * @see #acquire
+	 * @exception TOCException Thrown if the slew command fails. A TOCTimeoutException is thrown if
+	 *            the slew budget expires.
 	 * @see #ACQUIRE_MODE_NONE
 	 * @see #ACQUIRE_MODE_BRIGHTEST
 	 * @see #ACQUIRE_MODE_WCS
+	 * @see #runCommand
 	 */
 	public void acquire(RA ra,Dec dec,String acquireMode,boolean highPrecision) throws TOCException
 	{
-		acquire.setRA(ra);
-		acquire.setDec(dec);
-		acquire.setAcquireMode(acquireMode);
-		acquire.setPrecision(highPrecision);
-		acquire.run();
-		if(acquire.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":acquire failed:"+acquire.getErrorString());
-		}
+		Acquire a = null;
+
+		a = new Acquire();
+		a.setRA(ra);
+		a.setDec(dec);
+		a.setAcquireMode(acquireMode);
+		a.setPrecision(highPrecision);
+		runCommand(a,"acquire");
 	}
 
 	/**
@@ -508,25 +485,25 @@ public class TOCSession implements Logging
 	 * @param decString A string representing the declination, in the format [+|-]DD:MM:SS.ss.
 	 * @param acquireMode Which method to use to acquire.
 	 * @param precisionString The precision to use when acquiring, one of "NORMAL" or "HIGH".
-	 * @exception TOCException Thrown if the slew command fails.
+	 * @exception TOCException Thrown if the slew command fails. A TOCTimeoutException is thrown if
+	 *            the slew budget expires.
 	 * @exception NumberFormatException Thrown if the RA/Dec parsing fails.
-	 * @see #acquire
 	 * @see #ACQUIRE_MODE_NONE
 	 * @see #ACQUIRE_MODE_BRIGHTEST
 	 * @see #ACQUIRE_MODE_WCS
+	 * @see #runCommand
 	 */
 	public void acquire(String raString,String decString,String acquireMode,String precisionString) throws
 		TOCException, NumberFormatException
 	{
-		acquire.setRA(raString);
-		acquire.setDec(decString);
-		acquire.setAcquireMode(acquireMode);
-		acquire.setPrecision(precisionString);
-		acquire.run();
-		if(acquire.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":acquire failed:"+acquire.getErrorString());
-		}
+		Acquire a = null;
+
+		a = new Acquire();
+		a.setRA(raString);
+		a.setDec(decString);
+		a.setAcquireMode(acquireMode);
+		a.setPrecision(precisionString);
+		runCommand(a,"acquire");
 	}
 
 	/**
@@ -534,17 +511,15 @@ public class TOCSession implements Logging
 	 * You should have called <b>helo</b> before this method. 
 	 * @param instrumentName The name of the instrument.
 	 * @exception TOCException Thrown if the focal plane command fails.
-	 * @see #focalPlane
+	 * @see #runCommand
 	 */
 	public void focalPlane(String instrumentName) throws TOCException
 	{
-		focalPlane.setInstrumentName(instrumentName);
-		focalPlane.run();
-		if(focalPlane.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":focal plane failed:"+
-					       focalPlane.getErrorString());
-		}
+		FocalPlane f = null;
+
+		f = new FocalPlane();
+		f.setInstrumentName(instrumentName);
+		runCommand(f,"focal plane");
 	}
 
 	/**
@@ -561,24 +536,16 @@ public class TOCSession implements Logging
 	 * @param calibrateBefore Whether to do calibration frames before using this configuration, usually false.
 	 * @param calibrateAfter Whether to do calibration frames after using this configuration, usually false.
 	 * @exception TOCException Thrown if the instr command fails.
-	 * @see #instr
+	 * @see #runCommand
 	 */
 	public void instr(String instID,String filter0,String filter1,String filter2,
 			  int xBin,int yBin,boolean calibrateBefore,boolean calibrateAfter) throws TOCException
 	{
-		instr.setInstId(instID);
-		instr.setFilter(0,filter0);
-		instr.setFilter(1,filter1);
-		instr.setFilter(2,filter2);
-		instr.setXBinning(xBin);
-		instr.setYBinning(yBin);
-		instr.setCalibrateBefore(calibrateBefore);
-		instr.setCalibrateAfter(calibrateAfter);
-		instr.run();
-		if(instr.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":instr failed:"+instr.getErrorString());
-		}
+		Instr i = null;
+
+		i = new Instr();
+		configureInstr(i,instID,filter0,filter1,filter2,xBin,yBin,calibrateBefore,calibrateAfter);
+		runCommand(i,"instr");
 	}
 
 	/**
@@ -660,31 +627,16 @@ public class TOCSession implements Logging
 	 * @param calibrateAfter Whether to do calibration frames after using this configuration, usually true.
 	 * @exception TOCException Thrown if the instr command fails.
 	 * @see #instr
+	 * @see #runCommand
 	 */
 	public void instrIOO(String filterTypeList[],int bin,
 			     boolean calibrateBefore,boolean calibrateAfter) throws TOCException
 	{
-		if(filterTypeList.length < OConfig.O_FILTER_INDEX_COUNT)
-		{
-			throw new TOCException(this.getClass().getName()+
-					       ":instr failed:filterTypeList length was too short:"+
-					       filterTypeList.length+" vs "+OConfig.O_FILTER_INDEX_COUNT);
-		}
-		instr.setInstId("IO:O");
-		for(int i = OConfig.O_FILTER_INDEX_FILTER_WHEEL;
-		    i <= OConfig.O_FILTER_INDEX_FILTER_SLIDE_UPPER; i++)
-		{
-			instr.setFilter(i,filterTypeList[i]);
-		}
-		instr.setXBinning(bin);
-		instr.setYBinning(bin);
-		instr.setCalibrateBefore(calibrateBefore);
-		instr.setCalibrateAfter(calibrateAfter);
-		instr.run();
-		if(instr.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":instr failed:"+instr.getErrorString());
-		}
+		Instr i = null;
+
+		i = new Instr();
+		configureInstrIOO(i,filterTypeList,bin,calibrateBefore,calibrateAfter);
+		runCommand(i,"instr");
 	}
 
 	/**
@@ -717,23 +669,23 @@ public class TOCSession implements Logging
 	 * @param calibrateAfter Whether to do calibration frames after using this configuration.
 	 * @exception TOCException Thrown if the instr command fails.
 	 * @see #instr
+	 * @see #runCommand
 	 */
 	public void instrLiric(String filterType,String nudgematicOffsetSize,int coaddExposureLength,int xBin,int yBin,
 				boolean calibrateBefore,boolean calibrateAfter) throws TOCException
 	{
-		instr.setInstId("LIRIC");
-		instr.setSingleFilter(filterType);
-		instr.setNudgematicOffsetSize(nudgematicOffsetSize);
-		instr.setCoaddExposureLength(coaddExposureLength);
-		instr.setXBinning(xBin);
-		instr.setYBinning(yBin);
-		instr.setCalibrateBefore(calibrateBefore);
-		instr.setCalibrateAfter(calibrateAfter);
-		instr.run();
-		if(instr.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":instr failed:"+instr.getErrorString());
-		}
+		Instr i = null;
+
+		i = new Instr();
+		i.setInstId("LIRIC");
+		i.setSingleFilter(filterType);
+		i.setNudgematicOffsetSize(nudgematicOffsetSize);
+		i.setCoaddExposureLength(coaddExposureLength);
+		i.setXBinning(xBin);
+		i.setYBinning(yBin);
+		i.setCalibrateBefore(calibrateBefore);
+		i.setCalibrateAfter(calibrateAfter);
+		runCommand(i,"instr");
 	}
 
 	/**
@@ -778,21 +730,21 @@ public class TOCSession implements Logging
 	 * @param calibrateAfter Whether to do calibration frames after using this configuration.
 	 * @exception TOCException Thrown if the instr command fails.
 	 * @see #instr
+	 * @see #runCommand
 	 */
 	public void instrSprat(String slitPositionString,String grismPositionString,String grismRotationString,
 			       boolean calibrateBefore,boolean calibrateAfter) throws TOCException
 	{
-		instr.setInstId("SPRAT");
-		instr.setSlitPosition(slitPositionString);
-		instr.setGrismPosition(grismPositionString);
-		instr.setGrismRotation(grismRotationString);
-		instr.setCalibrateBefore(calibrateBefore);
-		instr.setCalibrateAfter(calibrateAfter);
-		instr.run();
-		if(instr.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":instr failed:"+instr.getErrorString());
-		}
+		Instr i = null;
+
+		i = new Instr();
+		i.setInstId("SPRAT");
+		i.setSlitPosition(slitPositionString);
+		i.setGrismPosition(grismPositionString);
+		i.setGrismRotation(grismRotationString);
+		i.setCalibrateBefore(calibrateBefore);
+		i.setCalibrateAfter(calibrateAfter);
+		runCommand(i,"instr");
 	}
 	
 	/**
@@ -822,25 +774,25 @@ public class TOCSession implements Logging
 	 * @param calibrateAfter Whether to do calibration frames after using this configuration.
 	 * @exception TOCException Thrown if the instr command fails.
 	 * @see #instr
+	 * @see #runCommand
 	 */
 	public void instrRingo3(String triggerType,int emGain,int xBin,int yBin,
 				boolean calibrateBefore,boolean calibrateAfter) throws TOCException
 	{
-		instr.setInstId("RINGO3");
-		instr.setFilter(0,null);
-		instr.setFilter(1,null);
-		instr.setFilter(2,null);
-		instr.setTriggerType(triggerType);
-		instr.setEMGain(emGain);
-		instr.setXBinning(xBin);
-		instr.setYBinning(yBin);
-		instr.setCalibrateBefore(calibrateBefore);
-		instr.setCalibrateAfter(calibrateAfter);
-		instr.run();
-		if(instr.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":instr failed:"+instr.getErrorString());
-		}
+		Instr i = null;
+
+		i = new Instr();
+		i.setInstId("RINGO3");
+		i.setFilter(0,null);
+		i.setFilter(1,null);
+		i.setFilter(2,null);
+		i.setTriggerType(triggerType);
+		i.setEMGain(emGain);
+		i.setXBinning(xBin);
+		i.setYBinning(yBin);
+		i.setCalibrateBefore(calibrateBefore);
+		i.setCalibrateAfter(calibrateAfter);
+		runCommand(i,"instr");
 	}
 
 	/**
@@ -854,22 +806,22 @@ public class TOCSession implements Logging
 	 * @param calibrateAfter Whether to do calibration frames after using this configuration.
 	 * @exception TOCException Thrown if the instr command fails.
 	 * @see #instr
+	 * @see #runCommand
 	 */
 	public void instrMoptop(String filterType,String rotorSpeed,int xBin,int yBin,
 				boolean calibrateBefore,boolean calibrateAfter) throws TOCException
 	{
-		instr.setInstId("MOPTOP");
-		instr.setSingleFilter(filterType);
-		instr.setRotorSpeed(rotorSpeed);
-		instr.setXBinning(xBin);
-		instr.setYBinning(yBin);
-		instr.setCalibrateBefore(calibrateBefore);
-		instr.setCalibrateAfter(calibrateAfter);
-		instr.run();
-		if(instr.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":instr failed:"+instr.getErrorString());
-		}
+		Instr i = null;
+
+		i = new Instr();
+		i.setInstId("MOPTOP");
+		i.setSingleFilter(filterType);
+		i.setRotorSpeed(rotorSpeed);
+		i.setXBinning(xBin);
+		i.setYBinning(yBin);
+		i.setCalibrateBefore(calibrateBefore);
+		i.setCalibrateAfter(calibrateAfter);
+		runCommand(i,"instr");
 	}
 
 	/**
@@ -885,25 +837,82 @@ public class TOCSession implements Logging
 	 * @param calibrateAfter Whether to do calibration frames after using this configuration.
 	 * @exception TOCException Thrown if the instr command fails.
 	 * @see #instr
+	 * @see #runCommand
 	 */
 	public void instrIOTHOR(int emGain,int bin,int xStart,int yStart,int xEnd,int yEnd,
 				boolean calibrateBefore,boolean calibrateAfter) throws TOCException
 	{
-		instr.setInstId("IO:THOR");
-		instr.setFilter(0,null);
-		instr.setFilter(1,null);
-		instr.setFilter(2,null);
-		instr.setEMGain(emGain);
-		instr.setXBinning(bin);
-		instr.setYBinning(bin);
-		instr.setWindow(xStart,yStart,xEnd,yEnd);
-		instr.setCalibrateBefore(calibrateBefore);
-		instr.setCalibrateAfter(calibrateAfter);
-		instr.run();
-		if(instr.getSuccessful() == false)
+		Instr i = null;
+
+		i = new Instr();
+		i.setInstId("IO:THOR");
+		i.setFilter(0,null);
+		i.setFilter(1,null);
+		i.setFilter(2,null);
+		i.setEMGain(emGain);
+		i.setXBinning(bin);
+		i.setYBinning(bin);
+		i.setWindow(xStart,yStart,xEnd,yEnd);
+		i.setCalibrateBefore(calibrateBefore);
+		i.setCalibrateAfter(calibrateAfter);
+		runCommand(i,"instr");
+	}
+
+	/**
+	 * Configure an instance of Instr with a generic instrument configuration.
+	 * @param i The Instr instance to configure.
+	 * @param instID The instrument ID.
+	 * @param filter0 The filter0 type string.
+	 * @param filter1 The filter1 type string.
+	 * @param filter2 The filter2 type string.
+	 * @param xBin How to bin the chip in X.
+	 * @param yBin How to bin the chip in Y.
+	 * @param calibrateBefore Whether to do calibration frames before using this configuration.
+	 * @param calibrateAfter Whether to do calibration frames after using this configuration.
+	 * @see #instr(java.lang.String,java.lang.String,java.lang.String,java.lang.String,int,int,boolean,boolean)
+	 */
+	private void configureInstr(Instr i,String instID,String filter0,String filter1,String filter2,
+				    int xBin,int yBin,boolean calibrateBefore,boolean calibrateAfter)
+	{
+		i.setInstId(instID);
+		i.setFilter(0,filter0);
+		i.setFilter(1,filter1);
+		i.setFilter(2,filter2);
+		i.setXBinning(xBin);
+		i.setYBinning(yBin);
+		i.setCalibrateBefore(calibrateBefore);
+		i.setCalibrateAfter(calibrateAfter);
+	}
+
+	/**
+	 * Configure an instance of Instr with an IO:O configuration.
+	 * @param i The Instr instance to configure.
+	 * @param filterTypeList An array of strings representing the filter type strings.
+	 * @param bin How to bin the chip.
+	 * @param calibrateBefore Whether to do calibration frames before using this configuration.
+	 * @param calibrateAfter Whether to do calibration frames after using this configuration.
+	 * @exception TOCException Thrown if the filterTypeList is too short.
+	 * @see #instrIOO
+	 */
+	private void configureInstrIOO(Instr i,String filterTypeList[],int bin,
+				       boolean calibrateBefore,boolean calibrateAfter) throws TOCException
+	{
+		if(filterTypeList.length < OConfig.O_FILTER_INDEX_COUNT)
+		{
+			throw new TOCException(this.getClass().getName()+
+					       ":instr failed:filterTypeList length was too short:"+
+					       filterTypeList.length+" vs "+OConfig.O_FILTER_INDEX_COUNT);
+		}
+		i.setInstId("IO:O");
+		for(int index = OConfig.O_FILTER_INDEX_FILTER_WHEEL;
+		    index <= OConfig.O_FILTER_INDEX_FILTER_SLIDE_UPPER; index++)
 		{
-			throw new TOCException(this.getClass().getName()+":instr failed:"+instr.getErrorString());
+			i.setFilter(index,filterTypeList[index]);
 		}
+		i.setXBinning(bin);
+		i.setYBinning(bin);
+		i.setCalibrateBefore(calibrateBefore);
+		i.setCalibrateAfter(calibrateAfter);
 	}
 
 	// diddly instrFrodospec FRODOSPEC TODO
@@ -914,21 +923,22 @@ public class TOCSession implements Logging
 	 * @param exposureLength The length of each exposure in milliseconds
 	 * @param exposureCount How many exposure frames to do.
 	 * @param dataPipelineFlag Whether to call the data pipeline.
-	 * @exception TOCException Thrown if the expose command fails.
-	 * @see #expose
+	 * @exception TOCException Thrown if the expose command fails. A TOCTimeoutException is thrown if
+	 *            the command's deadline (exposure length times count plus readout overhead) expires.
+	 * @see #runCommand
 	 */
 	public void expose(int exposureLength,int exposureCount,
 				boolean dataPipelineFlag) throws TOCException
 	{
-		expose.setExposureLength(exposureLength);
-		expose.setExposureCount(exposureCount);
-		expose.setRunatDate(null);
-		expose.setDataPipelineFlag(dataPipelineFlag);
-		expose.run();
-		if(expose.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":expose failed:"+expose.getErrorString());
-		}
+		Expose e = null;
+
+		e = new Expose();
+		e.setExposureLength(exposureLength);
+		e.setExposureCount(exposureCount);
+		e.setRunatDate(null);
+		e.setDataPipelineFlag(dataPipelineFlag);
+		expose = e;
+		runCommand(e,"expose");
 	}
 
 	/**
@@ -937,21 +947,22 @@ public class TOCSession implements Logging
 	 * @param exposureLength The length of each exposure in milliseconds
 	 * @param date The date/time to open the shutter.
 	 * @param dataPipelineFlag Whether to call the data pipeline.
-	 * @exception TOCException Thrown if the expose command fails.
-	 * @see #expose
+	 * @exception TOCException Thrown if the expose command fails. A TOCTimeoutException is thrown if
+	 *            the command's deadline (exposure length times count plus readout overhead) expires.
+	 * @see #runCommand
 	 */
 	public void expose(int exposureLength,Date date,
 				boolean dataPipelineFlag) throws TOCException
 	{
-		expose.setExposureLength(exposureLength);
-		expose.setExposureCount(1);
-		expose.setRunatDate(date);
-		expose.setDataPipelineFlag(dataPipelineFlag);
-		expose.run();
-		if(expose.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":expose failed:"+expose.getErrorString());
-		}
+		Expose e = null;
+
+		e = new Expose();
+		e.setExposureLength(exposureLength);
+		e.setExposureCount(1);
+		e.setRunatDate(date);
+		e.setDataPipelineFlag(dataPipelineFlag);
+		expose = e;
+		runCommand(e,"expose");
 	}
 
 	/**
@@ -959,46 +970,760 @@ public class TOCSession implements Logging
 	 * You should have called <b>helo</b>, <b>slew</b> and <b>instr</b> before this method. 
 	 * @param lampName The name of the lamp to use.
 	 * @exception TOCException Thrown if the arc command fails.
-	 * @see #arc
+	 * @see #runCommand
 	 */
 	public void arc(String lampName) throws TOCException
 	{
-		arc.setLampName(lampName);
-		arc.run();
-		if(arc.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":arc failed:"+arc.getErrorString());
-		}
+		Arc a = null;
+
+		a = new Arc();
+		a.setLampName(lampName);
+		arc = a;
+		runCommand(a,"arc");
 	}
 
 	/**
 	 * Stop the telescope, if it is slewing/tracking.
 	 * You should have called <b>helo</b> before this method. 
 	 * @exception TOCException Thrown if the stop command fails.
-	 * @see #stop
+	 * @see #runCommand
 	 */
 	public void stop() throws TOCException
 	{
-		stop.run();
-		if(stop.getSuccessful() == false)
-		{
-			throw new TOCException(this.getClass().getName()+":stop failed:"+stop.getErrorString());
-		}
+		Stop s = null;
+
+		s = new Stop();
+		runCommand(s,"stop");
 	}
 
 	/**
 	 * Quit a RCS TOCA session.
 	 * You should have called <b>helo</b> before this method. 
 	 * @exception TOCException Thrown if the quit command fails.
-	 * @see #quit
+	 * @see #runCommand
 	 */
 	public void quit() throws TOCException
 	{
-		quit.run();
-		if(quit.getSuccessful() == false)
+		Quit q = null;
+
+		q = new Quit();
+		runCommand(q,"quit");
+	}
+
+	/**
+	 * Validate every command in an observation plan, without sending anything. Each command is given this
+	 * session's session data, and encoded (see TOCCommand.validate), so that configuration errors
+	 * (mismatched binning, an illegal acquire or rotator mode, a missing RA/Dec etc.) are found before
+	 * a session is started.
+	 * @param plan The plan.
+	 * @exception TOCException Thrown if a command in the plan is not valid. The message contains the index
+	 *            of the first invalid command.
+	 * @see TOCCommand#validate
+	 */
+	public void validatePlan(TOCPlan plan) throws TOCException
+	{
+		TOCCommand command = null;
+		int i;
+
+		for(i = 0; i < plan.getCommandCount(); i++)
+		{
+			command = plan.getCommand(i);
+			command.setSessionData(sessionData);
+			try
+			{
+				command.validate();
+			}
+			catch(TOCException e)
+			{
+				logger.log(INFO, 1, CLASS, RCSID,"validatePlan","Plan step "+i+" ("+
+					   command.getClass().getName()+") is not valid:"+e);
+				throw new TOCException(this.getClass().getName()+":validatePlan:Plan step "+i+" ("+
+						       command.getClass().getName()+") is not valid:"+e.getMessage(),e);
+			}
+		}
+		logger.log(INFO, 1, CLASS, RCSID,"validatePlan","Validated "+plan.getCommandCount()+" plan steps.");
+	}
+
+	/**
+	 * Run an observation plan. The whole plan is validated first (see validatePlan), and only if every
+	 * command is valid is a session started (helo and init). Each command in the plan is then run in order.
+	 * The session is not stopped or ended: call <b>stop</b> and <b>quit</b> afterwards (as for the individual
+	 * command methods). The results of each command can be retrieved from the plan's commands.
+	 * The session's telescope and instrument locks are held while the plan runs, so no other thread's
+	 * state changing command is run part way through the plan.
+	 * @param plan The plan.
+	 * @exception TOCException Thrown if the plan is not valid (in which case no command has been sent),
+	 *            or if helo, init, or one of the plan's commands fails.
+	 * @see #validatePlan
+	 * @see #helo
+	 * @see #init
+	 * @see #runCommand
+	 * @see #lockResources
+	 */
+	public void runPlan(TOCPlan plan) throws TOCException
+	{
+		TOCCommand command = null;
+		int i;
+
+		validatePlan(plan);
+		lockResources(TOCCommand.RESOURCE_ALL);
+		try
+		{
+			helo();
+			init();
+			for(i = 0; i < plan.getCommandCount(); i++)
+			{
+				command = plan.getCommand(i);
+				runCommand(command,"plan step "+i);
+			}
+		}
+		finally
+		{
+			unlockResources(TOCCommand.RESOURCE_ALL);
+		}
+	}
+
+	/**
+	 * Run a command in the calling thread, and throw an exception if it fails. The command is given this
+	 * session's session data, and run using runLocked.
+	 * @param command The command to run. This should be a new instance, not shared with any other call.
+	 * @param commandName The name of the command, used in the TOCException message if the command fails.
+	 * @exception TOCException Thrown if the command fails.
+	 * @see #sessionData
+	 * @see #runLocked
+	 * @see #createException
+	 */
+	private void runCommand(TOCCommand command,String commandName) throws TOCException
+	{
+		command.setSessionData(sessionData);
+		runLocked(command);
+		if(command.getSuccessful() == false)
+		{
+			throw createException(command,commandName);
+		}
+	}
+
+	/**
+	 * Run a command in the calling thread. The locks of the resources the command uses are held while 
+	 * the command runs, so commands that change the state of the session, telescope or instrument are 
+	 * serialized between the threads sharing this session.
+	 * @param command The command to run.
+	 * @see #getLockResources
+	 * @see #lockResources
+	 * @see #unlockResources
+	 */
+	private void runLocked(TOCCommand command)
+	{
+		int resources;
+
+		resources = getLockResources(command);
+		lockResources(resources);
+		try
+		{
+			command.run();
+		}
+		finally
+		{
+			unlockResources(resources);
+		}
+	}
+
+	/**
+	 * Get the resources whose locks must be held while a command runs. Read-only commands need none.
+	 * If resource locking is enabled in the session data, a command needs the resources it uses,
+	 * otherwise every other command needs them all (so they are all serialized).
+	 * @param command The command.
+	 * @return A bit mask of TOCCommand.RESOURCE_TELESCOPE and TOCCommand.RESOURCE_INSTRUMENT.
+	 * @see TOCCommand#isReadOnly
+	 * @see TOCCommand#getResources
+	 * @see TOCSessionData#getResourceLocking
+	 */
+	private int getLockResources(TOCCommand command)
+	{
+		if(command.isReadOnly())
+			return 0;
+		if(sessionData.getResourceLocking())
+			return command.getResources();
+		return TOCCommand.RESOURCE_ALL;
+	}
+
+	/**
+	 * Take the locks of some resources. The telescopeLock is always taken before the instrumentLock,
+	 * so threads needing both cannot deadlock.
+	 * @param resources A bit mask of TOCCommand.RESOURCE_TELESCOPE and TOCCommand.RESOURCE_INSTRUMENT.
+	 * @see #telescopeLock
+	 * @see #instrumentLock
+	 */
+	private void lockResources(int resources)
+	{
+		if((resources & TOCCommand.RESOURCE_TELESCOPE) != 0)
+			telescopeLock.lock();
+		if((resources & TOCCommand.RESOURCE_INSTRUMENT) != 0)
+			instrumentLock.lock();
+	}
+
+	/**
+	 * Release the locks of some resources, taken by lockResources.
+	 * @param resources A bit mask of TOCCommand.RESOURCE_TELESCOPE and TOCCommand.RESOURCE_INSTRUMENT.
+	 * @see #telescopeLock
+	 * @see #instrumentLock
+	 */
+	private void unlockResources(int resources)
+	{
+		if((resources & TOCCommand.RESOURCE_INSTRUMENT) != 0)
+			instrumentLock.unlock();
+		if((resources & TOCCommand.RESOURCE_TELESCOPE) != 0)
+			telescopeLock.unlock();
+	}
+
+	/**
+	 * Pre-warm the connection to the TOCS server, so the next command (e.g. the HELO sent when an alert
+	 * arrives) does not have to wait for a DNS lookup or for a connection to be opened.
+	 * The addresses of all the TOCS endpoints are resolved into the TOCSAddressCache. If connection pooling
+	 * is enabled, a connection to the preferred endpoint is also opened and added to the TOCSConnectionPool
+	 * (or an existing idle connection is health checked and kept). Failures are logged, but not thrown,
+	 * as the command will try again anyway.
+	 * @see #sessionData
+	 * @see TOCSessionData#getTOCSEndpoints
+	 * @see TOCSAddressCache#getAddress
+	 * @see TOCSConnectionPool#prewarm
+	 */
+	public void prewarm()
+	{
+		TOCSEndpoint endpoints[] = null;
+		long connectTimeout;
+		int i;
+
+		try
+		{
+			endpoints = sessionData.getTOCSEndpoints();
+			for(i = 0; i < endpoints.length; i++)
+				TOCSAddressCache.getInstance().getAddress(endpoints[i].getHost(),endpoints[i].getPort());
+			if(sessionData.getTOCSConnectionPooling())
+			{
+				connectTimeout = Math.min(sessionData.getTOCSConnectTimeout(),Integer.MAX_VALUE);
+				TOCSConnectionPool.getInstance().prewarm(endpoints[0].getHost(),endpoints[0].getPort(),
+									(int)connectTimeout);
+			}
+		}
+		catch(Exception e)
+		{
+			logger.log(INFO, 1, CLASS, RCSID,"prewarm","Pre-warming connection to TOCS failed:"+e);
+		}
+	}
+
+	/**
+	 * Start pre-warming the connection to the TOCS server. prewarm is called straight away, and then
+	 * every pre-warm interval, on a daemon timer thread, so a pooled connection is kept open and healthy
+	 * during idle time between commands. Any previous pre-warming is stopped first.
+	 * This is called by setSessionData if the session data's tocs_prewarm property is true.
+	 * @see #prewarm
+	 * @see #stopPrewarming
+	 * @see #prewarmTimer
+	 * @see TOCSessionData#getTOCSPrewarmInterval
+	 */
+	public synchronized void startPrewarming()
+	{
+		long interval;
+
+		stopPrewarming();
+		interval = Math.max(sessionData.getTOCSPrewarmInterval(),1000);
+		prewarmTimer = new Timer(true);
+		prewarmTimer.schedule(new TimerTask()
+			{
+				public void run()
+				{
+					prewarm();
+				}
+			},0,interval);
+	}
+
+	/**
+	 * Stop pre-warming the connection to the TOCS server. Any pooled connection is left in the pool,
+	 * to be evicted once it has been idle for too long.
+	 * @see #prewarmTimer
+	 */
+	public synchronized void stopPrewarming()
+	{
+		if(prewarmTimer != null)
+		{
+			prewarmTimer.cancel();
+			prewarmTimer = null;
+		}
+	}
+
+	/**
+	 * Set the executor the asynchronous (xxxAsync) methods run their commands on. 
+	 * By default a shared pool of daemon threads is used.
+	 * @param e The executor.
+	 * @see #executor
+	 */
+	public void setExecutor(Executor e)
+	{
+		executor = e;
+	}
+
+	/**
+	 * Set whether the asynchronous (xxxAsync) methods run their commands on virtual threads.
+	 * Each command then gets it's own (cheap) virtual thread, so large numbers of concurrent commands
+	 * (e.g. WHEN/POSITION/STATUS visibility probes) can be outstanding at once. If the JVM does not
+	 * support virtual threads, the default executor is used instead.
+	 * This is also enabled by setting the session data's virtual_threads property.
+	 * @param b A boolean, if true use virtual threads, if false use the default executor.
+	 * @see #executor
+	 * @see #getVirtualThreadExecutor
+	 * @see #getDefaultExecutor
+	 * @see TOCSessionData#getVirtualThreads
+	 */
+	public void setVirtualThreads(boolean b)
+	{
+		Executor e = null;
+
+		if(b)
+			e = getVirtualThreadExecutor();
+		if(e == null)
+			e = getDefaultExecutor();
+		executor = e;
+	}
+
+	/**
+	 * Get an executor that runs each task on a new virtual thread. The executor is created (using
+	 * Executors.newVirtualThreadPerTaskExecutor) when first needed, and shared. This is looked up
+	 * by reflection, so the library still runs on JVMs without virtual threads.
+	 * @return The executor, or null if the JVM does not support virtual threads.
+	 * @see #virtualThreadExecutor
+	 */
+	public static synchronized Executor getVirtualThreadExecutor()
+	{
+		Logger l = null;
+		java.lang.reflect.Method method = null;
+
+		if(virtualThreadExecutor == null)
 		{
-			throw new TOCException(this.getClass().getName()+":quit failed:"+quit.getErrorString());
+			try
+			{
+				method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				virtualThreadExecutor = (Executor)(method.invoke(null,new Object[0]));
+			}
+			catch(Exception e)
+			{
+				l = LogManager.getLogger("org.estar.toop.TOCSession");
+				l.log(INFO, 1, CLASS, RCSID,"getVirtualThreadExecutor",
+				      "Virtual threads not supported by this JVM:"+e);
+			}
 		}
+		return virtualThreadExecutor;
+	}
+
+	/**
+	 * Set the non-blocking transport the asynchronous (xxxAsync) methods send their read-only commands
+	 * (WHEN, POSITION, STATUS) with. When this is set, no thread is used to wait for the reply, so large
+	 * numbers of queries can be outstanding at once. Other commands are still run on the executor, as they
+	 * must wait for the session's telescope and instrument locks. The returned futures are then completed on the engine's selector thread, 
+	 * so any dependent stages that block should be run using the xxxAsync CompletableFuture methods
+	 * with an executor.
+	 * @param engine The engine, or null to run the commands on the executor.
+	 * @see #nioEngine
+	 */
+	public void setNioEngine(TOCSNioEngine engine)
+	{
+		nioEngine = engine;
+	}
+
+	/**
+	 * Asynchronous version of when.
+	 * @return A future, completed with the When command (use getTime for the result), or completed 
+	 *         exceptionally with a TOCException if the command fails.
+	 * @see #when
+	 * @see #runAsync
+	 */
+	public CompletableFuture<When> whenAsync()
+	{
+		return runAsync(new When(),"when");
+	}
+
+	/**
+	 * Asynchronous version of position.
+	 * @param ra The right ascension of the target.
+	 * @param dec The declination of the target.
+	 * @return A future, completed with the Position command, or completed 
+	 *         exceptionally with a TOCException if the command fails.
+	 * @see #position
+	 * @see #runAsync
+	 */
+	public CompletableFuture<Position> positionAsync(RA ra,Dec dec)
+	{
+		Position p = null;
+
+		p = new Position();
+		p.setRA(ra);
+		p.setDec(dec);
+		return runAsync(p,"position");
+	}
+
+	/**
+	 * Asynchronous version of status.
+	 * @param category The status category e.g. METEO.
+	 * @param keyword The status keyword e.g. humidity.
+	 * @return A future, completed with the Status command (use getValue for the result), or completed 
+	 *         exceptionally with a TOCException if the command fails.
+	 * @see #status
+	 * @see #runAsync
+	 */
+	public CompletableFuture<Status> statusAsync(String category,String keyword)
+	{
+		Status s = null;
+
+		s = new Status();
+		s.setCategory(category);
+		s.setKeyword(keyword);
+		return runAsync(s,"status");
+	}
+
+	/**
+	 * Asynchronous version of helo. The session data is updated with the session ID etc. before
+	 * the future is completed.
+	 * @return A future, completed with the Helo command, or completed 
+	 *         exceptionally with a TOCException if the command fails.
+	 * @see #helo
+	 * @see #runAsync
+	 */
+	public CompletableFuture<Helo> heloAsync()
+	{
+		return runAsync(new Helo(),"helo");
+	}
+
+	/**
+	 * Asynchronous version of init.
+	 * @return A future, completed with the Init command, or completed 
+	 *         exceptionally with a TOCException if the command fails.
+	 * @see #init
+	 * @see #runAsync
+	 */
+	public CompletableFuture<Init> initAsync()
+	{
+		return runAsync(new Init(),"init");
+	}
+
+	/**
+	 * Asynchronous version of slew.
+	 * @param sourceId A string representing the source, ends up in the <i>OBJECT</i> keyword in the FITS headers.
+	 * @param ra The right ascension to slew to.
+	 * @param dec The declination to slew to.
+	 * @return A future, completed with the Slew command, or completed 
+	 *         exceptionally with a TOCException if the command fails.
+	 * @see #slew(java.lang.String,org.estar.astrometry.RA,org.estar.astrometry.Dec)
+	 * @see #runAsync
+	 */
+	public CompletableFuture<Slew> slewAsync(String sourceId,RA ra,Dec dec)
+	{
+		Slew s = null;
+
+		s = new Slew();
+		s.setSourceId(sourceId);
+		s.setRA(ra);
+		s.setDec(dec);
+		return runAsync(s,"slew");
+	}
+
+	/**
+	 * Asynchronous version of instr.
+	 * @param instID The instrument ID.
+	 * @param filter0 The filter0 type string.
+	 * @param filter1 The filter1 type string.
+	 * @param filter2 The filter2 type string.
+	 * @param xBin How to bin the chip in X.
+	 * @param yBin How to bin the chip in Y.
+	 * @param calibrateBefore Whether to do calibration frames before using this configuration, usually false.
+	 * @param calibrateAfter Whether to do calibration frames after using this configuration, usually false.
+	 * @return A future, completed with the Instr command, or completed 
+	 *         exceptionally with a TOCException if the command fails.
+	 * @see #instr(java.lang.String,java.lang.String,java.lang.String,java.lang.String,int,int,boolean,boolean)
+	 * @see #configureInstr
+	 * @see #instrAsync(org.estar.toop.Instr)
+	 */
+	public CompletableFuture<Instr> instrAsync(String instID,String filter0,String filter1,String filter2,
+						   int xBin,int yBin,boolean calibrateBefore,boolean calibrateAfter)
+	{
+		Instr i = null;
+
+		i = new Instr();
+		configureInstr(i,instID,filter0,filter1,filter2,xBin,yBin,calibrateBefore,calibrateAfter);
+		return instrAsync(i);
+	}
+
+	/**
+	 * Asynchronous version of instrIOO.
+	 * @param filterTypeList An array of strings representing the filter type strings, see instrIOO.
+	 * @param bin How to bin the chip, usually use 1.
+	 * @param calibrateBefore Whether to do calibration frames before using this configuration, usually true.
+	 * @param calibrateAfter Whether to do calibration frames after using this configuration, usually true.
+	 * @return A future, completed with the Instr command, or completed 
+	 *         exceptionally with a TOCException if the command fails.
+	 * @see #instrIOO
+	 * @see #configureInstrIOO
+	 */
+	public CompletableFuture<Instr> instrIOOAsync(String filterTypeList[],int bin,
+						      boolean calibrateBefore,boolean calibrateAfter)
+	{
+		CompletableFuture<Instr> future = null;
+		Instr i = null;
+
+		i = new Instr();
+		try
+		{
+			configureInstrIOO(i,filterTypeList,bin,calibrateBefore,calibrateAfter);
+		}
+		catch(TOCException e)
+		{
+			future = new CompletableFuture<Instr>();
+			future.completeExceptionally(e);
+			return future;
+		}
+		return instrAsync(i);
+	}
+
+	/**
+	 * Asynchronously send an already configured Instr command. This can be used for instrument
+	 * configurations that do not have their own xxxAsync method (e.g. LIRIC, SPRAT, MOPTOP).
+	 * The Instr instance should not be shared with any other call.
+	 * @param i The configured Instr command.
+	 * @return A future, completed with the Instr command, or completed 
+	 *         exceptionally with a TOCException if the command fails.
+	 * @see #runAsync
+	 */
+	public CompletableFuture<Instr> instrAsync(Instr i)
+	{
+		return runAsync(i,"instr");
+	}
+
+	/**
+	 * Asynchronous version of expose (MULTRUN).
+	 * @param exposureLength The length of each exposure in milliseconds
+	 * @param exposureCount How many exposure frames to do.
+	 * @param dataPipelineFlag Whether to call the data pipeline.
+	 * @return A future, completed with the Expose command (use getFilenameCount/getFilename for the results),
+	 *         or completed exceptionally with a TOCException if the command fails.
+	 * @see #expose(int,int,boolean)
+	 * @see #runAsync
+	 */
+	public CompletableFuture<Expose> exposeAsync(int exposureLength,int exposureCount,boolean dataPipelineFlag)
+	{
+		Expose e = null;
+
+		e = new Expose();
+		e.setExposureLength(exposureLength);
+		e.setExposureCount(exposureCount);
+		e.setRunatDate(null);
+		e.setDataPipelineFlag(dataPipelineFlag);
+		return runAsync(e,"expose");
+	}
+
+	/**
+	 * Asynchronous version of expose (RUNAT).
+	 * @param exposureLength The length of each exposure in milliseconds
+	 * @param date The date/time to open the shutter.
+	 * @param dataPipelineFlag Whether to call the data pipeline.
+	 * @return A future, completed with the Expose command (use getFilenameCount/getFilename for the results),
+	 *         or completed exceptionally with a TOCException if the command fails.
+	 * @see #expose(int,java.util.Date,boolean)
+	 * @see #runAsync
+	 */
+	public CompletableFuture<Expose> exposeAsync(int exposureLength,Date date,boolean dataPipelineFlag)
+	{
+		Expose e = null;
+
+		e = new Expose();
+		e.setExposureLength(exposureLength);
+		e.setExposureCount(1);
+		e.setRunatDate(date);
+		e.setDataPipelineFlag(dataPipelineFlag);
+		return runAsync(e,"expose");
+	}
+
+	/**
+	 * Asynchronous version of arc.
+	 * @param lampName The name of the lamp to use.
+	 * @return A future, completed with the Arc command (use getFilenameCount/getFilename for the results),
+	 *         or completed exceptionally with a TOCException if the command fails.
+	 * @see #arc
+	 * @see #runAsync
+	 */
+	public CompletableFuture<Arc> arcAsync(String lampName)
+	{
+		Arc a = null;
+
+		a = new Arc();
+		a.setLampName(lampName);
+		return runAsync(a,"arc");
+	}
+
+	/**
+	 * Asynchronous version of stop.
+	 * @return A future, completed with the Stop command, or completed 
+	 *         exceptionally with a TOCException if the command fails.
+	 * @see #stop
+	 * @see #runAsync
+	 */
+	public CompletableFuture<Stop> stopAsync()
+	{
+		return runAsync(new Stop(),"stop");
+	}
+
+	/**
+	 * Asynchronous version of quit.
+	 * @return A future, completed with the Quit command, or completed 
+	 *         exceptionally with a TOCException if the command fails.
+	 * @see #quit
+	 * @see #runAsync
+	 */
+	public CompletableFuture<Quit> quitAsync()
+	{
+		return runAsync(new Quit(),"quit");
+	}
+
+	/**
+	 * Run an already configured command (e.g. one from a TOCPlan) asynchronously. The command should be a 
+	 * new instance, not shared with any other call, as it holds it's results.
+	 * @param command The command to run. It's session data is set to this session's session data.
+	 * @return A future, completed with the command, or completed 
+	 *         exceptionally with a TOCException if the command fails.
+	 * @see #runAsync
+	 * @see TOCStepExecutor
+	 */
+	public <T extends TOCCommand> CompletableFuture<T> commandAsync(T command)
+	{
+		return runAsync(command,command.getClass().getSimpleName().toLowerCase());
+	}
+
+	/**
+	 * Run a command asynchronously. Each call should use a new command instance, as the command
+	 * holds it's results. If a nioEngine has been set and the command is read-only, the command is submitted
+	 * to it, otherwise the command is run on the executor (using runLocked, so commands that are not
+	 * read-only wait for the session's telescope and instrument locks). If the future is cancelled before
+	 * the executor starts the command, the command is not run.
+	 * @param command The command to run. It's session data is set to this session's session data.
+	 * @param commandName The name of the command, used in the TOCException message if the command fails.
+	 * @return A future, completed with the command if it was successful, or completed 
+	 *         exceptionally with a TOCException if it failed.
+	 * @see #sessionData
+	 * @see #nioEngine
+	 * @see #executor
+	 * @see #runLocked
+	 * @see #completeFuture
+	 */
+	private <T extends TOCCommand> CompletableFuture<T> runAsync(final T command,final String commandName)
+	{
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+
+		command.setSessionData(sessionData);
+		try
+		{
+			if((nioEngine != null) && command.isReadOnly())
+			{
+				command.submit(nioEngine,new TOCCommandListener()
+					{
+						public void commandFinished(TOCCommand c)
+						{
+							completeFuture(future,command,commandName);
+						}
+					});
+			}
+			else
+			{
+				executor.execute(new Runnable()
+					{
+						public void run()
+						{
+							// the caller has given up on the command before it started
+							if(future.isCancelled())
+								return;
+							try
+							{
+								runLocked(command);
+								completeFuture(future,command,commandName);
+							}
+							catch(Throwable t)
+							{
+								future.completeExceptionally(t);
+							}
+						}
+					});
+			}
+		}
+		catch(Exception e)
+		{
+			logger.log(INFO, 1, CLASS, RCSID,"runAsync",commandName+" failed to start:"+e);
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Complete the future for an asynchronous command, once the command has finished.
+	 * @param future The future to complete.
+	 * @param command The command that has finished.
+	 * @param commandName The name of the command, used in the TOCException message if the command failed.
+	 * @see #runAsync
+	 */
+	private <T extends TOCCommand> void completeFuture(CompletableFuture<T> future,T command,String commandName)
+	{
+		if(command.getSuccessful() == false)
+		{
+			future.completeExceptionally(createException(command,commandName));
+			return;
+		}
+		future.complete(command);
+	}
+
+	/**
+	 * Create the exception to throw when a command fails. If the command failed because it's deadline
+	 * expired a TOCTimeoutException is created, otherwise a TOCSErrorException containing the command's
+	 * error code. If the error is an expected one (e.g. NOT_OPERATIONAL) and the session data's 
+	 * stackless exceptions property is set, the exception is created without a stack trace.
+	 * @param command The command that failed.
+	 * @param commandName The name of the command, used in the exception message.
+	 * @return The exception.
+	 * @see TOCCommand#getTimedOut
+	 * @see TOCCommand#getErrorCode
+	 * @see TOCSErrorCode#isExpected
+	 * @see TOCSessionData#getStacklessExceptions
+	 */
+	private TOCException createException(TOCCommand command,String commandName)
+	{
+		TOCSErrorCode errorCode = null;
+		String s = null;
+
+		s = this.getClass().getName()+":"+commandName+" failed:"+command.getErrorString();
+		if(command.getTimedOut())
+			return new TOCTimeoutException(s);
+		errorCode = command.getErrorCode();
+		return new TOCSErrorException(s,errorCode,command.getAbortCode(),
+					      (errorCode.isExpected() && sessionData.getStacklessExceptions()) == false);
+	}
+
+	/**
+	 * Get the executor shared by all sessions which have not had an executor set. This is a cached
+	 * pool of daemon threads, created when first needed.
+	 * @return The default executor.
+	 * @see #defaultExecutor
+	 */
+	private static synchronized Executor getDefaultExecutor()
+	{
+		if(defaultExecutor == null)
+		{
+			defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory()
+				{
+					public Thread newThread(Runnable r)
+					{
+						Thread t = new Thread(r,CLASS+" async");
+
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		}
+		return defaultExecutor;
 	}
 
 	/**
@@ -1012,7 +1737,7 @@ public class TOCSession implements Logging
 	}
 
 	/**
-	 * Get the helo command implementor.
+	 * Get the last helo command run by this session (by any thread).
 	 * @see #helo
 	 */
 	public Helo getHelo()
@@ -1021,7 +1746,7 @@ public class TOCSession implements Logging
 	}
 
 	/**
-	 * Get the position command implementor.
+	 * Get the last position command run by this session (by any thread).
 	 * @see #position
 	 */
 	public Position getPosition()
@@ -1030,7 +1755,7 @@ public class TOCSession implements Logging
 	}
 
 	/**
-	 * Get the when command implementor.
+	 * Get the last when command run by this session (by any thread).
 	 * @see #when
 	 */
 	public When getWhen()
@@ -1039,7 +1764,7 @@ public class TOCSession implements Logging
 	}
 
 	/**
-	 * Get the status command implementor.
+	 * Get the last status command run by this session (by any thread).
 	 * @see #status
 	 */
 	public Status getStatus()
@@ -1048,7 +1773,7 @@ public class TOCSession implements Logging
 	}
 
 	/**
-	 * Get the expose command implementor.
+	 * Get the last expose command run by this session (by any thread).
 	 * @see #expose
 	 */
 	public Expose getExpose()
@@ -1113,6 +1838,15 @@ public class TOCSession implements Logging
 		l = LogManager.getLogger("org.estar.toop.TOCCommand");
 		l.setLogLevel(logLevel);	
 		l.addHandler(handler);
+		l = LogManager.getLogger("org.estar.toop.TOCSConnectionPool");
+		l.setLogLevel(logLevel);	
+		l.addHandler(handler);
+		l = LogManager.getLogger("org.estar.toop.TOCSNioEngine");
+		l.setLogLevel(logLevel);	
+		l.addHandler(handler);
+		l = LogManager.getLogger("org.estar.toop.TOCSAddressCache");
+		l.setLogLevel(logLevel);	
+		l.addHandler(handler);
 		l = LogManager.getLogger("org.estar.toop.Acquire");
 		l.setLogLevel(logLevel);	
 		l.addHandler(handler);
@@ -1170,6 +1904,15 @@ public class TOCSession implements Logging
 		l = LogManager.getLogger("org.estar.toop.TOCSession");
 		l.setLogLevel(logLevel);	
 		l.addHandler(handler);
+		l = LogManager.getLogger("org.estar.toop.TOCSessionCoordinator");
+		l.setLogLevel(logLevel);	
+		l.addHandler(handler);
+		l = LogManager.getLogger("org.estar.toop.TOCSessionDaemon");
+		l.setLogLevel(logLevel);	
+		l.addHandler(handler);
+		l = LogManager.getLogger("org.estar.toop.TOCScriptRunner");
+		l.setLogLevel(logLevel);	
+		l.addHandler(handler);
 	}
 }
 /*
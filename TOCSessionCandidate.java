@@ -0,0 +1,177 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCSessionCandidate.java
+// $Header$
+package org.estar.toop;
+
+/**
+ * The result of surveying one telescope for a target: the WHEN and POSITION commands sent to it's
+ * session, or the reason they failed. Created by TOCSessionCoordinator.survey.
+ * A candidate is usable if both commands succeeded and the target has risen.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCSessionCoordinator#survey
+ */
+public class TOCSessionCandidate
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The name of the telescope, as given to the coordinator.
+	 */
+	private String name = null;
+	/**
+	 * The session used to talk to the telescope.
+	 */
+	private TOCSession session = null;
+	/**
+	 * The WHEN command sent to the telescope, or null if it failed.
+	 */
+	private When when = null;
+	/**
+	 * The POSITION command sent to the telescope, or null if it failed.
+	 */
+	private Position position = null;
+	/**
+	 * The reason the WHEN or POSITION command failed, or null if they were both successful.
+	 */
+	private Throwable exception = null;
+
+	/**
+	 * Constructor.
+	 * @param name The name of the telescope.
+	 * @param session The session used to talk to the telescope.
+	 * @param when The successful WHEN command, or null if it failed.
+	 * @param position The successful POSITION command, or null if it failed.
+	 * @param exception The reason a command failed, or null.
+	 */
+	TOCSessionCandidate(String name,TOCSession session,When when,Position position,Throwable exception)
+	{
+		super();
+		this.name = name;
+		this.session = session;
+		this.when = when;
+		this.position = position;
+		this.exception = exception;
+	}
+
+	/**
+	 * Get the name of the telescope.
+	 * @return The name.
+	 * @see #name
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Get the session used to talk to the telescope.
+	 * @return The session.
+	 * @see #session
+	 */
+	public TOCSession getSession()
+	{
+		return session;
+	}
+
+	/**
+	 * Get the WHEN command sent to the telescope.
+	 * @return The command, or null if it failed.
+	 * @see #when
+	 */
+	public When getWhen()
+	{
+		return when;
+	}
+
+	/**
+	 * Get the POSITION command sent to the telescope.
+	 * @return The command, or null if it failed.
+	 * @see #position
+	 */
+	public Position getPosition()
+	{
+		return position;
+	}
+
+	/**
+	 * Get the reason the WHEN or POSITION command failed.
+	 * @return The exception, or null if both commands were successful.
+	 * @see #exception
+	 */
+	public Throwable getException()
+	{
+		return exception;
+	}
+
+	/**
+	 * Get whether the telescope can be used for the target: both commands succeeded, and the target has risen.
+	 * @return true if the telescope can be used.
+	 * @see #when
+	 * @see #position
+	 * @see Position#POSITION_STATE_RISEN
+	 */
+	public boolean isUsable()
+	{
+		return (when != null)&&(position != null)&&
+			Position.POSITION_STATE_RISEN.equals(position.getState());
+	}
+
+	/**
+	 * Get the number of seconds until a HELO will succeed on the telescope.
+	 * @return The number of seconds, or Integer.MAX_VALUE if the WHEN command failed.
+	 * @see #when
+	 */
+	public int getTime()
+	{
+		if(when == null)
+			return Integer.MAX_VALUE;
+		return when.getTime();
+	}
+
+	/**
+	 * Get the altitude of the target at the telescope.
+	 * @return The altitude in decimal degrees, or -90.0 if the POSITION command failed.
+	 * @see #position
+	 */
+	public double getAltitude()
+	{
+		if(position == null)
+			return -90.0;
+		return position.getAltitude();
+	}
+
+	/**
+	 * Return a string describing the candidate.
+	 * @return The string.
+	 */
+	public String toString()
+	{
+		if(exception != null)
+			return name+": failed:"+exception;
+		return name+": time="+getTime()+" altitude="+getAltitude()+" state="+position.getState();
+	}
+}
+/*
+** $Log$
+*/
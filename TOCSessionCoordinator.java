@@ -0,0 +1,448 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCSessionCoordinator.java
+// $Header$
+package org.estar.toop;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import ngat.util.logging.*;
+
+import org.estar.astrometry.*;
+
+/**
+ * Coordinates sessions on several telescopes (e.g. LT and FTN, each with it's own session data file),
+ * so a target of opportunity can be sent to the best one without checking each telescope in turn:
+ * <pre>
+ * TOCSessionCoordinator tsc = new TOCSessionCoordinator();
+ * tsc.addSession("LT",new File("ltproxy_toop.properties"));
+ * tsc.addSession("FTN",new File("ftnproxy_toop.properties"));
+ * TOCSessionCandidate c = tsc.open(ra,dec);
+ * TOCSession ts = c.getSession();
+ * ts.init();
+ * ...
+ * </pre>
+ * A survey sends WHEN and POSITION to every telescope in parallel, and ranks the telescopes:
+ * usable telescopes (both commands succeeded and the target has risen) first, then by the time until
+ * a HELO will succeed. Telescopes available within the when tolerance of the earliest are ranked by the
+ * target's altitude, highest first. open starts a session on the best telescope, openAll on every usable one.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCSession
+ * @see TOCSessionCandidate
+ */
+public class TOCSessionCoordinator implements Logging
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Classname for logging.
+	 */
+	public static final String CLASS = "TOCSessionCoordinator";
+	/**
+	 * Default when tolerance, in seconds.
+	 * @see #whenTolerance
+	 */
+	public static final int DEFAULT_WHEN_TOLERANCE = 60;
+	/**
+	 * Class logger.
+	 */
+	private Logger logger = null;
+	/**
+	 * The list of telescope names, in the order they were added.
+	 */
+	private List<String> nameList = null;
+	/**
+	 * The list of sessions, one per telescope, in the same order as the nameList.
+	 */
+	private List<TOCSession> sessionList = null;
+	/**
+	 * Telescopes available within this many seconds of the earliest available telescope are
+	 * considered to be available at the same time, and are ranked by the target's altitude.
+	 */
+	private int whenTolerance = DEFAULT_WHEN_TOLERANCE;
+	/**
+	 * The maximum length of a survey in milliseconds. Telescopes that have not replied in this time
+	 * are not used. 0 means wait until each command's own deadline.
+	 */
+	private long surveyTimeout = 0;
+
+	/**
+	 * Default constructor.
+	 * @see #logger
+	 * @see #nameList
+	 * @see #sessionList
+	 */
+	public TOCSessionCoordinator()
+	{
+		super();
+		logger = LogManager.getLogger(this);
+		nameList = new Vector<String>();
+		sessionList = new Vector<TOCSession>();
+	}
+
+	/**
+	 * Add a telescope.
+	 * @param name The name of the telescope, e.g. "LT".
+	 * @param session The session to talk to the telescope with, with it's session data already set.
+	 * @see #nameList
+	 * @see #sessionList
+	 */
+	public synchronized void addSession(String name,TOCSession session)
+	{
+		nameList.add(name);
+		sessionList.add(session);
+	}
+
+	/**
+	 * Add a telescope. A new session is created using the session data in the specified file.
+	 * @param name The name of the telescope, e.g. "LT".
+	 * @param sessionDataFile The Java properties file containing the telescope's session data,
+	 *        e.g. ltproxy_toop.properties.
+	 * @return The new session.
+	 * @exception FileNotFoundException Thrown if the file doesn't exist.
+	 * @exception IOException Thrown if the load failed.
+	 * @see TOCSession#loadSessionData
+	 */
+	public TOCSession addSession(String name,File sessionDataFile) throws FileNotFoundException, IOException
+	{
+		TOCSession session = null;
+
+		session = new TOCSession();
+		session.loadSessionData(sessionDataFile);
+		addSession(name,session);
+		return session;
+	}
+
+	/**
+	 * Get the number of telescopes.
+	 * @return The number of telescopes.
+	 * @see #sessionList
+	 */
+	public synchronized int getSessionCount()
+	{
+		return sessionList.size();
+	}
+
+	/**
+	 * Set the when tolerance.
+	 * @param seconds The tolerance in seconds.
+	 * @see #whenTolerance
+	 */
+	public void setWhenTolerance(int seconds)
+	{
+		whenTolerance = seconds;
+	}
+
+	/**
+	 * Set the survey timeout.
+	 * @param ms The timeout in milliseconds, or 0 to wait until each command's own deadline.
+	 * @see #surveyTimeout
+	 */
+	public void setSurveyTimeout(long ms)
+	{
+		surveyTimeout = ms;
+	}
+
+	/**
+	 * Survey all the telescopes for a target. WHEN and POSITION are sent to every telescope at once
+	 * (using the sessions' asynchronous methods), and the results ranked. If the survey timeout expires,
+	 * the commands that have not finished are cancelled.
+	 * @param ra The right ascension of the target.
+	 * @param dec The declination of the target.
+	 * @return An array of candidates, one per telescope, best first (see rank).
+	 * @see #rank
+	 * @see #waitFor
+	 * @see #cancel
+	 * @see TOCSession#whenAsync
+	 * @see TOCSession#positionAsync
+	 */
+	public TOCSessionCandidate[] survey(RA ra,Dec dec)
+	{
+		TOCSessionCandidate candidates[] = null;
+		TOCSession sessions[] = null;
+		String names[] = null;
+		List<CompletableFuture<When>> whenFutureList = null;
+		List<CompletableFuture<Position>> positionFutureList = null;
+		When when = null;
+		Position position = null;
+		Throwable exception = null;
+		long deadline;
+		int i;
+
+		synchronized(this)
+		{
+			names = nameList.toArray(new String[nameList.size()]);
+			sessions = sessionList.toArray(new TOCSession[sessionList.size()]);
+		}
+		logger.log(INFO, 1, CLASS, RCSID,"survey","Surveying "+sessions.length+" telescopes for target "+
+			   ra+" "+dec+".");
+		deadline = 0;
+		if(surveyTimeout > 0)
+			deadline = System.currentTimeMillis()+surveyTimeout;
+		whenFutureList = new Vector<CompletableFuture<When>>();
+		positionFutureList = new Vector<CompletableFuture<Position>>();
+		for(i = 0; i < sessions.length; i++)
+		{
+			whenFutureList.add(sessions[i].whenAsync());
+			positionFutureList.add(sessions[i].positionAsync(ra,dec));
+		}
+		candidates = new TOCSessionCandidate[sessions.length];
+		for(i = 0; i < sessions.length; i++)
+		{
+			when = null;
+			position = null;
+			exception = null;
+			try
+			{
+				when = waitFor(whenFutureList.get(i),deadline);
+				position = waitFor(positionFutureList.get(i),deadline);
+			}
+			catch(Exception e)
+			{
+				exception = e;
+			}
+			candidates[i] = new TOCSessionCandidate(names[i],sessions[i],when,position,exception);
+			logger.log(INFO, 1, CLASS, RCSID,"survey",candidates[i].toString());
+		}
+		if((deadline > 0)&&(System.currentTimeMillis() >= deadline))
+		{
+			cancel(whenFutureList);
+			cancel(positionFutureList);
+		}
+		rank(candidates);
+		return candidates;
+	}
+
+	/**
+	 * Find the best telescope for a target.
+	 * @param ra The right ascension of the target.
+	 * @param dec The declination of the target.
+	 * @return The best candidate.
+	 * @exception TOCException Thrown if no telescope can be used.
+	 * @see #survey
+	 * @see #createNoCandidateException
+	 */
+	public TOCSessionCandidate select(RA ra,Dec dec) throws TOCException
+	{
+		TOCSessionCandidate candidates[] = null;
+
+		candidates = survey(ra,dec);
+		if((candidates.length == 0)||(candidates[0].isUsable() == false))
+			throw createNoCandidateException("select",candidates);
+		return candidates[0];
+	}
+
+	/**
+	 * Start a session (HELO) on the best telescope for a target. If HELO fails on the best telescope, the next
+	 * usable telescope is tried, and so on.
+	 * @param ra The right ascension of the target.
+	 * @param dec The declination of the target.
+	 * @return The candidate a session was started on. Use getSession to continue the session.
+	 * @exception TOCException Thrown if no telescope can be used, or HELO failed on all of them.
+	 * @see #survey
+	 * @see TOCSession#helo
+	 */
+	public TOCSessionCandidate open(RA ra,Dec dec) throws TOCException
+	{
+		TOCSessionCandidate candidates[] = null;
+		int i;
+
+		candidates = survey(ra,dec);
+		for(i = 0; (i < candidates.length) && candidates[i].isUsable(); i++)
+		{
+			try
+			{
+				candidates[i].getSession().helo();
+				logger.log(INFO, 1, CLASS, RCSID,"open","Started session on "+candidates[i].getName()+".");
+				return candidates[i];
+			}
+			catch(TOCException e)
+			{
+				logger.log(INFO, 1, CLASS, RCSID,"open","Starting session on "+candidates[i].getName()+
+					   " failed:"+e);
+			}
+		}
+		throw createNoCandidateException("open",candidates);
+	}
+
+	/**
+	 * Start a session (HELO) on every telescope the target can be observed from. HELO is sent to all the
+	 * usable telescopes at once.
+	 * @param ra The right ascension of the target.
+	 * @param dec The declination of the target.
+	 * @return The candidates a session was started on, best first. Use getSession to continue each session.
+	 * @exception TOCException Thrown if no telescope can be used, or HELO failed on all of them.
+	 * @see #survey
+	 * @see TOCSession#heloAsync
+	 */
+	public TOCSessionCandidate[] openAll(RA ra,Dec dec) throws TOCException
+	{
+		TOCSessionCandidate candidates[] = null;
+		List<CompletableFuture<Helo>> heloFutureList = null;
+		List<TOCSessionCandidate> openList = null;
+		int i;
+
+		candidates = survey(ra,dec);
+		heloFutureList = new Vector<CompletableFuture<Helo>>();
+		for(i = 0; (i < candidates.length) && candidates[i].isUsable(); i++)
+			heloFutureList.add(candidates[i].getSession().heloAsync());
+		openList = new Vector<TOCSessionCandidate>();
+		for(i = 0; i < heloFutureList.size(); i++)
+		{
+			try
+			{
+				waitFor(heloFutureList.get(i),0);
+				logger.log(INFO, 1, CLASS, RCSID,"openAll","Started session on "+
+					   candidates[i].getName()+".");
+				openList.add(candidates[i]);
+			}
+			catch(Exception e)
+			{
+				logger.log(INFO, 1, CLASS, RCSID,"openAll","Starting session on "+
+					   candidates[i].getName()+" failed:"+e);
+			}
+		}
+		if(openList.size() == 0)
+			throw createNoCandidateException("openAll",candidates);
+		return openList.toArray(new TOCSessionCandidate[openList.size()]);
+	}
+
+	/**
+	 * Sort candidates, best first. Usable candidates come before unusable ones. Usable candidates
+	 * available within whenTolerance seconds of the earliest are sorted by altitude (highest first),
+	 * the rest by time until available.
+	 * @param candidates The candidates to sort.
+	 * @see #whenTolerance
+	 * @see TOCSessionCandidate#isUsable
+	 */
+	protected void rank(TOCSessionCandidate candidates[])
+	{
+		final long latestEqual;
+		int earliest,i;
+
+		earliest = Integer.MAX_VALUE;
+		for(i = 0; i < candidates.length; i++)
+		{
+			if(candidates[i].isUsable())
+				earliest = Math.min(earliest,candidates[i].getTime());
+		}
+		latestEqual = ((long)earliest)+whenTolerance;
+		Arrays.sort(candidates,new Comparator<TOCSessionCandidate>()
+			{
+				public int compare(TOCSessionCandidate c1,TOCSessionCandidate c2)
+				{
+					if(c1.isUsable() != c2.isUsable())
+						return c1.isUsable() ? -1 : 1;
+					if(c1.isUsable() == false)
+						return 0;
+					if(getRankTime(c1) != getRankTime(c2))
+						return (getRankTime(c1) < getRankTime(c2)) ? -1 : 1;
+					return Double.compare(c2.getAltitude(),c1.getAltitude());
+				}
+
+				private long getRankTime(TOCSessionCandidate c)
+				{
+					if(c.getTime() <= latestEqual)
+						return 0;
+					return c.getTime();
+				}
+			});
+	}
+
+	/**
+	 * Wait for an asynchronous command to finish.
+	 * @param future The command's future.
+	 * @param deadline The time to stop waiting, in milliseconds since the epoch, or 0 to wait until the
+	 *        command finishes.
+	 * @return The command.
+	 * @exception TOCException Thrown if the command failed, the deadline expired, or the wait was interrupted.
+	 *            If the wait was interrupted, the thread's interrupt status is set again.
+	 */
+	private <T> T waitFor(CompletableFuture<T> future,long deadline) throws TOCException
+	{
+		try
+		{
+			if(deadline == 0)
+				return future.get();
+			return future.get(Math.max(deadline-System.currentTimeMillis(),0),TimeUnit.MILLISECONDS);
+		}
+		catch(ExecutionException e)
+		{
+			if(e.getCause() instanceof TOCException)
+				throw (TOCException)(e.getCause());
+			throw new TOCException(this.getClass().getName()+":waitFor:Command failed:"+e.getCause(),e);
+		}
+		catch(TimeoutException e)
+		{
+			throw new TOCTimeoutException(this.getClass().getName()+":waitFor:Survey timeout of "+
+						      surveyTimeout+" ms expired.");
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new TOCException(this.getClass().getName()+":waitFor:Interrupted:"+e,e);
+		}
+	}
+
+	/**
+	 * Cancel any of a list of asynchronous commands that have not finished, so no more results are
+	 * waited for (or commands started) once the survey timeout has expired.
+	 * @param futureList The list of the commands' futures.
+	 */
+	private <T> void cancel(List<CompletableFuture<T>> futureList)
+	{
+		for(int i = 0; i < futureList.size(); i++)
+		{
+			if(futureList.get(i).cancel(true))
+				logger.log(INFO, 1, CLASS, RCSID,"cancel","Cancelled unfinished survey command.");
+		}
+	}
+
+	/**
+	 * Create the exception thrown when no telescope can be used. The message lists why each candidate
+	 * was rejected.
+	 * @param methodName The method throwing the exception.
+	 * @param candidates The candidates.
+	 * @return The exception.
+	 */
+	private TOCException createNoCandidateException(String methodName,TOCSessionCandidate candidates[])
+	{
+		StringBuilder sb = null;
+		int i;
+
+		sb = new StringBuilder();
+		sb.append(this.getClass().getName()).append(':').append(methodName).append(":No telescope available:");
+		for(i = 0; i < candidates.length; i++)
+		{
+			if(i > 0)
+				sb.append(", ");
+			sb.append(candidates[i]);
+		}
+		return new TOCException(sb.toString());
+	}
+}
+/*
+** $Log$
+*/
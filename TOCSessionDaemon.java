@@ -0,0 +1,449 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCSessionDaemon.java
+// $Header$
+package org.estar.toop;
+
+import java.io.*;
+import java.net.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import ngat.util.logging.*;
+
+import org.estar.astrometry.*;
+
+/**
+ * A long lived daemon, that keeps TOCSessions (with their session data and TOCS connections) in memory, and
+ * accepts TOCA commands over a socket bound to the loopback interface. This saves starting a JVM, initialising
+ * the loggers, and loading the session data for each command (as running java org.estar.toop.Helo etc. does).
+ * Start the daemon with:
+ * <pre>
+ * java org.estar.toop.TOCSessionDaemon [-port &lt;port&gt;] [-log_level &lt;level&gt;]
+ * </pre>
+ * Each command is a line of text, of the form:
+ * <pre>
+ * &lt;command&gt; &lt;session data filename&gt; [&lt;arguments&gt;...]
+ * </pre>
+ * The session data file is loaded (into a new TOCSession) the first time it is used, and the session is
+ * reused by all later commands that name the same file. The commands and their arguments 
+ * (see TOCSessionInterpreter) are:
+ * <ul>
+ * <li>when &lt;file&gt;
+ * <li>helo &lt;file&gt;
+ * <li>init &lt;file&gt;
+ * <li>position &lt;file&gt; &lt;ra&gt; &lt;dec&gt;
+ * <li>status &lt;file&gt; &lt;category&gt; &lt;keyword&gt;
+ * <li>slew &lt;file&gt; &lt;source ID&gt; &lt;ra&gt; &lt;dec&gt;
+ * <li>offset &lt;file&gt; &lt;dRA arcsecs&gt; &lt;dDec arcsecs&gt;
+ * <li>rotator &lt;file&gt; &lt;SKY|MOUNT|FLOAT&gt; &lt;mount angle&gt;
+ * <li>auto &lt;file&gt; &lt;on|off&gt;
+ * <li>agradial &lt;file&gt; &lt;position mm&gt;
+ * <li>acquire &lt;file&gt; &lt;ra&gt; &lt;dec&gt; &lt;NONE|BRIGHTEST|WCS&gt; &lt;NORMAL|HIGH&gt;
+ * <li>focalplane &lt;file&gt; &lt;instrument name&gt;
+ * <li>instr &lt;file&gt; &lt;inst ID&gt; &lt;filter0&gt; &lt;filter1&gt; &lt;filter2&gt; &lt;xbin&gt; &lt;ybin&gt;
+ *     &lt;calibrate before&gt; &lt;calibrate after&gt; (use - for an unused filter)
+ * <li>instr &lt;file&gt; &lt;inst ID&gt; &lt;instrument arguments&gt; &lt;calibrate before&gt; &lt;calibrate after&gt;
+ *     (the per-instrument argument lists of Instr.main, e.g. IO:O, MOPTOP, LIRIC, SPRAT)
+ * <li>expose &lt;file&gt; &lt;exposure length ms&gt; &lt;&lt;exposure count&gt;|&lt;runat date&gt;&gt;
+ *     &lt;data pipeline flag&gt;
+ * <li>arc &lt;file&gt; &lt;lamp name&gt;
+ * <li>stop &lt;file&gt;
+ * <li>quit &lt;file&gt;
+ * <li>reload &lt;file&gt; (forget the session, so the session data file is loaded again by the next command)
+ * </ul>
+ * Arguments containing spaces can be enclosed in double quotes. Each command gets a one line reply,
+ * in the same format as the TOCS server's: <b>OK</b> followed by any results as keyword=value pairs, or
+ * <b>ERROR</b> followed by an error code (a TOCSErrorCode, or USAGE) and message. A connection can send
+ * several commands. Commands on different connections are run concurrently, using the sessions'
+ * thread-safety (queries in parallel, state changing commands serialized per session).
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCSession
+ * @see TOCSessionInterpreter
+ */
+public class TOCSessionDaemon implements Logging
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Classname for logging.
+	 */
+	public static final String CLASS = "TOCSessionDaemon";
+	/**
+	 * Default port to listen on.
+	 */
+	public static final int DEFAULT_PORT = 8620;
+	/**
+	 * Class logger.
+	 */
+	private Logger logger = null;
+	/**
+	 * The port to listen on.
+	 */
+	private int port = DEFAULT_PORT;
+	/**
+	 * The server socket, bound to the loopback interface.
+	 */
+	private ServerSocket serverSocket = null;
+	/**
+	 * Map of (canonical) session data filename to TOCSession.
+	 * @see #getSession
+	 */
+	private Map<String,TOCSession> sessionMap = null;
+	/**
+	 * Executor the client connections are handled on.
+	 */
+	private ExecutorService executor = null;
+	/**
+	 * The interpreter used to run the commands.
+	 */
+	private TOCSessionInterpreter interpreter = null;
+
+	/**
+	 * Default constructor.
+	 * @see #logger
+	 * @see #sessionMap
+	 * @see #interpreter
+	 */
+	public TOCSessionDaemon()
+	{
+		super();
+		logger = LogManager.getLogger(this);
+		sessionMap = new HashMap<String,TOCSession>();
+		interpreter = new TOCSessionInterpreter();
+		interpreter.setSessionDataSaving(false);
+	}
+
+	/**
+	 * Set the port to listen on. Must be called before start.
+	 * @param p The port number, or 0 to use any free port (see getPort).
+	 * @see #port
+	 */
+	public void setPort(int p)
+	{
+		port = p;
+	}
+
+	/**
+	 * Get the port the daemon is listening on.
+	 * @return The port number.
+	 * @see #port
+	 * @see #serverSocket
+	 */
+	public int getPort()
+	{
+		if(serverSocket != null)
+			return serverSocket.getLocalPort();
+		return port;
+	}
+
+	/**
+	 * Start the daemon. The server socket is bound to the loopback interface, and a thread is started to
+	 * accept connections.
+	 * @exception IOException Thrown if the server socket cannot be created.
+	 * @see #serverSocket
+	 * @see #executor
+	 * @see #acceptConnections
+	 */
+	public synchronized void start() throws IOException
+	{
+		Thread acceptThread = null;
+
+		serverSocket = new ServerSocket(port,50,InetAddress.getLoopbackAddress());
+		executor = Executors.newCachedThreadPool(new ThreadFactory()
+			{
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r,CLASS+" connection");
+
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		acceptThread = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					acceptConnections();
+				}
+			},CLASS+" accept");
+		acceptThread.start();
+		logger.log(INFO, 1, CLASS, RCSID,"start","Listening on "+serverSocket.getLocalSocketAddress()+".");
+	}
+
+	/**
+	 * Stop the daemon. The server socket is closed, so no more connections are accepted.
+	 * Commands already being run are not interrupted.
+	 * @see #serverSocket
+	 * @see #executor
+	 */
+	public synchronized void close()
+	{
+		try
+		{
+			if(serverSocket != null)
+				serverSocket.close();
+		}
+		catch(IOException e)
+		{
+			logger.log(INFO, 1, CLASS, RCSID,"close","Closing server socket failed:"+e);
+		}
+		if(executor != null)
+			executor.shutdown();
+	}
+
+	/**
+	 * Accept connections until the server socket is closed. Each connection is handled on the executor.
+	 * @see #serverSocket
+	 * @see #submitConnection
+	 */
+	private void acceptConnections()
+	{
+		Socket socket = null;
+
+		while(serverSocket.isClosed() == false)
+		{
+			try
+			{
+				socket = serverSocket.accept();
+			}
+			catch(IOException e)
+			{
+				if(serverSocket.isClosed() == false)
+					logger.log(INFO, 1, CLASS, RCSID,"acceptConnections","Accept failed:"+e);
+				continue;
+			}
+			submitConnection(socket);
+		}
+		logger.log(INFO, 1, CLASS, RCSID,"acceptConnections","Server socket closed.");
+	}
+
+	/**
+	 * Handle a client connection on the executor.
+	 * @param socket The client's socket.
+	 * @see #executor
+	 * @see #handleConnection
+	 */
+	private void submitConnection(final Socket socket)
+	{
+		executor.execute(new Runnable()
+			{
+				public void run()
+				{
+					handleConnection(socket);
+				}
+			});
+	}
+
+	/**
+	 * Handle a client connection: read command lines, and reply to each one, until the client closes
+	 * the connection.
+	 * @param socket The client's socket.
+	 * @see #processCommand
+	 */
+	private void handleConnection(Socket socket)
+	{
+		BufferedReader reader = null;
+		Writer writer = null;
+		String line = null;
+
+		try
+		{
+			reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),"US-ASCII"));
+			writer = new OutputStreamWriter(socket.getOutputStream(),"US-ASCII");
+			while((line = reader.readLine()) != null)
+			{
+				if(line.trim().length() == 0)
+					continue;
+				writer.write(processCommand(line));
+				writer.write('\n');
+				writer.flush();
+			}
+		}
+		catch(IOException e)
+		{
+			logger.log(INFO, 1, CLASS, RCSID,"handleConnection","Connection failed:"+e);
+		}
+		finally
+		{
+			try
+			{
+				socket.close();
+			}
+			catch(IOException e)
+			{
+			}
+		}
+	}
+
+	/**
+	 * Run a command line, and return the reply. The session data filename (the second argument) is used to
+	 * find the session, and the rest of the command line is run on it by the interpreter.
+	 * @param line The command line.
+	 * @return The reply line, "OK ..." or "ERROR &lt;code&gt; &lt;message&gt;".
+	 * @see TOCSessionInterpreter#tokenize
+	 * @see #getSession
+	 * @see #interpreter
+	 */
+	public String processCommand(String line)
+	{
+		String args[] = null;
+		String commandArgs[] = null;
+		String reply = null;
+		TOCSession session = null;
+
+		logger.log(INFO, 1, CLASS, RCSID,"processCommand","Received ["+line+"].");
+		try
+		{
+			args = TOCSessionInterpreter.tokenize(line);
+			if(args.length < 2)
+			{
+				throw new IllegalArgumentException("Usage: <command> <session data filename> [<arguments>...]");
+			}
+			if(args[0].equalsIgnoreCase("reload"))
+			{
+				removeSession(args[1]);
+				reply = "OK ";
+			}
+			else
+			{
+				try
+				{
+					session = getSession(args[1]);
+				}
+				catch(IOException e)
+				{
+					throw new IllegalArgumentException("Loading session data failed:"+e);
+				}
+				// remove the session data filename
+				commandArgs = new String[args.length-1];
+				commandArgs[0] = args[0];
+				System.arraycopy(args,2,commandArgs,1,args.length-2);
+				reply = interpreter.run(session,commandArgs);
+			}
+		}
+		catch(Exception e)
+		{
+			reply = TOCSessionInterpreter.createErrorReply(e);
+		}
+		logger.log(INFO, 1, CLASS, RCSID,"processCommand","Replied ["+reply+"].");
+		return reply;
+	}
+
+	/**
+	 * Get the session for a session data file. The session is created, and the file loaded, the first time
+	 * the file is used.
+	 * @param filename The session data filename.
+	 * @return The session.
+	 * @exception IOException Thrown if the session data cannot be loaded.
+	 * @see #sessionMap
+	 */
+	private synchronized TOCSession getSession(String filename) throws IOException
+	{
+		TOCSession session = null;
+		File file = null;
+
+		file = new File(filename).getCanonicalFile();
+		session = sessionMap.get(file.getPath());
+		if(session == null)
+		{
+			session = new TOCSession();
+			session.loadSessionData(file);
+			sessionMap.put(file.getPath(),session);
+			logger.log(INFO, 1, CLASS, RCSID,"getSession","Loaded session data "+file+".");
+		}
+		return session;
+	}
+
+	/**
+	 * Forget the session for a session data file, so the file is loaded again the next time it is used.
+	 * @param filename The session data filename.
+	 * @exception IOException Thrown if the canonical filename cannot be found.
+	 * @see #sessionMap
+	 */
+	private synchronized void removeSession(String filename) throws IOException
+	{
+		TOCSession session = null;
+
+		session = sessionMap.remove(new File(filename).getCanonicalPath());
+		if(session != null)
+			session.stopPrewarming();
+	}
+
+	/**
+	 * Main program. Starts the daemon, which runs until the JVM is killed.
+	 * @param args The argument list: [-port &lt;port&gt;] [-log_level &lt;level&gt;].
+	 * @see TOCSession#initLoggers
+	 */
+	public static void main(String args[])
+	{
+		TOCSessionDaemon daemon = null;
+		ConsoleLogHandler console = null;
+		int port = DEFAULT_PORT;
+		int logLevel = 0;
+		int i;
+
+		try
+		{
+			for(i = 0; i < args.length; i++)
+			{
+				if(args[i].equals("-port") && (i+1 < args.length))
+					port = Integer.parseInt(args[++i]);
+				else if(args[i].equals("-log_level") && (i+1 < args.length))
+					logLevel = Integer.parseInt(args[++i]);
+				else
+				{
+					System.out.println("java org.estar.toop.TOCSessionDaemon [-port <port>] "+
+							   "[-log_level <level>]");
+					System.exit(1);
+				}
+			}
+		}
+		catch(NumberFormatException e)
+		{
+			System.err.println("Parsing arguments failed:"+e);
+			System.exit(1);
+		}
+		// setup loggers once, for every session
+		console = new ConsoleLogHandler(new BasicLogFormatter(150));
+		console.setLogLevel(ALL);
+		TOCSession.initLoggers(console,logLevel);
+		daemon = new TOCSessionDaemon();
+		daemon.setPort(port);
+		try
+		{
+			daemon.start();
+		}
+		catch(IOException e)
+		{
+			System.err.println("Starting daemon on port "+port+" failed:"+e);
+			e.printStackTrace();
+			System.exit(1);
+		}
+		System.out.println("TOCSessionDaemon listening on port "+daemon.getPort()+".");
+	}
+}
+/*
+** $Log$
+*/
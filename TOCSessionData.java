@@ -23,6 +23,7 @@ package org.estar.toop;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 import ngat.util.*;
 import ngat.util.logging.*;
@@ -46,6 +47,69 @@ public class TOCSessionData implements Logging
 	 * Constant defaining the start of all keys in the session data properties.
 	 */
 	protected static final String ROOT_KEY = "toop";
+	/**
+	 * Default deadline for a TOCS command, in milliseconds. 0 means wait forever: commands without
+	 * a budget of their own (see TOCCommand.getDefaultTimeout) only have a deadline if toop.tocs_timeout is set.
+	 * @see #getTOCSTimeout
+	 */
+	public static final long DEFAULT_TOCS_TIMEOUT = 0;
+	/**
+	 * Default time to wait for a connection to the TOCS server to open, in milliseconds.
+	 * @see #getTOCSConnectTimeout
+	 */
+	public static final long DEFAULT_TOCS_CONNECT_TIMEOUT = 10000;
+	/**
+	 * Default readout (and other) overhead allowed for each exposure frame, in milliseconds.
+	 * @see #getExposeReadoutOverhead
+	 */
+	public static final long DEFAULT_EXPOSE_READOUT_OVERHEAD = 30000;
+	/**
+	 * Default time allowed for a slew to complete, in milliseconds.
+	 * @see #getSlewTimeout
+	 */
+	public static final long DEFAULT_SLEW_TIMEOUT = 300000;
+	/**
+	 * Default time allowed for an acquisition to complete, in milliseconds.
+	 * @see #getAcquireTimeout
+	 */
+	public static final long DEFAULT_ACQUIRE_TIMEOUT = 600000;
+	/**
+	 * Default time allowed for an arc (lamp exposure and readout) to complete, in milliseconds.
+	 * @see #getArcTimeout
+	 */
+	public static final long DEFAULT_ARC_TIMEOUT = 300000;
+	/**
+	 * Default time allowed for an instrument configuration to complete, in milliseconds.
+	 * @see #getInstrTimeout
+	 */
+	public static final long DEFAULT_INSTR_TIMEOUT = 300000;
+	/**
+	 * Default number of times an idempotent command is retried after a transient transport failure.
+	 * @see #getRetryCount
+	 */
+	public static final int DEFAULT_RETRY_COUNT = 3;
+	/**
+	 * Default base delay for the exponential retry backoff, in milliseconds.
+	 * @see #getRetryBaseDelay
+	 */
+	public static final long DEFAULT_RETRY_BASE_DELAY = 100;
+	/**
+	 * Default maximum delay between retries, in milliseconds.
+	 * @see #getRetryMaxDelay
+	 */
+	public static final long DEFAULT_RETRY_MAX_DELAY = 5000;
+	/**
+	 * Default delay before sending a hedged request, in milliseconds, used until enough command
+	 * latencies have been recorded to compute the 95th percentile.
+	 * @see #getHedgeDelay
+	 */
+	public static final long DEFAULT_HEDGE_DELAY = 1000;
+	/**
+	 * Default interval between pre-warming the connection to the TOCS server, in milliseconds.
+	 * This is less than the connection pool's idle timeout.
+	 * @see #getTOCSPrewarmInterval
+	 */
+	public static final long DEFAULT_TOCS_PREWARM_INTERVAL = 30000;
 	/**
 	 * Class logger.
 	 */
@@ -54,6 +118,31 @@ public class TOCSessionData implements Logging
 	 * Properties filled with keyword-values.
 	 */
 	private NGATProperties properties = null;
+	/**
+	 * The keywords (without the ROOT_KEY) of the properties cached command frames are built from.
+	 * Setting one of these to a new value invalidates the cached frames, setting any other property
+	 * (e.g. the reply values stored by WHEN, POSITION, HELO and EXPOSE) does not.
+	 * @see #setProperty
+	 * @see #frameVersion
+	 */
+	private static final String FRAME_KEYWORDS[] = {".service_id",".session_id",".init.focus_option",
+							  ".init.rotator_option",".init.ag_option",".tocs_host",
+							  ".tocs_port",".tocs_endpoints"};
+	/**
+	 * Incremented each time the session data is loaded or set, or a property cached command frames
+	 * are built from (see FRAME_KEYWORDS) is changed, so commands can tell whether a command frame
+	 * encoded from the session data is still valid.
+	 * @see #getFrameVersion
+	 * @see #FRAME_KEYWORDS
+	 */
+	private final AtomicInteger frameVersion = new AtomicInteger(0);
+	/**
+	 * Cache of the encoded frames of commands that depend only on the session data (WHEN, HELO, STOP, QUIT,
+	 * INIT), keyed by command class name. Shared by all the command instances using this session data.
+	 * @see #getCommandFrame
+	 * @see #putCommandFrame
+	 */
+	private final Map<String,CommandFrame> commandFrameMap = new Hashtable<String,CommandFrame>();
 
 	/**
 	 * The logger instance is created. The properties instance is initialised.
@@ -73,10 +162,14 @@ public class TOCSessionData implements Logging
 	 * @exception FileNotFoundException Thrown if the file doesn't exist.
 	 * @exception IOException Thrown if the load failed.
 	 * @see #properties
+	 * @see #frameVersion
+	 * @see #configureCircuitBreakers
 	 */
 	public void load(File f) throws FileNotFoundException, IOException
 	{
 		properties.load(f);
+		frameVersion.incrementAndGet();
+		configureCircuitBreakers();
 	}
 
 	/**
@@ -94,10 +187,89 @@ public class TOCSessionData implements Logging
 	 * Set session data from a previously loaded/set set of properties.
 	 * @param p The properties to inherit.
 	 * @see #properties
+	 * @see #frameVersion
+	 * @see #configureCircuitBreakers
 	 */
 	public void set(NGATProperties p)
 	{
 		properties = p;
+		frameVersion.incrementAndGet();
+		configureCircuitBreakers();
+	}
+
+	/**
+	 * Apply the circuit breaker threshold and open time to the (process wide) circuit breakers of the 
+	 * session data's TOCS endpoints. This is done when the session data is loaded or set, or the breaker
+	 * settings are changed, rather than by every command. If the endpoints are not (yet) valid, nothing 
+	 * is done.
+	 * @see #getTOCSEndpoints
+	 * @see #getCircuitBreakerThreshold
+	 * @see #getCircuitBreakerOpenTime
+	 * @see TOCSEndpoint#getCircuitBreaker
+	 */
+	public void configureCircuitBreakers()
+	{
+		TOCSEndpoint endpoints[] = null;
+
+		try
+		{
+			endpoints = getTOCSEndpoints();
+		}
+		catch(NGATPropertyException e)
+		{
+			logger.log(INFO, 1, CLASS, RCSID,"configureCircuitBreakers","TOCS endpoints not valid:"+e);
+			return;
+		}
+		for(int i = 0; i < endpoints.length; i++)
+		{
+			endpoints[i].getCircuitBreaker().setFailureThreshold(getCircuitBreakerThreshold());
+			endpoints[i].getCircuitBreaker().setOpenTime(getCircuitBreakerOpenTime());
+		}
+	}
+
+	/**
+	 * Get the frame version, which changes every time the session data is loaded or set, or a property
+	 * cached command frames are built from (service ID, session ID, init options, TOCS host/port/endpoints)
+	 * is changed. Reply values stored in the session data (e.g. by WHEN) do not change it.
+	 * @return The frame version.
+	 * @see #frameVersion
+	 * @see TOCCommand#encodeCommand
+	 */
+	public int getFrameVersion()
+	{
+		return frameVersion.get();
+	}
+
+	/**
+	 * Get a cached command frame.
+	 * @param commandName The command's class name.
+	 * @param frameVersion The current frame version (see getFrameVersion).
+	 * @return The frame, or null if there is no frame for the command, or it was encoded before the
+	 *         frame version last changed.
+	 * @see #commandFrameMap
+	 * @see TOCCommand#encodeCommand
+	 */
+	byte[] getCommandFrame(String commandName,int frameVersion)
+	{
+		CommandFrame commandFrame = null;
+
+		commandFrame = commandFrameMap.get(commandName);
+		if((commandFrame == null)||(commandFrame.frameVersion != frameVersion))
+			return null;
+		return commandFrame.frame;
+	}
+
+	/**
+	 * Cache a command frame.
+	 * @param commandName The command's class name.
+	 * @param frameVersion The frame version read before the command was encoded.
+	 * @param frame The encoded command frame. This must not be changed once cached.
+	 * @see #commandFrameMap
+	 * @see TOCCommand#encodeCommand
+	 */
+	void putCommandFrame(String commandName,int frameVersion,byte frame[])
+	{
+		commandFrameMap.put(commandName,new CommandFrame(frameVersion,frame));
 	}
 
 	/**
@@ -150,6 +322,237 @@ public class TOCSessionData implements Logging
 		setProperty(".tocs_port",""+p);
 	}
 
+	/**
+	 * Set the ordered list of TOCS server endpoints for the RCS (e.g. a proxy and a direct connection).
+	 * If this is set, it is used instead of the tocs_host and tocs_port.
+	 * @param s A comma separated list of endpoints, each of the form &lt;host&gt;:&lt;port&gt;, 
+	 *        in order of preference.
+	 * @see #setProperty
+	 * @see #getTOCSEndpoints
+	 */
+	public void setTOCSEndpoints(String s)
+	{
+		setProperty(".tocs_endpoints",s);
+	}
+
+	/**
+	 * Set whether read-only commands (WHEN, POSITION, STATUS) send a hedged request to a second endpoint,
+	 * if the first has not replied within the hedge delay.
+	 * @param b A boolean, if true send hedged requests.
+	 * @see #setProperty
+	 * @see TOCCommand#isHedgeable
+	 */
+	public void setHedgedRequests(boolean b)
+	{
+		setProperty(".hedged_requests",""+b);
+	}
+
+	/**
+	 * Set whether the exceptions thrown by TOCSession for expected, frequent, errors (e.g. NOT_OPERATIONAL)
+	 * are created without a stack trace, which is most of the cost of creating them.
+	 * @param b A boolean, if true exceptions for expected errors are stackless.
+	 * @see #setProperty
+	 * @see TOCSErrorCode#isExpected
+	 */
+	public void setStacklessExceptions(boolean b)
+	{
+		setProperty(".stackless_exceptions",""+b);
+	}
+
+	/**
+	 * Set whether TOCSession locks the telescope and instrument separately, so a command that only uses
+	 * one of them (e.g. INSTR) can run while a command using the other (e.g. SLEW) is in progress.
+	 * @param b A boolean, if true commands only wait for the resources they use.
+	 * @see #setProperty
+	 * @see TOCCommand#getResources
+	 */
+	public void setResourceLocking(boolean b)
+	{
+		setProperty(".resource_locking",""+b);
+	}
+
+	/**
+	 * Set the delay before sending a hedged request, used until enough command latencies have been
+	 * recorded to compute the 95th percentile.
+	 * @param ms The delay in milliseconds.
+	 * @see #setProperty
+	 */
+	public void setHedgeDelay(long ms)
+	{
+		setProperty(".hedge_delay",""+ms);
+	}
+
+	/**
+	 * Set whether commands should use pooled keep-alive connections to the RCS TOCA.
+	 * @param b A boolean, if true the connection is kept open between commands.
+	 * @see #setProperty
+	 * @see TOCSConnectionPool
+	 */
+	public void setTOCSConnectionPooling(boolean b)
+	{
+		setProperty(".tocs_connection_pool",""+b);
+	}
+
+	/**
+	 * Set whether the session resolves the TOCS server address and pre-opens a (pooled) connection to it 
+	 * as soon as the session data is set, and keeps it open between commands.
+	 * @param b A boolean, if true pre-warm the connection.
+	 * @see #setProperty
+	 * @see TOCSession#startPrewarming
+	 */
+	public void setTOCSPrewarm(boolean b)
+	{
+		setProperty(".tocs_prewarm",""+b);
+	}
+
+	/**
+	 * Set the interval between pre-warming the connection to the TOCS server.
+	 * @param ms The interval in milliseconds.
+	 * @see #setProperty
+	 */
+	public void setTOCSPrewarmInterval(long ms)
+	{
+		setProperty(".tocs_prewarm_interval",""+ms);
+	}
+
+	/**
+	 * Set the default deadline for a TOCS command (commands like EXPOSE and SLEW have their own budgets).
+	 * @param ms The deadline in milliseconds, 0 means wait forever.
+	 * @see #setProperty
+	 */
+	public void setTOCSTimeout(long ms)
+	{
+		setProperty(".tocs_timeout",""+ms);
+	}
+
+	/**
+	 * Set how long to wait for a connection to the TOCS server to open.
+	 * @param ms The connect timeout in milliseconds, 0 means wait forever.
+	 * @see #setProperty
+	 */
+	public void setTOCSConnectTimeout(long ms)
+	{
+		setProperty(".tocs_connect_timeout",""+ms);
+	}
+
+	/**
+	 * Set the readout (and other) overhead allowed for each exposure frame, when computing an EXPOSE 
+	 * command's deadline.
+	 * @param ms The overhead per frame in milliseconds.
+	 * @see #setProperty
+	 */
+	public void setExposeReadoutOverhead(long ms)
+	{
+		setProperty(".expose_readout_overhead",""+ms);
+	}
+
+	/**
+	 * Set the time allowed for a SLEW command to complete.
+	 * @param ms The slew budget in milliseconds.
+	 * @see #setProperty
+	 */
+	public void setSlewTimeout(long ms)
+	{
+		setProperty(".slew_timeout",""+ms);
+	}
+
+	/**
+	 * Set the time allowed for an ACQUIRE command to complete.
+	 * @param ms The acquire budget in milliseconds, 0 means wait forever.
+	 * @see #setProperty
+	 */
+	public void setAcquireTimeout(long ms)
+	{
+		setProperty(".acquire_timeout",""+ms);
+	}
+
+	/**
+	 * Set the time allowed for an ARC command to complete.
+	 * @param ms The arc budget in milliseconds, 0 means wait forever.
+	 * @see #setProperty
+	 */
+	public void setArcTimeout(long ms)
+	{
+		setProperty(".arc_timeout",""+ms);
+	}
+
+	/**
+	 * Set the time allowed for an INSTR command to complete.
+	 * @param ms The instr budget in milliseconds, 0 means wait forever.
+	 * @see #setProperty
+	 */
+	public void setInstrTimeout(long ms)
+	{
+		setProperty(".instr_timeout",""+ms);
+	}
+
+	/**
+	 * Set the number of times an idempotent command is retried after a transient transport failure.
+	 * @param i The number of retries, 0 means don't retry.
+	 * @see #setProperty
+	 */
+	public void setRetryCount(int i)
+	{
+		setProperty(".retry_count",""+i);
+	}
+
+	/**
+	 * Set the base delay for the exponential retry backoff.
+	 * @param ms The base delay in milliseconds.
+	 * @see #setProperty
+	 */
+	public void setRetryBaseDelay(long ms)
+	{
+		setProperty(".retry_base_delay",""+ms);
+	}
+
+	/**
+	 * Set the maximum delay between retries.
+	 * @param ms The maximum delay in milliseconds.
+	 * @see #setProperty
+	 */
+	public void setRetryMaxDelay(long ms)
+	{
+		setProperty(".retry_max_delay",""+ms);
+	}
+
+	/**
+	 * Set the number of consecutive transport failures before the TOCS server's circuit breaker opens.
+	 * @param i The number of failures.
+	 * @see #setProperty
+	 * @see #configureCircuitBreakers
+	 * @see TOCSCircuitBreaker
+	 */
+	public void setCircuitBreakerThreshold(int i)
+	{
+		setProperty(".circuit_breaker_threshold",""+i);
+		configureCircuitBreakers();
+	}
+
+	/**
+	 * Set the length of time the TOCS server's circuit breaker stays open.
+	 * @param ms The time in milliseconds.
+	 * @see #setProperty
+	 * @see #configureCircuitBreakers
+	 * @see TOCSCircuitBreaker
+	 */
+	public void setCircuitBreakerOpenTime(long ms)
+	{
+		setProperty(".circuit_breaker_open_time",""+ms);
+		configureCircuitBreakers();
+	}
+
+	/**
+	 * Set whether asynchronous session commands should be run on virtual threads (where the JVM supports them).
+	 * @param b A boolean, if true use virtual threads.
+	 * @see #setProperty
+	 * @see TOCSession#getVirtualThreadExecutor
+	 */
+	public void setVirtualThreads(boolean b)
+	{
+		setProperty(".virtual_threads",""+b);
+	}
+
 	/**
 	 * Set the service id to use.
 	 * @param s A string representing a service Id.
@@ -226,6 +629,267 @@ public class TOCSessionData implements Logging
 		return properties.getInt(ROOT_KEY+".tocs_port");
 	}
 
+	/**
+	 * Get the ordered list of TOCS server endpoints for the RCS. If tocs_endpoints is not set,
+	 * a single endpoint is returned, made from tocs_host and tocs_port.
+	 * @return An array of endpoints, in order of preference.
+	 * @exception NGATPropertyException Thrown if an endpoint is not valid, or the port is not a valid int.
+	 * @see #ROOT_KEY
+	 * @see #properties
+	 * @see #getTOCSHost
+	 * @see #getTOCSPort
+	 * @see TOCSEndpoint#parseList
+	 */
+	public TOCSEndpoint[] getTOCSEndpoints() throws NGATPropertyException
+	{
+		String endpointsString = null;
+		TOCSEndpoint endpoints[] = null;
+
+		endpointsString = properties.getProperty(ROOT_KEY+".tocs_endpoints");
+		if((endpointsString == null)||(endpointsString.trim().length() == 0))
+		{
+			endpoints = new TOCSEndpoint[1];
+			endpoints[0] = new TOCSEndpoint(getTOCSHost(),getTOCSPort());
+			return endpoints;
+		}
+		return TOCSEndpoint.parseList(endpointsString);
+	}
+
+	/**
+	 * Get whether read-only commands send a hedged request to a second endpoint.
+	 * @return A boolean, true if hedged requests are sent. This is false if the property is not set.
+	 * @see #ROOT_KEY
+	 * @see #properties
+	 * @see TOCCommand#isHedgeable
+	 */
+	public boolean getHedgedRequests()
+	{
+		return Boolean.valueOf(properties.getProperty(ROOT_KEY+".hedged_requests")).booleanValue();
+	}
+
+	/**
+	 * Get whether the exceptions thrown by TOCSession for expected errors are created without a stack trace.
+	 * @return A boolean, true if exceptions for expected errors are stackless. This is false if the property
+	 *         is not set.
+	 * @see #ROOT_KEY
+	 * @see #properties
+	 * @see TOCSErrorCode#isExpected
+	 */
+	public boolean getStacklessExceptions()
+	{
+		return Boolean.valueOf(properties.getProperty(ROOT_KEY+".stackless_exceptions")).booleanValue();
+	}
+
+	/**
+	 * Get whether TOCSession locks the telescope and instrument separately.
+	 * @return A boolean, true if commands only wait for the resources they use. This is false if the
+	 *         property is not set, in which case every command that is not read-only is serialized.
+	 * @see #ROOT_KEY
+	 * @see #properties
+	 * @see TOCCommand#getResources
+	 */
+	public boolean getResourceLocking()
+	{
+		return Boolean.valueOf(properties.getProperty(ROOT_KEY+".resource_locking")).booleanValue();
+	}
+
+	/**
+	 * Get the delay before sending a hedged request, used until enough command latencies have been recorded.
+	 * @return The delay in milliseconds. DEFAULT_HEDGE_DELAY is returned if the property is not set.
+	 * @see #DEFAULT_HEDGE_DELAY
+	 * @see #getLongProperty
+	 */
+	public long getHedgeDelay()
+	{
+		return getLongProperty(".hedge_delay",DEFAULT_HEDGE_DELAY);
+	}
+
+	/**
+	 * Get whether commands should use pooled keep-alive connections to the RCS TOCA.
+	 * @return A boolean, true if the connection is kept open between commands. This is false if the
+	 *         property is not set.
+	 * @see #ROOT_KEY
+	 * @see #properties
+	 * @see TOCSConnectionPool
+	 */
+	public boolean getTOCSConnectionPooling()
+	{
+		return Boolean.valueOf(properties.getProperty(ROOT_KEY+".tocs_connection_pool")).booleanValue();
+	}
+
+	/**
+	 * Get whether the session pre-warms the connection to the TOCS server.
+	 * @return A boolean, true if the connection is pre-warmed. This is false if the property is not set.
+	 * @see #ROOT_KEY
+	 * @see #properties
+	 * @see TOCSession#startPrewarming
+	 */
+	public boolean getTOCSPrewarm()
+	{
+		return Boolean.valueOf(properties.getProperty(ROOT_KEY+".tocs_prewarm")).booleanValue();
+	}
+
+	/**
+	 * Get the interval between pre-warming the connection to the TOCS server.
+	 * @return The interval in milliseconds. DEFAULT_TOCS_PREWARM_INTERVAL is returned if the property is not set.
+	 * @see #DEFAULT_TOCS_PREWARM_INTERVAL
+	 * @see #getLongProperty
+	 */
+	public long getTOCSPrewarmInterval()
+	{
+		return getLongProperty(".tocs_prewarm_interval",DEFAULT_TOCS_PREWARM_INTERVAL);
+	}
+
+	/**
+	 * Get the default deadline for a TOCS command.
+	 * @return The deadline in milliseconds, 0 means wait forever. DEFAULT_TOCS_TIMEOUT is returned if
+	 *         the property is not set.
+	 * @see #DEFAULT_TOCS_TIMEOUT
+	 * @see #getLongProperty
+	 */
+	public long getTOCSTimeout()
+	{
+		return getLongProperty(".tocs_timeout",DEFAULT_TOCS_TIMEOUT);
+	}
+
+	/**
+	 * Get how long to wait for a connection to the TOCS server to open.
+	 * @return The connect timeout in milliseconds, 0 means wait forever. DEFAULT_TOCS_CONNECT_TIMEOUT is 
+	 *         returned if the property is not set.
+	 * @see #DEFAULT_TOCS_CONNECT_TIMEOUT
+	 * @see #getLongProperty
+	 */
+	public long getTOCSConnectTimeout()
+	{
+		return getLongProperty(".tocs_connect_timeout",DEFAULT_TOCS_CONNECT_TIMEOUT);
+	}
+
+	/**
+	 * Get the readout (and other) overhead allowed for each exposure frame.
+	 * @return The overhead per frame in milliseconds. DEFAULT_EXPOSE_READOUT_OVERHEAD is returned if
+	 *         the property is not set.
+	 * @see #DEFAULT_EXPOSE_READOUT_OVERHEAD
+	 * @see #getLongProperty
+	 */
+	public long getExposeReadoutOverhead()
+	{
+		return getLongProperty(".expose_readout_overhead",DEFAULT_EXPOSE_READOUT_OVERHEAD);
+	}
+
+	/**
+	 * Get the time allowed for a SLEW command to complete.
+	 * @return The slew budget in milliseconds. DEFAULT_SLEW_TIMEOUT is returned if the property is not set.
+	 * @see #DEFAULT_SLEW_TIMEOUT
+	 * @see #getLongProperty
+	 */
+	public long getSlewTimeout()
+	{
+		return getLongProperty(".slew_timeout",DEFAULT_SLEW_TIMEOUT);
+	}
+
+	/**
+	 * Get the time allowed for an ACQUIRE command to complete.
+	 * @return The acquire budget in milliseconds. DEFAULT_ACQUIRE_TIMEOUT is returned if the property is 
+	 *         not set.
+	 * @see #DEFAULT_ACQUIRE_TIMEOUT
+	 * @see #getLongProperty
+	 */
+	public long getAcquireTimeout()
+	{
+		return getLongProperty(".acquire_timeout",DEFAULT_ACQUIRE_TIMEOUT);
+	}
+
+	/**
+	 * Get the time allowed for an ARC command to complete.
+	 * @return The arc budget in milliseconds. DEFAULT_ARC_TIMEOUT is returned if the property is not set.
+	 * @see #DEFAULT_ARC_TIMEOUT
+	 * @see #getLongProperty
+	 */
+	public long getArcTimeout()
+	{
+		return getLongProperty(".arc_timeout",DEFAULT_ARC_TIMEOUT);
+	}
+
+	/**
+	 * Get the time allowed for an INSTR command to complete.
+	 * @return The instr budget in milliseconds. DEFAULT_INSTR_TIMEOUT is returned if the property is not set.
+	 * @see #DEFAULT_INSTR_TIMEOUT
+	 * @see #getLongProperty
+	 */
+	public long getInstrTimeout()
+	{
+		return getLongProperty(".instr_timeout",DEFAULT_INSTR_TIMEOUT);
+	}
+
+	/**
+	 * Get the number of times an idempotent command is retried after a transient transport failure.
+	 * @return The number of retries. DEFAULT_RETRY_COUNT is returned if the property is not set.
+	 * @see #DEFAULT_RETRY_COUNT
+	 * @see #getLongProperty
+	 */
+	public int getRetryCount()
+	{
+		return (int)getLongProperty(".retry_count",DEFAULT_RETRY_COUNT);
+	}
+
+	/**
+	 * Get the base delay for the exponential retry backoff.
+	 * @return The base delay in milliseconds. DEFAULT_RETRY_BASE_DELAY is returned if the property is not set.
+	 * @see #DEFAULT_RETRY_BASE_DELAY
+	 * @see #getLongProperty
+	 */
+	public long getRetryBaseDelay()
+	{
+		return getLongProperty(".retry_base_delay",DEFAULT_RETRY_BASE_DELAY);
+	}
+
+	/**
+	 * Get the maximum delay between retries.
+	 * @return The maximum delay in milliseconds. DEFAULT_RETRY_MAX_DELAY is returned if the property is not set.
+	 * @see #DEFAULT_RETRY_MAX_DELAY
+	 * @see #getLongProperty
+	 */
+	public long getRetryMaxDelay()
+	{
+		return getLongProperty(".retry_max_delay",DEFAULT_RETRY_MAX_DELAY);
+	}
+
+	/**
+	 * Get the number of consecutive transport failures before the TOCS server's circuit breaker opens.
+	 * @return The number of failures. TOCSCircuitBreaker.DEFAULT_FAILURE_THRESHOLD is returned if 
+	 *         the property is not set.
+	 * @see TOCSCircuitBreaker#DEFAULT_FAILURE_THRESHOLD
+	 * @see #getLongProperty
+	 */
+	public int getCircuitBreakerThreshold()
+	{
+		return (int)getLongProperty(".circuit_breaker_threshold",TOCSCircuitBreaker.DEFAULT_FAILURE_THRESHOLD);
+	}
+
+	/**
+	 * Get the length of time the TOCS server's circuit breaker stays open.
+	 * @return The time in milliseconds. TOCSCircuitBreaker.DEFAULT_OPEN_TIME is returned if 
+	 *         the property is not set.
+	 * @see TOCSCircuitBreaker#DEFAULT_OPEN_TIME
+	 * @see #getLongProperty
+	 */
+	public long getCircuitBreakerOpenTime()
+	{
+		return getLongProperty(".circuit_breaker_open_time",TOCSCircuitBreaker.DEFAULT_OPEN_TIME);
+	}
+
+	/**
+	 * Get whether asynchronous session commands should be run on virtual threads.
+	 * @return A boolean, true if virtual threads should be used. This is false if the property is not set.
+	 * @see #ROOT_KEY
+	 * @see #properties
+	 * @see TOCSession#getVirtualThreadExecutor
+	 */
+	public boolean getVirtualThreads()
+	{
+		return Boolean.valueOf(properties.getProperty(ROOT_KEY+".virtual_threads")).booleanValue();
+	}
+
 	/**
 	 * Get the current service id.
 	 * @return A string representing a service Id.
@@ -248,19 +912,96 @@ public class TOCSessionData implements Logging
 		return properties.getProperty(ROOT_KEY+".session_id");
 	}
 
+	/**
+	 * Internal method to get the value of a long property. The ROOT_KEY is prepended to the keyword.
+	 * @param keyword The keyword of the property.
+	 * @param defaultValue The value to return if the property is not set, or is not a valid long.
+	 * @return The property's value.
+	 * @see #ROOT_KEY
+	 * @see #properties
+	 */
+	protected long getLongProperty(String keyword,long defaultValue)
+	{
+		String valueString = null;
+
+		valueString = properties.getProperty(ROOT_KEY+keyword);
+		if(valueString == null)
+			return defaultValue;
+		try
+		{
+			return Long.parseLong(valueString.trim());
+		}
+		catch(NumberFormatException e)
+		{
+			logger.log(INFO, 1, CLASS, RCSID,"getLongProperty","Keyword: "+ROOT_KEY+keyword+
+				   " has illegal value : "+valueString+", using default "+defaultValue+".");
+			return defaultValue;
+		}
+	}
+
 	/**
 	 * Internal method to set the value of a property. The ROOT_KEY is prepended to the keyword before
 	 * saving into the properties.
-	 * Also logs all sets to create noticeboard style logs.
+	 * Also logs all sets to create noticeboard style logs. If the property is one cached command frames
+	 * are built from, and it's value changes, the frame version is incremented.
 	 * @param keyword The keyword of the property.
 	 * @param value The value of the property.
 	 * @see #ROOT_KEY
 	 * @see #properties
+	 * @see #isFrameKeyword
+	 * @see #frameVersion
 	 */
 	public void setProperty(String keyword,String value)
 	{
+		Object oldValue = null;
+
 		logger.log(INFO, 1, CLASS, RCSID,"setProperty","Keyword: "+ROOT_KEY+keyword+" Value : "+value+".");
-		properties.setProperty(ROOT_KEY+keyword,value);
+		oldValue = properties.setProperty(ROOT_KEY+keyword,value);
+		if(isFrameKeyword(keyword) && (value.equals(oldValue) == false))
+			frameVersion.incrementAndGet();
+	}
+
+	/**
+	 * Get whether cached command frames are built from a property.
+	 * @param keyword The keyword of the property (without the ROOT_KEY).
+	 * @return true if the keyword is one of the FRAME_KEYWORDS.
+	 * @see #FRAME_KEYWORDS
+	 */
+	private static boolean isFrameKeyword(String keyword)
+	{
+		for(int i = 0; i < FRAME_KEYWORDS.length; i++)
+		{
+			if(FRAME_KEYWORDS[i].equals(keyword))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * A cached, immutable, command frame.
+	 * @see #commandFrameMap
+	 */
+	private static class CommandFrame
+	{
+		/**
+		 * The session data's frame version when the frame was encoded.
+		 */
+		final int frameVersion;
+		/**
+		 * The encoded frame.
+		 */
+		final byte frame[];
+
+		/**
+		 * Constructor.
+		 * @param frameVersion The session data's frame version when the frame was encoded.
+		 * @param frame The encoded frame.
+		 */
+		CommandFrame(int frameVersion,byte frame[])
+		{
+			this.frameVersion = frameVersion;
+			this.frame = frame;
+		}
 	}
 }
 /*
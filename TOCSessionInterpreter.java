@@ -0,0 +1,562 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCSessionInterpreter.java
+// $Header$
+package org.estar.toop;
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import ngat.phase2.OConfig;
+
+import org.estar.astrometry.*;
+
+/**
+ * Runs text commands (e.g. "slew m53 13:12:55 +18:10:09") on a TOCSession, and formats the result as
+ * a TOCS style reply line. Used by TOCSessionDaemon and TOCScriptRunner. The commands and their arguments are:
+ * <ul>
+ * <li>when
+ * <li>helo [&lt;output properties filename&gt;]
+ * <li>init
+ * <li>position &lt;ra&gt; &lt;dec&gt;
+ * <li>status &lt;category&gt; &lt;keyword&gt;
+ * <li>slew &lt;source ID&gt; &lt;ra&gt; &lt;dec&gt;
+ * <li>offset &lt;dRA arcsecs&gt; &lt;dDec arcsecs&gt;
+ * <li>rotator &lt;SKY|MOUNT|FLOAT&gt; &lt;mount angle&gt;
+ * <li>auto &lt;on|off&gt;
+ * <li>agradial &lt;position mm&gt;
+ * <li>acquire &lt;ra&gt; &lt;dec&gt; &lt;NONE|BRIGHTEST|WCS&gt; &lt;NORMAL|HIGH&gt;
+ * <li>focalplane &lt;instrument name&gt;
+ * <li>instr &lt;inst ID&gt; &lt;filter0&gt; &lt;filter1&gt; &lt;filter2&gt; &lt;xbin&gt; &lt;ybin&gt;
+ *     &lt;calibrate before&gt; &lt;calibrate after&gt; (use - for an unused filter)
+ * <li>instr &lt;inst ID&gt; &lt;instrument arguments&gt; &lt;calibrate before&gt; &lt;calibrate after&gt;,
+ *     the per-instrument argument lists of Instr.main (e.g. "instr IO:O SDSS-R clear clear 2 F F",
+ *     "instr SPRAT 1 in 0 F F", see createInstr)
+ * <li>expose &lt;exposure length ms&gt; &lt;&lt;exposure count&gt;|&lt;runat date&gt;&gt; &lt;data pipeline flag&gt;
+ * <li>arc &lt;lamp name&gt;
+ * <li>stop
+ * <li>quit
+ * </ul>
+ * Command names are not case sensitive. The reply is <b>OK</b> followed by any results as keyword=value pairs
+ * (e.g. "OK sessionID=004951, sessionLimit=3600, ..." for helo, "OK count=2, file1=..., file2=..." for expose),
+ * or (see createErrorReply) <b>ERROR</b> followed by an error code (a TOCSErrorCode, or USAGE) and message.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCSessionDaemon
+ * @see TOCScriptRunner
+ */
+public class TOCSessionInterpreter
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Error code returned when a command line is not valid.
+	 */
+	public static final String ERROR_CODE_USAGE = "USAGE";
+	/**
+	 * Whether "helo" is allowed to save the session data to a named file.
+	 * @see #setSessionDataSaving
+	 */
+	private boolean sessionDataSaving = true;
+
+	/**
+	 * Default constructor.
+	 */
+	public TOCSessionInterpreter()
+	{
+		super();
+	}
+
+	/**
+	 * Set whether "helo &lt;output properties filename&gt;" is allowed to save the session data.
+	 * Interpreters driven by remote clients (the daemon) should turn this off, otherwise a client can
+	 * write a file anywhere the interpreter's user can.
+	 * @param b true to allow saving the session data, false to reject helo's filename argument.
+	 * @see #sessionDataSaving
+	 */
+	public void setSessionDataSaving(boolean b)
+	{
+		sessionDataSaving = b;
+	}
+
+	/**
+	 * Run a command on a session.
+	 * @param session The session.
+	 * @param args The command line arguments: the command name, followed by the command's arguments.
+	 * @return The reply line, "OK" followed by any results as keyword=value pairs.
+	 * @exception TOCException Thrown if the command fails.
+	 * @exception IOException Thrown if saving the session data (helo) fails.
+	 * @exception IllegalArgumentException Thrown if the command is unknown, or has the wrong arguments.
+	 * @exception ParseException Thrown if a date argument cannot be parsed.
+	 * @see #waitFor
+	 * @see #sessionDataSaving
+	 */
+	public String run(TOCSession session,String args[]) throws TOCException, IOException,
+							     IllegalArgumentException, ParseException
+	{
+		String command = null;
+		When when = null;
+		Helo helo = null;
+		Position position = null;
+		Status status = null;
+		Expose expose = null;
+		Arc arc = null;
+		RA ra = null;
+		Dec dec = null;
+		DateFormat df = null;
+		Date runatDate = null;
+
+		command = args[0].toLowerCase();
+		if(command.equals("when"))
+		{
+			checkArgumentCount(args,1,"when");
+			when = waitFor(session.whenAsync());
+			return "OK time="+when.getTime();
+		}
+		else if(command.equals("helo"))
+		{
+			if((args.length != 1)&&(args.length != 2))
+				throw new IllegalArgumentException("Usage: helo [<output properties filename>]");
+			if((args.length == 2)&&(sessionDataSaving == false))
+				throw new IllegalArgumentException("Usage: helo (saving the session data is disabled)");
+			helo = waitFor(session.heloAsync());
+			if(args.length == 2)
+				session.getSessionData().save(new File(args[1]));
+			return "OK sessionID="+helo.getSessionID()+", sessionLimit="+helo.getSessionLimit()+
+				", timeRemaining="+helo.getTimeRemaining()+", priority="+helo.getPriority();
+		}
+		else if(command.equals("init"))
+		{
+			checkArgumentCount(args,1,"init");
+			session.init();
+		}
+		else if(command.equals("position"))
+		{
+			checkArgumentCount(args,3,"position <ra> <dec>");
+			ra = new RA();
+			ra.parseColon(args[1]);
+			dec = new Dec();
+			dec.parseColon(args[2]);
+			position = waitFor(session.positionAsync(ra,dec));
+			return "OK state="+position.getState()+", alt="+position.getAltitude()+
+				", az="+position.getAzimuth()+", rise="+position.getTimeToRise()+
+				", set="+position.getTimeToSet()+", moon="+position.getMoonDistance()+
+				", cat="+position.getCategory();
+		}
+		else if(command.equals("status"))
+		{
+			checkArgumentCount(args,3,"status <category> <keyword>");
+			status = waitFor(session.statusAsync(args[1],args[2]));
+			return "OK value="+status.getValue();
+		}
+		else if(command.equals("slew"))
+		{
+			checkArgumentCount(args,4,"slew <source ID> <ra> <dec>");
+			session.slew(args[1],args[2],args[3]);
+		}
+		else if(command.equals("offset"))
+		{
+			checkArgumentCount(args,3,"offset <dRA arcsecs> <dDec arcsecs>");
+			session.offset(Double.parseDouble(args[1]),Double.parseDouble(args[2]));
+		}
+		else if(command.equals("rotator"))
+		{
+			checkArgumentCount(args,3,"rotator <SKY|MOUNT|FLOAT> <mount angle>");
+			session.rotator(args[1],Double.parseDouble(args[2]));
+		}
+		else if(command.equals("auto"))
+		{
+			checkArgumentCount(args,2,"auto <on|off>");
+			session.auto(args[1].equalsIgnoreCase("on"));
+		}
+		else if(command.equals("agradial"))
+		{
+			checkArgumentCount(args,2,"agradial <position mm>");
+			session.agradial(Double.parseDouble(args[1]));
+		}
+		else if(command.equals("acquire"))
+		{
+			checkArgumentCount(args,5,"acquire <ra> <dec> <NONE|BRIGHTEST|WCS> <NORMAL|HIGH>");
+			session.acquire(args[1],args[2],args[3],args[4]);
+		}
+		else if(command.equals("focalplane"))
+		{
+			checkArgumentCount(args,2,"focalplane <instrument name>");
+			session.focalPlane(args[1]);
+		}
+		else if(command.equals("instr"))
+		{
+			if(args.length != 9)
+			{
+				waitFor(session.commandAsync(createInstr(args)));
+				return "OK ";
+			}
+			session.instr(args[1],getFilter(args[2]),getFilter(args[3]),getFilter(args[4]),
+				      Integer.parseInt(args[5]),Integer.parseInt(args[6]),
+				      getBoolean(args[7]),getBoolean(args[8]));
+		}
+		else if(command.equals("expose"))
+		{
+			checkArgumentCount(args,4,"expose <exposure length ms> <<exposure count>|<runat date>> "+
+					   "<data pipeline flag>");
+			if(args[2].indexOf("T") > -1)
+			{
+				df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+				runatDate = df.parse(args[2]);
+				expose = waitFor(session.exposeAsync(Integer.parseInt(args[1]),runatDate,
+								     getBoolean(args[3])));
+			}
+			else
+			{
+				expose = waitFor(session.exposeAsync(Integer.parseInt(args[1]),
+								     Integer.parseInt(args[2]),
+								     getBoolean(args[3])));
+			}
+			return "OK "+createFilenameList(expose.getFilenameCount(),expose,null);
+		}
+		else if(command.equals("arc"))
+		{
+			checkArgumentCount(args,2,"arc <lamp name>");
+			arc = waitFor(session.arcAsync(args[1]));
+			return "OK "+createFilenameList(arc.getFilenameCount(),null,arc);
+		}
+		else if(command.equals("stop"))
+		{
+			checkArgumentCount(args,1,"stop");
+			session.stop();
+		}
+		else if(command.equals("quit"))
+		{
+			checkArgumentCount(args,1,"quit");
+			session.quit();
+		}
+		else
+		{
+			throw new IllegalArgumentException("Unknown command:"+args[0]);
+		}
+		return "OK ";
+	}
+
+	/**
+	 * Wait for an asynchronous command to finish.
+	 * @param future The command's future.
+	 * @return The command.
+	 * @exception TOCException Thrown if the command failed, or the wait was interrupted.
+	 *            If the wait was interrupted, the thread's interrupt status is set again.
+	 */
+	private <T> T waitFor(CompletableFuture<T> future) throws TOCException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch(ExecutionException e)
+		{
+			if(e.getCause() instanceof TOCException)
+				throw (TOCException)(e.getCause());
+			throw new TOCException(this.getClass().getName()+":waitFor:Command failed:"+e.getCause(),e);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new TOCException(this.getClass().getName()+":waitFor:Interrupted:"+e,e);
+		}
+	}
+
+	/**
+	 * Create the reply results for a command that returns a list of filenames.
+	 * @param count The number of filenames.
+	 * @param expose The EXPOSE command, or null.
+	 * @param arc The ARC command, or null.
+	 * @return A string of the form "count=&lt;n&gt;, file1=..., file2=...".
+	 */
+	private String createFilenameList(int count,Expose expose,Arc arc)
+	{
+		StringBuilder sb = null;
+		int i;
+
+		sb = new StringBuilder();
+		sb.append("count=").append(count);
+		for(i = 0; i < count; i++)
+		{
+			sb.append(", file").append(i+1).append('=');
+			if(expose != null)
+				sb.append(expose.getFilename(i));
+			else
+				sb.append(arc.getFilename(i));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Create an INSTR command from the per-instrument argument lists accepted by Instr.main
+	 * (i.e. "instr &lt;inst ID&gt;" followed by the instrument's arguments, then
+	 * &lt;calibrate before&gt; &lt;calibrate after&gt;):
+	 * <ul>
+	 * <li>RATCAM &lt;lower filter&gt; &lt;upper filter&gt; &lt;bin&gt;
+	 * <li>IRCAM &lt;filter&gt; &lt;bin&gt;
+	 * <li>IO:O &lt;filter wheel&gt; &lt;lower slide&gt; &lt;upper slide&gt; &lt;bin&gt; (as TOCSession.instrIOO,
+	 *     the single filter form of Instr.main does not set the filters the IO:O encoder needs)
+	 * <li>FIXEDSPEC &lt;xbin&gt; &lt;ybin&gt;
+	 * <li>RINGO3 &lt;trigger type&gt; &lt;emgain&gt; &lt;bin&gt;
+	 * <li>IO:THOR &lt;emgain&gt; &lt;bin&gt; &lt;xs&gt; &lt;ys&gt; &lt;xe&gt; &lt;ye&gt;
+	 * <li>MOPTOP &lt;rotor speed&gt; &lt;filter&gt; &lt;bin&gt;
+	 * <li>LIRIC &lt;nudgematic offset size&gt; &lt;coadd exposure length&gt; &lt;filter&gt;
+	 * <li>RISE &lt;bin&gt;
+	 * <li>SPRAT &lt;slit position&gt; &lt;grism position&gt; &lt;grism rotation&gt;
+	 * </ul>
+	 * @param args The command line arguments.
+	 * @return The INSTR command, configured but not run.
+	 * @exception IllegalArgumentException Thrown if the instrument is not known, or has the wrong number of
+	 *            arguments (or a numeric argument cannot be parsed).
+	 * @see Instr#main
+	 * @see TOCSession#instrIOO
+	 */
+	private Instr createInstr(String args[]) throws IllegalArgumentException
+	{
+		Instr instr = null;
+		String instID = null;
+		int bin;
+
+		if(args.length < 2)
+			throw new IllegalArgumentException("Usage: instr <inst ID> <arguments>...");
+		instID = args[1];
+		instr = new Instr();
+		instr.setInstId(instID);
+		if(instID.equals("RATCAM"))
+		{
+			checkArgumentCount(args,7,"instr RATCAM <lower filter> <upper filter> <bin> "+
+					   "<calibrate before> <calibrate after>");
+			instr.setLowerFilter(args[2]);
+			instr.setUpperFilter(args[3]);
+			bin = Integer.parseInt(args[4]);
+			instr.setXBinning(bin);
+			instr.setYBinning(bin);
+		}
+		else if(instID.equals("IRCAM"))
+		{
+			checkArgumentCount(args,6,"instr IRCAM <filter> <bin> <calibrate before> <calibrate after>");
+			instr.setIRFilter(args[2]);
+			bin = Integer.parseInt(args[3]);
+			instr.setXBinning(bin);
+			instr.setYBinning(bin);
+		}
+		else if(instID.equals("IO:O"))
+		{
+			checkArgumentCount(args,8,"instr IO:O <filter wheel> <lower slide> <upper slide> <bin> "+
+					   "<calibrate before> <calibrate after>");
+			instr.setFilter(OConfig.O_FILTER_INDEX_FILTER_WHEEL,args[2]);
+			instr.setFilter(OConfig.O_FILTER_INDEX_FILTER_SLIDE_LOWER,args[3]);
+			instr.setFilter(OConfig.O_FILTER_INDEX_FILTER_SLIDE_UPPER,args[4]);
+			bin = Integer.parseInt(args[5]);
+			instr.setXBinning(bin);
+			instr.setYBinning(bin);
+		}
+		else if(instID.equals("FIXEDSPEC"))
+		{
+			checkArgumentCount(args,6,"instr FIXEDSPEC <xbin> <ybin> <calibrate before> <calibrate after>");
+			instr.setXBinning(Integer.parseInt(args[2]));
+			instr.setYBinning(Integer.parseInt(args[3]));
+		}
+		else if(instID.equals("RINGO3"))
+		{
+			checkArgumentCount(args,7,"instr RINGO3 <trigger type> <emgain> <bin> "+
+					   "<calibrate before> <calibrate after>");
+			instr.setTriggerType(args[2]);
+			instr.setEMGain(Integer.parseInt(args[3]));
+			bin = Integer.parseInt(args[4]);
+			instr.setXBinning(bin);
+			instr.setYBinning(bin);
+		}
+		else if(instID.equals("IO:THOR"))
+		{
+			checkArgumentCount(args,10,"instr IO:THOR <emgain> <bin> <xs> <ys> <xe> <ye> "+
+					   "<calibrate before> <calibrate after>");
+			instr.setEMGain(Integer.parseInt(args[2]));
+			bin = Integer.parseInt(args[3]);
+			instr.setXBinning(bin);
+			instr.setYBinning(bin);
+			instr.setWindow(Integer.parseInt(args[4]),Integer.parseInt(args[5]),
+					Integer.parseInt(args[6]),Integer.parseInt(args[7]));
+		}
+		else if(instID.equals("MOPTOP"))
+		{
+			checkArgumentCount(args,7,"instr MOPTOP <rotor speed> <filter> <bin> "+
+					   "<calibrate before> <calibrate after>");
+			instr.setRotorSpeed(args[2]);
+			instr.setSingleFilter(args[3]);
+			bin = Integer.parseInt(args[4]);
+			instr.setXBinning(bin);
+			instr.setYBinning(bin);
+		}
+		else if(instID.equals("LIRIC"))
+		{
+			checkArgumentCount(args,7,"instr LIRIC <nudgematic offset size> <coadd exposure length> <filter> "+
+					   "<calibrate before> <calibrate after>");
+			instr.setNudgematicOffsetSize(args[2]);
+			instr.setCoaddExposureLength(Integer.parseInt(args[3]));
+			instr.setSingleFilter(args[4]);
+			instr.setXBinning(1);
+			instr.setYBinning(1);
+		}
+		else if(instID.equals("RISE"))
+		{
+			checkArgumentCount(args,5,"instr RISE <bin> <calibrate before> <calibrate after>");
+			bin = Integer.parseInt(args[2]);
+			instr.setXBinning(bin);
+			instr.setYBinning(bin);
+		}
+		else if(instID.equals("SPRAT"))
+		{
+			checkArgumentCount(args,7,"instr SPRAT <slit position> <grism position> <grism rotation> "+
+					   "<calibrate before> <calibrate after>");
+			instr.setSlitPosition(args[2]);
+			instr.setGrismPosition(args[3]);
+			instr.setGrismRotation(args[4]);
+			instr.setXBinning(1);
+			instr.setYBinning(1);
+		}
+		else
+		{
+			throw new IllegalArgumentException("Usage: instr <inst ID> <filter0> <filter1> <filter2> "+
+						       "<xbin> <ybin> <calibrate before> <calibrate after>, or "+
+						       "instr <RATCAM|IRCAM|IO:O|FIXEDSPEC|RINGO3|IO:THOR|MOPTOP|LIRIC|"+
+						       "RISE|SPRAT> <instrument arguments> <calibrate before> "+
+						       "<calibrate after> (see Instr)");
+		}
+		instr.setCalibrateBefore(getBoolean(args[args.length-2]));
+		instr.setCalibrateAfter(getBoolean(args[args.length-1]));
+		return instr;
+	}
+
+	/**
+	 * Check a command has the right number of arguments.
+	 * @param args The command line arguments.
+	 * @param count The number of arguments the command should have (including the command name).
+	 * @param usage The usage string.
+	 * @exception IllegalArgumentException Thrown if the command has the wrong number of arguments.
+	 */
+	private void checkArgumentCount(String args[],int count,String usage) throws IllegalArgumentException
+	{
+		if(args.length != count)
+			throw new IllegalArgumentException("Usage: "+usage);
+	}
+
+	/**
+	 * Get a filter argument.
+	 * @param s The argument.
+	 * @return The filter, or null if the argument is "-".
+	 */
+	private String getFilter(String s)
+	{
+		if(s.equals("-"))
+			return null;
+		return s;
+	}
+
+	/**
+	 * Get a boolean argument.
+	 * @param s The argument, "true" or "T" for true.
+	 * @return The boolean.
+	 */
+	private boolean getBoolean(String s)
+	{
+		return s.equalsIgnoreCase("true") || s.equalsIgnoreCase("T");
+	}
+
+	/**
+	 * Split a command line into arguments, separated by whitespace. Arguments containing whitespace
+	 * can be enclosed in double quotes.
+	 * @param line The command line.
+	 * @return The arguments.
+	 * @exception IllegalArgumentException Thrown if a quote is not closed.
+	 */
+	public static String[] tokenize(String line) throws IllegalArgumentException
+	{
+		List<String> argumentList = null;
+		StringBuilder sb = null;
+		boolean quoted,inArgument;
+		char ch;
+		int i;
+
+		argumentList = new Vector<String>();
+		sb = new StringBuilder();
+		quoted = false;
+		inArgument = false;
+		for(i = 0; i < line.length(); i++)
+		{
+			ch = line.charAt(i);
+			if(ch == '"')
+			{
+				quoted = !quoted;
+				inArgument = true;
+			}
+			else if(Character.isWhitespace(ch) && (quoted == false))
+			{
+				if(inArgument)
+				{
+					argumentList.add(sb.toString());
+					sb.setLength(0);
+					inArgument = false;
+				}
+			}
+			else
+			{
+				sb.append(ch);
+				inArgument = true;
+			}
+		}
+		if(quoted)
+			throw new IllegalArgumentException("Unclosed quote in:"+line);
+		if(inArgument)
+			argumentList.add(sb.toString());
+		return argumentList.toArray(new String[argumentList.size()]);
+	}
+
+	/**
+	 * Create the ERROR reply line for a command that failed.
+	 * @param e The exception the command failed with (see run).
+	 * @return The reply line, "ERROR &lt;code&gt; &lt;message&gt;". The code is the TOCSErrorCode of a
+	 *         TOCSErrorException, TIMEOUT for a TOCTimeoutException, INTERNAL_ERROR for any other
+	 *         TOCException or IOException, and USAGE if the command line was not valid.
+	 * @see #run
+	 * @see #ERROR_CODE_USAGE
+	 */
+	public static String createErrorReply(Exception e)
+	{
+		if(e instanceof TOCSErrorException)
+			return "ERROR "+((TOCSErrorException)e).getErrorCode()+" "+e.getMessage();
+		if(e instanceof TOCTimeoutException)
+			return "ERROR "+TOCSErrorCode.TIMEOUT+" "+e.getMessage();
+		if(e instanceof TOCException)
+			return "ERROR "+TOCSErrorCode.INTERNAL_ERROR+" "+e.getMessage();
+		if(e instanceof IOException)
+			return "ERROR "+TOCSErrorCode.INTERNAL_ERROR+" "+e;
+		// IllegalArgumentException (including NumberFormatException) and ParseException
+		return "ERROR "+ERROR_CODE_USAGE+" "+e.getMessage();
+	}
+}
+/*
+** $Log$
+*/
@@ -0,0 +1,471 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCStepExecutor.java
+// $Header$
+package org.estar.toop;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import ngat.util.logging.*;
+
+/**
+ * Runs the steps of an observation as a dependency graph. Each step is a configured command, and the
+ * names of the steps that must have succeeded before it is sent. Every step is sent as soon as it's 
+ * dependencies have finished, so independent steps overlap:
+ * <pre>
+ * TOCStepExecutor tse = new TOCStepExecutor(ts);
+ * tse.addStep("position",position);
+ * tse.addStep("helo",new Helo());
+ * tse.addStep("init",new Init(),new String[] {"helo"});
+ * tse.addStep("slew",slew,new String[] {"init"});
+ * tse.addStep("instr",instr,new String[] {"init"});
+ * tse.addStep("expose",expose,new String[] {"slew","instr"});
+ * tse.run();
+ * </pre>
+ * Here POSITION is sent at the same time as HELO, and INSTR configures the instrument while the telescope 
+ * slews, rather than after it.
+ * <p>
+ * The session still decides what can really run at once: read-only commands always run in parallel, but
+ * other commands are only overlapped if resource locking is enabled in the session data 
+ * (toop.resource_locking=true), and then only if they use different resources (see TOCCommand.getResources).
+ * Otherwise the steps are serialized by the session, in dependency order.
+ * <p>
+ * If a step fails, the steps that depend on it are not sent, but independent steps are still run.
+ * The results (and timings) of each step can be retrieved from the steps once run returns.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCSession#commandAsync
+ * @see TOCCommand#getResources
+ * @see TOCSessionData#getResourceLocking
+ * @see TOCPlan
+ */
+public class TOCStepExecutor implements Logging
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Classname for logging.
+	 */
+	public static final String CLASS = "TOCStepExecutor";
+	/**
+	 * Class logger.
+	 */
+	private Logger logger = null;
+	/**
+	 * The session the steps are run in.
+	 */
+	private TOCSession session = null;
+	/**
+	 * The list of steps (Step), in the order they were added.
+	 */
+	private List<Step> stepList = null;
+	/**
+	 * Map of step name (String) to step (Step).
+	 */
+	private Map<String,Step> stepMap = null;
+
+	/**
+	 * Constructor.
+	 * @param s The session the steps are run in.
+	 * @see #logger
+	 * @see #session
+	 * @see #stepList
+	 * @see #stepMap
+	 */
+	public TOCStepExecutor(TOCSession s)
+	{
+		super();
+		logger = LogManager.getLogger(this);
+		session = s;
+		stepList = new Vector<Step>();
+		stepMap = new HashMap<String,Step>();
+	}
+
+	/**
+	 * Add a step that does not depend on any other step.
+	 * @param name The name of the step.
+	 * @param command The configured command to send. This should be a new instance.
+	 * @return The step added.
+	 * @exception IllegalArgumentException Thrown if a step with the same name has already been added.
+	 * @see #addStep(java.lang.String,org.estar.toop.TOCCommand,java.lang.String[])
+	 */
+	public Step addStep(String name,TOCCommand command) throws IllegalArgumentException
+	{
+		return addStep(name,command,new String[0]);
+	}
+
+	/**
+	 * Add a step.
+	 * @param name The name of the step.
+	 * @param command The configured command to send. This should be a new instance.
+	 * @param dependencies The names of the steps that must succeed before this step is sent.
+	 *        These need not have been added yet, but must have been by the time run is called.
+	 * @return The step added.
+	 * @exception IllegalArgumentException Thrown if a step with the same name has already been added.
+	 * @see #stepList
+	 * @see #stepMap
+	 */
+	public Step addStep(String name,TOCCommand command,String dependencies[]) throws IllegalArgumentException
+	{
+		Step step = null;
+
+		if(stepMap.containsKey(name))
+			throw new IllegalArgumentException(this.getClass().getName()+":addStep:Step "+name+" already added.");
+		step = new Step(name,command,dependencies);
+		stepList.add(step);
+		stepMap.put(name,step);
+		return step;
+	}
+
+	/**
+	 * Get the number of steps.
+	 * @return The number of steps.
+	 * @see #stepList
+	 */
+	public int getStepCount()
+	{
+		return stepList.size();
+	}
+
+	/**
+	 * Get a step.
+	 * @param i The index of the step, from 0 to getStepCount()-1, in the order they were added.
+	 * @return The step.
+	 * @see #stepList
+	 */
+	public Step getStep(int i)
+	{
+		return stepList.get(i);
+	}
+
+	/**
+	 * Get a step.
+	 * @param name The name of the step.
+	 * @return The step, or null if no step has that name.
+	 * @see #stepMap
+	 */
+	public Step getStep(String name)
+	{
+		return stepMap.get(name);
+	}
+
+	/**
+	 * Validate the steps, without sending anything. Every dependency must name a step, there must be no
+	 * dependency cycles, and every command must be valid (see TOCCommand.validate).
+	 * @return The steps, ordered so that every step comes after the steps it depends on.
+	 * @exception TOCException Thrown if the steps are not valid.
+	 * @see #sortSteps
+	 * @see TOCCommand#validate
+	 */
+	public List<Step> validate() throws TOCException
+	{
+		List<Step> sortedList = null;
+		Step step = null;
+		int i;
+
+		sortedList = new Vector<Step>();
+		for(i = 0; i < stepList.size(); i++)
+			sortSteps(stepList.get(i),new HashSet<Step>(),sortedList);
+		for(i = 0; i < stepList.size(); i++)
+		{
+			step = stepList.get(i);
+			step.command.setSessionData(session.getSessionData());
+			try
+			{
+				step.command.validate();
+			}
+			catch(TOCException e)
+			{
+				throw new TOCException(this.getClass().getName()+":validate:Step "+step.name+" ("+
+						       step.command.getClass().getName()+") is not valid:"+e.getMessage(),e);
+			}
+		}
+		return sortedList;
+	}
+
+	/**
+	 * Add a step to the sorted list, after (recursively) adding the steps it depends on.
+	 * @param step The step.
+	 * @param visitingSet The steps whose dependencies are being added, used to detect cycles.
+	 * @param sortedList The sorted list of steps.
+	 * @exception TOCException Thrown if a dependency is not a step, or there is a dependency cycle.
+	 */
+	private void sortSteps(Step step,Set<Step> visitingSet,List<Step> sortedList) throws TOCException
+	{
+		Step dependency = null;
+		int i;
+
+		if(sortedList.contains(step))
+			return;
+		if(visitingSet.add(step) == false)
+			throw new TOCException(this.getClass().getName()+":sortSteps:Step "+step.name+
+					       " is part of a dependency cycle.");
+		for(i = 0; i < step.dependencies.length; i++)
+		{
+			dependency = getStep(step.dependencies[i]);
+			if(dependency == null)
+			{
+				throw new TOCException(this.getClass().getName()+":sortSteps:Step "+step.name+
+						       " depends on unknown step "+step.dependencies[i]+".");
+			}
+			sortSteps(dependency,visitingSet,sortedList);
+		}
+		visitingSet.remove(step);
+		sortedList.add(step);
+	}
+
+	/**
+	 * Run the steps. The steps are validated, then each step is sent (using TOCSession.commandAsync) as
+	 * soon as all the steps it depends on have succeeded. run returns when every step has finished, or
+	 * cannot be run because a step it depends on failed.
+	 * @exception TOCException Thrown if the steps are not valid (in which case nothing has been sent),
+	 *            or if a step failed (the exception of the first failed step, in the order they were added).
+	 * @see #validate
+	 * @see #startStep
+	 * @see TOCSession#commandAsync
+	 */
+	public void run() throws TOCException
+	{
+		List<Step> sortedList = null;
+		List<CompletableFuture<TOCCommand>> futureList = null;
+		Step step = null;
+		Throwable t = null;
+		long startTime;
+		int i;
+
+		sortedList = validate();
+		startTime = System.nanoTime();
+		futureList = new Vector<CompletableFuture<TOCCommand>>();
+		for(i = 0; i < sortedList.size(); i++)
+		{
+			step = sortedList.get(i);
+			futureList.add(startStep(step,startTime));
+		}
+		// allOf completes once every future has, even if some complete exceptionally
+		try
+		{
+			CompletableFuture.allOf(futureList.toArray(
+						new CompletableFuture<?>[futureList.size()])).join();
+		}
+		catch(CompletionException e)
+		{
+			// the failed steps are reported below
+		}
+		logger.log(INFO, 1, CLASS, RCSID,"run","Ran "+stepList.size()+" steps in "+
+			   ((System.nanoTime()-startTime)/1000000)+" ms.");
+		for(i = 0; i < stepList.size(); i++)
+		{
+			step = stepList.get(i);
+			logger.log(INFO, 1, CLASS, RCSID,"run",step.toString());
+			if((t == null)&&step.wasRun()&&(step.getException() != null))
+				t = step.getException();
+		}
+		if(t instanceof TOCException)
+			throw (TOCException)t;
+		if(t instanceof Error)
+			throw (Error)t;
+		if(t != null)
+			throw new TOCException(this.getClass().getName()+":run:Step failed:"+t,(Exception)t);
+	}
+
+	/**
+	 * Start a step: once the futures of all the steps it depends on have completed successfully, send the
+	 * step's command. The futures of the dependencies must already have been created.
+	 * @param step The step.
+	 * @param runStartTime The System.nanoTime the run started at, the step's times are relative to this.
+	 * @return The step's future, completed when the step's command finishes (or cannot be sent).
+	 */
+	private CompletableFuture<TOCCommand> startStep(final Step step,final long runStartTime)
+	{
+		CompletableFuture<?> dependencyFutureList[] = null;
+		int i;
+
+		dependencyFutureList = new CompletableFuture<?>[step.dependencies.length];
+		for(i = 0; i < step.dependencies.length; i++)
+			dependencyFutureList[i] = getStep(step.dependencies[i]).future;
+		step.startTime = -1;
+		step.finishTime = -1;
+		step.exception = null;
+		step.future = CompletableFuture.allOf(dependencyFutureList).thenCompose(
+			new Function<Void,CompletionStage<TOCCommand>>()
+			{
+				public CompletionStage<TOCCommand> apply(Void v)
+				{
+					step.startTime = System.nanoTime()-runStartTime;
+					return session.commandAsync(step.command);
+				}
+			}).whenComplete(new BiConsumer<TOCCommand,Throwable>()
+			{
+				public void accept(TOCCommand command,Throwable t)
+				{
+					step.finishTime = System.nanoTime()-runStartTime;
+					if(t instanceof CompletionException)
+						t = t.getCause();
+					step.exception = t;
+				}
+			});
+		return step.future;
+	}
+
+	/**
+	 * One step run by the executor: a command, and the steps it depends on.
+	 */
+	public static class Step
+	{
+		/**
+		 * The name of the step.
+		 */
+		private String name = null;
+		/**
+		 * The command sent by the step.
+		 */
+		private TOCCommand command = null;
+		/**
+		 * The names of the steps this step depends on.
+		 */
+		private String dependencies[] = null;
+		/**
+		 * The future completed when the step finishes, created by startStep.
+		 */
+		private CompletableFuture<TOCCommand> future = null;
+		/**
+		 * When the step's command was given to the session (which may then wait for a resource lock before
+		 * sending it), in nanoseconds since the run started, or -1 if it was not run.
+		 */
+		private volatile long startTime = -1;
+		/**
+		 * When the step finished, in nanoseconds since the run started, or -1 if it has not finished.
+		 */
+		private volatile long finishTime = -1;
+		/**
+		 * Why the step failed (or could not be run), or null if it succeeded.
+		 */
+		private volatile Throwable exception = null;
+
+		/**
+		 * Constructor.
+		 * @param name The name of the step.
+		 * @param command The command sent by the step.
+		 * @param dependencies The names of the steps this step depends on.
+		 */
+		Step(String name,TOCCommand command,String dependencies[])
+		{
+			this.name = name;
+			this.command = command;
+			this.dependencies = dependencies;
+		}
+
+		/**
+		 * Get the name of the step.
+		 * @return The name.
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * Get the command sent by the step, which holds it's results once the step has finished.
+		 * @return The command.
+		 */
+		public TOCCommand getCommand()
+		{
+			return command;
+		}
+
+		/**
+		 * Get the names of the steps this step depends on.
+		 * @return The names.
+		 */
+		public String[] getDependencies()
+		{
+			return dependencies;
+		}
+
+		/**
+		 * Get whether the step's command was sent (i.e. all the steps it depends on succeeded).
+		 * @return true if the command was sent.
+		 */
+		public boolean wasRun()
+		{
+			return startTime > -1;
+		}
+
+		/**
+		 * Get whether the step succeeded.
+		 * @return true if the step has finished, and it's command succeeded.
+		 */
+		public boolean isSuccessful()
+		{
+			return (finishTime > -1)&&(exception == null);
+		}
+
+		/**
+		 * Get why the step failed, or could not be run.
+		 * @return The exception, or null if the step succeeded (or has not finished).
+		 */
+		public Throwable getException()
+		{
+			return exception;
+		}
+
+		/**
+		 * Get when the step's command was given to the session.
+		 * @return The time in milliseconds since the run started, or -1 if it was not run.
+		 */
+		public long getStartTime()
+		{
+			if(startTime < 0)
+				return -1;
+			return startTime/1000000;
+		}
+
+		/**
+		 * Get when the step finished.
+		 * @return The time in milliseconds since the run started, or -1 if it has not finished.
+		 */
+		public long getFinishTime()
+		{
+			if(finishTime < 0)
+				return -1;
+			return finishTime/1000000;
+		}
+
+		/**
+		 * Return a string describing the step.
+		 * @return The string.
+		 */
+		public String toString()
+		{
+			if(wasRun() == false)
+				return name+": not run:"+exception;
+			if(exception != null)
+				return name+": "+getStartTime()+" - "+getFinishTime()+" ms: failed:"+exception;
+			return name+": "+getStartTime()+" - "+getFinishTime()+" ms.";
+		}
+	}
+}
+/*
+** $Log$
+*/
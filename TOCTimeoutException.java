@@ -0,0 +1,63 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TOCTimeoutException.java
+// $Header$
+package org.estar.toop;
+
+/**
+ * This class extends TOCException. It is thrown when a command's deadline expires before the 
+ * reply is received from the RCS TOCS server.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TOCCommand#getTimeout
+ */
+public class TOCTimeoutException extends TOCException
+{
+	/**
+	 * Revision Control System id string, showing the version of the Class
+	 */
+	public final static String RCSID = new String("$Id$");
+	/**
+	 * Serialization version.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor for the exception.
+	 * @param errorString The error string.
+	 */
+	public TOCTimeoutException(String errorString)
+	{
+		super(errorString);
+	}
+
+	/**
+	 * Constructor for the exception.
+	 * @param errorString The error string.
+	 * @param e An exception that caused this exception to be generated.
+	 */
+	public TOCTimeoutException(String errorString,Exception e)
+	{
+		super(errorString,e);
+	}
+}
+/*
+** $Log$
+*/
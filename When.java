@@ -32,7 +32,7 @@ import ngat.util.logging.*;
  * @author Steve Fraser, Chris Mottram
  * @version $Revision$
  */
-class When extends TOCCommand implements Logging, Runnable
+public class When extends TOCCommand implements Logging, Runnable
 {
 	/**
 	 * Revision control system version id.
@@ -54,6 +54,10 @@ class When extends TOCCommand implements Logging, Runnable
 	 * The current service.
 	 */
 	protected String currentService = null;
+	/**
+	 * The typed results of the last successful WHEN, or null.
+	 */
+	protected WhenReply reply = null;
 
 	/**
 	 * Default constructor.
@@ -64,42 +68,101 @@ class When extends TOCCommand implements Logging, Runnable
 	}
 
 	/**
-	 * Run method. 
-	 * Setup commandString.
-	 * Call TOCCommand.run.
+	 * WHEN is a query, so it can safely be retried after a transient transport failure.
+	 * @return true.
+	 */
+	protected boolean isIdempotent()
+	{
+		return true;
+	}
+
+	/**
+	 * WHEN is a query, so TOCSession can run it in parallel with other commands.
+	 * @return true.
+	 * @see TOCCommand#isReadOnly
+	 */
+	protected boolean isReadOnly()
+	{
+		return true;
+	}
+
+	/**
+	 * WHEN is read-only, so a hedged request can be sent to a second TOCS endpoint.
+	 * @return true.
+	 * @see TOCCommand#isHedgeable
+	 */
+	protected boolean isHedgeable()
+	{
+		return true;
+	}
+
+	/**
+	 * The WHEN command depends only on the service ID, so it is encoded once
+	 * and resent until the session data changes.
+	 * @return true.
+	 * @see TOCCommand#encodeCommand
+	 */
+	protected boolean isFrameCacheable()
+	{
+		return true;
+	}
+
+	/**
+	 * Setup the command in commandBuffer.
+	 */
+	protected void createCommandString() throws TOCException
+	{
+		commandBuffer.setLength(0);
+		commandBuffer.append(COMMAND_NAME).append(' ').append(sessionData.getServiceId());
+	}
+
+	/**
+	 * Parse the results of the command. Called from TOCCommand.run once the reply has been received.
+	 * If successful, look at the reply keyword/value pairs and extract the relevant data, updating the
+	 *    sessionData as necessary.
+	 * @see #logger
 	 */
-	public void run()
+	protected void parseResults()
 	{
-		commandString = new String(COMMAND_NAME+" "+sessionData.getServiceId());
-		super.run();
 		// diddly results
+		reply = null;
 		if(getSuccessful())
 		{
 			try
 			{
-				time = getReplyValueInt("Time");// in seconds
+				reply = WhenReply.decode(getParsedReply());
+				time = reply.getTime();// in seconds
 				sessionData.setProperty(".when.time",""+time);
-				currentService = getReplyValue("Current");
+				currentService = reply.getCurrentService();
 				sessionData.setProperty(".when.current_service",currentService);
-				logger.log(INFO, 1, CLASS, RCSID,"run","When successful with time : "+time+
-				   " seconds and current service : "+currentService+".");
+				logger.log(INFO, 1, CLASS, RCSID,"parseResults","When successful with "+reply+".");
 			}
 			catch(NGATPropertyException e)
 			{
 				successful = false;
 				errorString = new String(this.getClass().getName()+
-							 ":run:Parsing WHEN results failed:"+e);
-				logger.log(INFO, 1, CLASS, RCSID,"run",errorString);
+							 ":parseResults:Parsing WHEN results failed:"+e);
+				logger.log(INFO, 1, CLASS, RCSID,"parseResults",errorString);
 				logger.dumpStack(1,e);
 				return;
 			}
 		}
 		else
 		{
-			logger.log(INFO, 1, CLASS, RCSID,"run","When failed with error : "+getErrorString()+".");
+			logger.log(INFO, 1, CLASS, RCSID,"parseResults","When failed with error : "+getErrorString()+".");
 		}
 	}
 
+	/**
+	 * Return the typed results of the last successful WHEN.
+	 * @return The results, or null if the last WHEN failed (or none has been sent).
+	 * @see #reply
+	 */
+	public WhenReply getReply()
+	{
+		return reply;
+	}
+
 	/**
 	 * Return the number of seconds before this service can take control of the telescope.
 	 * @return A time in seconds.
@@ -0,0 +1,123 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// WhenReply.java
+// $Header$
+package org.estar.toop;
+
+import ngat.util.*;
+
+/**
+ * The results of a WHEN command. Immutable, decoded from the reply in one pass.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see When#getReply
+ */
+public class WhenReply
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The number of seconds until a HELO with the session's service ID will succeed.
+	 */
+	private final int time;
+	/**
+	 * The service currently using the telescope, or null if none was returned.
+	 */
+	private final String currentService;
+
+	/**
+	 * Constructor.
+	 * @param time The number of seconds until a HELO will succeed.
+	 * @param currentService The current service.
+	 */
+	public WhenReply(int time,String currentService)
+	{
+		super();
+		this.time = time;
+		this.currentService = currentService;
+	}
+
+	/**
+	 * Decode a WHEN reply, of the form:
+	 * <pre>
+	 * OK Time=12, Current=None
+	 * </pre>
+	 * The keyword/value pairs are examined once, in order. The Current keyword is optional.
+	 * @param reply The parsed reply.
+	 * @return The decoded reply.
+	 * @exception NGATPropertyException Thrown if the Time keyword is missing, or is not a valid int.
+	 */
+	static WhenReply decode(TOCSReply reply) throws NGATPropertyException
+	{
+		String currentService = null;
+		int time = 0;
+		int i;
+		boolean timeFound;
+
+		timeFound = false;
+		for(i = 0; i < reply.getPairCount(); i++)
+		{
+			if(reply.keywordEquals(i,"Time"))
+			{
+				time = reply.getInt(i);
+				timeFound = true;
+			}
+			else if(reply.keywordEquals(i,"Current"))
+				currentService = reply.getValue(i);
+		}
+		if(timeFound == false)
+			throw reply.createMissingKeywordException("Time");
+		return new WhenReply(time,currentService);
+	}
+
+	/**
+	 * Get the number of seconds until a HELO with the session's service ID will succeed.
+	 * @return The time in seconds.
+	 * @see #time
+	 */
+	public int getTime()
+	{
+		return time;
+	}
+
+	/**
+	 * Get the service currently using the telescope.
+	 * @return The current service, or null if none was returned.
+	 * @see #currentService
+	 */
+	public String getCurrentService()
+	{
+		return currentService;
+	}
+
+	/**
+	 * Return a string representation of the reply.
+	 * @return The reply, as a string.
+	 */
+	public String toString()
+	{
+		return "time : "+time+" seconds current service : "+currentService;
+	}
+}
+/*
+** $Log$
+*/
@@ -0,0 +1,231 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// MockTOCSServer.java
+// $Header$
+package org.estar.toop.test;
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A mock TOCS server, for testing without an RCS. Each connection is handled by it's own thread, and every
+ * command line is replied to with OK (plus any results the command needs), after a delay depending on the
+ * command. The number of command lines received is counted.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TestFrameCache
+ * @see TestStepExecutor
+ */
+public class MockTOCSServer extends Thread
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * How long to take to reply to commands other than SLEW, INSTR and EXPOSE, in milliseconds.
+	 */
+	public final static int DEFAULT_TIME = 100;
+	/**
+	 * The server socket, on any free port.
+	 */
+	protected ServerSocket serverSocket = null;
+	/**
+	 * How long to take to reply to a SLEW, in milliseconds.
+	 */
+	protected int slewTime = 0;
+	/**
+	 * How long to take to reply to an INSTR, in milliseconds.
+	 */
+	protected int instrTime = 0;
+	/**
+	 * How long to take to reply to an EXPOSE, in milliseconds.
+	 */
+	protected int exposeTime = 0;
+	/**
+	 * The number of command lines received.
+	 */
+	protected final AtomicInteger commandCount = new AtomicInteger(0);
+
+	/**
+	 * Constructor. Opens the server socket.
+	 * @param slewTime How long to take to reply to a SLEW, in milliseconds.
+	 * @param instrTime How long to take to reply to an INSTR, in milliseconds.
+	 * @param exposeTime How long to take to reply to an EXPOSE, in milliseconds.
+	 * @exception IOException Thrown if the server socket cannot be opened.
+	 */
+	public MockTOCSServer(int slewTime,int instrTime,int exposeTime) throws IOException
+	{
+		super("MockTOCSServer");
+		setDaemon(true);
+		this.slewTime = slewTime;
+		this.instrTime = instrTime;
+		this.exposeTime = exposeTime;
+		serverSocket = new ServerSocket(0);
+	}
+
+	/**
+	 * Get the port the server is listening on.
+	 * @return The port.
+	 */
+	public int getPort()
+	{
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Get the number of command lines received.
+	 * @return The number of command lines.
+	 * @see #commandCount
+	 */
+	public int getCommandCount()
+	{
+		return commandCount.get();
+	}
+
+	/**
+	 * Close the server socket, stopping the server.
+	 */
+	public void close()
+	{
+		try
+		{
+			serverSocket.close();
+		}
+		catch(IOException e)
+		{
+		}
+	}
+
+	/**
+	 * Accept connections until the server socket is closed, and start a thread to handle each one.
+	 * @see #startHandler
+	 */
+	public void run()
+	{
+		try
+		{
+			while(true)
+			{
+				startHandler(serverSocket.accept());
+			}
+		}
+		catch(IOException e)
+		{
+			// server socket closed
+		}
+	}
+
+	/**
+	 * Start a thread to handle a connection.
+	 * @param socket The connection.
+	 * @see #handle
+	 */
+	protected void startHandler(final Socket socket)
+	{
+		Thread thread = null;
+
+		thread = new Thread("MockTOCSServer connection")
+			{
+				public void run()
+				{
+					handle(socket);
+				}
+			};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Reply to each command line sent down a connection, until it is closed.
+	 * @param socket The connection.
+	 */
+	protected void handle(Socket socket)
+	{
+		BufferedReader reader = null;
+		PrintWriter writer = null;
+		String line = null;
+		String reply = null;
+
+		try
+		{
+			reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			writer = new PrintWriter(socket.getOutputStream(),true);
+			while((line = reader.readLine()) != null)
+			{
+				if(line.startsWith("SLEW"))
+				{
+					Thread.sleep(slewTime);
+					reply = "OK ";
+				}
+				else if(line.startsWith("INSTR"))
+				{
+					Thread.sleep(instrTime);
+					reply = "OK ";
+				}
+				else if(line.startsWith("EXPOSE"))
+				{
+					Thread.sleep(exposeTime);
+					reply = "OK file1=test.fits, seeing=1.5, counts=100, photom=-999.0, "+
+						"skybright=99.0, xpix=1.0, ypix=2.0";
+				}
+				else if(line.startsWith("HELO"))
+				{
+					Thread.sleep(DEFAULT_TIME);
+					reply = "OK sessionID=000001, sessionLimit=3600, timeRemaining=3600, priority=2";
+				}
+				else if(line.startsWith("WHEN"))
+				{
+					Thread.sleep(DEFAULT_TIME);
+					reply = "OK Time=0, Current=None";
+				}
+				else if(line.startsWith("POSITION"))
+				{
+					Thread.sleep(DEFAULT_TIME);
+					reply = "OK alt=45.5, az=120.25, rise=0, set=3600, moon=33.1, cat=RISER, "+
+						"state=RISEN";
+				}
+				else
+				{
+					Thread.sleep(DEFAULT_TIME);
+					reply = "OK ";
+				}
+				writer.println(reply);
+			}
+		}
+		catch(Exception e)
+		{
+		}
+		finally
+		{
+			try
+			{
+				socket.close();
+			}
+			catch(IOException e)
+			{
+			}
+		}
+	}
+}
+/*
+** $Log$
+*/
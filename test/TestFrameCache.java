@@ -0,0 +1,247 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TestFrameCache.java
+// $Header$
+package org.estar.toop.test;
+
+import ngat.util.logging.*;
+
+import org.estar.toop.*;
+
+/**
+ * This class checks the command frame cache, against a mock TOCS server run in the same JVM.
+ * A poll loop of WHEN commands should encode the WHEN frame once and resend it, even though each WHEN
+ * stores it's reply in the session data. Changing the service ID should encode a new frame.
+ * Likewise STOP should reuse it's frame across a POSITION, but not across a HELO returning a new session ID.
+ * The exit value is 0 if every check passes, and 1 otherwise.
+ * <pre>
+ * java org.estar.toop.test.TestFrameCache [-log] [-help]
+ * </pre>
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see org.estar.toop.TOCCommand#getCommandFrame
+ * @see org.estar.toop.TOCSessionData#getFrameVersion
+ */
+public class TestFrameCache
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Whether to log the commands.
+	 */
+	protected boolean log = false;
+	/**
+	 * The mock TOCS server.
+	 */
+	protected MockTOCSServer server = null;
+	/**
+	 * The session data the commands use.
+	 */
+	protected TOCSessionData sessionData = null;
+	/**
+	 * The number of checks that failed.
+	 */
+	protected int failureCount = 0;
+
+	/**
+	 * Default constructor.
+	 */
+	public TestFrameCache()
+	{
+		super();
+	}
+
+	/**
+	 * Parse arguments.
+	 * @see #log
+	 */
+	public void parseArguments(String args[])
+	{
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("-help"))
+			{
+				help();
+				System.exit(0);
+			}
+			else if(args[i].equals("-log"))
+			{
+				log = true;
+			}
+			else
+			{
+				System.err.println(this.getClass().getName()+":parseArguments:Unknown Argument"+
+						   args[i]);
+				System.exit(1);
+			}
+		}
+	}
+
+	/**
+	 * Prints out command line arguments.
+	 */
+	public void help()
+	{
+		System.out.println("java org.estar.toop.test.TestFrameCache [-log] [-help]");
+	}
+
+	/**
+	 * Initialise loggers, if log is set. Uses TOCSession's initLoggers method.
+	 * @see #log
+	 */
+	public void initLoggers()
+	{
+		ConsoleLogHandler console = null;
+
+		if(log == false)
+			return;
+		console = new ConsoleLogHandler(new BasicLogFormatter(150));
+		console.setLogLevel(Logging.ALL);
+		TOCSession.initLoggers(console,Logging.ALL);
+	}
+
+	/**
+	 * run method.
+	 * <ul>
+	 * <li>Starts the mock TOCS server, and sets up the session data to use it.
+	 * <li>Runs two WHENs, and checks the second reuses the first's frame.
+	 * <li>Changes the service ID, runs a WHEN, and checks a new frame was encoded.
+	 * <li>Runs STOP, POSITION, STOP, and checks the second STOP reuses the first's frame.
+	 * <li>Runs HELO (which sets a new session ID) then STOP, and checks a new frame was encoded.
+	 * <li>Stops the mock TOCS server.
+	 * </ul>
+	 * @return true if every check passed.
+	 * @see #server
+	 * @see #runCommand
+	 * @see #check
+	 */
+	public boolean run() throws Exception
+	{
+		Position position = null;
+		byte whenFrame[] = null;
+		byte stopFrame[] = null;
+
+		server = new MockTOCSServer(0,0,0);
+		server.start();
+		try
+		{
+			sessionData = new TOCSessionData();
+			sessionData.setTOCSHost("localhost");
+			sessionData.setTOCAHostPort(server.getPort());
+			sessionData.setServiceId("TestFrameCache");
+			sessionData.setSessionId("000000");
+			// WHEN poll loop
+			whenFrame = runCommand(new When()).getCommandFrame();
+			check("first WHEN encoded a frame",whenFrame != null);
+			check("second WHEN reused the frame",runCommand(new When()).getCommandFrame() == whenFrame);
+			check("third WHEN reused the frame",runCommand(new When()).getCommandFrame() == whenFrame);
+			sessionData.setServiceId("TestFrameCache2");
+			check("WHEN after a service ID change encoded a new frame",
+			      runCommand(new When()).getCommandFrame() != whenFrame);
+			// STOP across a POSITION and a HELO
+			stopFrame = runCommand(new Stop()).getCommandFrame();
+			position = new Position();
+			position.setRA("01:02:03");
+			position.setDec("+45:56:01");
+			runCommand(position);
+			check("STOP after POSITION reused the frame",runCommand(new Stop()).getCommandFrame() == stopFrame);
+			runCommand(new Helo());
+			check("STOP after HELO (new session ID) encoded a new frame",
+			      runCommand(new Stop()).getCommandFrame() != stopFrame);
+		}
+		finally
+		{
+			server.close();
+		}
+		return (failureCount == 0);
+	}
+
+	/**
+	 * Run a command against the mock TOCS server.
+	 * @param command The command.
+	 * @return The command.
+	 * @exception Exception Thrown if the command fails.
+	 * @see #sessionData
+	 */
+	protected TOCCommand runCommand(TOCCommand command) throws Exception
+	{
+		command.setSessionData(sessionData);
+		command.run();
+		if(command.getSuccessful() == false)
+			throw new Exception("Command "+command.getClass().getName()+" failed:"+command.getErrorString());
+		return command;
+	}
+
+	/**
+	 * Print the result of a check, counting failures.
+	 * @param description What was checked.
+	 * @param passed Whether the check passed.
+	 * @see #failureCount
+	 */
+	protected void check(String description,boolean passed)
+	{
+		if(passed)
+			System.out.println("PASSED: "+description);
+		else
+		{
+			System.out.println("FAILED: "+description);
+			failureCount++;
+		}
+	}
+
+	/**
+	 * main method of test program.
+	 * <ul>
+	 * <li>Construct test.
+	 * <li>Calls TestFrameCache's parseArguments.
+	 * <li>Calls TestFrameCache's initLoggers.
+	 * <li>Calls TestFrameCache's run.
+	 * </ul>
+	 * The exit value is 1 if a check failed.
+	 * @see #parseArguments
+	 * @see #initLoggers
+	 * @see #run
+	 */
+	public static void main(String args[])
+	{
+		TestFrameCache testFrameCache = null;
+		boolean passed = false;
+
+		try
+		{
+			testFrameCache = new TestFrameCache();
+			testFrameCache.parseArguments(args);
+			testFrameCache.initLoggers();
+			passed = testFrameCache.run();
+		}
+		catch(Exception e)
+		{
+			System.err.println("TestFrameCache:main:"+e);
+			e.printStackTrace();
+			System.exit(1);
+		}
+		System.exit(passed ? 0 : 1);
+	}
+}
+/*
+** $Log$
+*/
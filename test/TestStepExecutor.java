@@ -0,0 +1,356 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.toop.
+
+    org.estar.toop is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.toop is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.toop; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TestStepExecutor.java
+// $Header$
+package org.estar.toop.test;
+
+import ngat.util.logging.*;
+
+import org.estar.toop.*;
+
+/**
+ * This class tests TOCStepExecutor, against a mock TOCS server run in the same JVM (so no RCS is needed).
+ * The mock server replies OK to every command after a delay (SLEW takes slew_time, INSTR instr_time, 
+ * EXPOSE exposure_length, everything else 100 ms). A typical follow-up (POSITION, HELO, INIT, then SLEW and 
+ * INSTR, then EXPOSE, STOP and QUIT) is run twice: first with resource locking disabled, where INSTR waits
+ * for the SLEW to finish, then with it enabled, where INSTR configures the instrument while the telescope
+ * slews. The time each step was sent and finished is printed, so the overlap can be seen, and checked:
+ * with resource locking disabled the SLEW and INSTR must not overlap, with it enabled the INSTR must be sent
+ * before the SLEW finishes, they must overlap, and the follow-up must finish sooner than the serialized one.
+ * The exit value is 0 if every check passes, and 1 otherwise.
+ * <pre>
+ * java org.estar.toop.test.TestStepExecutor [-slew_time &lt;milliseconds&gt;] [-instr_time &lt;milliseconds&gt;]
+ *      [-exposure_length &lt;milliseconds&gt;] [-log] [-help]
+ * </pre>
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see org.estar.toop.TOCStepExecutor
+ * @see MockTOCSServer
+ */
+public class TestStepExecutor
+{
+	/**
+	 * Revision control system version id.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * How long the mock TOCS server takes to reply to a SLEW, in milliseconds.
+	 */
+	protected int slewTime = 3000;
+	/**
+	 * How long the mock TOCS server takes to reply to an INSTR, in milliseconds.
+	 */
+	protected int instrTime = 2000;
+	/**
+	 * Exposure length, also how long the mock TOCS server takes to reply to an EXPOSE, in milliseconds.
+	 */
+	protected int exposureLength = 1000;
+	/**
+	 * Whether to log the session's commands.
+	 */
+	protected boolean log = false;
+	/**
+	 * The mock TOCS server.
+	 */
+	protected MockTOCSServer server = null;
+	/**
+	 * The number of checks that failed.
+	 */
+	protected int failureCount = 0;
+
+	/**
+	 * Default constructor.
+	 */
+	public TestStepExecutor()
+	{
+		super();
+	}
+
+	/**
+	 * Parse arguments.
+	 * @exception NumberFormatException Thrown if numeric parsing fails.
+	 * @see #slewTime
+	 * @see #instrTime
+	 * @see #exposureLength
+	 * @see #log
+	 */
+	public void parseArguments(String args[]) throws NumberFormatException
+	{
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("-exposure_length"))
+			{
+				if((i+1) < args.length)
+				{
+					exposureLength = Integer.parseInt(args[i+1]);
+					i++;
+				}
+				else
+				{
+					System.err.println(this.getClass().getName()+
+							   ":parseArguments:exposure length needs an integer argument.");
+					System.exit(3);
+				}
+			}
+			else if(args[i].equals("-help"))
+			{
+				help();
+				System.exit(0);
+			}
+			else if(args[i].equals("-instr_time"))
+			{
+				if((i+1) < args.length)
+				{
+					instrTime = Integer.parseInt(args[i+1]);
+					i++;
+				}
+				else
+				{
+					System.err.println(this.getClass().getName()+
+							   ":parseArguments:instr time needs an integer argument.");
+					System.exit(3);
+				}
+			}
+			else if(args[i].equals("-log"))
+			{
+				log = true;
+			}
+			else if(args[i].equals("-slew_time"))
+			{
+				if((i+1) < args.length)
+				{
+					slewTime = Integer.parseInt(args[i+1]);
+					i++;
+				}
+				else
+				{
+					System.err.println(this.getClass().getName()+
+							   ":parseArguments:slew time needs an integer argument.");
+					System.exit(3);
+				}
+			}
+			else
+			{
+				System.err.println(this.getClass().getName()+":parseArguments:Unknown Argument"+
+						   args[i]);
+				System.exit(1);
+			}
+		}
+	}
+
+	/**
+	 * Prints out command line arguments.
+	 */
+	public void help()
+	{
+		System.out.println("java org.estar.toop.test.TestStepExecutor [-slew_time <milliseconds>]");
+		System.out.println("\t[-instr_time <milliseconds>] [-exposure_length <milliseconds>] [-log] [-help]");
+	}
+
+	/**
+	 * Initialise loggers, if log is set. Uses TOCSession's initLoggers method.
+	 * @see #log
+	 */
+	public void initLoggers()
+	{
+		ConsoleLogHandler console = null;
+
+		if(log == false)
+			return;
+		console = new ConsoleLogHandler(new BasicLogFormatter(150));
+		console.setLogLevel(Logging.ALL);
+		TOCSession.initLoggers(console,Logging.ALL);
+	}
+
+	/**
+	 * run method.
+	 * <ul>
+	 * <li>Starts the mock TOCS server.
+	 * <li>Runs the follow-up with resource locking disabled.
+	 * <li>Runs the follow-up with resource locking enabled.
+	 * <li>Checks the follow-up with resource locking enabled was quicker.
+	 * <li>Stops the mock TOCS server.
+	 * </ul>
+	 * @return true if every check passed.
+	 * @see #server
+	 * @see #runFollowUp
+	 * @see #check
+	 */
+	public boolean run() throws Exception
+	{
+		long serializedTime,overlappedTime;
+
+		server = new MockTOCSServer(slewTime,instrTime,exposureLength);
+		server.start();
+		try
+		{
+			serializedTime = runFollowUp(false);
+			overlappedTime = runFollowUp(true);
+			System.out.println("Serialized: "+serializedTime+" ms, overlapped: "+overlappedTime+
+					   " ms, saved: "+(serializedTime-overlappedTime)+" ms.");
+			check("follow-up with resource locking was quicker than without",
+			      overlappedTime < serializedTime);
+		}
+		finally
+		{
+			server.close();
+		}
+		return (failureCount == 0);
+	}
+
+	/**
+	 * Run a follow-up against the mock TOCS server using a TOCStepExecutor, print the step timings, and
+	 * check whether the SLEW and INSTR overlapped. The SLEW and INSTR steps are both given to the session 
+	 * once INIT has finished, so they overlapped if the time from then until the last of them finished
+	 * is less than slewTime plus instrTime.
+	 * @param resourceLocking Whether to enable resource locking in the session data.
+	 * @return The time the follow-up took, in milliseconds.
+	 * @exception TOCException Thrown if a step fails.
+	 * @see #server
+	 * @see #check
+	 */
+	public long runFollowUp(boolean resourceLocking) throws TOCException
+	{
+		TOCSession session = null;
+		TOCSessionData sessionData = null;
+		TOCStepExecutor executor = null;
+		Position position = null;
+		Slew slew = null;
+		Instr instr = null;
+		Expose expose = null;
+		TOCStepExecutor.Step slewStep = null;
+		TOCStepExecutor.Step instrStep = null;
+		long startTime,time,slewInstrTime;
+
+		sessionData = new TOCSessionData();
+		sessionData.setTOCSHost("localhost");
+		sessionData.setTOCAHostPort(server.getPort());
+		sessionData.setServiceId("TestStepExecutor");
+		sessionData.setTOCSConnectionPooling(true);
+		sessionData.setResourceLocking(resourceLocking);
+		session = new TOCSession();
+		session.setSessionData(sessionData);
+		// target
+		position = new Position();
+		position.setRA("01:02:03");
+		position.setDec("+45:56:01");
+		slew = new Slew();
+		slew.setSourceId("test");
+		slew.setRA("01:02:03");
+		slew.setDec("+45:56:01");
+		instr = new Instr();
+		instr.setInstId("RATCAM");
+		instr.setLowerFilter("SDSS-R");
+		instr.setUpperFilter("clear");
+		instr.setXBinning(2);
+		instr.setYBinning(2);
+		expose = new Expose();
+		expose.setExposureLength(exposureLength);
+		expose.setExposureCount(1);
+		expose.setDataPipelineFlag(true);
+		// steps
+		executor = new TOCStepExecutor(session);
+		executor.addStep("position",position);
+		executor.addStep("helo",new Helo());
+		executor.addStep("init",new Init(),new String[] {"helo"});
+		executor.addStep("slew",slew,new String[] {"init"});
+		executor.addStep("instr",instr,new String[] {"init"});
+		executor.addStep("expose",expose,new String[] {"slew","instr"});
+		executor.addStep("stop",new Stop(),new String[] {"expose"});
+		executor.addStep("quit",new Quit(),new String[] {"stop"});
+		startTime = System.currentTimeMillis();
+		executor.run();
+		time = System.currentTimeMillis()-startTime;
+		System.out.println("Resource locking "+resourceLocking+":");
+		for(int i = 0; i < executor.getStepCount(); i++)
+			System.out.println("\t"+executor.getStep(i));
+		System.out.println("\tTotal: "+time+" ms.");
+		slewStep = executor.getStep("slew");
+		instrStep = executor.getStep("instr");
+		slewInstrTime = Math.max(slewStep.getFinishTime(),instrStep.getFinishTime())-
+			Math.min(slewStep.getStartTime(),instrStep.getStartTime());
+		if(resourceLocking)
+		{
+			check("INSTR was sent before the SLEW finished",
+			      instrStep.getStartTime() < slewStep.getFinishTime());
+			check("SLEW and INSTR overlapped ("+slewInstrTime+" ms)",slewInstrTime < (slewTime+instrTime));
+		}
+		else
+		{
+			check("SLEW and INSTR were serialized ("+slewInstrTime+" ms)",
+			      slewInstrTime >= (slewTime+instrTime));
+		}
+		return time;
+	}
+
+	/**
+	 * Print the result of a check, counting failures.
+	 * @param description What was checked.
+	 * @param passed Whether the check passed.
+	 * @see #failureCount
+	 */
+	protected void check(String description,boolean passed)
+	{
+		if(passed)
+			System.out.println("PASSED: "+description);
+		else
+		{
+			System.out.println("FAILED: "+description);
+			failureCount++;
+		}
+	}
+
+	/**
+	 * main method of test program.
+	 * <ul>
+	 * <li>Construct test.
+	 * <li>Calls TestStepExecutor's parseArguments.
+	 * <li>Calls TestStepExecutor's initLoggers.
+	 * <li>Calls TestStepExecutor's run.
+	 * </ul>
+	 * The exit value is 1 if a check failed.
+	 * @see #parseArguments
+	 * @see #initLoggers
+	 * @see #run
+	 */
+	public static void main(String args[])
+	{
+		TestStepExecutor testStepExecutor = null;
+		boolean passed = false;
+
+		try
+		{
+			testStepExecutor = new TestStepExecutor();
+			testStepExecutor.parseArguments(args);
+			testStepExecutor.initLoggers();
+			passed = testStepExecutor.run();
+		}
+		catch(Exception e)
+		{
+			System.err.println("TestStepExecutor:main:"+e);
+			e.printStackTrace();
+			System.exit(1);
+		}
+		System.exit(passed ? 0 : 1);
+	}
+}
+/*
+** $Log$
+*/